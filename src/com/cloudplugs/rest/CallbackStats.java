@@ -0,0 +1,92 @@
+package com.cloudplugs.rest;
+
+/*<license>
+Copyright 2014 CloudPlugs Inc.
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+</license>*/
+
+/**
+ * @brief Timing statistics of the callbacks of a {@link RestBaseManager}, comparing the time spent waiting for the
+ * network with the time spent in the user callbacks. All times are in nanoseconds.
+ * This class is thread-safe.
+ */
+public class CallbackStats
+{
+	/**
+	 * @return the number of completed callbacks
+	 */
+	public synchronized long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return the total time from handing the requests to the transport until receiving their responses
+	 */
+	public synchronized long getNetworkTime() {
+		return network;
+	}
+
+	/**
+	 * @return the total time from receiving the responses until their callbacks started
+	 */
+	public synchronized long getQueueTime() {
+		return queue;
+	}
+
+	/**
+	 * @return the total time spent in the callbacks
+	 */
+	public synchronized long getCallbackTime() {
+		return callback;
+	}
+
+	/**
+	 * @return the longest time spent in a single callback
+	 */
+	public synchronized long getMaxCallbackTime() {
+		return maxCallback;
+	}
+
+	/**
+	 * Set all statistics to zero.
+	 */
+	public synchronized void reset() {
+		count = network = queue = callback = maxCallback = 0;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "callbacks="+count+" network="+network/1000000+"ms queue="+queue/1000000+"ms callback="+callback/1000000+
+		       "ms maxCallback="+maxCallback/1000000+"ms";
+	}
+
+	synchronized void add(long network, long queue, long callback) {
+		++count;
+		this.network  += network;
+		this.queue    += queue;
+		this.callback += callback;
+		if(callback > maxCallback) maxCallback = callback;
+	}
+
+	private long count       = 0;
+	private long network     = 0;
+	private long queue       = 0;
+	private long callback    = 0;
+	private long maxCallback = 0;
+}
@@ -34,7 +34,8 @@ public class Const
 	public static final boolean DEFAULT_MASTER   = false;
 	public static final int     DEFAULT_TIMEOUT  = 60;
 
-	public static final int ERR_CONN = -1;
+	public static final int ERR_CONN      = -1;
+	public static final int ERR_TOO_LARGE = -2;
 
 	public static final String HEADER_PLUGID = "X-Plug-Id";
 	public static final String HEADER_EMAIL  = "X-Plug-Email";
@@ -0,0 +1,318 @@
+package com.cloudplugs.rest;
+
+/*<license>
+Copyright 2014 CloudPlugs Inc.
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+</license>*/
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import com.cloudplugs.util.*;
+
+/**
+ * @brief The execution of an operation over many identifiers, split into chunks.
+ * The identifiers are split into chunks of balanced sizes, differing by one identifier at most, and at most
+ * <tt>concurrency</tt> chunks are pending, that is enqueued and not completed yet: as soon as a chunk completes, the
+ * next one is enqueued.
+ * Whether the pending chunks actually run in parallel depends on the spooler executing them: the default one executes
+ * one request at a time, while a client created by {@link RestClient#RestClient(java.util.concurrent.Executor, int)}
+ * executes up to its concurrency at once.
+ * When all chunks have completed, the responses are merged into a single aggregate {@link Response}, whose status is the
+ * status shared by the outcomes of all identifiers or {@link Response#STATUS_MULTI} if they differ, and whose body is a
+ * JSON array with an object for every chunk, in the same order of the given identifiers:
+ * <tt>{"ids":[...],"status":...,"body":...}</tt>, where a body which is not JSON, like the stack trace of a connection
+ * error, is a JSON string.
+ * The outcome of every single identifier, with its own status, is available by {@link #getResponseOf(int)}.
+ * See {@link RestManager#execUnenroll(String[], int, int, RestCallback)} and the similar methods of {@link RestManager}.
+ */
+public class FanOut
+{
+	/** The default maximum number of identifiers in a chunk. */
+	public static final int DEF_CHUNK_SIZE  = 100;
+	/** The default maximum number of pending chunks. */
+	public static final int DEF_CONCURRENCY = 4;
+
+	/**
+	 * @brief The operation to execute on every chunk of identifiers.
+	 */
+	public interface Task
+	{
+		/**
+		 * Enqueue the asynchronous request of the operation on a chunk of identifiers.
+		 * @param ids the identifiers of the chunk
+		 * @param cb the callback receiving the response
+		 * @return the identifier of the asynchronous execution
+		 */
+		public int exec(String[] ids, RestCallback cb);
+	}
+
+	/**
+	 * Split the identifiers into chunks and start enqueueing them.
+	 * @param ids the identifiers to process
+	 * @param chunkSize the maximum number of identifiers in every chunk, 0 for {@link #DEF_CHUNK_SIZE}
+	 * @param concurrency the maximum number of pending chunks, 0 for {@link #DEF_CONCURRENCY}
+	 * @param task the operation to execute on every chunk
+	 * @param cb if not null, the callback will receive the Request of the first chunk and the aggregate Response
+	 * @throws IllegalArgumentException for empty <tt>ids</tt> or negative sizes
+	 */
+	public FanOut(String[] ids, int chunkSize, int concurrency, Task task, RestCallback cb) {
+		if(ids  == null) throw new NullPointerException("null ids");
+		if(task == null) throw new NullPointerException("null task");
+		if(ids.length == 0) throw new IllegalArgumentException("empty ids");
+		if(chunkSize<0 || concurrency<0) throw new IllegalArgumentException("negative size");
+		if(chunkSize   == 0) chunkSize   = DEF_CHUNK_SIZE;
+		if(concurrency == 0) concurrency = DEF_CONCURRENCY;
+		int n = ids.length;
+		int nChunks = (n + chunkSize - 1) / chunkSize;
+		// the first n%nChunks chunks hold one identifier more than the others
+		int base  = n / nChunks;
+		int extra = n % nChunks;
+		this.ids       = ids.clone();
+		this.task      = task;
+		this.cb        = cb;
+		this.chunkSize = extra==0 ? base : base+1;
+		this.chunks    = new Chunk[nChunks];
+		this.responses = new Response[n];
+		for(int i=0, start=0; i<nChunks; ++i) {
+			int end = start + (i<extra ? base+1 : base);
+			chunks[i] = new Chunk(start, end);
+			start = end;
+		}
+		due = Math.min(concurrency, nChunks);
+		startChunks();
+	}
+
+	/**
+	 * @return the number of identifiers
+	 */
+	public int size() {
+		return ids.length;
+	}
+
+	/**
+	 * @return the number of chunks the identifiers have been split into
+	 */
+	public int getChunks() {
+		return chunks.length;
+	}
+
+	/**
+	 * @return the maximum number of identifiers in a chunk, the other chunks hold one identifier less
+	 */
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * @return true if all chunks have been completed
+	 */
+	public synchronized boolean isDone() {
+		return response != null;
+	}
+
+	/**
+	 * @return the aggregate response or null if not all chunks have been completed
+	 */
+	public synchronized Response getResponse() {
+		return response;
+	}
+
+	/**
+	 * @param index the index of an identifier in the array given to the constructor
+	 * @return the outcome for the identifier at <tt>index</tt> or null if its chunk has not been completed yet
+	 */
+	public synchronized Response getResponseOf(int index) {
+		return responses[index];
+	}
+
+	/**
+	 * @return a copy of the outcomes of all identifiers, in the same order of the identifiers given to the constructor;
+	 *         the elements of the chunks not completed yet are null
+	 */
+	public synchronized Response[] getResponses() {
+		return responses.clone();
+	}
+
+	/**
+	 * Wait for the completion of all chunks.
+	 * @param ms the maximum milliseconds to wait
+	 * @return true if all chunks have been completed
+	 */
+	public synchronized boolean waitForDone(long ms) {
+		long end = System.currentTimeMillis() + ms;
+		try {
+			while(response == null) {
+				long wait = end - System.currentTimeMillis();
+				if(wait <= 0) return false;
+				wait(wait);
+			}
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		return true;
+	}
+
+	// enqueue the chunks due, in a loop rather than by recursion: a chunk completing synchronously within its exec(),
+	// like when the task throws, only makes its successor due, and the loop already running starts it
+	private void startChunks() {
+		synchronized(this) {
+			if(starting) return;
+			starting = true;
+		}
+		boolean ok = false;
+		try {
+			for(;;) {
+				Chunk chunk;
+				synchronized(this) {
+					if(due==0 || next==chunks.length) {
+						starting = false;
+						ok = true;
+						return;
+					}
+					--due;
+					chunk = chunks[next++];
+				}
+				chunk.exec();
+			}
+		} finally {
+			if(!ok) {
+				synchronized(this) {
+					starting = false;
+				}
+			}
+		}
+	}
+
+	private void completed(Chunk chunk, Request request, Response res) {
+		Response aggregate;
+		synchronized(this) {
+			chunk.res = res;
+			split(chunk, res);
+			if(chunk.start == 0) first = request;
+			if(next < chunks.length) ++due;
+			aggregate = ++done==chunks.length ? response = merge() : null;
+			if(aggregate != null) notifyAll();
+		}
+		startChunks();
+		if(aggregate!=null && cb!=null) cb.on(first, aggregate);
+	}
+
+	// assign the outcome of every identifier of the chunk
+	private void split(Chunk chunk, Response res) {
+		int n = chunk.end - chunk.start;
+		Response[] multi = null;
+		if(res.isMultiple()) {
+			try {
+				multi = res.getMultiple();
+			} catch(RuntimeException e) {
+				multi = null;
+			}
+			if(multi!=null && multi.length!=n) multi = null;
+		}
+		for(int i=0; i<n; ++i)
+			responses[chunk.start + i] = multi==null ? res : multi[i];
+	}
+
+	private Response merge() {
+		int status = responses[0].getStatus();
+		for(int i=1, n=responses.length; i<n; ++i) {
+			if(responses[i].getStatus() != status) {
+				status = Response.STATUS_MULTI;
+				break;
+			}
+		}
+		StringBuilder sb = new StringBuilder(responses.length * 48);
+		sb.append('[');
+		for(int i=0, n=chunks.length; i<n; ++i) {
+			Chunk chunk = chunks[i];
+			if(i > 0) sb.append(',');
+			sb.append("{\"ids\":[");
+			for(int j=chunk.start; j<chunk.end; ++j) {
+				if(j > chunk.start) sb.append(',');
+				sb.append(JSONObject.quote(ids[j]));
+			}
+			sb.append("],\"status\":").append(chunk.res.getStatus()).append(",\"body\":");
+			String body = chunk.res.getBody();
+			if(body==null || body.length()==0) sb.append("null");
+			else sb.append(isJson(body) ? body : JSONObject.quote(body));
+			sb.append('}');
+		}
+		sb.append(']');
+		String msg = status==responses[0].getStatus() ? responses[0].getMsg() : "Multi-Status";
+		return new Response(status, msg, sb.toString());
+	}
+
+	// true if the whole string is a single JSON value, rejecting the unquoted strings tolerated by the parser
+	private static boolean isJson(String str) {
+		try {
+			JSONTokener tokener = new JSONTokener(str);
+			Object val = tokener.nextValue();
+			if(tokener.nextClean() != 0) return false;
+			return !(val instanceof String) || str.trim().charAt(0)=='"';
+		} catch(JSONException e) {
+			return false;
+		} catch(RuntimeException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @brief A chunk of identifiers, receiving the response of its request.
+	 */
+	private final class Chunk implements RestCallback {
+		Chunk(int start, int end) {
+			this.start = start;
+			this.end   = end;
+		}
+
+		void exec() {
+			String[] sub = new String[end - start];
+			System.arraycopy(ids, start, sub, 0, sub.length);
+			try {
+				task.exec(sub, this);
+			} catch(RuntimeException e) {
+				on(null, new Response(Const.ERR_CONN, e.getMessage(), PlugException.getStackTraceOf(e)));
+			}
+		}
+
+		@Override
+		public void on(Request request, Response response) {
+			completed(this, request, response);
+		}
+
+		final int start;
+		final int end;
+		Response  res;
+	}
+
+	private final String[]     ids;
+	private final Task         task;
+	private final RestCallback cb;
+	private final int          chunkSize;
+	private final Chunk[]      chunks;
+	private final Response[]   responses;
+	private int      next = 0;
+	private int      due;      // the chunks that can be enqueued, within the concurrency
+	private boolean  starting = false;
+	private int      done = 0;
+	private Request  first;
+	private Response response;
+}
@@ -0,0 +1,550 @@
+package com.cloudplugs.rest;
+
+/*<license>
+Copyright 2014 CloudPlugs Inc.
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+</license>*/
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * @brief HPACK header compression (RFC 7541) for {@link Http2Transport}.
+ * The encoder adds every header to the dynamic table, so the headers repeated by all the requests of a connection,
+ * like the authentication ones, are sent as a single byte after the first time.
+ * Strings are Huffman coded unless longer. Header names and values are handled as ISO-8859-1 strings.
+ * This class is for internal usage.
+ */
+final class Hpack
+{
+	private Hpack() {}
+
+	/** Default size in bytes of the dynamic table, until changed by the peer settings. */
+	static final int DEF_TABLE_SIZE = 4096;
+
+	/**
+	 * @brief The encoding context of a connection: it must be used by one thread at a time and the encoded blocks
+	 * must be sent in the same order as they are encoded.
+	 */
+	static final class Encoder {
+		/**
+		 * Apply the SETTINGS_HEADER_TABLE_SIZE of the peer, signaled at the beginning of the next encoded block.
+		 * @param max the maximum size in bytes of the dynamic table
+		 */
+		void setMaxTableSize(int max) {
+			if(max == table.getMaxSize() && !sizeChanged) return;
+			table.setMaxSize(max);
+			sizeChanged = true;
+		}
+
+		/**
+		 * Start a new header block.
+		 * @param out where the block is written
+		 */
+		void begin(ByteArrayOutputStream out) {
+			if(sizeChanged) {
+				sizeChanged = false;
+				writeInt(out, 0x20, 5, table.getMaxSize());
+			}
+		}
+
+		/**
+		 * Append a header to the current block.
+		 * @param out where the block is written
+		 * @param name the lowercase header name
+		 * @param value the header value
+		 */
+		void encode(ByteArrayOutputStream out, String name, String value) {
+			int index = table.find(name, value);
+			if(index > 0) {
+				writeInt(out, 0x80, 7, index);
+				return;
+			}
+			if(Table.sizeOf(name, value) <= table.getMaxSize()) {
+				writeInt(out, 0x40, 6, -index);
+				if(index == 0) writeString(out, name);
+				writeString(out, value);
+				table.add(name, value);
+			} else {
+				// never fits in the table: literal without indexing
+				writeInt(out, 0x00, 4, -index);
+				if(index == 0) writeString(out, name);
+				writeString(out, value);
+			}
+		}
+
+		Table getTable() {
+			return table;
+		}
+
+		private final Table   table       = new Table(DEF_TABLE_SIZE);
+		private       boolean sizeChanged = false;
+	}
+
+	/**
+	 * @brief The decoding context of a connection: it must decode the header blocks in the same order as received.
+	 */
+	static final class Decoder {
+		/**
+		 * @param maxTableSize the SETTINGS_HEADER_TABLE_SIZE announced to the peer
+		 */
+		Decoder(int maxTableSize) {
+			this.maxTableSize = maxTableSize;
+			this.table = new Table(maxTableSize);
+		}
+
+		/**
+		 * Decode a complete header block.
+		 * @param buf the buffer containing the block
+		 * @param off the offset of the block in <tt>buf</tt>
+		 * @param len the length in bytes of the block
+		 * @param headers where the decoded names and values are appended, alternated
+		 * @throws IOException on a compression error, which is fatal for the connection
+		 */
+		void decode(byte[] buf, int off, int len, List<String> headers) throws IOException {
+			pos = off;
+			end = off + len;
+			boolean first = true;
+			while(pos < end) {
+				int b = buf[pos] & 0xff;
+				if((b & 0x80) != 0) {
+					int index = readInt(buf, 7);
+					if(index == 0) throw new IOException("hpack: invalid index 0");
+					checkIndex(index);
+					headers.add(table.name(index));
+					headers.add(table.value(index));
+				} else if((b & 0x40) != 0) {
+					String[] field = readLiteral(buf, 6);
+					table.add(field[0], field[1]);
+					headers.add(field[0]);
+					headers.add(field[1]);
+				} else if((b & 0x20) != 0) {
+					// size updates are only allowed at the beginning of a block
+					if(!first) throw new IOException("hpack: misplaced table size update");
+					int size = readInt(buf, 5);
+					if(size > maxTableSize) throw new IOException("hpack: table size "+size+" exceeds "+maxTableSize);
+					table.setMaxSize(size);
+					continue;
+				} else {
+					// literal without indexing or never indexed
+					String[] field = readLiteral(buf, 4);
+					headers.add(field[0]);
+					headers.add(field[1]);
+				}
+				first = false;
+			}
+		}
+
+		Table getTable() {
+			return table;
+		}
+
+		private String[] readLiteral(byte[] buf, int prefix) throws IOException {
+			int index = readInt(buf, prefix);
+			String name;
+			if(index == 0) {
+				name = readString(buf);
+			} else {
+				checkIndex(index);
+				name = table.name(index);
+			}
+			return new String[]{ name, readString(buf) };
+		}
+
+		private void checkIndex(int index) throws IOException {
+			if(index > table.length()) throw new IOException("hpack: invalid index "+index);
+		}
+
+		private int readInt(byte[] buf, int prefix) throws IOException {
+			int mask = (1 << prefix) - 1;
+			int res = buf[pos++] & mask;
+			if(res < mask) return res;
+			for(int shift=0;; shift+=7) {
+				if(pos >= end) throw new IOException("hpack: truncated integer");
+				if(shift > 21) throw new IOException("hpack: integer overflow");
+				int b = buf[pos++] & 0xff;
+				res += (b & 0x7f) << shift;
+				if((b & 0x80) == 0) return res;
+			}
+		}
+
+		private String readString(byte[] buf) throws IOException {
+			if(pos >= end) throw new IOException("hpack: truncated string");
+			boolean huffman = (buf[pos] & 0x80) != 0;
+			int len = readInt(buf, 7);
+			if(len > end-pos) throw new IOException("hpack: truncated string");
+			String res = huffman ? Huffman.decode(buf, pos, len) : latin1(buf, pos, len);
+			pos += len;
+			return res;
+		}
+
+		private final int   maxTableSize;
+		private final Table table;
+		private int pos;
+		private int end;
+	}
+
+	/**
+	 * @brief The static table followed by the dynamic table of an encoding or decoding context.
+	 * Indexes are 1-based, the dynamic entries start after the static ones with the newest one.
+	 */
+	static final class Table {
+		Table(int maxSize) {
+			this.maxSize = maxSize;
+		}
+
+		static int sizeOf(String name, String value) {
+			return name.length() + value.length() + 32;
+		}
+
+		int getMaxSize() {
+			return maxSize;
+		}
+
+		int getSize() {
+			return size;
+		}
+
+		// number of valid indexes
+		int length() {
+			return STATIC_LENGTH + count;
+		}
+
+		void setMaxSize(int maxSize) {
+			this.maxSize = maxSize;
+			evict(0);
+		}
+
+		String name(int index) {
+			return index<=STATIC_LENGTH ? STATIC[(index-1)*2] : entry(index)[0];
+		}
+
+		String value(int index) {
+			return index<=STATIC_LENGTH ? STATIC[(index-1)*2+1] : entry(index)[1];
+		}
+
+		void add(String name, String value) {
+			int n = sizeOf(name, value);
+			if(n > maxSize) {
+				// an entry bigger than the table just empties it
+				evict(maxSize + 1);
+				return;
+			}
+			evict(n);
+			if(count == entries.length) {
+				String[][] bigger = new String[entries.length*2][];
+				for(int i=0; i<count; ++i)
+					bigger[i] = entries[(head+i) % entries.length];
+				entries = bigger;
+				head = 0;
+			}
+			head = (head - 1 + entries.length) % entries.length;
+			entries[head] = new String[]{ name, value };
+			++count;
+			size += n;
+		}
+
+		/**
+		 * @return the index of the entry matching both name and value, or the negated index of the first entry
+		 *         matching the name only, or 0
+		 */
+		int find(String name, String value) {
+			int byName = 0;
+			for(int i=0; i<STATIC_LENGTH; ++i) {
+				if(!STATIC[i*2].equals(name)) continue;
+				if(STATIC[i*2+1].equals(value)) return i+1;
+				if(byName == 0) byName = -(i+1);
+			}
+			for(int i=0; i<count; ++i) {
+				String[] e = entries[(head+i) % entries.length];
+				if(!e[0].equals(name)) continue;
+				if(e[1].equals(value)) return STATIC_LENGTH+1+i;
+				if(byName == 0) byName = -(STATIC_LENGTH+1+i);
+			}
+			return byName;
+		}
+
+		private String[] entry(int index) {
+			return entries[(head + index-STATIC_LENGTH-1) % entries.length];
+		}
+
+		// drop the oldest entries until there is room for <tt>more</tt> bytes
+		private void evict(int more) {
+			while(count>0 && size+more>maxSize) {
+				int last = (head+count-1) % entries.length;
+				String[] e = entries[last];
+				entries[last] = null;
+				--count;
+				size -= sizeOf(e[0], e[1]);
+			}
+		}
+
+		private String[][] entries = new String[16][];
+		private int head  = 0;
+		private int count = 0;
+		private int size  = 0;
+		private int maxSize;
+	}
+
+	/**
+	 * @brief The Huffman code of RFC 7541, Appendix B.
+	 */
+	static final class Huffman {
+		private Huffman() {}
+
+		static int length(String s) {
+			long bits = 0;
+			for(int i=0, n=s.length(); i<n; ++i)
+				bits += LENGTHS[octet(s.charAt(i))];
+			return (int)((bits + 7) >> 3);
+		}
+
+		static void encode(ByteArrayOutputStream out, String s) {
+			long acc  = 0;
+			int  bits = 0;
+			for(int i=0, n=s.length(); i<n; ++i) {
+				int c = octet(s.charAt(i));
+				int len = LENGTHS[c];
+				acc = (acc << len) | (CODES[c] & 0xffffffffL);
+				bits += len;
+				while(bits >= 8) {
+					bits -= 8;
+					out.write((int)(acc >> bits));
+				}
+				acc &= (1L << bits) - 1;
+			}
+			// pad with the most significant bits of the EOS code, all ones
+			if(bits > 0) out.write((int)((acc << (8-bits)) | (0xff >> bits)));
+		}
+
+		static String decode(byte[] buf, int off, int len) throws IOException {
+			int[] tree = Tree.NODES;
+			StringBuilder sb = new StringBuilder(len + len/2);
+			int node = 0;
+			int pending = 0;        // bits read since the last decoded symbol
+			boolean ones = true;    // whether those bits are all ones
+			for(int i=off, end=off+len; i<end; ++i) {
+				int b = buf[i] & 0xff;
+				for(int bit=7; bit>=0; --bit) {
+					int one = (b >> bit) & 1;
+					node = tree[node*2 + one];
+					++pending;
+					ones &= one == 1;
+					if(node < 0) {
+						int sym = ~node;
+						if(sym == EOS) throw new IOException("hpack: EOS in huffman string");
+						sb.append((char)sym);
+						node = 0;
+						pending = 0;
+						ones = true;
+					} else if(node == 0) {
+						throw new IOException("hpack: invalid huffman code");
+					}
+				}
+			}
+			if(pending>7 || !ones) throw new IOException("hpack: invalid huffman padding");
+			return sb.toString();
+		}
+
+		/**
+		 * @brief The decoding tree, built on first use: NODES[2*n+bit] is the next node, or the bitwise
+		 * complement of the decoded symbol.
+		 */
+		private static final class Tree {
+			static final int[] NODES = build();
+
+			private static int[] build() {
+				int[] nodes = new int[EOS*2 + 2];
+				int next = 1;
+				for(int sym=0; sym<=EOS; ++sym) {
+					int code = CODES[sym];
+					int node = 0;
+					for(int bit=LENGTHS[sym]-1; bit>0; --bit) {
+						int i = node*2 + ((code >>> bit) & 1);
+						if(nodes[i] == 0) nodes[i] = next++;
+						node = nodes[i];
+					}
+					nodes[node*2 + (code & 1)] = ~sym;
+				}
+				return nodes;
+			}
+		}
+
+		private static final int EOS = 256;
+
+		private static final int[] CODES = {
+			0x1ff8, 0x7fffd8, 0xfffffe2, 0xfffffe3, 0xfffffe4, 0xfffffe5, 0xfffffe6, 0xfffffe7,
+			0xfffffe8, 0xffffea, 0x3ffffffc, 0xfffffe9, 0xfffffea, 0x3ffffffd, 0xfffffeb, 0xfffffec,
+			0xfffffed, 0xfffffee, 0xfffffef, 0xffffff0, 0xffffff1, 0xffffff2, 0x3ffffffe, 0xffffff3,
+			0xffffff4, 0xffffff5, 0xffffff6, 0xffffff7, 0xffffff8, 0xffffff9, 0xffffffa, 0xffffffb,
+			0x14, 0x3f8, 0x3f9, 0xffa, 0x1ff9, 0x15, 0xf8, 0x7fa,
+			0x3fa, 0x3fb, 0xf9, 0x7fb, 0xfa, 0x16, 0x17, 0x18,
+			0x0, 0x1, 0x2, 0x19, 0x1a, 0x1b, 0x1c, 0x1d,
+			0x1e, 0x1f, 0x5c, 0xfb, 0x7ffc, 0x20, 0xffb, 0x3fc,
+			0x1ffa, 0x21, 0x5d, 0x5e, 0x5f, 0x60, 0x61, 0x62,
+			0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69, 0x6a,
+			0x6b, 0x6c, 0x6d, 0x6e, 0x6f, 0x70, 0x71, 0x72,
+			0xfc, 0x73, 0xfd, 0x1ffb, 0x7fff0, 0x1ffc, 0x3ffc, 0x22,
+			0x7ffd, 0x3, 0x23, 0x4, 0x24, 0x5, 0x25, 0x26,
+			0x27, 0x6, 0x74, 0x75, 0x28, 0x29, 0x2a, 0x7,
+			0x2b, 0x76, 0x2c, 0x8, 0x9, 0x2d, 0x77, 0x78,
+			0x79, 0x7a, 0x7b, 0x7ffe, 0x7fc, 0x3ffd, 0x1ffd, 0xffffffc,
+			0xfffe6, 0x3fffd2, 0xfffe7, 0xfffe8, 0x3fffd3, 0x3fffd4, 0x3fffd5, 0x7fffd9,
+			0x3fffd6, 0x7fffda, 0x7fffdb, 0x7fffdc, 0x7fffdd, 0x7fffde, 0xffffeb, 0x7fffdf,
+			0xffffec, 0xffffed, 0x3fffd7, 0x7fffe0, 0xffffee, 0x7fffe1, 0x7fffe2, 0x7fffe3,
+			0x7fffe4, 0x1fffdc, 0x3fffd8, 0x7fffe5, 0x3fffd9, 0x7fffe6, 0x7fffe7, 0xffffef,
+			0x3fffda, 0x1fffdd, 0xfffe9, 0x3fffdb, 0x3fffdc, 0x7fffe8, 0x7fffe9, 0x1fffde,
+			0x7fffea, 0x3fffdd, 0x3fffde, 0xfffff0, 0x1fffdf, 0x3fffdf, 0x7fffeb, 0x7fffec,
+			0x1fffe0, 0x1fffe1, 0x3fffe0, 0x1fffe2, 0x7fffed, 0x3fffe1, 0x7fffee, 0x7fffef,
+			0xfffea, 0x3fffe2, 0x3fffe3, 0x3fffe4, 0x7ffff0, 0x3fffe5, 0x3fffe6, 0x7ffff1,
+			0x3ffffe0, 0x3ffffe1, 0xfffeb, 0x7fff1, 0x3fffe7, 0x7ffff2, 0x3fffe8, 0x1ffffec,
+			0x3ffffe2, 0x3ffffe3, 0x3ffffe4, 0x7ffffde, 0x7ffffdf, 0x3ffffe5, 0xfffff1, 0x1ffffed,
+			0x7fff2, 0x1fffe3, 0x3ffffe6, 0x7ffffe0, 0x7ffffe1, 0x3ffffe7, 0x7ffffe2, 0xfffff2,
+			0x1fffe4, 0x1fffe5, 0x3ffffe8, 0x3ffffe9, 0xffffffd, 0x7ffffe3, 0x7ffffe4, 0x7ffffe5,
+			0xfffec, 0xfffff3, 0xfffed, 0x1fffe6, 0x3fffe9, 0x1fffe7, 0x1fffe8, 0x7ffff3,
+			0x3fffea, 0x3fffeb, 0x1ffffee, 0x1ffffef, 0xfffff4, 0xfffff5, 0x3ffffea, 0x7ffff4,
+			0x3ffffeb, 0x7ffffe6, 0x3ffffec, 0x3ffffed, 0x7ffffe7, 0x7ffffe8, 0x7ffffe9, 0x7ffffea,
+			0x7ffffeb, 0xffffffe, 0x7ffffec, 0x7ffffed, 0x7ffffee, 0x7ffffef, 0x7fffff0, 0x3ffffee,
+			0x3fffffff
+		};
+		private static final byte[] LENGTHS = {
+			13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28,
+			28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+			6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6,
+			5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10,
+			13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
+			7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6,
+			15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5,
+			6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28,
+			20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23,
+			24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+			22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23,
+			21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+			26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25,
+			19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+			20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23,
+			26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26,
+			30
+		};
+	}
+
+	static void writeInt(ByteArrayOutputStream out, int flags, int prefix, int value) {
+		int mask = (1 << prefix) - 1;
+		if(value < mask) {
+			out.write(flags | value);
+			return;
+		}
+		out.write(flags | mask);
+		value -= mask;
+		while(value >= 0x80) {
+			out.write((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	static void writeString(ByteArrayOutputStream out, String s) {
+		int huffman = Huffman.length(s);
+		if(huffman <= s.length()) {
+			writeInt(out, 0x80, 7, huffman);
+			Huffman.encode(out, s);
+		} else {
+			writeInt(out, 0x00, 7, s.length());
+			for(int i=0, n=s.length(); i<n; ++i)
+				out.write(octet(s.charAt(i)));
+		}
+	}
+
+	private static int octet(char c) {
+		return c<256 ? c : '?';
+	}
+
+	private static String latin1(byte[] buf, int off, int len) {
+		char[] chars = new char[len];
+		for(int i=0; i<len; ++i)
+			chars[i] = (char)(buf[off+i] & 0xff);
+		return new String(chars);
+	}
+
+	private static final String[] STATIC = {
+		":authority", "",
+		":method", "GET",
+		":method", "POST",
+		":path", "/",
+		":path", "/index.html",
+		":scheme", "http",
+		":scheme", "https",
+		":status", "200",
+		":status", "204",
+		":status", "206",
+		":status", "304",
+		":status", "400",
+		":status", "404",
+		":status", "500",
+		"accept-charset", "",
+		"accept-encoding", "gzip, deflate",
+		"accept-language", "",
+		"accept-ranges", "",
+		"accept", "",
+		"access-control-allow-origin", "",
+		"age", "",
+		"allow", "",
+		"authorization", "",
+		"cache-control", "",
+		"content-disposition", "",
+		"content-encoding", "",
+		"content-language", "",
+		"content-length", "",
+		"content-location", "",
+		"content-range", "",
+		"content-type", "",
+		"cookie", "",
+		"date", "",
+		"etag", "",
+		"expect", "",
+		"expires", "",
+		"from", "",
+		"host", "",
+		"if-match", "",
+		"if-modified-since", "",
+		"if-none-match", "",
+		"if-range", "",
+		"if-unmodified-since", "",
+		"last-modified", "",
+		"link", "",
+		"location", "",
+		"max-forwards", "",
+		"proxy-authenticate", "",
+		"proxy-authorization", "",
+		"range", "",
+		"referer", "",
+		"refresh", "",
+		"retry-after", "",
+		"server", "",
+		"set-cookie", "",
+		"strict-transport-security", "",
+		"transfer-encoding", "",
+		"user-agent", "",
+		"vary", "",
+		"via", "",
+		"www-authenticate", ""
+	};
+	private static final int STATIC_LENGTH = STATIC.length / 2;
+}
@@ -0,0 +1,1177 @@
+package com.cloudplugs.rest;
+
+/*<license>
+Copyright 2014 CloudPlugs Inc.
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+</license>*/
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSocket;
+import com.cloudplugs.util.*;
+
+/**
+ * @brief An HTTP/2 {@link Transport} multiplexing all the requests to the same server over a single connection.
+ * HTTP/2 is negotiated by ALPN, available since Java 9 and Android 10: when the server or the platform does not
+ * support it, the requests to that server are sent by an HTTP/1.1 fallback transport, by default a
+ * {@link NioTransport}. Plain HTTP URLs are sent by the fallback too, unless {@link #setCleartext(boolean)} enables
+ * HTTP/2 over cleartext TCP with prior knowledge. The connections per server of the fallback are limited by
+ * {@link NioTransport#setMaxConnectionsPerServer(int)}.
+ * <br/><br/>
+ * Each connection honors the stream concurrency limit announced by the server (and {@link #setMaxConcurrentStreams(int)}),
+ * queuing further requests, and the flow control windows of both connection and streams. Headers are compressed by
+ * HPACK, so the authentication headers repeated by every request of a device are sent as a couple of bytes.
+ * <br/><br/>
+ * Like {@link NioTransport}, {@link #send(Request, int, RestCallback)} never blocks: each connection is driven by a
+ * reader and a writer thread, and the callbacks receiving the responses are executed by them, so they should
+ * return quickly. The <tt>timeout</tt> of a request limits both the time waiting for a connection and the inactivity
+ * time while waiting for the response.
+ */
+public class Http2Transport implements Transport, Closeable
+{
+	/**
+	 * Create a new transport using the default SSL context, see {@link SSL#getDefaultContext()}.
+	 */
+	public Http2Transport() {
+		this(null, null);
+	}
+
+	/**
+	 * Create a new transport using the given SSL context for HTTPS connections.
+	 * @param sslContext the SSL context to use or null for the default one; the SSL context of a request, if any,
+	 *                   takes precedence
+	 */
+	public Http2Transport(SSLContext sslContext) {
+		this(sslContext, null);
+	}
+
+	/**
+	 * Create a new transport using the given SSL context and the given HTTP/1.1 fallback.
+	 * @param sslContext the SSL context to use or null for the default one
+	 * @param fallback the transport of the servers not supporting HTTP/2, null for a {@link NioTransport} created
+	 *                 on first use and closed by {@link #close()}
+	 */
+	public Http2Transport(SSLContext sslContext, Transport fallback) {
+		this.sslContext = sslContext;
+		this.fallback   = fallback;
+	}
+
+	@Override
+	public void send(Request request, int timeout, RestCallback done) {
+		if(done == null) throw new NullPointerException("null callback");
+		Stream stream;
+		try {
+			stream = new Stream(request, timeout, done);
+		} catch(Exception e) {
+			done.on(request, error(e));
+			return;
+		}
+		if(!stream.ssl && !cleartext) {
+			fallback().send(request, timeout, done);
+			return;
+		}
+		dispatch(stream);
+	}
+
+	/**
+	 * Close all connections, and the fallback transport if created by this instance.
+	 * Requests still in flight complete with an error response.
+	 */
+	@Override
+	public void close() {
+		List<Conn> list;
+		Transport fb;
+		synchronized(this) {
+			if(closed) return;
+			closed = true;
+			list = new ArrayList<Conn>(conns.values());
+			conns.clear();
+			fb = ownFallback ? fallback : null;
+		}
+		IOException e = new IOException("transport closed");
+		for(Conn conn : list)
+			conn.shutdown(e);
+		if(fb instanceof Closeable) {
+			try { ((Closeable)fb).close(); } catch(IOException e2) {}
+		}
+	}
+
+	/**
+	 * @return true if {@link #close()} has been called
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * @return true if plain HTTP URLs are sent over HTTP/2 with prior knowledge
+	 */
+	public boolean isCleartext() {
+		return cleartext;
+	}
+
+	/**
+	 * Enable HTTP/2 over cleartext TCP with prior knowledge (h2c) for plain HTTP URLs.
+	 * It must only be enabled for servers known to support it, because no negotiation is possible.
+	 * @param cleartext true to send plain HTTP URLs over HTTP/2, false to send them by the fallback transport
+	 */
+	public void setCleartext(boolean cleartext) {
+		this.cleartext = cleartext;
+	}
+
+	/**
+	 * @return the maximum number of concurrent streams of each connection, see {@link #setMaxConcurrentStreams(int)}
+	 */
+	public int getMaxConcurrentStreams() {
+		return maxStreams;
+	}
+
+	/**
+	 * Limit the concurrent streams of each connection below the limit announced by the server.
+	 * Further requests wait for a stream to complete.
+	 * @param max the maximum number of concurrent streams, 0 for the limit of the server only
+	 */
+	public void setMaxConcurrentStreams(int max) {
+		maxStreams = max<0 ? 0 : max;
+	}
+
+	/**
+	 * Set how long an idle connection is kept open to be reused.
+	 * @param keepAlive the maximum idle time in milliseconds, 0 to close a connection as soon as it becomes idle
+	 */
+	public void setKeepAlive(long keepAlive) {
+		this.keepAlive = keepAlive<0 ? 0 : keepAlive;
+	}
+
+	/**
+	 * @return the transport of the servers not supporting HTTP/2
+	 */
+	public Transport getFallback() {
+		return fallback();
+	}
+
+	/**
+	 * @return the number of open HTTP/2 connections
+	 */
+	public int getConnectionCount() {
+		return (int)connections.get();
+	}
+
+	/**
+	 * @return the total number of HTTP/2 streams opened, one for each request sent over HTTP/2
+	 */
+	public long getStreamCount() {
+		return streams.get();
+	}
+
+	//---- internals
+
+	// send a stream over the connection to its server, opening a new connection if needed
+	private void dispatch(Stream stream) {
+		boolean http1;
+		synchronized(this) {
+			if(closed) {
+				http1 = false;
+			} else if(!(http1 = http1Keys.contains(stream.key))) {
+				Conn conn = conns.get(stream.key);
+				if(conn==null || !conn.enqueue(stream)) {
+					conn = new Conn(stream);
+					conns.put(stream.key, conn);
+					conn.enqueue(stream);
+					conn.start();
+				}
+				return;
+			}
+		}
+		if(http1) fallback().send(stream.request, stream.timeoutSecs, stream.done);
+		else complete(stream, error(new IOException("transport closed")));
+	}
+
+	private synchronized Transport fallback() {
+		if(fallback == null) {
+			fallback    = new NioTransport(sslContext);
+			ownFallback = true;
+		}
+		return fallback;
+	}
+
+	private void removed(Conn conn, boolean http1) {
+		synchronized(this) {
+			if(conns.get(conn.key) == conn) conns.remove(conn.key);
+			if(http1) http1Keys.add(conn.key);
+		}
+	}
+
+	private static void complete(Stream stream, Response response) {
+		if(response==null || !stream.finish()) return;
+		try {
+			stream.done.on(stream.request, response);
+		} catch(Throwable t) {
+			ErrHandler handler = ErrHandler.active;
+			if(handler != null) handler.handleErr(t);
+		}
+	}
+
+	private static Response error(Exception e) {
+		if(e instanceof NioTransport.TooLargeException) return new Response(Const.ERR_TOO_LARGE, e.getMessage(), null);
+		return new Response(Const.ERR_CONN, e.getMessage(), PlugException.getStackTraceOf(e));
+	}
+
+	/**
+	 * @brief An HTTP/2 connection to a server.
+	 * The reader thread connects, then reads and handles the incoming frames; the writer thread opens the queued
+	 * streams and sends the outgoing frames. Their shared state is guarded by the lock of this instance.
+	 */
+	private final class Conn {
+		Conn(Stream first) {
+			key        = first.key;
+			host       = first.host;
+			port       = first.port;
+			ssl        = first.ssl;
+			context    = first.sslContext!=null ? first.sslContext : sslContext;
+			connectTimeout = first.timeoutSecs>0 ? first.timeoutSecs*1000 : 0;
+			reader = new Thread(NAME) {
+				@Override
+				public void run() {
+					read();
+				}
+			};
+			reader.setDaemon(true);
+		}
+
+		void start() {
+			reader.start();
+		}
+
+		// accept a new stream, unless this connection does not accept new streams anymore
+		synchronized boolean enqueue(Stream stream) {
+			if(state >= S_DRAINING) return false;
+			stream.touch();
+			queued.add(stream);
+			notifyAll();
+			return true;
+		}
+
+		// close the connection: the streams not yet sent are dispatched again, the others fail
+		void shutdown(Exception e) {
+			List<Stream> failed = new ArrayList<Stream>();
+			List<Stream> retry  = new ArrayList<Stream>();
+			synchronized(this) {
+				if(state == S_CLOSED) return;
+				boolean wasOpen = state != S_CONNECTING;
+				state = S_CLOSED;
+				failed.addAll(active.values());
+				active.clear();
+				sending.clear();
+				// a connection never opened must not loop over the same failure
+				if(wasOpen) retry.addAll(queued);
+				else failed.addAll(queued);
+				queued.clear();
+				notifyAll();
+			}
+			if(socket != null) {
+				try { socket.close(); } catch(IOException e2) {}
+			}
+			if(opened) connections.decrementAndGet();
+			removed(this, false);
+			for(Stream s : failed)
+				complete(s, error(e));
+			for(Stream s : retry)
+				redispatch(s, e);
+		}
+
+		private void redispatch(Stream stream, Exception e) {
+			if(++stream.attempts > MAX_ATTEMPTS) {
+				complete(stream, error(e));
+			} else {
+				stream.reset();
+				dispatch(stream);
+			}
+		}
+
+		//---- reader thread
+
+		private void read() {
+			Exception failure = null;
+			try {
+				if(!connect()) return;
+				Thread writer = new Thread(NAME) {
+					@Override
+					public void run() {
+						write();
+					}
+				};
+				writer.setDaemon(true);
+				writer.start();
+				readFrames();
+			} catch(Exception e) {
+				failure = e;
+			} finally {
+				shutdown(failure!=null ? failure : new EOFException("connection closed by server"));
+			}
+		}
+
+		// open the socket and send the connection preface; return false if the server does not support HTTP/2
+		private boolean connect() throws Exception {
+			Socket plain = new Socket();
+			socket = plain;
+			plain.setTcpNoDelay(true);
+			plain.connect(new InetSocketAddress(host, port), connectTimeout);
+			if(ssl) {
+				SSLContext ctx = context!=null ? context : SSL.getDefaultContext();
+				SSLSocket s = (SSLSocket)SSL.getSharedSocketFactory(ctx).createSocket(plain, host, port, true);
+				socket = s;
+				boolean verifyHost = configure(s);
+				s.startHandshake();
+				if(verifyHost && !HttpsURLConnection.getDefaultHostnameVerifier().verify(host, s.getSession()))
+					throw new SSLPeerUnverifiedException("hostname "+host+" not verified");
+				if(!H2.equals(protocolOf(s))) {
+					// HTTP/1.1 only: this server is left to the fallback transport
+					List<Stream> list;
+					synchronized(this) {
+						state = S_CLOSED;
+						list = new ArrayList<Stream>(queued);
+						queued.clear();
+					}
+					try { s.close(); } catch(IOException e) {}
+					removed(this, true);
+					for(Stream stream : list)
+						fallback().send(stream.request, stream.timeoutSecs, stream.done);
+					return false;
+				}
+			}
+			in  = new BufferedInputStream(socket.getInputStream(), BUF_LENGTH);
+			out = new BufferedOutputStream(socket.getOutputStream(), BUF_LENGTH);
+			out.write(PREFACE);
+			byte[] settings = new byte[18];
+			putSetting(settings, 0, SETTINGS_ENABLE_PUSH, 0);
+			putSetting(settings, 6, SETTINGS_INITIAL_WINDOW_SIZE, STREAM_WINDOW);
+			putSetting(settings, 12, SETTINGS_MAX_HEADER_LIST_SIZE, MAX_HEADER_LIST);
+			writeFrame(out, SETTINGS, 0, 0, settings, 0, settings.length);
+			writeFrame(out, WINDOW_UPDATE, 0, 0, int31(CONN_WINDOW - DEF_WINDOW), 0, 4);
+			out.flush();
+			synchronized(this) {
+				if(state == S_CLOSED) return false;
+				state = S_OPEN;
+				notifyAll();
+			}
+			opened = true;
+			connections.incrementAndGet();
+			return true;
+		}
+
+		private void readFrames() throws IOException {
+			byte[] head    = new byte[9];
+			byte[] payload = new byte[MAX_FRAME];
+			for(;;) {
+				readFully(head, 9);
+				int len   = ((head[0] & 0xff) << 16) | ((head[1] & 0xff) << 8) | (head[2] & 0xff);
+				int type  = head[3] & 0xff;
+				int flags = head[4] & 0xff;
+				int id    = readInt(head, 5) & 0x7fffffff;
+				if(len > MAX_FRAME) throw new ProtocolError(ERR_FRAME_SIZE, "frame too large: "+len);
+				readFully(payload, len);
+				if(headersOf!=0 && type!=CONTINUATION) throw new ProtocolError(ERR_PROTOCOL, "CONTINUATION expected");
+				switch(type) {
+					case DATA         : onData(id, flags, payload, len); break;
+					case HEADERS      : onHeaders(id, flags, payload, len); break;
+					case CONTINUATION : onContinuation(id, flags, payload, len); break;
+					case RST_STREAM   : onReset(id, payload, len); break;
+					case SETTINGS     : onSettings(id, flags, payload, len); break;
+					case PING         : onPing(id, flags, payload, len); break;
+					case GOAWAY       : onGoAway(payload, len); break;
+					case WINDOW_UPDATE: onWindowUpdate(id, payload, len); break;
+					case PUSH_PROMISE : throw new ProtocolError(ERR_PROTOCOL, "push disabled");
+					default           : break; // PRIORITY and unknown frames are ignored
+				}
+			}
+		}
+
+		private void onData(int id, int flags, byte[] buf, int len) throws IOException {
+			if(id == 0) throw new ProtocolError(ERR_PROTOCOL, "DATA on stream 0");
+			int off = 0;
+			int n   = len;
+			if((flags & FLAG_PADDED) != 0) {
+				if(len < 1 || (buf[0] & 0xff) >= len) throw new ProtocolError(ERR_PROTOCOL, "invalid padding");
+				off = 1;
+				n   = len - 1 - (buf[0] & 0xff);
+			}
+			Stream stream;
+			synchronized(this) {
+				stream = active.get(id);
+				// the whole frame, padding included, is subject to flow control
+				recvConsumed += len;
+				if(recvConsumed >= CONN_WINDOW/2) {
+					control.add(frame(WINDOW_UPDATE, 0, 0, int31(recvConsumed)));
+					recvConsumed = 0;
+					notifyAll();
+				}
+			}
+			if(stream == null) return; // already reset or completed
+			try {
+				stream.append(buf, off, n);
+			} catch(NioTransport.TooLargeException e) {
+				cancel(stream, e);
+				return;
+			}
+			boolean end = (flags & FLAG_END_STREAM) != 0;
+			if(end) {
+				ended(stream);
+			} else {
+				stream.recvConsumed += len;
+				if(stream.recvConsumed >= STREAM_WINDOW/2) {
+					synchronized(this) {
+						control.add(frame(WINDOW_UPDATE, 0, id, int31(stream.recvConsumed)));
+						notifyAll();
+					}
+					stream.recvConsumed = 0;
+				}
+			}
+		}
+
+		private void onHeaders(int id, int flags, byte[] buf, int len) throws IOException {
+			if(id == 0) throw new ProtocolError(ERR_PROTOCOL, "HEADERS on stream 0");
+			int off = 0;
+			int end = len;
+			if((flags & FLAG_PADDED) != 0) {
+				if(len < 1) throw new ProtocolError(ERR_PROTOCOL, "invalid padding");
+				off = 1;
+				end = len - (buf[0] & 0xff);
+			}
+			if((flags & FLAG_PRIORITY) != 0) off += 5;
+			if(off > end) throw new ProtocolError(ERR_PROTOCOL, "invalid HEADERS frame");
+			block.reset();
+			block.write(buf, off, end-off);
+			headersOf  = id;
+			headersEnd = (flags & FLAG_END_STREAM) != 0;
+			if((flags & FLAG_END_HEADERS) != 0) headersDone();
+		}
+
+		private void onContinuation(int id, int flags, byte[] buf, int len) throws IOException {
+			if(id==0 || id!=headersOf) throw new ProtocolError(ERR_PROTOCOL, "unexpected CONTINUATION");
+			block.write(buf, 0, len);
+			if(block.size() > MAX_HEADER_LIST) throw new ProtocolError(ERR_PROTOCOL, "header list too large");
+			if((flags & FLAG_END_HEADERS) != 0) headersDone();
+		}
+
+		private void headersDone() throws IOException {
+			int id = headersOf;
+			headersOf = 0;
+			List<String> headers = new ArrayList<String>();
+			try {
+				// the block is always decoded to keep the HPACK context in sync, also for completed streams
+				decoder.decode(block.toByteArray(), 0, block.size(), headers);
+			} catch(IOException e) {
+				throw new ProtocolError(ERR_COMPRESSION, e.getMessage());
+			}
+			Stream stream;
+			synchronized(this) {
+				stream = active.get(id);
+			}
+			if(stream == null) return;
+			try {
+				stream.onHeaders(headers);
+			} catch(NioTransport.TooLargeException e) {
+				cancel(stream, e);
+				return;
+			}
+			if(headersEnd) ended(stream);
+		}
+
+		private void onReset(int id, byte[] buf, int len) throws IOException {
+			if(id==0 || len!=4) throw new ProtocolError(ERR_PROTOCOL, "invalid RST_STREAM");
+			int code = readInt(buf, 0);
+			Stream stream;
+			synchronized(this) {
+				stream = active.remove(id);
+				sending.remove(stream);
+				notifyAll();
+			}
+			if(stream == null) return;
+			IOException e = new IOException("stream reset by server, error "+code);
+			// a refused stream has not been processed at all: it can be safely sent again
+			if(code == ERR_REFUSED_STREAM) redispatch(stream, e);
+			else complete(stream, error(e));
+		}
+
+		private void onSettings(int id, int flags, byte[] buf, int len) throws IOException {
+			if(id != 0) throw new ProtocolError(ERR_PROTOCOL, "SETTINGS on a stream");
+			if((flags & FLAG_ACK) != 0) return;
+			if(len%6 != 0) throw new ProtocolError(ERR_FRAME_SIZE, "invalid SETTINGS");
+			synchronized(this) {
+				for(int i=0; i<len; i+=6) {
+					int param = ((buf[i] & 0xff) << 8) | (buf[i+1] & 0xff);
+					int value = readInt(buf, i+2);
+					switch(param) {
+						case SETTINGS_HEADER_TABLE_SIZE:
+							peerTableSize = value;
+							break;
+						case SETTINGS_MAX_CONCURRENT_STREAMS:
+							peerMaxStreams = value<0 ? Integer.MAX_VALUE : value;
+							break;
+						case SETTINGS_INITIAL_WINDOW_SIZE:
+							if(value < 0) throw new ProtocolError(ERR_FLOW_CONTROL, "invalid initial window size");
+							int delta = value - peerWindow;
+							peerWindow = value;
+							for(Stream s : active.values())
+								s.sendWindow += delta;
+							break;
+						case SETTINGS_MAX_FRAME_SIZE:
+							if(value<DEF_MAX_FRAME || value>0xffffff) throw new ProtocolError(ERR_PROTOCOL, "invalid max frame size");
+							peerMaxFrame = value;
+							break;
+						default:
+							break;
+					}
+				}
+				control.add(frame(SETTINGS, FLAG_ACK, 0, new byte[0]));
+				settled = true;
+				notifyAll();
+			}
+		}
+
+		private void onPing(int id, int flags, byte[] buf, int len) throws IOException {
+			if(id!=0 || len!=8) throw new ProtocolError(ERR_PROTOCOL, "invalid PING");
+			if((flags & FLAG_ACK) != 0) return;
+			byte[] data = new byte[8];
+			System.arraycopy(buf, 0, data, 0, 8);
+			synchronized(this) {
+				control.add(frame(PING, FLAG_ACK, 0, data));
+				notifyAll();
+			}
+		}
+
+		private void onGoAway(byte[] buf, int len) throws IOException {
+			if(len < 8) throw new ProtocolError(ERR_FRAME_SIZE, "invalid GOAWAY");
+			int last = readInt(buf, 0) & 0x7fffffff;
+			List<Stream> retry = new ArrayList<Stream>();
+			boolean idle;
+			synchronized(this) {
+				if(state < S_DRAINING) state = S_DRAINING;
+				// the streams after the last one processed by the server can be safely sent again
+				for(Iterator<Stream> it = active.values().iterator(); it.hasNext(); ) {
+					Stream s = it.next();
+					if(s.id <= last) continue;
+					it.remove();
+					sending.remove(s);
+					retry.add(s);
+				}
+				retry.addAll(queued);
+				queued.clear();
+				idle = active.isEmpty();
+				notifyAll();
+			}
+			removed(this, false);
+			IOException e = new IOException("connection closed by server");
+			for(Stream s : retry)
+				redispatch(s, e);
+			if(idle) shutdown(e);
+		}
+
+		private void onWindowUpdate(int id, byte[] buf, int len) throws IOException {
+			if(len != 4) throw new ProtocolError(ERR_FRAME_SIZE, "invalid WINDOW_UPDATE");
+			int inc = readInt(buf, 0) & 0x7fffffff;
+			Stream invalid = null;
+			synchronized(this) {
+				if(id == 0) {
+					if(inc == 0) throw new ProtocolError(ERR_PROTOCOL, "invalid window increment");
+					if((long)sendWindow+inc > 0x7fffffff) throw new ProtocolError(ERR_FLOW_CONTROL, "window overflow");
+					sendWindow += inc;
+				} else {
+					Stream s = active.get(id);
+					if(s == null) return;
+					if(inc==0 || (long)s.sendWindow+inc>0x7fffffff) {
+						active.remove(id);
+						sending.remove(s);
+						control.add(frame(RST_STREAM, 0, id, int31(inc==0 ? ERR_PROTOCOL : ERR_FLOW_CONTROL)));
+						invalid = s;
+					} else {
+						s.sendWindow += inc;
+					}
+				}
+				notifyAll();
+			}
+			if(invalid != null) complete(invalid, error(new IOException("invalid window update")));
+		}
+
+		// the response of a stream is complete
+		private void ended(Stream stream) {
+			synchronized(this) {
+				active.remove(stream.id);
+				sending.remove(stream);
+				notifyAll();
+			}
+			complete(stream, stream.response());
+		}
+
+		// reset a stream and complete it with an error
+		private void cancel(Stream stream, IOException e) {
+			synchronized(this) {
+				active.remove(stream.id);
+				sending.remove(stream);
+				control.add(frame(RST_STREAM, 0, stream.id, int31(ERR_CANCEL)));
+				notifyAll();
+			}
+			complete(stream, error(e));
+		}
+
+		private void readFully(byte[] buf, int len) throws IOException {
+			for(int off=0; off<len; ) {
+				int n = in.read(buf, off, len-off);
+				if(n < 0) throw new EOFException("connection closed by server");
+				off += n;
+			}
+		}
+
+		//---- writer thread
+
+		private void write() {
+			List<byte[]> ctl     = new ArrayList<byte[]>();
+			List<Stream> opening = new ArrayList<Stream>();
+			List<Stream> expired = new ArrayList<Stream>();
+			List<int[]>  chunks  = new ArrayList<int[]>(); // stream index in <tt>chunkOf</tt>, offset, length, flags
+			List<Stream> chunkOf = new ArrayList<Stream>();
+			ByteArrayOutputStream headers = new ByteArrayOutputStream(256);
+			try {
+				for(;;) {
+					boolean goAway = false;
+					int tableSize;
+					int maxFrame;
+					synchronized(this) {
+						for(;;) {
+							if(state == S_CLOSED) return;
+							long now = System.currentTimeMillis();
+							long next = expire(now, expired);
+							if(!expired.isEmpty() || !control.isEmpty() || canOpen() || hasData()) break;
+							if(queued.isEmpty() && active.isEmpty()) {
+								if(idleSince == 0) idleSince = now;
+								if(now-idleSince >= keepAlive && state==S_OPEN) {
+									state  = S_DRAINING;
+									goAway = true;
+									break;
+								}
+								next = Math.min(next, idleSince + keepAlive);
+							} else {
+								idleSince = 0;
+							}
+							if(state==S_DRAINING && active.isEmpty()) {
+								goAway = true;
+								break;
+							}
+							wait(next==Long.MAX_VALUE ? 0 : Math.max(1, next-now));
+						}
+						ctl.addAll(control);
+						control.clear();
+						int max = Math.min(peerMaxStreams, maxStreams>0 ? maxStreams : Integer.MAX_VALUE);
+						while(canOpen() && active.size()<max) {
+							Stream s = queued.removeFirst();
+							s.id = nextId;
+							nextId += 2;
+							s.sendWindow = peerWindow;
+							active.put(s.id, s);
+							if(s.body != null) sending.add(s);
+							opening.add(s);
+						}
+						maxFrame = peerMaxFrame;
+						tableSize = Math.min(peerTableSize, Hpack.DEF_TABLE_SIZE);
+						// share the connection window among the streams with a body to send
+						for(Stream s : sending) {
+							int n = Math.min(Math.min(s.body.length-s.sent, maxFrame), Math.min(s.sendWindow, sendWindow));
+							if(n <= 0) continue;
+							int off = s.sent;
+							s.sent       += n;
+							s.sendWindow -= n;
+							sendWindow   -= n;
+							chunks.add(new int[]{ chunkOf.size(), off, n, s.sent==s.body.length ? FLAG_END_STREAM : 0 });
+							chunkOf.add(s);
+						}
+						for(Stream s : chunkOf)
+							if(s.sent == s.body.length) sending.remove(s);
+					}
+					for(Stream s : expired) {
+						complete(s, error(new SocketTimeoutException("timeout")));
+					}
+					expired.clear();
+					for(byte[] f : ctl)
+						out.write(f);
+					ctl.clear();
+					encoder.setMaxTableSize(tableSize);
+					for(Stream s : opening) {
+						headers.reset();
+						s.encodeHeaders(encoder, headers);
+						writeHeaders(s.id, s.body==null, headers.toByteArray(), maxFrame);
+						streams.incrementAndGet();
+					}
+					opening.clear();
+					for(int[] c : chunks) {
+						Stream s = chunkOf.get(c[0]);
+						writeFrame(out, DATA, c[3], s.id, s.body, c[1], c[2]);
+					}
+					chunks.clear();
+					chunkOf.clear();
+					if(goAway) {
+						// no stream is ever initiated by the server, the last stream id is 0
+						writeFrame(out, GOAWAY, 0, 0, new byte[8], 0, 8);
+						out.flush();
+						shutdown(new IOException("connection closed"));
+						return;
+					}
+					out.flush();
+				}
+			} catch(InterruptedException e) {
+				shutdown(new IOException("interrupted"));
+			} catch(Exception e) {
+				shutdown(e);
+			}
+		}
+
+		private void writeHeaders(int id, boolean endStream, byte[] block, int maxFrame) throws IOException {
+			int n = Math.min(block.length, maxFrame);
+			int flags = (endStream ? FLAG_END_STREAM : 0) | (n==block.length ? FLAG_END_HEADERS : 0);
+			writeFrame(out, HEADERS, flags, id, block, 0, n);
+			for(int off=n; off<block.length; off+=n) {
+				n = Math.min(block.length-off, maxFrame);
+				writeFrame(out, CONTINUATION, off+n==block.length ? FLAG_END_HEADERS : 0, id, block, off, n);
+			}
+		}
+
+		// must be called while holding the lock: collect the expired streams, return the next deadline
+		private long expire(long now, List<Stream> expired) {
+			long next = Long.MAX_VALUE;
+			for(Iterator<Stream> it = queued.iterator(); it.hasNext(); ) {
+				Stream s = it.next();
+				if(s.deadline <= now) {
+					it.remove();
+					expired.add(s);
+				} else if(s.deadline < next) {
+					next = s.deadline;
+				}
+			}
+			for(Iterator<Stream> it = active.values().iterator(); it.hasNext(); ) {
+				Stream s = it.next();
+				if(s.deadline <= now) {
+					it.remove();
+					sending.remove(s);
+					control.add(frame(RST_STREAM, 0, s.id, int31(ERR_CANCEL)));
+					expired.add(s);
+				} else if(s.deadline < next) {
+					next = s.deadline;
+				}
+			}
+			return next;
+		}
+
+		// streams are opened after the server preface, not to exceed its concurrency limit
+		private boolean canOpen() {
+			if(state!=S_OPEN || !settled || queued.isEmpty()) return false;
+			int max = Math.min(peerMaxStreams, maxStreams>0 ? maxStreams : Integer.MAX_VALUE);
+			return active.size() < max && nextId > 0;
+		}
+
+		private boolean hasData() {
+			if(sendWindow <= 0) return false;
+			for(Stream s : sending)
+				if(s.sendWindow > 0) return true;
+			return false;
+		}
+
+		final String  key;
+		final String  host;
+		final int     port;
+		final boolean ssl;
+		private final SSLContext context;
+		private final int        connectTimeout;
+		private final Thread     reader;
+		private volatile Socket  socket;
+		private InputStream  in;
+		private OutputStream out;
+		private boolean      opened = false;
+		// guarded by the lock of this instance
+		private int state          = S_CONNECTING;
+		private final LinkedList<Stream>   queued  = new LinkedList<Stream>();
+		private final Map<Integer,Stream>  active  = new HashMap<Integer,Stream>();
+		private final LinkedList<Stream>   sending = new LinkedList<Stream>();
+		private final List<byte[]>         control = new ArrayList<byte[]>();
+		private int  nextId         = 1;
+		private int  sendWindow     = DEF_WINDOW;
+		private int  peerWindow     = DEF_WINDOW;
+		private int  peerMaxStreams = DEF_MAX_STREAMS;
+		private int  peerMaxFrame   = DEF_MAX_FRAME;
+		private int  peerTableSize  = Hpack.DEF_TABLE_SIZE;
+		private int  recvConsumed   = 0;
+		private long idleSince      = 0;
+		private boolean settled     = false;
+		// reader thread only
+		private final Hpack.Decoder         decoder = new Hpack.Decoder(Hpack.DEF_TABLE_SIZE);
+		private final ByteArrayOutputStream block   = new ByteArrayOutputStream(256);
+		private int     headersOf  = 0;
+		private boolean headersEnd = false;
+		// writer thread only
+		private final Hpack.Encoder encoder = new Hpack.Encoder();
+	}
+
+	/**
+	 * @brief A request and its response, exchanged over an HTTP/2 stream.
+	 */
+	private static final class Stream {
+		Stream(Request request, int timeout, RestCallback done) throws IOException {
+			URL url = request.toURL();
+			String proto = url.getProtocol();
+			if("https".equals(proto)) ssl = true;
+			else if("http".equals(proto)) ssl = false;
+			else throw new IOException("unsupported protocol: "+proto);
+			int port = url.getPort();
+			if(port < 0) port = url.getDefaultPort();
+			this.host        = url.getHost();
+			this.port        = port;
+			this.sslContext  = ssl ? request.getSSLContext() : null;
+			this.key         = proto+"://"+host+':'+port+(sslContext==null ? "" : "#"+NioTransport.idOf(sslContext));
+			this.authority   = port==url.getDefaultPort() ? host : host+':'+port;
+			String path = url.getFile();
+			this.path        = path.length()==0 ? "/" : path;
+			this.request     = request;
+			this.done        = done;
+			this.timeoutSecs = timeout;
+			this.timeout     = timeout>0 ? timeout*1000L : 0;
+			this.maxBody     = request.getMaxBodySize();
+			String body = request.getBody();
+			if(body!=null && body.length()>0) {
+				this.body = new byte[Utf8.length(body)];
+				Utf8.encode(body, this.body, 0);
+			} else {
+				this.body = null;
+			}
+		}
+
+		void encodeHeaders(Hpack.Encoder encoder, ByteArrayOutputStream out) {
+			encoder.begin(out);
+			encoder.encode(out, ":method", request.getMethod());
+			encoder.encode(out, ":scheme", ssl ? "https" : "http");
+			encoder.encode(out, ":authority", authority);
+			encoder.encode(out, ":path", path);
+			String[] headers = request.sharedHeaders();
+			if(headers != null) {
+				for(int i=1, n=headers.length; i<n; i+=2) {
+					String name = headers[i-1].toLowerCase();
+					if(!CONN_HEADERS.contains(name)) encoder.encode(out, name, headers[i]);
+				}
+			}
+			encoder.encode(out, "accept", "application/json");
+			encoder.encode(out, "user-agent", Const.USER_AGENT);
+			if(body != null) {
+				encoder.encode(out, "content-type", "application/json; charset=utf-8");
+				encoder.encode(out, "content-length", Integer.toString(body.length));
+			}
+		}
+
+		void touch() {
+			deadline = timeout>0 ? System.currentTimeMillis()+timeout : Long.MAX_VALUE;
+		}
+
+		// a stream refused or not processed by a server is sent again from scratch
+		synchronized void reset() {
+			sent         = 0;
+			recvConsumed = 0;
+			status       = 0;
+			size         = 0;
+		}
+
+		// reader thread
+		synchronized void onHeaders(List<String> headers) throws IOException {
+			if(finished) return;
+			touch();
+			for(int i=0, n=headers.size(); i<n; i+=2) {
+				String name  = headers.get(i);
+				String value = headers.get(i+1);
+				if(":status".equals(name)) {
+					try {
+						int code = Integer.parseInt(value);
+						// interim responses are skipped
+						if(code >= 200) status = code;
+					} catch(NumberFormatException e) {
+						throw new IOException("invalid status: "+value);
+					}
+				} else if("content-type".equals(name)) {
+					charset = Utf8.charsetOf(value);
+				} else if("content-length".equals(name)) {
+					try {
+						long length = Long.parseLong(value);
+						if(maxBody>0 && length>maxBody) throw new NioTransport.TooLargeException(length, maxBody);
+						if(length > 0) ensure((int)Math.min(length, PREALLOC));
+					} catch(NumberFormatException e) {
+						throw new IOException("invalid content length");
+					}
+				}
+			}
+		}
+
+		// reader thread
+		synchronized void append(byte[] buf, int off, int len) throws IOException {
+			if(finished || len==0) return;
+			touch();
+			if(maxBody>0 && size+len>maxBody) throw new NioTransport.TooLargeException(size+len, maxBody);
+			ensure(size+len);
+			System.arraycopy(buf, off, data, size, len);
+			size += len;
+		}
+
+		// null if already completed
+		synchronized Response response() {
+			if(finished) return null;
+			if(status == 0) return error(new IOException("response without status"));
+			return new Response(status, "", Utf8.decode(data, 0, size, charset));
+		}
+
+		// mark this stream as completed, only once, and give its buffer back
+		synchronized boolean finish() {
+			if(finished) return false;
+			finished = true;
+			// the response has already been built, the buffer is not used anymore
+			if(data != null) BufferPool.release(data);
+			data = null;
+			return true;
+		}
+
+		private void ensure(int capacity) {
+			if(data!=null && data.length>=capacity) return;
+			int n = data==null ? BUF_LENGTH : data.length*2;
+			byte[] bigger = BufferPool.acquire(Math.max(n, capacity));
+			if(data != null) {
+				System.arraycopy(data, 0, bigger, 0, size);
+				BufferPool.release(data);
+			}
+			data = bigger;
+		}
+
+		final String       key;
+		final String       host;
+		final int          port;
+		final boolean      ssl;
+		final SSLContext   sslContext;
+		final String       authority;
+		final String       path;
+		final Request      request;
+		final RestCallback done;
+		final int          timeoutSecs;
+		final long         timeout;
+		final int          maxBody;
+		final byte[]       body;
+		volatile long deadline = Long.MAX_VALUE;
+		int  id;
+		int  attempts   = 0;
+		int  sent       = 0; // bytes of the body already sent
+		int  sendWindow;
+		int  recvConsumed = 0;
+		private int     status  = 0;
+		private String  charset = Utf8.NAME;
+		private byte[]  data;
+		private int     size;
+		private boolean finished = false;
+	}
+
+	/**
+	 * @brief A connection error, closing the connection.
+	 */
+	private static final class ProtocolError extends IOException {
+		ProtocolError(int code, String msg) {
+			super("HTTP/2 error "+code+": "+msg);
+		}
+
+		private static final long serialVersionUID = 1L;
+	}
+
+	// let the engine verify the server hostname and offer h2 by ALPN, if supported by the platform;
+	// return true if the hostname must be verified by the caller
+	private static boolean configure(SSLSocket socket) {
+		SSLParameters params;
+		try {
+			params = socket.getSSLParameters();
+		} catch(LinkageError e) {
+			return true;
+		}
+		boolean verify = false;
+		try {
+			params.setEndpointIdentificationAlgorithm("HTTPS");
+		} catch(LinkageError e) {
+			verify = true;
+		}
+		try {
+			Method m = SSLParameters.class.getMethod("setApplicationProtocols", String[].class);
+			m.invoke(params, (Object)new String[]{ H2, HTTP1 });
+		} catch(Exception e) {
+			// ALPN is not available: the handshake completes without h2, and the fallback is used
+		}
+		socket.setSSLParameters(params);
+		return verify;
+	}
+
+	private static String protocolOf(SSLSocket socket) {
+		try {
+			Method m = SSLSocket.class.getMethod("getApplicationProtocol");
+			return (String)m.invoke(socket);
+		} catch(Exception e) {
+			return null;
+		}
+	}
+
+	private static void writeFrame(OutputStream out, int type, int flags, int id, byte[] buf, int off, int len) throws IOException {
+		out.write(len >>> 16);
+		out.write(len >>> 8);
+		out.write(len);
+		out.write(type);
+		out.write(flags);
+		out.write(id >>> 24);
+		out.write(id >>> 16);
+		out.write(id >>> 8);
+		out.write(id);
+		if(len > 0) out.write(buf, off, len);
+	}
+
+	private static byte[] frame(int type, int flags, int id, byte[] payload) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(9 + payload.length);
+		try {
+			writeFrame(out, type, flags, id, payload, 0, payload.length);
+		} catch(IOException e) {} // never thrown by ByteArrayOutputStream
+		return out.toByteArray();
+	}
+
+	private static byte[] int31(int value) {
+		byte[] res = new byte[4];
+		putInt(res, 0, value & 0x7fffffff);
+		return res;
+	}
+
+	private static void putSetting(byte[] buf, int off, int param, int value) {
+		buf[off]   = (byte)(param >>> 8);
+		buf[off+1] = (byte)param;
+		putInt(buf, off+2, value);
+	}
+
+	private static void putInt(byte[] buf, int off, int value) {
+		buf[off]   = (byte)(value >>> 24);
+		buf[off+1] = (byte)(value >>> 16);
+		buf[off+2] = (byte)(value >>> 8);
+		buf[off+3] = (byte)value;
+	}
+
+	private static int readInt(byte[] buf, int off) {
+		return ((buf[off] & 0xff) << 24) | ((buf[off+1] & 0xff) << 16) | ((buf[off+2] & 0xff) << 8) | (buf[off+3] & 0xff);
+	}
+
+	private static final String NAME  = Http2Transport.class.getSimpleName();
+	private static final String H2    = "h2";
+	private static final String HTTP1 = "http/1.1";
+	private static final byte[] PREFACE;
+	static {
+		byte[] p = null;
+		try {
+			p = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes("US-ASCII");
+		} catch(java.io.UnsupportedEncodingException e) {} // never thrown
+		PREFACE = p;
+	}
+	// headers not allowed in HTTP/2
+	private static final Set<String> CONN_HEADERS = new HashSet<String>();
+	static {
+		String[] names = { "connection", "host", "keep-alive", "proxy-connection", "transfer-encoding", "upgrade" };
+		for(String name : names)
+			CONN_HEADERS.add(name);
+	}
+
+	private static final int DATA          = 0x0;
+	private static final int HEADERS       = 0x1;
+	private static final int RST_STREAM    = 0x3;
+	private static final int SETTINGS      = 0x4;
+	private static final int PUSH_PROMISE  = 0x5;
+	private static final int PING          = 0x6;
+	private static final int GOAWAY        = 0x7;
+	private static final int WINDOW_UPDATE = 0x8;
+	private static final int CONTINUATION  = 0x9;
+
+	private static final int FLAG_END_STREAM  = 0x1;
+	private static final int FLAG_ACK         = 0x1;
+	private static final int FLAG_END_HEADERS = 0x4;
+	private static final int FLAG_PADDED      = 0x8;
+	private static final int FLAG_PRIORITY    = 0x20;
+
+	private static final int SETTINGS_HEADER_TABLE_SIZE      = 0x1;
+	private static final int SETTINGS_ENABLE_PUSH            = 0x2;
+	private static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+	private static final int SETTINGS_INITIAL_WINDOW_SIZE    = 0x4;
+	private static final int SETTINGS_MAX_FRAME_SIZE         = 0x5;
+	private static final int SETTINGS_MAX_HEADER_LIST_SIZE   = 0x6;
+
+	private static final int ERR_PROTOCOL       = 0x1;
+	private static final int ERR_FLOW_CONTROL   = 0x3;
+	private static final int ERR_FRAME_SIZE     = 0x6;
+	private static final int ERR_REFUSED_STREAM = 0x7;
+	private static final int ERR_CANCEL         = 0x8;
+	private static final int ERR_COMPRESSION    = 0x9;
+
+	private static final int S_CONNECTING = 0;
+	private static final int S_OPEN       = 1;
+	private static final int S_DRAINING   = 2; // no new streams, the active ones can complete
+	private static final int S_CLOSED     = 3;
+
+	private static final int DEF_WINDOW      = 65535;
+	private static final int DEF_MAX_FRAME   = 16384;
+	private static final int DEF_MAX_STREAMS = Integer.MAX_VALUE; // unless limited by the server
+	private static final int MAX_FRAME       = DEF_MAX_FRAME; // our SETTINGS_MAX_FRAME_SIZE is the default one
+	private static final int STREAM_WINDOW   = 1024*1024;
+	private static final int CONN_WINDOW     = 16*1024*1024;
+	private static final int MAX_HEADER_LIST = 64*1024;
+	private static final int MAX_ATTEMPTS    = 3;
+	private static final int BUF_LENGTH      = 16*1024;
+	private static final int PREALLOC        = 1024*1024; // the most preallocated for a declared Content-Length
+
+	private final SSLContext sslContext;
+	private final Map<String,Conn> conns     = new HashMap<String,Conn>();
+	private final Set<String>      http1Keys = new HashSet<String>();
+	private final AtomicLong       connections = new AtomicLong(0);
+	private final AtomicLong       streams     = new AtomicLong(0);
+	private Transport        fallback;
+	private boolean          ownFallback = false;
+	private volatile boolean closed      = false;
+	private volatile boolean cleartext   = false;
+	private volatile int     maxStreams  = 0;
+	private volatile long    keepAlive   = 30*1000;
+}
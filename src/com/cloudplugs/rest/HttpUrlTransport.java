@@ -0,0 +1,155 @@
+package com.cloudplugs.rest;
+
+/*<license>
+Copyright 2014 CloudPlugs Inc.
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+</license>*/
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import com.cloudplugs.util.*;
+
+/**
+ * @brief The default {@link Transport}, based on java.net.HttpURLConnection.
+ * Each request blocks the calling thread until its response is received.
+ */
+public class HttpUrlTransport implements Transport
+{
+	/** The shared instance used by default. */
+	public static final HttpUrlTransport DEFAULT = new HttpUrlTransport();
+
+	@Override
+	public void send(Request request, int timeout, RestCallback done) {
+		done.on(request, execute(request, timeout));
+	}
+
+	/**
+	 * Send a request and wait for its response.
+	 * @param request the request to send
+	 * @param timeout the connection timeout in seconds, 0 for no timeout
+	 * @return the received response or an error response with status {@link Const#ERR_CONN}
+	 */
+	public Response execute(Request request, int timeout) {
+		Response response = null;
+		InputStream    in = null;
+		OutputStream  out = null;
+		byte[]        buf = null;
+
+		try {
+			HttpURLConnection conn = (HttpURLConnection)request.toURL().openConnection();
+			if(conn instanceof HttpsURLConnection) {
+				// the TLS configuration is scoped to the request, the JVM-wide default factory is never used
+				SSLContext ctx = request.getSSLContext();
+				if(ctx == null) ctx = SSL.getDefaultContext();
+				((HttpsURLConnection)conn).setSSLSocketFactory(SSL.getSharedSocketFactory(ctx));
+			}
+			conn.setInstanceFollowRedirects(true);
+			conn.setDoInput(true);
+
+			if(timeout > 0) conn.setConnectTimeout(timeout * 1000);
+			String  method  = request.getMethod();
+			String  body    = request.getBody();
+			boolean hasBody = body!=null && body.length()>0;
+
+			if((hasBody && Request.DELETE.equals(method)) || Request.PATCH.equals(method)) {
+				// NOTE: HttpURLConnection does not support PATCH nor DELETE with body
+				conn.setRequestProperty("X-HTTP-Method-Override", method);
+				method = Request.POST;
+			}
+			conn.setRequestMethod(method);
+
+			String[] headers = request.sharedHeaders();
+			if(headers != null)
+				for(int i=1, n=headers.length; i<n; i+=2)
+					conn.setRequestProperty(headers[i-1], headers[i]);
+			conn.setRequestProperty("Accept", "application/json");
+			conn.setRequestProperty("User-Agent", Const.USER_AGENT);
+
+			if(hasBody) {
+				int size = Utf8.length(body);
+				buf = BufferPool.acquire(size);
+				Utf8.encode(body, buf, 0);
+				conn.setRequestProperty("Content-Type", "application/json; charset=utf-8");
+				conn.setDoOutput(true);
+				conn.setFixedLengthStreamingMode(size);
+				out = conn.getOutputStream();
+				out.write(buf, 0, size);
+				out.flush();
+				BufferPool.release(buf);
+				buf = null;
+			}
+
+			int max = request.getMaxBodySize();
+			int length = conn.getContentLength();
+			if(max>0 && length>max) {
+				conn.disconnect();
+				return tooLarge(length, max);
+			}
+
+			try {
+				in = conn.getInputStream();
+			} catch(IOException e) {
+				in = conn.getErrorStream();
+			}
+			// read directly into a pooled array, sized to the Content-Length when known
+			buf = BufferPool.acquire(length>0 ? Math.min(length, PREALLOC) : BUF_LENGTH);
+			int size = 0;
+			if(in != null) {
+				try {
+					for(int n; (n = in.read(buf, size, buf.length-size)) != -1;) {
+						size += n;
+						if(max>0 && size>max) {
+							// stop reading: the rest of the body is never buffered
+							conn.disconnect();
+							return tooLarge(size, max);
+						}
+						if(size == buf.length) {
+							byte[] bigger = BufferPool.acquire(max>0 ? Math.min(size*2, max+1) : size*2);
+							System.arraycopy(buf, 0, bigger, 0, size);
+							BufferPool.release(buf);
+							buf = bigger;
+						}
+					}
+				} catch(IOException e) {}
+			}
+			body = Utf8.decode(buf, 0, size, Utf8.charsetOf(conn.getContentType()));
+
+			response = new Response(conn.getResponseCode(), conn.getResponseMessage(), body);
+
+		} catch(Exception e) {
+			response = new Response(Const.ERR_CONN, e.getMessage(), PlugException.getStackTraceOf(e));
+
+		} finally {
+			if(in  != null) { try { in .close(); } catch(Exception e) {} }
+			if(out != null) { try { out.close(); } catch(Exception e) {} }
+			BufferPool.release(buf);
+		}
+
+		return response;
+	}
+
+	private static Response tooLarge(long size, int max) {
+		return new Response(Const.ERR_TOO_LARGE, "response body too large: "+size+" bytes exceed the limit of "+max, null);
+	}
+
+	private static final int BUF_LENGTH = 8*1024;
+	private static final int PREALLOC   = 1024*1024; // the most preallocated for a declared Content-Length
+}
@@ -0,0 +1,962 @@
+package com.cloudplugs.rest;
+
+/*<license>
+Copyright 2014 CloudPlugs Inc.
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+</license>*/
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import com.cloudplugs.util.*;
+
+/**
+ * @brief A non-blocking {@link Transport} driving many concurrent HTTP/1.1 exchanges from a single selector thread.
+ * HTTPS connections are handled by javax.net.ssl.SSLEngine and every connection is kept alive to be reused by the
+ * next requests to the same server.
+ * <br/><br/>
+ * Since {@link #send(Request, int, RestCallback)} never blocks, a spooler running on an executor with a concurrency
+ * greater than 1 (see {@link RestClient#RestClient(java.util.concurrent.Executor, int)}) keeps many requests in flight
+ * without a thread for each of them.
+ * The callbacks receiving the responses are executed in the selector thread, so they should return quickly.
+ * The <tt>timeout</tt> of a request limits both the connection time and the inactivity time while waiting for the response.
+ */
+public class NioTransport implements Transport, Closeable
+{
+	/**
+	 * Create a new transport trusting the official CloudPlugs server for HTTPS connections.
+	 */
+	public NioTransport() {
+		this(null);
+	}
+
+	/**
+	 * Create a new transport using the given SSL context for HTTPS connections.
+	 * @param sslContext the SSL context to use or null for the default one, see {@link SSL#getDefaultContext()};
+	 *                   the SSL context of a request, if any, takes precedence
+	 */
+	public NioTransport(SSLContext sslContext) {
+		this.sslContext = sslContext;
+	}
+
+	@Override
+	public void send(Request request, int timeout, RestCallback done) {
+		if(done == null) throw new NullPointerException("null callback");
+		Exchange ex;
+		try {
+			ex = new Exchange(request, timeout, done);
+			synchronized(this) {
+				if(closed) throw new IOException("transport closed");
+				if(selector == null) {
+					selector = Selector.open();
+					thread = new Thread(NAME) {
+						@Override
+						public void run() {
+							loop();
+						}
+					};
+					thread.setDaemon(true);
+					thread.start();
+				}
+				pending.add(ex);
+			}
+		} catch(Exception e) {
+			done.on(request, error(e));
+			return;
+		}
+		selector.wakeup();
+	}
+
+	/**
+	 * Close all connections and stop the selector thread.
+	 * Requests still in flight complete with an error response.
+	 */
+	@Override
+	public void close() {
+		Selector sel;
+		synchronized(this) {
+			if(closed) return;
+			closed = true;
+			sel = selector;
+		}
+		if(sel == null) return;
+		sel.wakeup();
+		if(Thread.currentThread() != thread) {
+			try { thread.join(); }
+			catch(InterruptedException e) { Thread.currentThread().interrupt(); }
+		}
+	}
+
+	/**
+	 * @return true if {@link #close()} has been called
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * @return the number of open connections, both busy and idle
+	 */
+	public int getConnections() {
+		return nConns;
+	}
+
+	/**
+	 * @return how long an idle connection is kept open to be reused, in milliseconds
+	 */
+	public long getKeepAlive() {
+		return keepAlive;
+	}
+
+	/**
+	 * Set how long an idle connection is kept open to be reused.
+	 * @param keepAlive the maximum idle time in milliseconds, 0 to never reuse a connection
+	 */
+	public void setKeepAlive(long keepAlive) {
+		this.keepAlive = keepAlive<0 ? 0 : keepAlive;
+	}
+
+	/**
+	 * @return the maximum number of connections opened to the same server, 0 if unlimited
+	 */
+	public int getMaxConnectionsPerServer() {
+		return maxPerServer;
+	}
+
+	/**
+	 * Set the maximum number of connections opened to the same server.
+	 * When all of them are busy, further requests to that server wait for the first connection becoming free
+	 * and reuse it, so that many managers and spoolers sharing this transport share a few sockets too.
+	 * @param max the maximum number of connections for each server, 0 for unlimited
+	 */
+	public void setMaxConnectionsPerServer(int max) {
+		maxPerServer = max<0 ? 0 : max;
+		Selector sel = selector;
+		if(sel != null) sel.wakeup();
+	}
+
+	//---- selector thread
+
+	private void loop() {
+		try {
+			while(!closed) {
+				selector.select(nextTimeout());
+				Exchange ex;
+				while((ex = pending.poll()) != null)
+					start(ex, null);
+				dequeue();
+				Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+				while(it.hasNext()) {
+					SelectionKey key = it.next();
+					it.remove();
+					Conn conn = (Conn)key.attachment();
+					try {
+						if(key.isValid() && key.isConnectable()) conn.connected();
+						conn.pump();
+					} catch(Exception e) {
+						conn.fail(e);
+					}
+				}
+				expire();
+				dequeue();
+			}
+		} catch(Throwable t) {
+			ErrHandler handler = ErrHandler.active;
+			if(handler != null) handler.handleErr(t);
+		} finally {
+			synchronized(this) {
+				closed = true;
+			}
+			IOException e = new IOException("transport closed");
+			for(Conn conn : new ArrayList<Conn>(conns))
+				conn.fail(e);
+			Exchange ex;
+			while((ex = pending.poll()) != null)
+				complete(ex, error(e));
+			for(LinkedList<Exchange> list : new ArrayList<LinkedList<Exchange>>(waiting.values()))
+				for(Exchange w : list)
+					complete(w, error(e));
+			waiting.clear();
+			if(resolver != null) resolver.shutdown();
+			try { selector.close(); } catch(IOException e2) {}
+		}
+	}
+
+	private void start(Exchange ex, Conn conn) {
+		try {
+			if(conn == null) conn = takeIdle(ex.key);
+			if(conn == null) {
+				int max = maxPerServer;
+				if(max>0 && countOf(ex.key)>=max) {
+					enqueue(ex);
+					return;
+				}
+				if(ex.address.isUnresolved()) {
+					if(!ex.resolved) {
+						resolve(ex);
+						return;
+					}
+					throw new UnknownHostException(ex.host);
+				}
+				conn = new Conn(ex);
+			}
+			conn.begin(ex);
+		} catch(Exception e) {
+			if(conn != null) conn.close();
+			complete(ex, error(e));
+		}
+	}
+
+	// resolve the server name in a resolver thread, neither the caller of send() nor the selector thread must block;
+	// the exchange is started again when done
+	private void resolve(final Exchange ex) {
+		if(resolver == null) {
+			resolver = Executors.newCachedThreadPool(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, NAME+"-resolver");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		resolver.execute(new Runnable() {
+			@Override
+			public void run() {
+				ex.address  = new InetSocketAddress(ex.host, ex.address.getPort());
+				ex.resolved = true;
+				synchronized(NioTransport.this) {
+					if(!closed) {
+						pending.add(ex);
+						selector.wakeup();
+						return;
+					}
+				}
+				complete(ex, error(new IOException("transport closed")));
+			}
+		});
+	}
+
+	private Conn takeIdle(String key) {
+		LinkedList<Conn> list = idle.get(key);
+		if(list == null) return null;
+		Conn conn = list.removeLast();
+		if(list.isEmpty()) idle.remove(key);
+		return conn;
+	}
+
+	private int countOf(String key) {
+		Integer n = opened.get(key);
+		return n==null ? 0 : n;
+	}
+
+	private void enqueue(Exchange ex) {
+		ex.touch();
+		LinkedList<Exchange> list = waiting.get(ex.key);
+		if(list == null) waiting.put(ex.key, list = new LinkedList<Exchange>());
+		list.add(ex);
+	}
+
+	private Exchange dequeue(String key) {
+		LinkedList<Exchange> list = waiting.get(key);
+		if(list == null) return null;
+		Exchange ex = list.removeFirst();
+		if(list.isEmpty()) waiting.remove(key);
+		return ex;
+	}
+
+	// start the waiting exchanges allowed by the current connection limit
+	private void dequeue() {
+		if(waiting.isEmpty()) return;
+		int max = maxPerServer;
+		for(String key : new ArrayList<String>(waiting.keySet())) {
+			while(waiting.containsKey(key) && (max<=0 || countOf(key)<max))
+				start(dequeue(key), null);
+		}
+	}
+
+	private long nextTimeout() {
+		long next = Long.MAX_VALUE;
+		for(Conn conn : conns) {
+			long deadline = conn.deadline();
+			if(deadline < next) next = deadline;
+		}
+		for(LinkedList<Exchange> list : waiting.values()) {
+			long deadline = list.getFirst().deadline;
+			if(deadline < next) next = deadline;
+		}
+		if(next == Long.MAX_VALUE) return 0;
+		long wait = next - System.currentTimeMillis();
+		return wait<=0 ? 1 : wait;
+	}
+
+	private void expire() {
+		long now = System.currentTimeMillis();
+		for(Conn conn : new ArrayList<Conn>(conns)) {
+			if(conn.deadline() > now) continue;
+			if(conn.ex == null) conn.close();
+			else conn.fail(new SocketTimeoutException("timeout"));
+		}
+		for(Iterator<LinkedList<Exchange>> it = waiting.values().iterator(); it.hasNext(); ) {
+			LinkedList<Exchange> list = it.next();
+			while(!list.isEmpty() && list.getFirst().deadline<=now)
+				complete(list.removeFirst(), error(new SocketTimeoutException("timeout waiting for a connection")));
+			if(list.isEmpty()) it.remove();
+		}
+	}
+
+	private void complete(Exchange ex, Response response) {
+		ex.release();
+		try {
+			ex.done.on(ex.request, response);
+		} catch(Throwable t) {
+			ErrHandler handler = ErrHandler.active;
+			if(handler != null) handler.handleErr(t);
+		}
+	}
+
+	private static Response error(Exception e) {
+		if(e instanceof TooLargeException) return new Response(Const.ERR_TOO_LARGE, e.getMessage(), null);
+		return new Response(Const.ERR_CONN, e.getMessage(), PlugException.getStackTraceOf(e));
+	}
+
+	/**
+	 * @brief A connection to a server, handling at most one exchange at a time.
+	 */
+	private final class Conn {
+		Conn(Exchange ex) throws IOException {
+			key     = ex.key;
+			host    = ex.host;
+			channel = SocketChannel.open();
+			try {
+				channel.configureBlocking(false);
+				channel.socket().setTcpNoDelay(true);
+				if(ex.ssl) {
+					SSLContext ctx = ex.sslContext!=null ? ex.sslContext : sslContext!=null ? sslContext : SSL.getDefaultContext();
+					engine = ctx.createSSLEngine(ex.host, ex.address.getPort());
+					engine.setUseClientMode(true);
+					verifyHost = !identifyEndpoint(engine);
+					netIn  = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+					netOut = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+					appIn  = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+				} else {
+					engine = null;
+					appIn  = ByteBuffer.allocate(BUF_LENGTH);
+				}
+				boolean now = channel.connect(ex.address);
+				selKey = channel.register(selector, now ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, this);
+				if(now) connected();
+			} catch(IOException e) {
+				close();
+				throw e;
+			} catch(Exception e) {
+				close();
+				IOException ioe = new IOException(e.toString());
+				ioe.initCause(e);
+				throw ioe;
+			}
+			conns.add(this);
+			nConns = conns.size();
+			opened.put(key, countOf(key)+1);
+		}
+
+		void begin(Exchange ex) throws IOException {
+			this.ex = ex;
+			ex.touch();
+			if(channel.isConnected()) pump();
+		}
+
+		void connected() throws IOException {
+			channel.finishConnect();
+			selKey.interestOps(SelectionKey.OP_READ);
+			if(engine != null) {
+				handshakeAt = System.currentTimeMillis();
+				engine.beginHandshake();
+			}
+		}
+
+		long deadline() {
+			if(ex != null) return ex.deadline;
+			return keepAlive>0 ? idleSince + keepAlive : 0;
+		}
+
+		void pump() throws IOException {
+			if(!channel.isConnected()) return;
+			boolean eof = read();
+			if(!eof) write();
+			if(engine!=null && !handshaken && engine.getHandshakeStatus()==SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING) {
+				handshaken = true;
+				SSL.onHandshake(handshakeAt, engine.getSession());
+				if(verifyHost && !HttpsURLConnection.getDefaultHostnameVerifier().verify(host, engine.getSession()))
+					throw new SSLPeerUnverifiedException("hostname "+host+" not verified");
+			}
+			Exchange ex = this.ex;
+			if(ex == null) {
+				// an idle connection must not receive anything
+				if(eof || appIn.position()>0) close();
+				return;
+			}
+			if(ex.parse(appIn)) {
+				finish(ex);
+			} else if(eof) {
+				if(ex.state == Exchange.S_EOF) {
+					reuse = false;
+					finish(ex);
+				} else if(reused && !ex.received && (ex.idempotent() || ex.out.position()==0)) {
+					// the server closed an idle connection before our request: retry on a new connection, unless
+					// the server may have already processed a request which must not be repeated
+					this.ex = null;
+					close();
+					ex.reset();
+					start(ex, null);
+				} else {
+					throw new EOFException("connection closed by server");
+				}
+			} else {
+				int ops = SelectionKey.OP_READ;
+				if(hasPendingWrite()) ops |= SelectionKey.OP_WRITE;
+				selKey.interestOps(ops);
+			}
+		}
+
+		void fail(Exception e) {
+			Exchange ex = this.ex;
+			this.ex = null;
+			close();
+			if(ex != null) complete(ex, error(e));
+		}
+
+		void close() {
+			if(conns.remove(this)) {
+				nConns = conns.size();
+				int n = countOf(key) - 1;
+				if(n > 0) opened.put(key, n);
+				else opened.remove(key);
+			}
+			LinkedList<Conn> list = idle.get(key);
+			if(list!=null && list.remove(this) && list.isEmpty()) idle.remove(key);
+			if(selKey != null) selKey.cancel();
+			try { channel.close(); } catch(IOException e) {}
+		}
+
+		private void finish(Exchange ex) {
+			this.ex = null;
+			Exchange next = reuse && ex.keepAlive && !closed ? dequeue(key) : null;
+			if(next != null) {
+				// hand the connection over to the next exchange waiting for this server
+				reused = true;
+				start(next, this);
+			} else if(reuse && ex.keepAlive && keepAlive>0 && !closed) {
+				reused    = true;
+				idleSince = System.currentTimeMillis();
+				selKey.interestOps(SelectionKey.OP_READ);
+				LinkedList<Conn> list = idle.get(key);
+				if(list == null) idle.put(key, list = new LinkedList<Conn>());
+				list.add(this);
+			} else {
+				close();
+			}
+			complete(ex, ex.response());
+		}
+
+		private boolean hasPendingWrite() {
+			if(ex!=null && ex.out.hasRemaining()) return true;
+			return engine!=null && (netOut.position()>0 || engine.getHandshakeStatus()==SSLEngineResult.HandshakeStatus.NEED_WRAP);
+		}
+
+		// read all available bytes into appIn; return true on end of stream
+		private boolean read() throws IOException {
+			if(engine == null) {
+				appIn = ensure(appIn);
+				int n = channel.read(appIn);
+				if(n > 0 && ex != null) ex.touch();
+				return n < 0;
+			}
+			for(;;) {
+				netIn = ensure(netIn);
+				int n = channel.read(netIn);
+				if(n > 0 && ex != null) ex.touch();
+				// the bytes decrypted before a close_notify are still parsed, like the ones before a plain end of stream
+				if(unwrap()) return true;
+				if(n <= 0) return n < 0;
+			}
+		}
+
+		// decrypt the received bytes into appIn; return true when the server closed the SSL connection
+		private boolean unwrap() throws IOException {
+			netIn.flip();
+			try {
+				for(;;) {
+					SSLEngineResult res = engine.unwrap(netIn, appIn);
+					switch(res.getStatus()) {
+						case BUFFER_UNDERFLOW:
+							return false;
+						case BUFFER_OVERFLOW:
+							appIn = grow(appIn, engine.getSession().getApplicationBufferSize());
+							continue;
+						case CLOSED:
+							return true;
+						default:
+							break;
+					}
+					SSLEngineResult.HandshakeStatus hs = runTasks(res.getHandshakeStatus());
+					if(hs == SSLEngineResult.HandshakeStatus.NEED_WRAP) write();
+					if(!netIn.hasRemaining()) return false;
+					if(res.bytesConsumed()==0 && res.bytesProduced()==0 && hs!=SSLEngineResult.HandshakeStatus.NEED_UNWRAP) return false;
+				}
+			} finally {
+				netIn.compact();
+			}
+		}
+
+		private void write() throws IOException {
+			ByteBuffer out = ex==null ? EMPTY : ex.out;
+			if(engine == null) {
+				if(out.hasRemaining()) channel.write(out);
+				return;
+			}
+			for(;;) {
+				if(netOut.position() > 0) {
+					netOut.flip();
+					channel.write(netOut);
+					boolean pending = netOut.hasRemaining();
+					netOut.compact();
+					if(pending) return;
+				}
+				SSLEngineResult.HandshakeStatus hs = engine.getHandshakeStatus();
+				boolean handshaking = hs!=SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING && hs!=SSLEngineResult.HandshakeStatus.FINISHED;
+				if(handshaking && hs!=SSLEngineResult.HandshakeStatus.NEED_WRAP) return;
+				if(!handshaking && !out.hasRemaining()) return;
+				SSLEngineResult res = engine.wrap(out, netOut);
+				switch(res.getStatus()) {
+					case BUFFER_OVERFLOW:
+						netOut = grow(netOut, engine.getSession().getPacketBufferSize());
+						continue;
+					case CLOSED:
+						throw new SSLException("SSL connection closed");
+					default:
+						break;
+				}
+				runTasks(res.getHandshakeStatus());
+				if(res.bytesProduced() == 0) return;
+			}
+		}
+
+		private SSLEngineResult.HandshakeStatus runTasks(SSLEngineResult.HandshakeStatus hs) {
+			if(hs != SSLEngineResult.HandshakeStatus.NEED_TASK) return hs;
+			Runnable task;
+			while((task = engine.getDelegatedTask()) != null)
+				task.run();
+			return engine.getHandshakeStatus();
+		}
+
+		private final String        key;
+		private final String        host;
+		private final SocketChannel channel;
+		private final SSLEngine     engine;
+		private SelectionKey selKey;
+		private ByteBuffer   netIn;
+		private ByteBuffer   netOut;
+		private ByteBuffer   appIn;
+		private Exchange     ex;
+		private boolean      handshaken = false;
+		private boolean      verifyHost = false;
+		private boolean      reused     = false;
+		private boolean      reuse      = true;
+		private long         idleSince;
+		private long         handshakeAt;
+	}
+
+	/**
+	 * @brief A single HTTP/1.1 request and the incremental parser of its response.
+	 */
+	private static final class Exchange {
+		static final int S_STATUS     = 0;
+		static final int S_HEADER     = 1;
+		static final int S_BODY       = 2;
+		static final int S_CHUNK_SIZE = 3;
+		static final int S_CHUNK_DATA = 4;
+		static final int S_CHUNK_END  = 5;
+		static final int S_TRAILER    = 6;
+		static final int S_EOF        = 7;
+		static final int S_DONE       = 8;
+
+		Exchange(Request request, int timeout, RestCallback done) throws IOException {
+			URL url = request.toURL();
+			String proto = url.getProtocol();
+			if("https".equals(proto)) ssl = true;
+			else if("http".equals(proto)) ssl = false;
+			else throw new IOException("unsupported protocol: "+proto);
+			int port = url.getPort();
+			if(port < 0) port = url.getDefaultPort();
+			this.host    = url.getHost();
+			this.sslContext = ssl ? request.getSSLContext() : null;
+			// connections made with different SSL contexts are never shared
+			this.key     = proto+"://"+host+':'+port+(sslContext==null ? "" : "#"+idOf(sslContext));
+			this.address = InetSocketAddress.createUnresolved(host, port);
+			this.request = request;
+			this.done    = done;
+			this.timeout = timeout>0 ? timeout*1000L : 0;
+			this.maxBody = request.getMaxBodySize();
+			this.out     = encode(request, url, port);
+			reset();
+		}
+
+		void reset() {
+			out.rewind();
+			state     = S_STATUS;
+			received  = false;
+			keepAlive = true;
+			status    = 0;
+			msg       = null;
+			length    = -1;
+			chunked   = false;
+			charset   = Utf8.NAME;
+			size      = 0;
+		}
+
+		// give the pooled buffers back, the exchange must not be used anymore
+		void release() {
+			if(released) return;
+			released = true;
+			BufferPool.release(out.array());
+			BufferPool.release(data);
+			data = null;
+		}
+
+		// a request which can be sent twice without further effects on the server
+		boolean idempotent() {
+			String method = request.getMethod();
+			return Request.GET.equals(method) || HEAD.equals(method) || Request.DELETE.equals(method);
+		}
+
+		void touch() {
+			deadline = timeout>0 ? System.currentTimeMillis()+timeout : Long.MAX_VALUE;
+		}
+
+		Response response() {
+			return new Response(status, msg, Utf8.decode(data, 0, size, charset));
+		}
+
+		// consume the received bytes of buf; return true when the response is complete
+		boolean parse(ByteBuffer buf) throws IOException {
+			if(buf.position() == 0) return state == S_DONE;
+			received = true;
+			buf.flip();
+			try {
+				for(;;) {
+					String line;
+					switch(state) {
+						case S_STATUS:
+							if((line = readLine(buf)) == null) return false;
+							parseStatus(line);
+							state = S_HEADER;
+							break;
+						case S_HEADER:
+							if((line = readLine(buf)) == null) return false;
+							if(line.length() > 0) {
+								parseHeader(line);
+							} else if(status>=100 && status<200) {
+								state = S_STATUS;   // skip interim responses
+							} else if(HEAD.equals(request.getMethod()) || status==204 || status==304) {
+								state = S_DONE;
+							} else if(chunked) {
+								state = S_CHUNK_SIZE;
+							} else if(length >= 0) {
+								if(maxBody>0 && length>maxBody) throw new TooLargeException(length, maxBody);
+								if(length > 0) ensure((int)Math.min(length, PREALLOC));
+								state = length==0 ? S_DONE : S_BODY;
+							} else {
+								keepAlive = false;
+								state = S_EOF;
+							}
+							break;
+						case S_BODY:
+							copy(buf);
+							if(length == 0) state = S_DONE;
+							else return false;
+							break;
+						case S_CHUNK_SIZE:
+							if((line = readLine(buf)) == null) return false;
+							int semi = line.indexOf(';');
+							try {
+								length = Long.parseLong((semi<0 ? line : line.substring(0, semi)).trim(), 16);
+							} catch(NumberFormatException e) {
+								throw new IOException("invalid chunk size");
+							}
+							if(maxBody>0 && size+length>maxBody) throw new TooLargeException(size+length, maxBody);
+							state = length==0 ? S_TRAILER : S_CHUNK_DATA;
+							break;
+						case S_CHUNK_DATA:
+							copy(buf);
+							if(length == 0) state = S_CHUNK_END;
+							else return false;
+							break;
+						case S_CHUNK_END:
+							if((line = readLine(buf)) == null) return false;
+							state = S_CHUNK_SIZE;
+							break;
+						case S_TRAILER:
+							if((line = readLine(buf)) == null) return false;
+							if(line.length() == 0) state = S_DONE;
+							break;
+						case S_EOF:
+							length = buf.remaining();
+							copy(buf);
+							return false;
+						default:
+							if(buf.hasRemaining()) keepAlive = false;
+							return true;
+					}
+				}
+			} finally {
+				buf.compact();
+			}
+		}
+
+		private void copy(ByteBuffer buf) throws TooLargeException {
+			int n = (int)Math.min(length, buf.remaining());
+			if(n <= 0) return;
+			if(maxBody>0 && size+n>maxBody) throw new TooLargeException(size+n, maxBody);
+			ensure(size+n);
+			buf.get(data, size, n);
+			size   += n;
+			length -= n;
+		}
+
+		// make room for at least the given amount of body bytes
+		private void ensure(int capacity) {
+			if(data!=null && data.length>=capacity) return;
+			int n = data==null ? BUF_LENGTH : data.length*2;
+			byte[] bigger = BufferPool.acquire(Math.max(n, capacity));
+			if(data != null) {
+				System.arraycopy(data, 0, bigger, 0, size);
+				BufferPool.release(data);
+			}
+			data = bigger;
+		}
+
+		private void parseStatus(String line) throws IOException {
+			// HTTP/1.1 200 OK
+			int p1 = line.indexOf(' ');
+			if(p1<0 || !line.startsWith("HTTP/")) throw new IOException("invalid status line: "+line);
+			if(line.startsWith("HTTP/1.0")) keepAlive = false;
+			int p2 = line.indexOf(' ', p1+1);
+			try {
+				status = Integer.parseInt(p2<0 ? line.substring(p1+1) : line.substring(p1+1, p2));
+			} catch(NumberFormatException e) {
+				throw new IOException("invalid status line: "+line);
+			}
+			msg = p2<0 ? "" : line.substring(p2+1);
+		}
+
+		private void parseHeader(String line) throws IOException {
+			int p = line.indexOf(':');
+			if(p <= 0) return;
+			String name  = line.substring(0, p).trim();
+			String value = line.substring(p+1).trim();
+			if("Content-Length".equalsIgnoreCase(name)) {
+				try {
+					length = Long.parseLong(value);
+				} catch(NumberFormatException e) {
+					throw new IOException("invalid content length");
+				}
+			} else if("Content-Type".equalsIgnoreCase(name)) {
+				charset = Utf8.charsetOf(value);
+			} else if("Transfer-Encoding".equalsIgnoreCase(name)) {
+				chunked = value.toLowerCase().contains("chunked");
+			} else if("Connection".equalsIgnoreCase(name)) {
+				String v = value.toLowerCase();
+				if(v.contains("close")) keepAlive = false;
+				else if(v.contains("keep-alive")) keepAlive = true;
+			}
+		}
+
+		private static String readLine(ByteBuffer buf) throws IOException {
+			int start = buf.position();
+			int end   = buf.limit();
+			for(int i=start; i<end; ++i) {
+				if(buf.get(i) != '\n') continue;
+				int n = i - start;
+				if(n>0 && buf.get(i-1)=='\r') --n;
+				String line = new String(buf.array(), buf.arrayOffset()+start, n, LATIN1);
+				buf.position(i+1);
+				return line;
+			}
+			if(end-start >= MAX_LINE) throw new IOException("line too long");
+			return null;
+		}
+
+		private static ByteBuffer encode(Request request, URL url, int port) throws IOException {
+			String path = url.getFile();
+			if(path.length() == 0) path = "/";
+			String body = request.getBody();
+			int bodyLen = body==null ? 0 : Utf8.length(body);
+			StringBuilder sb = new StringBuilder(256);
+			sb.append(request.getMethod()).append(' ').append(path).append(" HTTP/1.1\r\n");
+			sb.append("Host: ").append(url.getHost());
+			if(port != url.getDefaultPort()) sb.append(':').append(port);
+			sb.append("\r\n");
+			byte[] start = sb.toString().getBytes(UTF8);
+			byte[] headers = request.getHeaderBlock();
+			sb.setLength(0);
+			sb.append("Accept: application/json\r\n");
+			sb.append("User-Agent: ").append(Const.USER_AGENT).append("\r\n");
+			if(bodyLen > 0) {
+				sb.append("Content-Type: application/json; charset=utf-8\r\n");
+				sb.append("Content-Length: ").append(bodyLen).append("\r\n");
+			} else if(!Request.GET.equals(request.getMethod()) && !HEAD.equals(request.getMethod())) {
+				sb.append("Content-Length: 0\r\n");
+			}
+			sb.append("\r\n");
+			byte[] end = sb.toString().getBytes(UTF8);
+			int n = start.length + headers.length + end.length;
+			int total = n + bodyLen;
+			byte[] res = BufferPool.acquire(total);
+			System.arraycopy(start  , 0, res, 0, start.length);
+			System.arraycopy(headers, 0, res, start.length, headers.length);
+			System.arraycopy(end    , 0, res, start.length+headers.length, end.length);
+			if(bodyLen > 0) Utf8.encode(body, res, n);
+			return ByteBuffer.wrap(res, 0, total);
+		}
+
+		final Request           request;
+		final RestCallback      done;
+		final String            host;
+		final String            key;
+		final boolean           ssl;
+		final SSLContext        sslContext;
+		final long              timeout;
+		final int               maxBody;
+		final ByteBuffer        out;
+		long    deadline = Long.MAX_VALUE;
+		int     state;
+		boolean received;
+		boolean keepAlive;
+		int     status;
+		String  msg;
+		long    length;
+		boolean chunked;
+		String  charset;
+		private byte[]  data;
+		private int     size;
+		private boolean released;
+		volatile InetSocketAddress address;
+		volatile boolean           resolved;
+	}
+
+	/**
+	 * @brief Thrown when the body of a response exceeds the maximum size of its request.
+	 */
+	static final class TooLargeException extends IOException {
+		TooLargeException(long size, int max) {
+			super("response body too large: "+size+" bytes exceed the limit of "+max);
+		}
+
+		private static final long serialVersionUID = 1L;
+	}
+
+	// let the engine verify the server hostname, if supported by the platform
+	private static boolean identifyEndpoint(SSLEngine engine) {
+		try {
+			SSLParameters params = engine.getSSLParameters();
+			params.setEndpointIdentificationAlgorithm("HTTPS");
+			engine.setSSLParameters(params);
+			return true;
+		} catch(LinkageError e) {
+			return false;
+		}
+	}
+
+	// make sure the buffer has free space for reading
+	private static ByteBuffer ensure(ByteBuffer buf) {
+		return buf.hasRemaining() ? buf : grow(buf, buf.capacity());
+	}
+
+	private static ByteBuffer grow(ByteBuffer buf, int more) {
+		ByteBuffer res = ByteBuffer.allocate(buf.capacity() + more);
+		buf.flip();
+		res.put(buf);
+		return res;
+	}
+
+	private static final String     NAME       = NioTransport.class.getSimpleName();
+	private static final String     HEAD       = "HEAD";
+	private static final String     UTF8       = "UTF-8";
+	private static final String     LATIN1     = "ISO-8859-1";
+	private static final int        BUF_LENGTH = 8*1024;
+	private static final int        PREALLOC   = 1024*1024; // the most preallocated for a declared Content-Length
+	private static final int        MAX_LINE   = 64*1024;
+	private static final ByteBuffer EMPTY      = ByteBuffer.allocate(0);
+
+	// a stable id of a context, to tell apart the connections using different contexts
+	static int idOf(SSLContext ctx) {
+		synchronized(contextIds) {
+			Integer id = contextIds.get(ctx);
+			if(id == null) contextIds.put(ctx, id = ++nextId);
+			return id;
+		}
+	}
+
+	private static final Map<SSLContext,Integer> contextIds = new WeakHashMap<SSLContext,Integer>();
+	private static int nextId = 0;
+
+	private final SSLContext sslContext;
+	private final ConcurrentLinkedQueue<Exchange> pending = new ConcurrentLinkedQueue<Exchange>();
+	// the following fields are accessed only by the selector thread
+	private final Set<Conn> conns = new HashSet<Conn>();
+	private final Map<String,LinkedList<Conn>> idle = new HashMap<String,LinkedList<Conn>>();
+	private final Map<String,LinkedList<Exchange>> waiting = new HashMap<String,LinkedList<Exchange>>();
+	private final Map<String,Integer> opened = new HashMap<String,Integer>();
+
+	private volatile boolean closed       = false;
+	private volatile int     nConns       = 0;
+	private volatile long    keepAlive    = 30*1000;
+	private volatile int     maxPerServer = 0;
+	private Selector selector;
+	private Thread   thread;
+	private ExecutorService resolver; // created by the selector thread
+}
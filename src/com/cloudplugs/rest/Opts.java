@@ -23,6 +23,7 @@ under the License.
 
 import java.net.MalformedURLException;
 import java.net.URL;
+import javax.net.ssl.SSLContext;
 import org.json.*;
 import com.cloudplugs.util.*;
 
@@ -44,6 +45,17 @@ public final class Opts
 	public static final String K_URL = "url";
 	/** Key name of connection timeout when importing or exporting options to JSON. */
 	public static final String K_TIMEOUT = "timeout";
+	/** Key name of maximum response body size when importing or exporting options to JSON. */
+	public static final String K_MAXBODY = "maxBody";
+	/** Key name of maximum request delay when importing or exporting options to JSON. */
+	public static final String K_MAXDELAY = "maxDelay";
+	/** Key name of the network constraint when importing or exporting options to JSON. */
+	public static final String K_NETWORK = "network";
+
+	/** Network constraint: the requests can be sent over any network. */
+	public static final int NET_ANY       = 0;
+	/** Network constraint: the requests must wait for an unmetered network, like Wi-Fi, for instance for bulk uploads. */
+	public static final int NET_UNMETERED = 1;
 
 	/** The default SSL state: true if enabled, otherwise disabled. */
 	public static final boolean DEF_SSL = Const.DEFAULT_URL.startsWith("https");
@@ -51,6 +63,12 @@ public final class Opts
 	public static final String DEF_URL = makeUrl(Const.DEFAULT_URL, DEF_SSL);
 	/** The default connection timeout. */
 	public static final int DEF_TIMEOUT  = Const.DEFAULT_TIMEOUT;
+	/** The default maximum response body size: unlimited. */
+	public static final int DEF_MAXBODY  = 0;
+	/** The default maximum request delay: requests are not deferrable. */
+	public static final int DEF_MAXDELAY = 0;
+	/** The default network constraint: any network. */
+	public static final int DEF_NETWORK  = NET_ANY;
 	/** The default authentication identifier. */
 	public static final String DEF_AUTHID = Const.DEFAULT_AUTHID;
 	/** The default authentication password. */
@@ -105,8 +123,11 @@ public final class Opts
 	 * @throws RestException for invalid url
 	 */
 	public Opts setUrl(String url) {
-		this.url = makeUrl(url, ssl);
-		this.ssl = this.url.charAt(4) == 's';
+		String res = makeUrl(url, ssl);
+		if(res.equals(this.url)) return this;
+		this.url  = res;
+		this.ssl  = res.charAt(4) == 's';
+		this.urls = null;
 		return this;
 	}
 
@@ -183,6 +204,7 @@ public final class Opts
 	public Opts setAuth(String id, String pass, boolean master) {
 		if(id==null || (id.indexOf('@')<=0 && !PlugId.isDev(id))) throw new IllegalArgumentException("invalid id");
 		Validate.pass(pass);
+		if(!id.equals(authId) || !pass.equals(authPass) || master!=authMaster) headers = null;
 		authId     = id;
 		authPass   = pass;
 		authMaster = master;
@@ -217,6 +239,92 @@ public final class Opts
 		return this;
 	}
 
+	/**
+	 * Maximum response body size getter.
+	 * @return the current maximum size in bytes of the response bodies, 0 if unlimited
+	 */
+	public int getMaxBodySize() {
+		return maxBody;
+	}
+
+	/**
+	 * Maximum response body size setter.
+	 * Responses declaring or reaching a bigger body are discarded as soon as the limit is exceeded and the requests
+	 * complete with status {@link Const#ERR_TOO_LARGE}, so that unexpectedly big responses cannot exhaust the memory.
+	 * @param maxBody the maximum size in bytes of the response bodies, 0 for unlimited
+	 * @return this instance
+	 */
+	public Opts setMaxBodySize(int maxBody) {
+		this.maxBody = maxBody<0 ? DEF_MAXBODY : maxBody;
+		return this;
+	}
+
+	/**
+	 * Maximum request delay getter.
+	 * @return the current milliseconds the requests can be deferred, 0 if they are not deferrable
+	 */
+	public int getMaxDelay() {
+		return maxDelay;
+	}
+
+	/**
+	 * Maximum request delay setter.
+	 * Deferrable requests can be held and sent together with other requests to save energy when the client
+	 * schedules the requests according to the radio state, see {@link RadioScheduler}; otherwise they are sent as
+	 * soon as possible like any other request.
+	 * @param maxDelay the milliseconds the requests can be deferred, 0 for not deferrable requests
+	 * @return this instance
+	 */
+	public Opts setMaxDelay(int maxDelay) {
+		this.maxDelay = maxDelay<0 ? DEF_MAXDELAY : maxDelay;
+		return this;
+	}
+
+	/**
+	 * Network constraint getter.
+	 * @return the network constraint of the requests, {@link #NET_ANY} or {@link #NET_UNMETERED}
+	 */
+	public int getNetwork() {
+		return network;
+	}
+
+	/**
+	 * Network constraint setter.
+	 * Requests with different constraints to the same server are sent by different spoolers (lanes), so a client
+	 * aware of the network type can hold the requests needing an unmetered network while the others keep flowing,
+	 * see {@link com.cloudplugs.rest.android.RestClient}. On the Java platform the constraint is not enforced.
+	 * @param network {@link #NET_ANY} or {@link #NET_UNMETERED}
+	 * @return this instance
+	 * @throws IllegalArgumentException for an unknown constraint
+	 */
+	public Opts setNetwork(int network) {
+		if(network!=NET_ANY && network!=NET_UNMETERED) throw new IllegalArgumentException("invalid network constraint");
+		this.network = network;
+		return this;
+	}
+
+	/**
+	 * SSL context getter.
+	 * @return the SSL context of the HTTPS connections, null for the default one, see {@link SSL#getDefaultContext()}
+	 */
+	public SSLContext getSSLContext() {
+		return sslContext;
+	}
+
+	/**
+	 * SSL context setter.
+	 * The context only applies to the requests made with these options, without changing any JVM-wide default,
+	 * so different servers can be trusted and tuned independently; a context shared among several options keeps
+	 * its sessions cache shared too, see {@link SSL#getSharedContextOf(java.security.cert.Certificate)}.
+	 * This option is not imported nor exported as JSON.
+	 * @param sslContext the SSL context of the HTTPS connections, null for the default one
+	 * @return this instance
+	 */
+	public Opts setSSLContext(SSLContext sslContext) {
+		this.sslContext = sslContext;
+		return this;
+	}
+
 	/**
 	 * Import options from another <tt>Opts</tt> instance.
 	 * @param opts the options to import
@@ -231,6 +339,12 @@ public final class Opts
 		authPass   = opts.authPass;
 		authMaster = opts.authMaster;
 		timeout    = opts.timeout;
+		maxBody    = opts.maxBody;
+		maxDelay   = opts.maxDelay;
+		network    = opts.network;
+		sslContext = opts.sslContext;
+		headers    = opts.headers;
+		urls       = opts.urls;
 		return this;
 	}
 
@@ -269,6 +383,9 @@ public final class Opts
 			setUrl(jso.getString(K_URL));
 			setAuth(jso.getString(K_AUTHID), jso.getString(K_AUTHPASS), jso.getBoolean(K_AUTHMASTER));
 			setTimeout(jso.getInt(K_TIMEOUT));
+			if(jso.has(K_MAXBODY)) setMaxBodySize(jso.getInt(K_MAXBODY));
+			if(jso.has(K_MAXDELAY)) setMaxDelay(jso.getInt(K_MAXDELAY));
+			if(jso.has(K_NETWORK)) setNetwork(jso.getInt(K_NETWORK));
 			return this;
 		} catch(Exception e) {
 			throw new IllegalArgumentException(e);
@@ -288,6 +405,9 @@ public final class Opts
 			jso.put(K_AUTHMASTER, authMaster);
 			jso.put(K_URL       , url);
 			jso.put(K_TIMEOUT   , timeout);
+			jso.put(K_MAXBODY   , maxBody);
+			jso.put(K_MAXDELAY  , maxDelay);
+			jso.put(K_NETWORK   , network);
 			return jso;
 		} catch(Exception e) {
 			throw new RestException(e);
@@ -304,6 +424,75 @@ public final class Opts
 		return toJSON().toString();
 	}
 
+	/**
+	 * @return the HTTP headers carrying the authentication credentials, or null if there are no credentials;
+	 *         the returned array is shared by all requests and must not be modified
+	 */
+	String[] getAuthHeaders() {
+		AuthHeaders h = authHeaders();
+		return h==null ? null : h.list;
+	}
+
+	/**
+	 * @return the HTTP headers carrying the authentication credentials encoded as <tt>"Name: value\r\n"</tt> lines,
+	 *         or null if there are no credentials; the returned array is shared and must not be modified
+	 */
+	byte[] getAuthHeaderBlock() {
+		AuthHeaders h = authHeaders();
+		return h==null ? null : h.block;
+	}
+
+	/**
+	 * Resolve a path against the connection URL.
+	 * The most recently resolved paths are cached, so that repeated requests skip the URL parsing.
+	 * @param path the path to resolve
+	 * @return the resolved URL
+	 * @throws MalformedURLException if the resulting URL is invalid
+	 */
+	URL resolve(String path) throws MalformedURLException {
+		Urls u = urls;
+		if(u == null) urls = u = new Urls(url);
+		URL res = u.cache.get(path);
+		if(res == null) res = u.cache.put(path, new URL(u.base.getProtocol(), u.base.getHost(), u.base.getPort(), u.base.getFile()+path));
+		return res;
+	}
+
+	private AuthHeaders authHeaders() {
+		AuthHeaders h = headers;
+		if(h==null && authId!=null) headers = h = new AuthHeaders(authId, authPass, authMaster);
+		return h;
+	}
+
+	/**
+	 * @brief The immutable header block of some credentials, computed once and shared by all requests using them.
+	 */
+	private static final class AuthHeaders {
+		AuthHeaders(String id, String pass, boolean master) {
+			list = new String[] {
+				id.indexOf('@')>0 ? Const.HEADER_EMAIL : Const.HEADER_PLUGID,
+				id,
+				master ? Const.HEADER_MASTER : Const.HEADER_AUTH,
+				pass==null ? "" : pass,
+			};
+			block = Request.encodeHeaders(list);
+		}
+
+		final String[] list;
+		final byte[]   block;
+	}
+
+	/**
+	 * @brief The parsed connection URL and the cache of the paths resolved against it.
+	 */
+	private static final class Urls {
+		Urls(String url) throws MalformedURLException {
+			base = new URL(url);
+		}
+
+		final URL base;
+		final LruCache<String,URL> cache = new LruCache<String,URL>(64);
+	}
+
 	private static String makeUrl(String url, Boolean ssl) {
 		if(url == null) throw new NullPointerException("null url");
 		if(url.length() < 8) throw new IllegalArgumentException("url too short");
@@ -331,4 +520,10 @@ public final class Opts
 	private boolean authMaster = DEF_AUTHMASTER;
 	private boolean ssl        = DEF_SSL;
 	private int     timeout    = DEF_TIMEOUT;
+	private int     maxBody    = DEF_MAXBODY;
+	private int     maxDelay   = DEF_MAXDELAY;
+	private int     network    = DEF_NETWORK;
+	private SSLContext  sslContext;
+	private AuthHeaders headers;
+	private Urls        urls;
 }
@@ -0,0 +1,238 @@
+package com.cloudplugs.rest;
+
+/*<license>
+Copyright 2014 CloudPlugs Inc.
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+</license>*/
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+import org.json.JSONArray;
+
+/**
+ * @brief A blocking iterator over the elements of a paginated query, like the published data or the channel names.
+ * The pages are requested with increasing offsets, and the next pages are requested in advance while the elements of
+ * the current one are consumed, so that the latency of the server is hidden behind the processing of the elements.
+ * At most <tt>prefetch</tt> pages are buffered or pending at any time.
+ * <br/><br/>
+ * Since the pages are requested concurrently, they are addressed by offset instead of by the timestamp or ID of the
+ * last received element; so data published during the iteration may shift the pages. To get a stable view, bound
+ * the query with the <tt>before</tt> or <tt>after</tt> arguments.
+ * <br/><br/>
+ * The methods {@link #hasNext()} and {@link #next()} block until the needed page is received, so they must not be
+ * called by the thread of the underlying spooler. See {@link RestManager#iterateData} and {@link RestManager#iterateChannels}.
+ */
+public class Pager implements Iterator<Object>, Closeable
+{
+	/**
+	 * @brief The source of the pages of a {@link Pager}.
+	 */
+	public interface Fetcher
+	{
+		/**
+		 * Enqueue the asynchronous request of a page.
+		 * @param offset how many elements to skip
+		 * @param limit maximum number of elements in the page
+		 * @param cb the callback receiving the response, its body must be a JSON array
+		 * @return the identifier of the asynchronous execution
+		 */
+		public int fetch(int offset, int limit, RestCallback cb);
+	}
+
+	/**
+	 * Create a new iterator and request the first pages.
+	 * @param fetcher the source of the pages
+	 * @param pageSize the maximum number of elements in every page
+	 * @param prefetch the maximum number of pages buffered or pending, at least 1
+	 * @throws IllegalArgumentException for not positive <tt>pageSize</tt> or <tt>prefetch</tt>
+	 */
+	public Pager(Fetcher fetcher, int pageSize, int prefetch) {
+		if(fetcher == null) throw new NullPointerException("null fetcher");
+		if(pageSize <= 0) throw new IllegalArgumentException("invalid page size");
+		if(prefetch <= 0) throw new IllegalArgumentException("invalid prefetch");
+		this.fetcher  = fetcher;
+		this.pageSize = pageSize;
+		this.prefetch = prefetch;
+		fill();
+	}
+
+	/**
+	 * Wait for the next element, if any.
+	 * @return true if there is another element
+	 * @throws RestException if the request of a page fails or if the current thread is interrupted while waiting
+	 */
+	@Override
+	public boolean hasNext() {
+		for(;;) {
+			synchronized(this) {
+				if(items!=null && pos<items.length()) return true;
+				if(closed || ended) return false;
+				Page page = pages.getFirst();
+				try {
+					while(!page.done && !closed) wait();
+				} catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new RestException(e);
+				}
+				if(closed) return false;
+				pages.removeFirst();
+				if(page.error != null) {
+					close();
+					throw new RestException("failed page at offset "+page.offset+": "+page.error);
+				}
+				items = page.items;
+				pos   = 0;
+				if(items.length() < pageSize) {
+					// the last page: discard the pages requested after it
+					ended = true;
+					pages.clear();
+				}
+			}
+			fill();
+		}
+	}
+
+	/**
+	 * Wait for the next element and return it.
+	 * @return the next element, an instance of {@link org.json.JSONObject} for published data or a String for channel names
+	 * @throws NoSuchElementException if there are no more elements
+	 * @throws RestException if the request of a page fails or if the current thread is interrupted while waiting
+	 */
+	@Override
+	public Object next() {
+		if(!hasNext()) throw new NoSuchElementException();
+		synchronized(this) {
+			return items.opt(pos++);
+		}
+	}
+
+	/**
+	 * Not supported.
+	 * @throws UnsupportedOperationException always
+	 */
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Stop the iteration, discarding buffered pages and the responses of pending ones.
+	 */
+	@Override
+	public synchronized void close() {
+		if(closed) return;
+		closed = true;
+		pages.clear();
+		items = null;
+		notifyAll();
+	}
+
+	/**
+	 * @return true if {@link #close()} has been called
+	 */
+	public synchronized boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * @return the number of elements already received and not yet consumed
+	 */
+	public synchronized int getBuffered() {
+		int n = items==null ? 0 : items.length() - pos;
+		for(Page page : pages)
+			if(page.items != null)
+				n += page.items.length();
+		return n;
+	}
+
+	// request pages until reaching the prefetch limit; the fetcher is called without holding the lock
+	private void fill() {
+		for(;;) {
+			Page page;
+			synchronized(this) {
+				if(closed || ended || pages.size()>=prefetch) return;
+				page = new Page(nextOffset);
+				nextOffset += pageSize;
+				pages.add(page);
+			}
+			try {
+				fetcher.fetch(page.offset, pageSize, page);
+			} catch(RuntimeException e) {
+				synchronized(this) {
+					page.error = e.toString();
+					page.done  = true;
+					notifyAll();
+				}
+				return;
+			}
+		}
+	}
+
+	private synchronized void received(Page page, Response response) {
+		if(page.done) return;
+		if(response.isSuccess() || response.isPartial()) {
+			Object body;
+			try {
+				body = response.getBodyAsJson();
+			} catch(RuntimeException e) {
+				body = null;
+			}
+			if(body == null) page.items = EMPTY;
+			else if(body instanceof JSONArray) page.items = (JSONArray)body;
+			else page.error = "response body is not an array";
+		} else {
+			page.error = response.toString();
+		}
+		page.done = true;
+		notifyAll();
+	}
+
+	/**
+	 * @brief A requested page and its response.
+	 */
+	private final class Page implements RestCallback {
+		Page(int offset) {
+			this.offset = offset;
+		}
+
+		@Override
+		public void on(Request request, Response response) {
+			received(this, response);
+		}
+
+		final int offset;
+		JSONArray items;
+		String    error;
+		boolean   done = false;
+	}
+
+	private static final JSONArray EMPTY = new JSONArray();
+
+	private final Fetcher fetcher;
+	private final int     pageSize;
+	private final int     prefetch;
+	private final LinkedList<Page> pages = new LinkedList<Page>();
+	private JSONArray items;
+	private int       pos;
+	private int       nextOffset = 0;
+	private boolean   ended      = false;
+	private boolean   closed     = false;
+}
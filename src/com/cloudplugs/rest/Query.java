@@ -0,0 +1,253 @@
+package com.cloudplugs.rest;
+
+/*<license>
+Copyright 2014 CloudPlugs Inc.
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+</license>*/
+
+import java.util.Date;
+
+/**
+ * @brief A reusable builder of URL query strings.
+ * Values are appended through typed methods, so that numbers are never boxed, and they are percent-encoded like
+ * java.net.URLEncoder does with UTF-8, but without any allocation for the common ASCII strings.
+ * The library reuses one instance per thread, while any other user creates its own builder.
+ */
+public final class Query
+{
+	/**
+	 * Create a new empty builder.
+	 */
+	public Query() {}
+
+	// the empty builder of the current thread, released by build(); a nested use on the same thread, for example by
+	// the toString() of a value, gets a new instance instead of clearing the one being built
+	static Query get() {
+		Query q = local.get();
+		if(q.busy) return new Query();
+		q.busy = true;
+		q.sb.setLength(0);
+		return q;
+	}
+
+	/**
+	 * Append a parameter with a string value.
+	 * @param key the parameter name
+	 * @param val the parameter value, if null the parameter is not appended
+	 * @return this instance
+	 */
+	public Query add(String key, String val) {
+		if(val != null) esc(key(key), val);
+		return this;
+	}
+
+	/**
+	 * Append a parameter with a positive integer value.
+	 * @param key the parameter name
+	 * @param val the parameter value, if not greater than zero the parameter is not appended
+	 * @return this instance
+	 */
+	public Query add(String key, int val) {
+		if(val > 0) key(key).append(val);
+		return this;
+	}
+
+	/**
+	 * Append a parameter with a long value.
+	 * @param key the parameter name
+	 * @param val the parameter value
+	 * @return this instance
+	 */
+	public Query add(String key, long val) {
+		key(key).append(val);
+		return this;
+	}
+
+	/**
+	 * Append a parameter with a value of any type accepted by the REST API: a String, a Number, a java.util.Date or
+	 * an array of them to be joined as CSV.
+	 * @param key the parameter name
+	 * @param val the parameter value, if null or empty the parameter is not appended
+	 * @return this instance
+	 */
+	public Query add(String key, Object val) {
+		if(val == null) return this;
+		int len = sb.length();
+		key(key);
+		if(!value(val)) sb.setLength(len);
+		return this;
+	}
+
+	/**
+	 * Append a timestamp parameter, accepting the same values of {@link com.cloudplugs.util.Timestamp#from(Object, String)}.
+	 * @param key the parameter name
+	 * @param val the timestamp as Number, java.util.Date or String, if null, empty or not positive the parameter is not appended
+	 * @return this instance
+	 * @throws IllegalArgumentException for values of other types
+	 */
+	public Query ts(String key, Object val) {
+		if(val == null) return this;
+		if(val instanceof Number) {
+			long l = ((Number)val).longValue();
+			if(l > 0) {
+				if(val instanceof Double || val instanceof Float) key(key).append(val);
+				else add(key, l);
+			}
+		} else if(val instanceof Date) {
+			add(key, ((Date)val).getTime());
+		} else if(val instanceof String) {
+			String str = (String)val;
+			if(str.length() > 0) {
+				// numeric strings are sent as parsed by Long.parseLong, so "+5" is sent as 5
+				if(isLong(str)) {
+					try {
+						add(key, Long.parseLong(str));
+						return this;
+					} catch(NumberFormatException e) {}
+				}
+				add(key, str);
+			}
+		} else {
+			busy = false;
+			throw new IllegalArgumentException("invalid "+key);
+		}
+		return this;
+	}
+
+	/**
+	 * Obtain the query string, after which the builder must not be used anymore unless created by {@link #Query()}.
+	 * @return the query string beginning with <tt>'?'</tt> or null if no parameter has been appended
+	 */
+	public String build() {
+		busy = false;
+		return sb.length()==0 ? null : sb.toString();
+	}
+
+	@Override
+	public String toString() {
+		return sb.toString();
+	}
+
+	/**
+	 * Append a string to a builder, percent-encoding it like java.net.URLEncoder with UTF-8.
+	 * @param sb the builder to append to
+	 * @param s the string to encode
+	 * @return <tt>sb</tt>
+	 */
+	public static StringBuilder esc(StringBuilder sb, String s) {
+		int n = s.length();
+		int i = 0;
+		while(i<n && isSafe(s.charAt(i))) ++i;
+		if(i == n) return sb.append(s);
+		sb.append(s, 0, i);
+		for(; i<n; ++i) {
+			int c = s.charAt(i);
+			if(isSafe(c)) {
+				sb.append((char)c);
+			} else if(c == ' ') {
+				sb.append('+');
+			} else if(c < 0x80) {
+				hex(sb, c);
+			} else if(c < 0x800) {
+				hex(sb, 0xC0 | (c >> 6));
+				hex(sb, 0x80 | (c & 0x3F));
+			} else if(Character.isHighSurrogate((char)c) && i+1<n && Character.isLowSurrogate(s.charAt(i+1))) {
+				c = Character.toCodePoint((char)c, s.charAt(++i));
+				hex(sb, 0xF0 | (c >> 18));
+				hex(sb, 0x80 | ((c >> 12) & 0x3F));
+				hex(sb, 0x80 | ((c >>  6) & 0x3F));
+				hex(sb, 0x80 | (c & 0x3F));
+			} else if(c>=Character.MIN_SURROGATE && c<=Character.MAX_SURROGATE) {
+				hex(sb, '?');
+			} else {
+				hex(sb, 0xE0 | (c >> 12));
+				hex(sb, 0x80 | ((c >> 6) & 0x3F));
+				hex(sb, 0x80 | (c & 0x3F));
+			}
+		}
+		return sb;
+	}
+
+	private StringBuilder key(String key) {
+		sb.append(sb.length()==0 ? '?' : '&');
+		return esc(sb, key).append('=');
+	}
+
+	// append a value, return false if nothing has been appended
+	private boolean value(Object val) {
+		if(val instanceof Number) {
+			if(val instanceof Integer) {
+				int i = (Integer)val;
+				if(i <= 0) return false;
+				sb.append(i);
+			} else if(val instanceof Long) {
+				sb.append(((Long)val).longValue());
+			} else {
+				sb.append(val);
+			}
+			return true;
+		}
+		if(val instanceof Date) {
+			sb.append(((Date)val).getTime());
+			return true;
+		}
+		if(val instanceof Object[]) {
+			boolean any = false;
+			for(Object o : (Object[])val) {
+				if(o == null) continue;
+				int len = sb.length();
+				if(any) sb.append(',');
+				if(value(o)) any = true;
+				else sb.setLength(len);
+			}
+			return any;
+		}
+		esc(sb, val.toString());
+		return true;
+	}
+
+	private static boolean isSafe(int c) {
+		return (c>='a' && c<='z') || (c>='A' && c<='Z') || (c>='0' && c<='9') || c=='.' || c=='-' || c=='*' || c=='_';
+	}
+
+	private static void hex(StringBuilder sb, int b) {
+		sb.append('%').append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+	}
+
+	// true if s may be parsed by Long.parseLong, which also accepts a sign and the non-ASCII digits
+	private static boolean isLong(String s) {
+		int n = s.length();
+		int i = s.charAt(0)=='+' || s.charAt(0)=='-' ? 1 : 0;
+		if(i == n) return false;
+		for(; i<n; ++i)
+			if(!Character.isDigit(s.charAt(i))) return false;
+		return true;
+	}
+
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+	private static final ThreadLocal<Query> local = new ThreadLocal<Query>() {
+		@Override
+		protected Query initialValue() {
+			return new Query();
+		}
+	};
+
+	private final StringBuilder sb   = new StringBuilder(128);
+	private       boolean       busy = false;
+}
@@ -0,0 +1,239 @@
+package com.cloudplugs.rest;
+
+/*<license>
+Copyright 2014 CloudPlugs Inc.
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+</license>*/
+
+/**
+ * @brief Decides when deferrable requests should be sent so that they are aligned into bursts, minimizing the
+ * wakeups of a cellular radio while meeting the maximum delay of every request.
+ * <br/><br/>
+ * A radio stays in a high-power state for a tail time after each transfer, so an isolated request costs much more
+ * energy than a request sent together with others. Each enqueued request declares how long it can be deferred
+ * (see {@link Opts#setMaxDelay(int)}): a request is sent at once if it cannot be deferred, if the radio is already
+ * active or if another request is in flight; otherwise it is held with the other deferred requests until the
+ * earliest of their deadlines or until the radio becomes active, and then they are all sent in a single burst.
+ * <br/><br/>
+ * The time source and the radio state are injected through {@link Clock} and {@link Radio}, so the policy can be
+ * driven by a simulated radio state machine, see {@link TailRadio}.
+ * This class is thread-safe; it only takes decisions, the caller is in charge of holding and sending the requests.
+ */
+public class RadioScheduler
+{
+	/**
+	 * @brief A source of monotonic time in milliseconds.
+	 */
+	public interface Clock {
+		/**
+		 * @return the current time in milliseconds, not related to the wall clock
+		 */
+		public long now();
+	}
+
+	/**
+	 * @brief The state of the radio used for sending the requests.
+	 */
+	public interface Radio {
+		/**
+		 * @param now the current time in milliseconds
+		 * @return true if the radio is in a high-power state, so a transfer does not cause any further wakeup
+		 */
+		public boolean isActive(long now);
+
+		/**
+		 * Invoked when a transfer of this library ends.
+		 * @param now the current time in milliseconds
+		 */
+		public void onTransfer(long now);
+	}
+
+	/** A clock based on System.nanoTime(). */
+	public static final Clock SYSTEM_CLOCK = new Clock() {
+		@Override
+		public long now() {
+			return System.nanoTime() / 1000000;
+		}
+	};
+
+	/** Default tail time in milliseconds of the high-power state of a cellular radio. */
+	public static final long DEF_TAIL = 10000;
+
+	/**
+	 * @brief A radio state machine which is active during the transfers and for a tail time after them,
+	 * then idle until the next transfer. It only knows about the transfers of this library.
+	 */
+	public static class TailRadio implements Radio
+	{
+		public TailRadio() {
+			this(DEF_TAIL);
+		}
+
+		/**
+		 * @param tail milliseconds the radio stays active after the end of a transfer
+		 */
+		public TailRadio(long tail) {
+			if(tail < 0) throw new IllegalArgumentException("invalid tail");
+			this.tail = tail;
+		}
+
+		public long getTail() {
+			return tail;
+		}
+
+		/**
+		 * @return how many times a transfer woke the radio up from the idle state
+		 */
+		public synchronized long getWakeups() {
+			return wakeups;
+		}
+
+		@Override
+		public synchronized boolean isActive(long now) {
+			return last!=NEVER && now-last<tail;
+		}
+
+		@Override
+		public synchronized void onTransfer(long now) {
+			if(last==NEVER || now-last>=tail) ++wakeups;
+			last = now;
+		}
+
+		private static final long NEVER = Long.MIN_VALUE;
+
+		private final long tail;
+		private long last    = NEVER;
+		private long wakeups = 0;
+	}
+
+	/**
+	 * Create a new scheduler using the system clock and a {@link TailRadio} with the default tail.
+	 */
+	public RadioScheduler() {
+		this(SYSTEM_CLOCK, new TailRadio());
+	}
+
+	/**
+	 * @param clock the time source
+	 * @param radio the radio state
+	 */
+	public RadioScheduler(Clock clock, Radio radio) {
+		if(clock == null) throw new NullPointerException("null clock");
+		if(radio == null) throw new NullPointerException("null radio");
+		this.clock = clock;
+		this.radio = radio;
+	}
+
+	public Clock getClock() {
+		return clock;
+	}
+
+	public Radio getRadio() {
+		return radio;
+	}
+
+	/**
+	 * Decide about a newly enqueued request.
+	 * @param maxDelay the milliseconds the request can be deferred, 0 for a request to send as soon as possible
+	 * @return 0 if the held requests and the new one must be sent now,
+	 *         otherwise the milliseconds to wait before calling {@link #poll()}
+	 */
+	public synchronized long submit(long maxDelay) {
+		long now = clock.now();
+		if(maxDelay<=0 || inFlight>0 || radio.isActive(now)) {
+			flush();
+			return 0;
+		}
+		++held;
+		++deferred;
+		long deadline = now + maxDelay;
+		if(deadline < this.deadline) this.deadline = deadline;
+		if(this.deadline <= now) {
+			// the deadline of the requests already held has come
+			flush();
+			return 0;
+		}
+		return this.deadline - now;
+	}
+
+	/**
+	 * Check whether the held requests must be sent.
+	 * @return 0 if the held requests must be sent now, -1 if no request is held,
+	 *         otherwise the milliseconds to wait before calling this method again
+	 */
+	public synchronized long poll() {
+		if(held == 0) return -1;
+		long now = clock.now();
+		if(now>=deadline || inFlight>0 || radio.isActive(now)) {
+			flush();
+			return 0;
+		}
+		return deadline - now;
+	}
+
+	/**
+	 * Notify that a request is being sent, so the next ones join it until it completes.
+	 */
+	public synchronized void onSendStart() {
+		++inFlight;
+	}
+
+	/**
+	 * Notify that a request has been sent and its response received, or that it failed.
+	 */
+	public synchronized void onSendEnd() {
+		if(inFlight > 0) --inFlight;
+		radio.onTransfer(clock.now());
+	}
+
+	/**
+	 * @return the number of requests currently held
+	 */
+	public synchronized int getHeld() {
+		return held;
+	}
+
+	/**
+	 * @return the number of requests which have been deferred
+	 */
+	public synchronized long getDeferred() {
+		return deferred;
+	}
+
+	/**
+	 * @return the number of bursts of deferred requests
+	 */
+	public synchronized long getBursts() {
+		return bursts;
+	}
+
+	private void flush() {
+		if(held > 0) ++bursts;
+		held     = 0;
+		deadline = Long.MAX_VALUE;
+	}
+
+	private final Clock clock;
+	private final Radio radio;
+	private int     inFlight = 0;
+	private int     held     = 0;
+	private long    deadline = Long.MAX_VALUE;
+	private long    deferred = 0;
+	private long    bursts   = 0;
+}
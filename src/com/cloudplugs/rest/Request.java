@@ -21,6 +21,10 @@ specific language governing permissions and limitations
 under the License.
 </license>*/
 
+import java.io.UnsupportedEncodingException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import javax.net.ssl.SSLContext;
 import org.json.*;
 
 /**
@@ -50,11 +54,17 @@ public class Request
 	 * @param body the body of the HTTP request or null for empty body
 	 */
 	public Request(String method, String baseUrl, String path, String[] headers, String body) {
-		this.method  = method;
-		this.baseUrl = baseUrl;
-		this.path    = path;
-		this.headers = headers;
-		this.body    = body;
+		this(method, baseUrl, path, null, headers, null, body);
+	}
+
+	Request(String method, String baseUrl, String path, URL url, String[] headers, byte[] headerBlock, String body) {
+		this.method      = method;
+		this.baseUrl     = baseUrl;
+		this.path        = path;
+		this.url         = url;
+		this.headers     = headers;
+		this.headerBlock = headerBlock;
+		this.body        = body;
 	}
 
 	/**
@@ -112,15 +122,97 @@ public class Request
 		return baseUrl + path;
 	}
 
+	/**
+	 * HTTP full URL getter, already parsed.
+	 * The URL is parsed only once, so that transports can call this method instead of parsing {@link #getUrl()} again.
+	 * @return the HTTP full URL of this request
+	 * @throws MalformedURLException if the URL is invalid
+	 */
+	public URL toURL() throws MalformedURLException {
+		URL res = url;
+		if(res == null) url = res = new URL(getUrl());
+		return res;
+	}
+
 	/**
 	 * HTTP headers getter.
-	 * @return the array of all headers of this request; the even elements are the header names, while the odd ones are the
-	 *         corresponding values
+	 * @return a copy of the array of all headers of this request; the even elements are the header names, while the odd
+	 *         ones are the corresponding values
 	 */
 	public String[] getHeaders() {
+		return headers==null ? null : headers.clone();
+	}
+
+	// the headers array may be shared with other requests of the same client: transports read it without copying
+	String[] sharedHeaders() {
 		return headers;
 	}
 
+	/**
+	 * HTTP headers getter, in their wire format.
+	 * Transports writing raw HTTP/1.1 messages can copy the returned bytes instead of encoding the headers again.
+	 * @return the headers of this request encoded as <tt>"Name: value\r\n"</tt> lines; the returned array is shared
+	 *         and must not be modified
+	 */
+	byte[] getHeaderBlock() {
+		byte[] block = headerBlock;
+		if(block == null) headerBlock = block = encodeHeaders(headers);
+		return block;
+	}
+
+	/**
+	 * @return the maximum size in bytes of the response body, 0 if unlimited
+	 */
+	public int getMaxBodySize() {
+		return maxBodySize;
+	}
+
+	/**
+	 * Set the maximum size of the response body.
+	 * When the response declares or reaches a bigger size, it is discarded without reading the rest of its body,
+	 * and the request completes with a response having status {@link Const#ERR_TOO_LARGE}.
+	 * @param maxBodySize the maximum size in bytes, 0 for unlimited
+	 * @return this instance
+	 */
+	public Request setMaxBodySize(int maxBodySize) {
+		this.maxBodySize = maxBodySize<0 ? 0 : maxBodySize;
+		return this;
+	}
+
+	/**
+	 * @return the milliseconds this request can be deferred, 0 if it is not deferrable
+	 */
+	public int getMaxDelay() {
+		return maxDelay;
+	}
+
+	/**
+	 * Set how long this request can be deferred for being sent together with other requests, see {@link RadioScheduler}.
+	 * @param maxDelay the milliseconds this request can be deferred, 0 if it is not deferrable
+	 * @return this instance
+	 */
+	public Request setMaxDelay(int maxDelay) {
+		this.maxDelay = maxDelay<0 ? 0 : maxDelay;
+		return this;
+	}
+
+	/**
+	 * @return the SSL context of the HTTPS connection of this request, null for the default one
+	 */
+	public SSLContext getSSLContext() {
+		return sslContext;
+	}
+
+	/**
+	 * Set the SSL context of the HTTPS connection of this request; it is not part of the JSON representation.
+	 * @param sslContext the SSL context to use, null for the default one, see {@link com.cloudplugs.util.SSL#getDefaultContext()}
+	 * @return this instance
+	 */
+	public Request setSSLContext(SSLContext sslContext) {
+		this.sslContext = sslContext;
+		return this;
+	}
+
 	/**
 	 * HTTP body getter.
 	 * @return the HTTP body of this request of null for empty body
@@ -184,11 +276,13 @@ public class Request
 						headers[i] = arr.getString(i);
 				}
 			}
-			this.method  = method;
-			this.baseUrl = baseUrl;
-			this.path    = path;
-			this.headers = headers;
-			this.body    = body;
+			this.method      = method;
+			this.baseUrl     = baseUrl;
+			this.path        = path;
+			this.url         = null;
+			this.headers     = headers;
+			this.headerBlock = null;
+			this.body        = body;
 		} catch(Exception e) {
 			throw new RestException(e);
 		}
@@ -206,10 +300,30 @@ public class Request
 		fromJSON(json);
 	}
 
+	static byte[] encodeHeaders(String[] headers) {
+		if(headers == null) return EMPTY;
+		StringBuilder sb = new StringBuilder(128);
+		for(int i=1, n=headers.length; i<n; i+=2)
+			sb.append(headers[i-1]).append(": ").append(headers[i]).append("\r\n");
+		try {
+			return sb.toString().getBytes("UTF-8");
+		} catch(UnsupportedEncodingException e) {
+			throw new RestException(e);
+		}
+	}
+
+	private static final byte[] EMPTY = new byte[0];
+
 	int              id = 0;
+	long             sentAt = 0;   // System.nanoTime() when handed to the transport
 	private String   method;
 	private String   baseUrl;
 	private String   path;
+	private URL      url;
 	private String[] headers;
 	private String   body;
+	private byte[]   headerBlock;
+	private int      maxBodySize = 0;
+	private int      maxDelay    = 0;
+	private SSLContext sslContext;
 }
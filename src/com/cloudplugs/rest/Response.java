@@ -45,6 +45,7 @@ public class Response
 	public static final int ERR_NOT_FOUND        = 404;
 	public static final int ERR_NOT_ALLOWED      = 405;
 	public static final int ERR_NOT_ACCEPTABLE   = 406;
+	public static final int ERR_TOO_MANY_REQUESTS = 429;
 	public static final int ERR_INTERNAL         = 500;
 	public static final int ERR_NOT_IMPLEMENTED  = 501;
 	public static final int ERR_BAD_GATEWAY      = 502;
@@ -69,6 +70,14 @@ public class Response
 		return status > 0;
 	}
 
+	/**
+	 * @return true if the response has been discarded because its body exceeded the maximum size of the request,
+	 *         see {@link Request#getMaxBodySize()}
+	 */
+	public boolean isTooLarge() {
+		return status == Const.ERR_TOO_LARGE;
+	}
+
 	/**
 	 * @return true if the corresponding request was successful
 	 */
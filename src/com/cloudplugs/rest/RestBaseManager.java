@@ -21,9 +21,11 @@ specific language governing permissions and limitations
 under the License.
 </license>*/
 
-import java.net.URLEncoder;
 import java.util.Date;
+import java.io.Closeable;
 import java.io.UnsupportedEncodingException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import com.cloudplugs.util.*;
 
 /**
@@ -33,9 +35,13 @@ import com.cloudplugs.util.*;
  * An instance of this class will also emit events about the internal spooler behavoir, so that any attached
  * {@link com.cloudplugs.util.Listener} to a RestBaseManager will be notified about what's happening in the execution flow.
  * <br/><br/>
+ * A manager holds a reference to its underlying spooler until {@link #close()} is called: once all managers sharing a
+ * spooler are closed, that spooler stops as soon as its pending requests are sent.
+ * A manager never closed is reported as a leak to {@link com.cloudplugs.util.ErrHandler#active} after being garbage collected.
+ * <br/><br/>
  * See also {@link RestManager}.
  */
-public abstract class RestBaseManager extends MultiListener
+public abstract class RestBaseManager extends MultiListener implements Closeable
 {
 	/**
 	 * Constant to indicate an invalid asynchronous execution identifier.
@@ -46,6 +52,24 @@ public abstract class RestBaseManager extends MultiListener
 		this.opts    = opts    == null ? new Opts()        : opts;
 		this.spooler = spooler == null ? new RestSpooler() : spooler;
 		this.spooler.ref();
+		this.leak    = LeakDetector.track(this, getClass().getSimpleName()+" for "+this.opts.getUrl(), unrefOf(this.spooler));
+	}
+
+	/**
+	 * Release the underlying spooler.
+	 * Already enqueued requests are still sent, while any further request will be refused.
+	 * Calling this method more than once has no effect.
+	 */
+	@Override
+	public void close() {
+		if(leak.untrack()) spooler.unref();
+	}
+
+	/**
+	 * @return true if {@link #close()} has been called
+	 */
+	public boolean isClosed() {
+		return !leak.isTracked();
 	}
 
 	/**
@@ -182,12 +206,68 @@ public abstract class RestBaseManager extends MultiListener
 		return spooler.waitForStop();
 	}
 
+	/**
+	 * Run the callbacks of the requests of this manager on the given executor instead of the spooler thread,
+	 * so a slow callback never delays the next HTTP request: the spooler moves to the next request as soon as
+	 * a response is received. Only the requests enqueued after this call are affected.
+	 * Note that {@link #sync(int)} and {@link #waitFor(int)} may return before the callback has been executed.
+	 * An exception thrown by a callback, or the refusal of the executor to run it, is notified to the listener of the
+	 * spooler as if the callback ran on the spooler thread.
+	 * A single request can use another executor by {@link RestCallback.OnExecutor}.
+	 * @param executor the executor running the callbacks or null for running them on the spooler thread (the default)
+	 * @param ordered true for running the callbacks one at a time in completion order,
+	 *                false for letting the executor run them concurrently
+	 */
+	public void setCallbackExecutor(Executor executor, boolean ordered) {
+		cbExecutor = executor;
+		cbOrdered  = executor!=null && ordered;
+		cbRunner   = cbOrdered ? new SerialExecutor(executor) : executor;
+	}
+
+	/**
+	 * @return the executor running the callbacks of this manager or null if they run on the spooler thread
+	 */
+	public Executor getCallbackExecutor() {
+		return cbExecutor;
+	}
+
+	/**
+	 * @return true if the callbacks run on an executor in completion order
+	 */
+	public boolean isCallbackOrdered() {
+		return cbOrdered;
+	}
+
+	/**
+	 * Enable or disable the collection of {@link #getCallbackStats()} for the requests enqueued after this call.
+	 * The statistics are disabled by default, since measuring each callback costs an allocation per request.
+	 * @param enabled true for measuring the callbacks
+	 */
+	public void setCallbackTiming(boolean enabled) {
+		cbTiming = enabled;
+	}
+
+	/**
+	 * @return true if the callbacks are measured in {@link #getCallbackStats()}
+	 */
+	public boolean isCallbackTiming() {
+		return cbTiming;
+	}
+
+	/**
+	 * @return the timing statistics of the callbacks of this manager, updated only while {@link #isCallbackTiming()}
+	 */
+	public CallbackStats getCallbackStats() {
+		return cbStats;
+	}
+
 	protected RestSpooler getSpooler() {
 		return spooler;
 	}
 
 	protected int execRequest(Request request, RestCallback cb) {
-		return spooler.request(request, opts.getTimeout(), cb);
+		wantOpen();
+		return spooler.request(request, opts.getTimeout(), dispatch(cb));
 	}
 
 	protected int execGet(String action, String path, RestCallback cb) {
@@ -211,19 +291,17 @@ public abstract class RestBaseManager extends MultiListener
 	}
 
 	protected int execRequest(String method, String action, String path, String body, RestCallback cb) {
-		return spooler.request(opts, method, action, path, body, cb);
+		wantOpen();
+		return spooler.request(opts, method, action, path, body, dispatch(cb));
 	}
 
 	protected int execRequest(String method, String action, String path, RestCallback cb, Object... body) {
 		return execRequest(method, action, path, bodyGen(body), cb);
 	}
 
-	@Override
-	protected void finalize() throws Throwable {
-		super.finalize();
-		spooler.unref();
+	protected void wantOpen() {
+		if(isClosed()) throw new RestException("closed manager");
 	}
-
 	protected void wantAuth() {
 		if(!opts.hasAuth()) throw new RestException("missing auth");
 	}
@@ -275,19 +353,11 @@ public abstract class RestBaseManager extends MultiListener
 	protected static String queryGen(Object... args) {
 		int n = args.length;
 		if(n <= 0) return null;
-		try {
-			StringBuilder sb = new StringBuilder(1024);
-			sb.append('?');
-			Object val = queryCast(args[1]);
-			if(val != null) sb.append(esc(args[0])).append('=').append(val);
-			for(int i=2; i<n; i+=2) {
-				val = queryCast(args[i + 1]);
-				if(val != null) sb.append('&').append(esc(args[i])).append('=').append(val);
-			}
-			return sb.toString();
-		} catch(Exception e) {
-			throw new IllegalArgumentException(e);
-		}
+		if((n & 1) == 1) throw new IllegalArgumentException("wrong number of arguments: cannot be odd");
+		Query q = Query.get();
+		for(int i=1; i<n; i+=2)
+			q.add(String.valueOf(args[i-1]), args[i]);
+		return q.build();
 	}
 
 	protected static String pathQuery(String path, String query) {
@@ -297,7 +367,7 @@ public abstract class RestBaseManager extends MultiListener
 	}
 
 	protected static String esc(Object s) throws UnsupportedEncodingException {
-		return s==null ? null : URLEncoder.encode(s.toString(), "UTF-8");
+		return s==null ? null : Query.esc(new StringBuilder(), s.toString()).toString();
 	}
 
 	protected static Object queryCast(Object o) throws UnsupportedEncodingException {
@@ -350,6 +420,92 @@ public abstract class RestBaseManager extends MultiListener
 		}
 	}
 
+	// wrap a callback for measuring it and running it on its executor, if any
+	private RestCallback dispatch(RestCallback cb) {
+		if(cb == null) return null;
+		Executor executor = cbRunner;
+		RestCallback target = cb;
+		if(cb instanceof RestCallback.OnExecutor) {
+			executor = ((RestCallback.OnExecutor)cb).getExecutor();
+			target   = ((RestCallback.OnExecutor)cb).getCallback();
+		}
+		boolean timing = cbTiming;
+		if(executor==null && !timing) return cb;   // nothing to do: run it as is on the spooler thread
+		return new Dispatch(cb, target, executor, timing ? cbStats : null, spooler);
+	}
+
+	/**
+	 * @brief Run a callback on an executor, measuring it in some statistics.
+	 * {@link RestJob#getCallback()} returns the wrapped callback.
+	 */
+	static final class Dispatch implements RestCallback
+	{
+		Dispatch(RestCallback cb, RestCallback target, Executor executor, CallbackStats stats, Listener errs) {
+			this.cb       = cb;
+			this.target   = target;
+			this.executor = executor;
+			this.stats    = stats;
+			this.errs     = errs;
+		}
+
+		@Override
+		public void on(final Request request, final Response response) {
+			final long received = System.nanoTime();
+			if(executor == null) {
+				invoke(request, response, received);   // an exception reaches the spooler through RestJob
+				return;
+			}
+			try {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							invoke(request, response, received);
+						} catch(Throwable t) {
+							errs.onErr(t);
+						}
+					}
+				});
+			} catch(RejectedExecutionException e) {
+				errs.onErr(e);
+			}
+		}
+
+		private void invoke(Request request, Response response, long received) {
+			long start = System.nanoTime();
+			try {
+				target.on(request, response);
+			} finally {
+				if(stats != null) {
+					long end = System.nanoTime();
+					stats.add(request.sentAt==0 ? 0 : received-request.sentAt, start-received, end-start);
+				}
+			}
+		}
+
+		final RestCallback cb;   // as given by the user
+		private final RestCallback  target;
+		private final Executor      executor;
+		private final CallbackStats stats;
+		private final Listener      errs;
+	}
+
+	// the cleanup of a leaked manager must not refer to the manager itself
+	private static Runnable unrefOf(final RestSpooler spooler) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				spooler.unref();
+			}
+		};
+	}
+
 	protected final Opts        opts;
 	protected final RestSpooler spooler;
+	private   final LeakDetector.Ref leak;
+	private   final CallbackStats cbStats = new CallbackStats();
+	private   volatile Executor cbExecutor = null;
+	private   volatile Executor cbRunner   = null;
+	private   volatile boolean  cbOrdered  = false;
+	private   volatile boolean  cbTiming   = false;
 }
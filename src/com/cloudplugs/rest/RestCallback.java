@@ -21,6 +21,10 @@ specific language governing permissions and limitations
 under the License.
 </license>*/
 
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+import com.cloudplugs.util.ErrHandler;
+
 /**
  * @brief An instance of this interface will asynchronously receive the results of a HTTP request execution
  * enqueued using one of the methods in {@link RestManager}.
@@ -29,7 +33,8 @@ public interface RestCallback
 {
 	/**
 	 * This method will be called after completing a request (enqueued by {@link RestManager}).
-	 * This method is executed in the thread of the underlying spooler processes the enqueued requests.
+	 * This method is executed in the thread of the underlying spooler processes the enqueued requests,
+	 * unless a callback executor is set by {@link RestBaseManager#setCallbackExecutor} or {@link OnExecutor}.
 	 * @param request the generated request
 	 * @param response the received response from the server
 	 */
@@ -122,4 +127,205 @@ public interface RestCallback
 
 		private RestCallback cb;
 	}
+
+	/**
+	 * @brief Helper class for running a {@link RestCallback} of a single request on a given executor.
+	 *
+	 * When enqueued by a {@link RestManager}, the encapsulated callback runs on the executor of this instance in place
+	 * of the executor set by {@link RestBaseManager#setCallbackExecutor}, or on the spooler thread if that executor is
+	 * null, and it is measured and its errors are notified like the other callbacks of the manager.
+	 * Callbacks sharing an executor by this class may run concurrently: use a {@link com.cloudplugs.util.SerialExecutor}
+	 * for running them in completion order.
+	 */
+	public static class OnExecutor implements RestCallback
+	{
+		/**
+		 * @param cb the REST callback to encapsulate
+		 * @param executor the executor running the callback or null for running it on the spooler thread
+		 */
+		public OnExecutor(RestCallback cb, Executor executor) {
+			if(cb == null) throw new NullPointerException("null callback");
+			this.cb       = cb;
+			this.executor = executor;
+		}
+
+		/**
+		 * @return the encapsulated REST callback by this instance
+		 */
+		public RestCallback getCallback() {
+			return cb;
+		}
+
+		/**
+		 * @return the executor running the encapsulated callback or null for the spooler thread
+		 */
+		public Executor getExecutor() {
+			return executor;
+		}
+
+		/**
+		 * {@link RestCallback} implementation, used when this instance is not directly enqueued by a manager.
+		 */
+		@Override
+		public void on(final Request request, final Response response) {
+			if(executor == null) {
+				cb.on(request, response);
+				return;
+			}
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					cb.on(request, response);
+				}
+			});
+		}
+
+		private final RestCallback cb;
+		private final Executor     executor;
+	}
+
+	/**
+	 * @brief Helper class for delivering many responses to another thread with few messages.
+	 *
+	 * Like {@link Meta}, this class encapsulates a {@link RestCallback} executed in another thread T (for instance
+	 * the GUI thread), but the completed requests are accumulated and delivered in batches: a single enqueued
+	 * {@link java.lang.Runnable} invokes the encapsulated callback for every accumulated request, in completion order.
+	 * A batch is delivered at most <tt>maxDelay</tt> milliseconds after its first request completed, or as soon as it
+	 * holds <tt>maxItems</tt> requests.
+	 * Subclass must implement the abstract method {@link #enqueue(Runnable, long)}.
+	 * An exception thrown by the encapsulated callback is passed to {@link com.cloudplugs.util.ErrHandler#active}
+	 * and does not prevent the delivery of the rest of the batch.
+	 */
+	public abstract class Batch implements RestCallback
+	{
+		/** Default maximum latency in milliseconds of a batch, about one display frame. */
+		public static final long DEF_MAX_DELAY = 16;
+		/** Default maximum number of requests in a batch. */
+		public static final int  DEF_MAX_ITEMS = 64;
+
+		/**
+		 * @param cb the REST callback to encapsulate
+		 */
+		public Batch(RestCallback cb) {
+			this(cb, DEF_MAX_DELAY, DEF_MAX_ITEMS);
+		}
+
+		/**
+		 * @param cb the REST callback to encapsulate
+		 * @param maxDelay the maximum milliseconds between the completion of a request and the delivery of its batch
+		 * @param maxItems the number of accumulated requests causing the immediate delivery of a batch
+		 */
+		public Batch(RestCallback cb, long maxDelay, int maxItems) {
+			if(cb == null) throw new NullPointerException("null callback");
+			if(maxDelay < 0) throw new IllegalArgumentException("invalid max delay");
+			if(maxItems < 1) throw new IllegalArgumentException("invalid max items");
+			this.cb       = cb;
+			this.maxDelay = maxDelay;
+			this.maxItems = maxItems;
+		}
+
+		/**
+		 * @return the encapsulated REST callback by this instance
+		 */
+		public RestCallback getCallback() {
+			return cb;
+		}
+
+		public long getMaxDelay() {
+			return maxDelay;
+		}
+
+		public int getMaxItems() {
+			return maxItems;
+		}
+
+		/**
+		 * @return the number of completed requests waiting for their batch to be delivered
+		 */
+		public int getPending() {
+			synchronized(lock) {
+				return pending.size() / 2;
+			}
+		}
+
+		/**
+		 * @return the number of delivered batches
+		 */
+		public long getBatches() {
+			synchronized(lock) {
+				return batches;
+			}
+		}
+
+		/**
+		 * Enqueue an instance of {@link java.lang.Runnable} in another thread.
+		 * @param runnable the runnable to execute
+		 * @param delay the milliseconds to wait before executing the runnable, 0 for executing it as soon as possible
+		 */
+		public abstract void enqueue(Runnable runnable, long delay);
+
+		/**
+		 * {@link RestCallback} implementation.
+		 */
+		@Override
+		public final void on(Request request, Response response) {
+			long delay;
+			synchronized(lock) {
+				pending.add(request);
+				pending.add(response);
+				int n = pending.size() / 2;
+				if(n>=maxItems && !urgent) {
+					urgent = true;
+					delay  = 0;
+				} else if(!scheduled) {
+					scheduled = true;
+					delay     = maxDelay;
+				} else {
+					return;
+				}
+			}
+			enqueue(flusher, delay);
+		}
+
+		private void flush() {
+			ArrayList<Object> batch;
+			synchronized(lock) {
+				if(pending.isEmpty()) return;
+				batch = pending;
+				pending = spare!=null ? spare : new ArrayList<Object>(maxItems*2);
+				spare = null;
+				scheduled = urgent = false;
+				++batches;
+			}
+			for(int i=0, n=batch.size(); i<n; i+=2) {
+				try {
+					cb.on((Request)batch.get(i), (Response)batch.get(i+1));
+				} catch(Throwable t) {
+					ErrHandler handler = ErrHandler.active;
+					if(handler != null) handler.handleErr(t);
+				}
+			}
+			batch.clear();
+			synchronized(lock) {
+				spare = batch;
+			}
+		}
+
+		private final Runnable flusher = new Runnable() {
+			@Override
+			public void run() {
+				flush();
+			}
+		};
+
+		private final RestCallback cb;
+		private final long maxDelay;
+		private final int  maxItems;
+		private final Object lock = new Object();
+		private ArrayList<Object> pending = new ArrayList<Object>();
+		private ArrayList<Object> spare;
+		private boolean scheduled = false;
+		private boolean urgent    = false;
+		private long    batches   = 0;
+	}
 }
@@ -22,17 +22,23 @@ under the License.
 </license>*/
 
 import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.concurrent.Executor;
+import com.cloudplugs.util.AsyncListener;
 import com.cloudplugs.util.Listener;
 import com.cloudplugs.util.MultiListener;
-import com.cloudplugs.util.Spooler;
+import com.cloudplugs.util.SSL;
 
 /**
  * @brief This is the main class for handling the connection to the CloudPlugs server on the Java platform.
  * <br/><br/>
  * An instance of RestClient manages the HTTP requests flow by creating a thread spooler for each
  * server to connect. Such spooler will send enqueued HTTP requests one by one following the FIFO order.
+ * By default each spooler owns a dedicated thread; a client created by {@link #RestClient(Executor)} instead runs all its
+ * spoolers on the given executor, so the number of threads does not grow with the number of servers.
  * An instance of this class will also emit events about the internal spooler behavior, so that any attached
  * {@link com.cloudplugs.util.Listener} to a RestClient will be notified about what's happening in the execution flow.
  * <br/><br/>
@@ -66,30 +72,69 @@ public class RestClient extends MultiListener
 		this(RestSpooler.class);
 	}
 
+	/**
+	 * Create a new instance of this class whose spoolers share the given executor instead of owning a thread each.
+	 * Every spooler keeps its own FIFO order and pause state. The same executor can be shared by more clients,
+	 * see {@link com.cloudplugs.util.Spooler#newPool(int)} for creating a bounded pool.
+	 * @param executor the executor running the HTTP requests of all spoolers
+	 */
+	public RestClient(Executor executor) {
+		this(RestSpooler.class, executor);
+	}
+
+	/**
+	 * Create a new instance of this class whose spoolers share the given executor and can send more requests at the same time.
+	 * With a <tt>concurrency</tt> different than 1 the requests of the same server are no longer sent in FIFO order.
+	 * On a JVM supporting virtual threads, an executor creating a virtual thread per task with no concurrency limit
+	 * lets each request block on its own cheap thread.
+	 * @param executor the executor running the HTTP requests of all spoolers
+	 * @param concurrency maximum number of requests sent at the same time by each spooler, 1 for FIFO order, 0 for no limit
+	 * @see com.cloudplugs.util.Spooler#setConcurrency(int)
+	 */
+	public RestClient(Executor executor, int concurrency) {
+		this(RestSpooler.class, executor);
+		this.concurrency = concurrency;
+	}
+
 	protected RestClient(Class<? extends RestSpooler> cls) {
+		this(cls, null);
+	}
+
+	protected RestClient(Class<? extends RestSpooler> cls, Executor executor) {
 		if(cls == null) throw new NullPointerException("null spooler class");
 		try {
 			spoolerConstr = cls.getConstructor();
 		} catch(Exception e) {
 			throw new RestException(e);
 		}
+		this.executor = executor;
+		// the default SSL context is expensive to build: overlap it with the rest of the startup
+		SSL.prepare();
 	}
 
 	/**
 	 * Create a new instance of {@link RestManager} able to make HTTP requests using the specified options in <tt>opts</tt>.
+	 * The returned manager should be closed by {@link RestManager#close()} when no longer needed.
 	 *
 	 * @param opts the options used by the new {@link RestManager}
 	 * @return a new {@link RestManager}
 	 */
 	public RestManager getManager(Opts opts) {
-		RestSpooler spooler;
-		String url = opts.getUrl();
-		synchronized(spoolers) {
-			spooler = spoolers.get(url);
-			if(spooler == null)
-				spoolers.put(url, spooler = newSpooler(url));
+		String key = laneOf(opts);
+		for(;;) {
+			RestSpooler spooler;
+			synchronized(spoolers) {
+				spooler = spoolers.get(key);
+				if(spooler == null)
+					spoolers.put(key, spooler = newSpooler(key, opts.getNetwork()));
+			}
+			RestManager res = new RestManager(spooler, opts);
+			synchronized(spoolers) {
+				// the spooler may have stopped and been replaced before the reference was taken: never run an orphan
+				if(spoolers.get(key) == spooler) return res;
+			}
+			res.close();
 		}
-		return new RestManager(spooler, opts);
 	}
 
 	/**
@@ -99,10 +144,79 @@ public class RestClient extends MultiListener
 		return started;
 	}
 
-	private RestSpooler newSpooler(String url) {
+	/**
+	 * @return the executor shared by the underlying spoolers or null if each spooler has a dedicated thread
+	 */
+	public Executor getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * @return the transport used by the underlying spoolers for sending the requests
+	 */
+	public Transport getTransport() {
+		return transport;
+	}
+
+	/**
+	 * Set the transport used by the current and future underlying spoolers for sending the requests.
+	 * @param transport the transport to use or null for {@link HttpUrlTransport#DEFAULT}
+	 */
+	public void setTransport(Transport transport) {
+		this.transport = transport==null ? HttpUrlTransport.DEFAULT : transport;
+		for(RestSpooler spooler : getSpoolers())
+			spooler.setTransport(this.transport);
+	}
+
+	/**
+	 * @return the maximum number of requests sent at the same time by each spooler, see {@link #RestClient(Executor, int)}
+	 */
+	public int getConcurrency() {
+		return executor==null ? 1 : concurrency;
+	}
+
+	/**
+	 * Obtain the key of the spooler (lane) sending the requests of the given options: each server has a lane for
+	 * every network constraint, see {@link Opts#setNetwork(int)}. The key of the default lane is the server URL.
+	 * @param opts the options of the requests
+	 * @return the key of the lane in {@link #spoolers}
+	 */
+	protected static String laneOf(Opts opts) {
+		String url = opts.getUrl();
+		int network = opts.getNetwork();
+		return network==Opts.NET_ANY ? url : url+' '+network;
+	}
+
+	/**
+	 * Apply the state of the active network to the lanes: the lanes whose network constraint is not satisfied are paused
+	 * and the others resumed, so a constrained lane waits without blocking the lanes of the other constraints.
+	 * The lanes without constraint are resumed only when <tt>reconnected</tt>, since the whole client is paused while
+	 * there is no connectivity.
+	 * @param metered true if the active network is metered or unknown, see {@link Opts#NET_UNMETERED}
+	 * @param reconnected true if the connectivity just came back
+	 * @return true if at least one lane was resumed
+	 */
+	protected boolean applyNetwork(boolean metered, boolean reconnected) {
+		boolean resumed = false;
+		for(RestSpooler lane : getSpoolers()) {
+			if(lane.getNetwork() == Opts.NET_UNMETERED) {
+				if(metered) lane.pause();
+				else        resumed |= lane.resume();
+			} else if(reconnected) {
+				resumed |= lane.resume();
+			}
+		}
+		return resumed;
+	}
+
+	private RestSpooler newSpooler(String key, int network) {
 		try {
 			RestSpooler spooler = spoolerConstr.newInstance();
-			setSpoolerListener(spooler, url);
+			spooler.setExecutor(executor);
+			spooler.setConcurrency(concurrency);
+			spooler.setTransport(transport);
+			spooler.setNetwork(network);
+			setSpoolerListener(spooler, key);
 			spooler.start();
 			return spooler;
 		} catch(Exception e) {
@@ -118,10 +232,8 @@ public class RestClient extends MultiListener
 	 */
 	public boolean pause() {
 		boolean paused = false;
-		synchronized(spoolers) {
-			for(RestSpooler spooler : spoolers.values())
-				paused |= spooler.pause();
-		}
+		for(RestSpooler spooler : getSpoolers())
+			paused |= spooler.pause();
 		if(paused) onPause();
 		return paused;
 	}
@@ -132,10 +244,8 @@ public class RestClient extends MultiListener
 	 */
 	public boolean resume() {
 		boolean resumed = false;
-		synchronized(spoolers) {
-			for(RestSpooler spooler : spoolers.values())
-				resumed |= spooler.resume();
-		}
+		for(RestSpooler spooler : getSpoolers())
+			resumed |= spooler.resume();
 		if(resumed) onResume();
 		return resumed;
 	}
@@ -147,10 +257,8 @@ public class RestClient extends MultiListener
 	 */
 	public boolean stop() {
 		boolean stopped = false;
-		synchronized(spoolers) {
-			for(RestSpooler spooler : spoolers.values())
-				stopped |= spooler.stop();
-		}
+		for(RestSpooler spooler : getSpoolers())
+			stopped |= spooler.stop();
 		return stopped;
 	}
 
@@ -187,6 +295,46 @@ public class RestClient extends MultiListener
 		waitForStop(0);
 	}
 
+	/**
+	 * Deliver the events of this client asynchronously: the spooler threads queue the events instead of running the
+	 * attached listeners inline, so a slow listener does not delay the next HTTP request.
+	 * Repeated {@link #EVT_IDLE}, idle and ready events are coalesced while still pending.
+	 * @param executor the executor running the attached listeners or null for a dedicated event thread
+	 * @param capacity maximum number of pending events, the further ones are dropped; 0 for no limit
+	 * @see #getAsyncEvents()
+	 */
+	public void setAsyncEvents(Executor executor, int capacity) {
+		AsyncListener old;
+		synchronized(spoolers) {
+			old = async;
+			async = new AsyncListener(this, executor, capacity, EVT_IDLE);
+			events = async;
+		}
+		if(old != null) old.close();
+	}
+
+	/**
+	 * Deliver the events of this client synchronously on the spooler threads, which is the default behavior.
+	 * Events already queued by {@link #setAsyncEvents(Executor, int)} are still delivered.
+	 */
+	public void setSyncEvents() {
+		AsyncListener old;
+		synchronized(spoolers) {
+			old = async;
+			async = null;
+			events = this;
+		}
+		if(old != null) old.close();
+	}
+
+	/**
+	 * @return the asynchronous event dispatcher holding the delivered, coalesced and dropped event counters,
+	 *         or null if events are delivered synchronously
+	 */
+	public AsyncListener getAsyncEvents() {
+		return async;
+	}
+
 	/**
 	 * Override base class implementation.
 	 * Do not call this method.
@@ -199,52 +347,68 @@ public class RestClient extends MultiListener
 		}
 	}
 
-	private void setSpoolerListener(final Spooler spooler, final String url) {
+	private void setSpoolerListener(final RestSpooler spooler, final String key) {
 		spooler.setListener(new Listener.Stub() {
 			@Override
 			public void onStart() {
 				boolean first;
 				synchronized(spoolers) {
+					// a spooler stopped when idle is restarted by its next manager
+					if(!spoolers.containsKey(key)) spoolers.put(key, spooler);
 					first = !started;
 					started = true;
 					spoolers.notifyAll();
 				}
-				RestClient.this.onEvt(EVT_START, spooler);
-				if(first) RestClient.this.onStart();
+				Listener l = events;
+				l.onEvt(EVT_START, spooler);
+				if(first) l.onStart();
 			}
 			@Override
 			public void onStop() {
 				synchronized(spoolers) {
-					if(spoolers.remove(url) == null) return;
+					if(spoolers.get(key) != spooler) return;
+					spoolers.remove(key);
 					boolean empty = spoolers.isEmpty();
-					RestClient.this.onEvt(EVT_STOP, spooler);
+					Listener l = events;
+					l.onEvt(EVT_STOP, spooler);
 					if(!empty) return;
 					started = false;
-					RestClient.this.onStop();
+					spoolers.notifyAll();
+					l.onStop();
 				}
 			}
 			@Override
 			public void onPause() {
-				RestClient.this.onEvt(EVT_PAUSE, spooler);
-				if(hasOneSpooler()) RestClient.this.onPause();
+				Listener l = events;
+				l.onEvt(EVT_PAUSE, spooler);
+				if(hasOneSpooler()) l.onPause();
 			}
 			@Override
 			public void onResume() {
-				RestClient.this.onEvt(EVT_RESUME, spooler);
-				if(hasOneSpooler()) RestClient.this.onResume();
+				Listener l = events;
+				l.onEvt(EVT_RESUME, spooler);
+				if(hasOneSpooler()) l.onResume();
 			}
 			@Override
 			public void onIdle() {
-				RestClient.this.onEvt(EVT_IDLE, spooler);
-				if(hasOneSpooler()) RestClient.this.onIdle();
+				Listener l = events;
+				l.onEvt(EVT_IDLE, spooler);
+				if(hasOneSpooler()) l.onIdle();
 			}
 			@Override
 			public void onErr(Throwable t) {
-				RestClient.this.onErr(t);
+				events.onErr(t);
 			}
 		});
 	}
 
+	// spoolers are invoked outside the lock, because they can synchronously notify their listener
+	private List<RestSpooler> getSpoolers() {
+		synchronized(spoolers) {
+			return new ArrayList<RestSpooler>(spoolers.values());
+		}
+	}
+
 	private boolean hasOneSpooler() {
 		synchronized(spoolers) {
 			return spoolers.size() == 1;
@@ -253,5 +417,10 @@ public class RestClient extends MultiListener
 
 	private volatile boolean started = false;
 	private final Constructor<? extends RestSpooler> spoolerConstr;
+	private final Executor executor;
+	private int concurrency = 1;
+	private volatile Transport transport = HttpUrlTransport.DEFAULT;
+	private volatile AsyncListener async = null;
+	private volatile Listener events = this;
 	protected final Map<String,RestSpooler> spoolers = new HashMap<String,RestSpooler>();
 }
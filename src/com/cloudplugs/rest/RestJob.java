@@ -22,11 +22,13 @@ under the License.
 </license>*/
 
 import java.util.concurrent.*;
+import com.cloudplugs.util.PlugException;
+import com.cloudplugs.util.Spooler;
 
 /**
  * @brief An instance of this class is an enqueued request execution obtained by {@link RestBaseManager#getJobOf(int)}.
  */
-public class RestJob implements Future<Response>, Runnable
+public class RestJob implements Future<Response>, Spooler.AsyncJob
 {
 	protected RestJob(RestSpooler spooler, Request request, int timeout, RestCallback cb) {
 		this.spooler = spooler;
@@ -36,13 +38,57 @@ public class RestJob implements Future<Response>, Runnable
 	}
 
 	/**
-	 * Runnable implementation executed in the spooler thread.
+	 * Runnable implementation executed in the spooler thread: it blocks until the job is completed.
 	 * Do not directly invoke this method.
 	 */
 	@Override
 	public final void run() {
-		response = RestSpooler.doRequest(request, timeout);
-		if(cb != null) cb.on(request, response);
+		final CountDownLatch latch = new CountDownLatch(1);
+		run(new Runnable() {
+			@Override
+			public void run() {
+				latch.countDown();
+			}
+		});
+		try {
+			latch.await();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Asynchronous implementation executed by the spooler: the request is sent by the transport of the spooler and
+	 * <tt>done</tt> is run after invoking the callback.
+	 * Do not directly invoke this method.
+	 */
+	@Override
+	public final void run(final Runnable done) {
+		request.sentAt = System.nanoTime();
+		spooler.getTransport().send(request, timeout, new RestCallback() {
+			@Override
+			public void on(Request req, Response res) {
+				response = res;
+				try {
+					if(cb != null) cb.on(request, res);
+				} catch(Throwable t) {
+					spooler.onErr(t);
+				} finally {
+					done.run();
+				}
+			}
+		});
+	}
+
+	// complete this job with an error response without sending its request
+	void fail(Throwable cause) {
+		Response res = new Response(Const.ERR_CONN, cause.getMessage(), PlugException.getStackTraceOf(cause));
+		response = res;
+		try {
+			if(cb != null) cb.on(request, res);
+		} catch(Throwable t) {
+			spooler.onErr(t);
+		}
 	}
 
 	/**
@@ -175,12 +221,12 @@ public class RestJob implements Future<Response>, Runnable
 	 * @return the callback or null if there is no callback associated to this job
 	 */
 	public RestCallback getCallback() {
-		return cb;
+		return cb instanceof RestBaseManager.Dispatch ? ((RestBaseManager.Dispatch)cb).cb : cb;
 	}
 
 	private RestSpooler  spooler;
 	private Request      request;
-	private Response     response;
+	private volatile Response response;
 	private RestCallback cb;
 	private int          timeout;
 
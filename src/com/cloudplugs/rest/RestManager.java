@@ -244,6 +244,28 @@ public class RestManager extends RestBaseManager
 		return execDelete(ACTION_DEVICE, null, bodyGen((Object)idPlugs), cb);
 	}
 
+	/**
+	 * Unenroll the specified devices like {@link #execUnenroll(String[], RestCallback)}, but splitting them into chunks
+	 * with a bounded number of them pending; see {@link FanOut} for details.
+	 * Email authentication credentials must be set before invoking this method.
+	 * @param idPlugs the PlugIDs identify the devices to unenroll
+	 * @param chunkSize the maximum number of devices in a single request, 0 for {@link FanOut#DEF_CHUNK_SIZE}
+	 * @param concurrency the maximum number of pending requests, 0 for {@link FanOut#DEF_CONCURRENCY}
+	 * @param cb if not null, the callback will receive the Request of the first chunk and the aggregate Response
+	 * @return the execution of all chunks
+	 * @throws RestException for invalid authentication credentials or IllegalArgumentException for argument validation error
+	 */
+	public FanOut execUnenroll(String[] idPlugs, int chunkSize, int concurrency, RestCallback cb) {
+		wantEmailAuth();
+		Validate.devIds(idPlugs);
+		return new FanOut(idPlugs, chunkSize, concurrency, new FanOut.Task() {
+			@Override
+			public int exec(String[] ids, RestCallback cb) {
+				return execUnenroll(ids, cb);
+			}
+		}, cb);
+	}
+
 	/**
 	 * Enqueue an asynchronous request for asking grants to control another device.
 	 * This is the a low level method you can directly set the body of the HTTP request.
@@ -322,6 +344,28 @@ public class RestManager extends RestBaseManager
 		return execDelete(ACTION_DEVICE, opts.getAuthId(), body, cb);
 	}
 
+	/**
+	 * Release the control of the specified devices like {@link #execUncontrolDevice(String[], RestCallback)}, but
+	 * splitting them into chunks with a bounded number of them pending; see {@link FanOut} for details.
+	 * Device authentication credentials must be set before invoking this method.
+	 * @param idPlugs the PlugIDs identify the devices to release control
+	 * @param chunkSize the maximum number of devices in a single request, 0 for {@link FanOut#DEF_CHUNK_SIZE}
+	 * @param concurrency the maximum number of pending requests, 0 for {@link FanOut#DEF_CONCURRENCY}
+	 * @param cb if not null, the callback will receive the Request of the first chunk and the aggregate Response
+	 * @return the execution of all chunks
+	 * @throws RestException for invalid authentication credentials or IllegalArgumentException for argument validation error
+	 */
+	public FanOut execUncontrolDevice(String[] idPlugs, int chunkSize, int concurrency, RestCallback cb) {
+		wantDeviceAuth();
+		Validate.devIds(idPlugs);
+		return new FanOut(idPlugs, chunkSize, concurrency, new FanOut.Task() {
+			@Override
+			public int exec(String[] ids, RestCallback cb) {
+				return execUncontrolDevice(ids, cb);
+			}
+		}, cb);
+	}
+
 	//---- device crud
 
 	/**
@@ -339,6 +383,29 @@ public class RestManager extends RestBaseManager
 		return execGet(ACTION_DEVICE, idPlug, cb);
 	}
 
+	/**
+	 * Get all the information about many devices, enqueueing a request for every device while keeping at most
+	 * <tt>concurrency</tt> of them pending; see {@link FanOut} for details.
+	 * The aggregate response holds the outcome of every device in the same order of <tt>idPlugs</tt>, and the
+	 * information of a single device is available by {@link FanOut#getResponseOf(int)}.
+	 * Authentication credentials must be set before invoking this method.
+	 * @param idPlugs the PlugIDs of the devices
+	 * @param concurrency the maximum number of pending requests, 0 for {@link FanOut#DEF_CONCURRENCY}
+	 * @param cb if not null, the callback will receive the Request of the first device and the aggregate Response
+	 * @return the execution of all requests
+	 * @throws RestException for invalid authentication credentials or IllegalArgumentException for argument validation error
+	 */
+	public FanOut execGetDevices(String[] idPlugs, int concurrency, RestCallback cb) {
+		wantAuth();
+		Validate.devIds(idPlugs);
+		return new FanOut(idPlugs, 1, concurrency, new FanOut.Task() {
+			@Override
+			public int exec(String[] ids, RestCallback cb) {
+				return execGetDevice(ids[0], cb);
+			}
+		}, cb);
+	}
+
 	/**
 	 * Enqueue an asynchronous request for getting all the information about this device.
 	 * Device authentication credentials must be set before invoking this method.
@@ -422,6 +489,53 @@ public class RestManager extends RestBaseManager
 		return execSetDevice(idPlug, bodyGen(K_NAME, name, K_STATUS, status, K_PERM, perm, K_PROPS, props), cb);
 	}
 
+	/**
+	 * Set the same information on many devices, enqueueing a request for every device while keeping at most
+	 * <tt>concurrency</tt> of them pending; see {@link FanOut} for details.
+	 * This is the a low level method you can directly set the body of the HTTP requests.
+	 * See {@link #execSetDevices(String[], String, JSONObject, String, JSONObject, int, RestCallback)}
+	 * for a more convenient way to set the information of the devices.
+	 * Authentication credentials must be set before invoking this method.
+	 * @param idPlugs the PlugIDs of the devices to modify
+	 * @param body the JSON body of every HTTP request to send
+	 * @param concurrency the maximum number of pending requests, 0 for {@link FanOut#DEF_CONCURRENCY}
+	 * @param cb if not null, the callback will receive the Request of the first device and the aggregate Response
+	 * @return the execution of all requests
+	 * @throws RestException for invalid authentication credentials or IllegalArgumentException for argument validation error
+	 */
+	public FanOut execSetDevices(String[] idPlugs, final String body, int concurrency, RestCallback cb) {
+		wantAuth();
+		Validate.devIds(idPlugs);
+		Validate.body(body);
+		return new FanOut(idPlugs, 1, concurrency, new FanOut.Task() {
+			@Override
+			public int exec(String[] ids, RestCallback cb) {
+				return execSetDevice(ids[0], body, cb);
+			}
+		}, cb);
+	}
+
+	/**
+	 * Set the same information on many devices, enqueueing a request for every device while keeping at most
+	 * <tt>concurrency</tt> of them pending; see {@link FanOut} for details.
+	 * Authentication credentials must be set before invoking this method.
+	 * @param idPlugs the PlugIDs of the devices to modify
+	 * @param name if not null, the new name of the devices
+	 * @param props if not null, the additional properties (key-value pairs) to set for the devices
+	 * @param status if not null, the new status of the devices, one of {@link #STATUS_OK}, {@link #STATUS_DISABLED} or {@link #STATUS_REACTIVATE}
+	 * @param perm if not null, a JSON of the new permission object to assign to the devices
+	 * @param concurrency the maximum number of pending requests, 0 for {@link FanOut#DEF_CONCURRENCY}
+	 * @param cb if not null, the callback will receive the Request of the first device and the aggregate Response
+	 * @return the execution of all requests
+	 * @throws RestException for invalid authentication credentials or IllegalArgumentException for argument validation error
+	 */
+	public FanOut execSetDevices(String[] idPlugs, String name, JSONObject props, String status, JSONObject perm, int concurrency, RestCallback cb) {
+		if(name   != null) Validate.name(name);
+		if(status != null) Validate.status(status);
+		if(perm   != null) Validate.perm(perm);
+		return execSetDevices(idPlugs, bodyGen(K_NAME, name, K_STATUS, status, K_PERM, perm, K_PROPS, props), concurrency, cb);
+	}
+
 	/**
 	 * Enqueue an asynchronous request for getting the value of a specific additional property of this device.
 	 * Device authentication credentials must be set before invoking this method.
@@ -683,8 +797,8 @@ public class RestManager extends RestBaseManager
 		if(of != null) Validate.plugIdCsv(of);
 		if(offset < 0) offset = 0;
 		if(limit  < 0) limit  = 0;
-		return execGetChannels(channelMask, queryGen(
-			K_AT, ts(at, K_AT), K_OF, of, K_OFFSET, offset, K_LIMIT, limit), cb);
+		return execGetChannels(channelMask, Query.get()
+			.ts(K_AT, at).add(K_OF, of).add(K_OFFSET, offset).add(K_LIMIT, limit).build(), cb);
 	}
 
 	/**
@@ -720,9 +834,9 @@ public class RestManager extends RestBaseManager
 		if(of != null) Validate.plugIdCsv(of);
 		if(offset < 0) offset = 0;
 		if(limit  < 0) limit  = 0;
-		return execGetChannels(channelMask, queryGen(
-			K_BEFORE, tso(before, K_BEFORE), K_AFTER, tso(after, K_AFTER),
-			K_OF, of, K_OFFSET, offset, K_LIMIT, limit), cb);
+		return execGetChannels(channelMask, Query.get()
+			.ts(K_BEFORE, before).ts(K_AFTER, after)
+			.add(K_OF, of).add(K_OFFSET, offset).add(K_LIMIT, limit).build(), cb);
 	}
 
 	/**
@@ -741,6 +855,33 @@ public class RestManager extends RestBaseManager
 		return execGetChannels(channelMask, before, after, of, 0, 0, cb);
 	}
 
+	/**
+	 * Iterate over all existing channel names match with the given mask and such that all specified conditions in the
+	 * other arguments are satified.
+	 * The channel names are requested in pages of <tt>pageSize</tt> elements, while the next <tt>prefetch</tt> pages
+	 * are requested in advance; see {@link Pager} for details.
+	 * Authentication credentials must be set before invoking this method.
+	 * @param channelMask the channel mask used to filter the results
+	 * @param before if not null, timestamp or data ID: the channels must contain data published before the timestamp (Number, String or java.util.Date) or before the data ID
+	 * @param after if not null, timestamp or data ID: the channels must contain data published after the timestamp (Number, String or java.util.Date) or after the data ID
+	 * @param of if not null, PlugIDs CSV: the channels must contain data published by one of the specified PlugIDs
+	 * @param pageSize maximum number of channels requested at once
+	 * @param prefetch maximum number of pages buffered or pending at any time
+	 * @return the blocking iterator over the channel names, to be closed if not consumed until the end
+	 * @throws RestException for invalid authentication credentials or IllegalArgumentException for argument validation error
+	 */
+	public Pager iterateChannels(final String channelMask, final Object before, final Object after, final String of, int pageSize, int prefetch) {
+		wantAuth();
+		Validate.channelMask(channelMask);
+		if(of != null) Validate.plugIdCsv(of);
+		return new Pager(new Pager.Fetcher() {
+			@Override
+			public int fetch(int offset, int limit, RestCallback cb) {
+				return execGetChannels(channelMask, before, after, of, offset, limit, cb);
+			}
+		}, pageSize, prefetch);
+	}
+
 	/**
 	 * Enqueue an asynchronous request for retrieving already published data.
 	 * Authentication credentials must be set before invoking this method.
@@ -791,8 +932,8 @@ public class RestManager extends RestBaseManager
 		if(of != null) Validate.plugIdCsv(of);
 		if(offset < 0) offset = 0;
 		if(limit  < 0) limit  = 0;
-		return execRetrieveData(channelMask, queryGen(
-			K_AT, ts(at, K_AT), K_OF, of, K_OFFSET, offset, K_LIMIT, limit), cb);
+		return execRetrieveData(channelMask, Query.get()
+			.ts(K_AT, at).add(K_OF, of).add(K_OFFSET, offset).add(K_LIMIT, limit).build(), cb);
 	}
 
 	/**
@@ -813,9 +954,35 @@ public class RestManager extends RestBaseManager
 		if(of != null) Validate.plugIdCsv(of);
 		if(offset < 0) offset = 0;
 		if(limit  < 0) limit  = 0;
-		return execRetrieveData(channelMask, queryGen(
-			K_BEFORE, tso(before, K_BEFORE), K_AFTER, tso(after, K_AFTER),
-			K_OF, of, K_OFFSET, offset, K_LIMIT, limit), cb);
+		return execRetrieveData(channelMask, Query.get()
+			.ts(K_BEFORE, before).ts(K_AFTER, after)
+			.add(K_OF, of).add(K_OFFSET, offset).add(K_LIMIT, limit).build(), cb);
+	}
+
+	/**
+	 * Iterate over already published data.
+	 * The data are requested in pages of <tt>pageSize</tt> elements, while the next <tt>prefetch</tt> pages are
+	 * requested in advance; see {@link Pager} for details.
+	 * Authentication credentials must be set before invoking this method.
+	 * @param channelMask the channel mask used to filter which data should be retrieved
+	 * @param before if not null, the most recent timestamp (Number, String or java.util.Date) of the data to retrieve or a String contains the published data ID before which retrieve the data
+	 * @param after if not null, the minimum timestamp (Number, String or java.util.Date) of the data to retrieve or a String contains the published data ID after which retrieve the data
+	 * @param of if not null, the CSV string of Plug-IDs published the data to retrieve
+	 * @param pageSize maximum number of data requested at once
+	 * @param prefetch maximum number of pages buffered or pending at any time
+	 * @return the blocking iterator over the published data, to be closed if not consumed until the end
+	 * @throws RestException for invalid authentication credentials or IllegalArgumentException for argument validation error
+	 */
+	public Pager iterateData(final String channelMask, final Object before, final Object after, final String of, int pageSize, int prefetch) {
+		wantAuth();
+		Validate.channelMask(channelMask);
+		if(of != null) Validate.plugIdCsv(of);
+		return new Pager(new Pager.Fetcher() {
+			@Override
+			public int fetch(int offset, int limit, RestCallback cb) {
+				return execRetrieveData(channelMask, before, after, of, offset, limit, cb);
+			}
+		}, pageSize, prefetch);
 	}
 
 	/**
@@ -1008,6 +1175,27 @@ public class RestManager extends RestBaseManager
 		return execRemoveData(null, bodyGen(K_ID, ids.length==1 ? ids[0] : ids), cb);
 	}
 
+	/**
+	 * Remove already published data like {@link #execRemoveData(String[], RestCallback)}, but splitting the data IDs
+	 * into chunks with a bounded number of them pending; see {@link FanOut} for details.
+	 * Authentication credentials must be set before invoking this method.
+	 * @param ids array of all data ID to remove
+	 * @param chunkSize the maximum number of data IDs in a single request, 0 for {@link FanOut#DEF_CHUNK_SIZE}
+	 * @param concurrency the maximum number of pending requests, 0 for {@link FanOut#DEF_CONCURRENCY}
+	 * @param cb if not null, the callback will receive the Request of the first chunk and the aggregate Response
+	 * @return the execution of all chunks
+	 * @throws RestException for invalid authentication credentials or IllegalArgumentException for argument validation error
+	 */
+	public FanOut execRemoveData(String[] ids, int chunkSize, int concurrency, RestCallback cb) {
+		Validate.oids(ids);
+		return new FanOut(ids, chunkSize, concurrency, new FanOut.Task() {
+			@Override
+			public int exec(String[] ids, RestCallback cb) {
+				return execRemoveData(ids, cb);
+			}
+		}, cb);
+	}
+
 	/**
 	 * Enqueue an asynchronous request for removing already published data.
 	 * The response could fail if the authentication credentials don't have enough grants to complete the operation.
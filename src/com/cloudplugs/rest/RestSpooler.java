@@ -21,9 +21,8 @@ specific language governing permissions and limitations
 under the License.
 </license>*/
 
-import java.io.*;
+import java.net.MalformedURLException;
 import java.net.URL;
-import java.net.HttpURLConnection;
 import com.cloudplugs.util.*;
 
 /**
@@ -53,7 +52,17 @@ public class RestSpooler extends RefSpooler
 		if(opts == null) throw new NullPointerException("null opts");
 		if(method == null) throw new NullPointerException("null method");
 		if(method.length() == 0) throw new IllegalArgumentException("empty method");
-		Request request = new Request(method, opts.getUrl(), path==null ? "" : path, getHeaders(opts), body);
+		if(path == null) path = "";
+		URL url;
+		try {
+			url = opts.resolve(path);
+		} catch(MalformedURLException e) {
+			throw new IllegalArgumentException(e);
+		}
+		Request request = new Request(method, opts.getUrl(), path, url, opts.getAuthHeaders(), opts.getAuthHeaderBlock(), body);
+		request.setMaxBodySize(opts.getMaxBodySize());
+		request.setMaxDelay(opts.getMaxDelay());
+		request.setSSLContext(opts.getSSLContext());
 		return request(request, opts.getTimeout(), cb);
 	}
 
@@ -66,89 +75,49 @@ public class RestSpooler extends RefSpooler
 		return (RestJob)super.getJobOf(id);
 	}
 
-	protected static Response doRequest(Request request, int timeout) {
-		Response response = null;
-		InputStream    in = null;
-		OutputStream  out = null;
+	/**
+	 * @return the transport used for sending the requests of this spooler
+	 */
+	public Transport getTransport() {
+		return transport;
+	}
 
-		try {
-			HttpURLConnection conn = (HttpURLConnection)new URL(request.getUrl()).openConnection();
-			conn.setInstanceFollowRedirects(true);
-			conn.setDoInput(true);
-
-			if(timeout > 0) conn.setConnectTimeout(timeout * 1000);
-			String  method  = request.getMethod();
-			String  body    = request.getBody();
-			boolean hasBody = body!=null && body.length()>0;
-
-			if((hasBody && Request.DELETE.equals(method)) || Request.PATCH.equals(method)) {
-				// NOTE: HttpURLConnection does not support PATCH nor DELETE with body
-				conn.setRequestProperty("X-HTTP-Method-Override", method);
-				method = Request.POST;
-			}
-			conn.setRequestMethod(method);
-
-			String[] headers = request.getHeaders();
-			if(headers != null)
-				for(int i=1, n=headers.length; i<n; i+=2)
-					conn.setRequestProperty(headers[i-1], headers[i]);
-			conn.setRequestProperty("Accept", "application/json");
-			conn.setRequestProperty("User-Agent", Const.USER_AGENT);
-
-			if(hasBody) {
-				byte[] bodyBytes = body.getBytes();
-				conn.setRequestProperty("Content-Type", "application/json");
-				conn.setDoOutput(true);
-				conn.setFixedLengthStreamingMode(bodyBytes.length);
-				out = new BufferedOutputStream(conn.getOutputStream());
-				out.write(bodyBytes);
-				out.flush();
-			}
-
-			try {
-				in = new BufferedInputStream(conn.getInputStream());
-			} catch(IOException e) {
-				in = new BufferedInputStream(conn.getErrorStream());
-			}
-			ByteArrayOutputStream baos = new ByteArrayOutputStream();
-			byte[] buf = new byte[BUF_LENGTH];
-			try {
-				for(int n; (n = in.read(buf, 0, BUF_LENGTH)) != -1;)
-					baos.write(buf, 0, n);
-			} catch(IOException e) {}
-			baos.flush();
-			body = new String(baos.toByteArray());
-
-			response = new Response(conn.getResponseCode(), conn.getResponseMessage(), body);
-
-		} catch(Exception e) {
-			response = new Response(Const.ERR_CONN, e.getMessage(), PlugException.getStackTraceOf(e));
-
-		} finally {
-			if(in  != null) { try { in .close(); } catch(Exception e) {} }
-			if(out != null) { try { out.close(); } catch(Exception e) {} }
-		}
+	/**
+	 * Set the transport used for sending the requests of this spooler.
+	 * @param transport the transport to use or null for {@link HttpUrlTransport#DEFAULT}
+	 */
+	public void setTransport(Transport transport) {
+		this.transport = transport==null ? HttpUrlTransport.DEFAULT : transport;
+	}
 
-		return response;
+	/**
+	 * @return the network constraint of the requests of this spooler, {@link Opts#NET_ANY} or {@link Opts#NET_UNMETERED}
+	 */
+	public int getNetwork() {
+		return network;
 	}
 
-	private static String[] getHeaders(Opts opts) {
-		String authId = opts.getAuthId();
-		return authId == null ? null : new String[] {
-			authId.indexOf('@')>0 ? Const.HEADER_EMAIL : Const.HEADER_PLUGID,
-			authId,
-			opts.isAuthMaster() ? Const.HEADER_MASTER : Const.HEADER_AUTH,
-			opts.getAuthPass()==null ? "" : opts.getAuthPass(),
-		};
+	/**
+	 * Set the network constraint of the requests of this spooler, enforced by the client owning it.
+	 * @param network {@link Opts#NET_ANY} or {@link Opts#NET_UNMETERED}
+	 */
+	public void setNetwork(int network) {
+		this.network = network;
 	}
 
-	static {
-		try {
-			SSL.trustCloudPlugs();
-		} catch(Exception e) {
-			e.printStackTrace();
-		}
+	/**
+	 * A refused request completes with an error response, so its callback is always invoked.
+	 */
+	@Override
+	protected void onRejected(Runnable job, Throwable cause) {
+		if(job instanceof RestJob) ((RestJob)job).fail(cause);
+		else super.onRejected(job, cause);
+	}
+
+	protected static Response doRequest(Request request, int timeout) {
+		return HttpUrlTransport.DEFAULT.execute(request, timeout);
 	}
 
-	private static final int BUF_LENGTH = 8*1024;
+	private volatile Transport transport = HttpUrlTransport.DEFAULT;
+	private volatile int       network   = Opts.NET_ANY;
 }
@@ -0,0 +1,40 @@
+package com.cloudplugs.rest;
+
+/*<license>
+Copyright 2014 CloudPlugs Inc.
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+</license>*/
+
+/**
+ * @brief A transport sends {@link Request}s over the network and produces their {@link Response}s.
+ * The default transport of a {@link RestSpooler} is {@link HttpUrlTransport#DEFAULT}, another one can be set by calling
+ * {@link RestSpooler#setTransport(Transport)} or {@link RestClient#setTransport(Transport)}.
+ */
+public interface Transport
+{
+	/**
+	 * Send a request and pass its response to the given callback.
+	 * The callback can be invoked before returning, in the calling thread, or later from any other thread, but it
+	 * must be invoked exactly once, also on failure by using a {@link Response} with status {@link Const#ERR_CONN}.
+	 * @param request the request to send
+	 * @param timeout the connection timeout in seconds, 0 for no timeout
+	 * @param done the callback receiving the request and its response
+	 */
+	public void send(Request request, int timeout, RestCallback done);
+}
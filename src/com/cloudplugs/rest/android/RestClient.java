@@ -23,6 +23,12 @@ under the License.
 
 import android.content.Context;
 import android.util.Log;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import com.cloudplugs.rest.Opts;
+import com.cloudplugs.rest.RadioScheduler;
+import com.cloudplugs.rest.RestManager;
 import com.cloudplugs.util.ErrHandler;
 
 
@@ -37,6 +43,8 @@ public class RestClient extends com.cloudplugs.rest.RestClient
 {
 	/** Event String emitted every time the Internet connectivity becomes available. */
 	public static final String EVT_CONN = RestService.EVT_CONN;
+	/** Event String emitted every time the active network becomes metered (value true) or unmetered (value false). */
+	public static final String EVT_METERED = RestService.EVT_METERED;
 
 	protected RestClient(Listener listener) {
 		super(RestSpooler.class);
@@ -84,12 +92,158 @@ public class RestClient extends com.cloudplugs.rest.RestClient
 	@Override
 	public void onEvt(Object evt, Object value) {
 		if(EVT_CONN.equals(evt) && value instanceof Boolean) {
-			if((Boolean)value) resume();
+			if((Boolean)value) applyNetwork(true);
 			else               pause();
+		} else if(EVT_METERED.equals(evt)) {
+			applyNetwork(false);
 		}
 		super.onEvt(evt, value);
 	}
 
+	@Override
+	public RestManager getManager(Opts opts) {
+		RestManager res = super.getManager(opts);
+		synchronized(spoolers) {
+			RestSpooler spooler = (RestSpooler)spoolers.get(laneOf(opts));
+			if(spooler != null) {
+				spooler.setDutyCycle(dutyInterval, maxHold);
+				if(radio!=null && spooler.getRadioScheduler()==null) spooler.setRadioScheduler(new RadioScheduler(clock, radio));
+			}
+		}
+		applyNetwork(false);
+		return res;
+	}
+
+	/**
+	 * Save battery by sending the enqueued requests in bursts: the requests are held and flushed every
+	 * <tt>interval</tt> milliseconds under a CPU wake lock which is released as soon as the burst is over.
+	 * This applies to the current and future underlying spoolers.
+	 * @param interval the milliseconds between two bursts, 0 for sending each request as soon as possible (the default)
+	 * @param maxHold the maximum milliseconds of each wake lock acquisition, 0 for no limit (the default);
+	 *                requests still enqueued after <tt>maxHold</tt> milliseconds wait for the next burst
+	 */
+	public void setDutyCycle(long interval, long maxHold) {
+		if(interval<0 || maxHold<0) throw new IllegalArgumentException("invalid duty cycle");
+		synchronized(spoolers) {
+			dutyInterval = interval;
+			this.maxHold = maxHold;
+			if(interval > 0) radio = null;
+			for(com.cloudplugs.rest.RestSpooler spooler : spoolers.values())
+				((RestSpooler)spooler).setDutyCycle(interval, maxHold);
+		}
+	}
+
+	/**
+	 * Save radio energy by deferring the requests declaring a maximum delay (see {@link Opts#setMaxDelay(int)}) and
+	 * aligning them into bursts: a deferrable request waits until the radio is active, another request is sent or
+	 * its maximum delay expires, see {@link RadioScheduler}. This applies to the current and future underlying
+	 * spoolers and disables the duty-cycled mode of {@link #setDutyCycle(long, long)}.
+	 * @param clock the time source or null for {@link TelephonyRadio#CLOCK}
+	 * @param radio the radio state, for instance a {@link TelephonyRadio}, or null for disabling this mode
+	 */
+	public void setRadioAware(RadioScheduler.Clock clock, RadioScheduler.Radio radio) {
+		if(radio != null) setDutyCycle(0, maxHold);
+		synchronized(spoolers) {
+			this.clock = clock==null ? TelephonyRadio.CLOCK : clock;
+			this.radio = radio;
+			for(com.cloudplugs.rest.RestSpooler spooler : spoolers.values())
+				((RestSpooler)spooler).setRadioScheduler(radio==null ? null : new RadioScheduler(this.clock, radio));
+		}
+	}
+
+	/**
+	 * Like {@link #setRadioAware(RadioScheduler.Clock, RadioScheduler.Radio)}, using a {@link TelephonyRadio}.
+	 * @param enabled true for enabling the radio-aware mode, false for disabling it
+	 */
+	public void setRadioAware(boolean enabled) {
+		setRadioAware(null, enabled ? new TelephonyRadio(ctx) : null);
+	}
+
+	/**
+	 * @return the radio state of the radio-aware mode or null if disabled
+	 */
+	public RadioScheduler.Radio getRadio() {
+		return radio;
+	}
+
+	/**
+	 * @return the milliseconds between two bursts of requests, 0 if the duty-cycled mode is disabled
+	 */
+	public long getDutyInterval() {
+		return dutyInterval;
+	}
+
+	/**
+	 * @return the maximum milliseconds of each wake lock acquisition, 0 for no limit
+	 */
+	public long getMaxHold() {
+		return maxHold;
+	}
+
+	/**
+	 * Obtain the milliseconds the CPU wake locks of the spoolers of a server have been held since they started,
+	 * useful for tuning {@link #setDutyCycle(long, long)}.
+	 * The spoolers of all lanes of the server are summed up, see {@link Opts#setNetwork(int)}.
+	 * @param url the URL of the server, see {@link Opts#getUrl()}
+	 * @return the total milliseconds or -1 if there is no running spooler for the given server
+	 */
+	public long getWakeLockTime(String url) {
+		List<RestSpooler> lanes = lanesOf(url);
+		if(lanes.isEmpty()) return -1;
+		long res = 0;
+		for(RestSpooler lane : lanes)
+			res += lane.getWakeLockTime();
+		return res;
+	}
+
+	/**
+	 * Obtain how many times the CPU wake locks of the spoolers of a server have been acquired since they started.
+	 * The spoolers of all lanes of the server are summed up, see {@link Opts#setNetwork(int)}.
+	 * @param url the URL of the server, see {@link Opts#getUrl()}
+	 * @return the number of acquisitions or -1 if there is no running spooler for the given server
+	 */
+	public long getWakeLockCount(String url) {
+		List<RestSpooler> lanes = lanesOf(url);
+		if(lanes.isEmpty()) return -1;
+		long res = 0;
+		for(RestSpooler lane : lanes)
+			res += lane.getWakeLockCount();
+		return res;
+	}
+
+	/**
+	 * @return the type of the active network as defined by android.net.ConnectivityManager, or -1 if not connected
+	 */
+	public static int getNetworkType() {
+		return RestService.getNetworkType();
+	}
+
+	/**
+	 * @return true if the active network is metered or unknown, see {@link Opts#NET_UNMETERED}
+	 */
+	public static boolean isMetered() {
+		return RestService.isMetered();
+	}
+
+	// apply the active network to the lanes, see com.cloudplugs.rest.RestClient.applyNetwork()
+	private void applyNetwork(boolean connected) {
+		if(!RestService.isConnected()) return;
+		if(applyNetwork(RestService.isMetered(), connected) && connected) onResume();
+	}
+
+	// the spoolers of all lanes of a server, see laneOf()
+	private List<RestSpooler> lanesOf(String url) {
+		List<RestSpooler> res = new ArrayList<RestSpooler>();
+		String prefix = url + ' ';
+		synchronized(spoolers) {
+			for(Map.Entry<String,com.cloudplugs.rest.RestSpooler> e : spoolers.entrySet()) {
+				String key = e.getKey();
+				if(key.equals(url) || key.startsWith(prefix)) res.add((RestSpooler)e.getValue());
+			}
+		}
+		return res;
+	}
+
 	/**
 	 * @return the instance of android.content.Context associated to this instance
 	 */
@@ -135,6 +289,10 @@ public class RestClient extends com.cloudplugs.rest.RestClient
 	}
 
 	private Listener listener;
+	private volatile long dutyInterval = 0;
+	private volatile long maxHold      = 0;
+	private volatile RadioScheduler.Clock clock = TelephonyRadio.CLOCK;
+	private volatile RadioScheduler.Radio radio = null;
 	private static Context ctx;
 
 	private static final String TAG = ErrHandler.class.getName();
@@ -48,6 +48,10 @@ import com.cloudplugs.util.android.BaseReceiver;
 public class RestService extends BaseService
 {
 	public  static final String EVT_CONN    = "connState";
+	/** Event String emitted when the active network becomes metered (value true) or unmetered (value false). */
+	public  static final String EVT_METERED = "metered";
+	/** Network type returned by {@link #getNetworkType()} when there is no active network. */
+	public  static final int    TYPE_NONE   = -1;
 	private static final String ACTION_CONN = ConnectivityManager.CONNECTIVITY_ACTION;
 
 	public static boolean isRunning() {
@@ -66,6 +70,22 @@ public class RestService extends BaseService
 		return connected;
 	}
 
+	/**
+	 * @return the type of the active network as defined by android.net.ConnectivityManager (for instance
+	 *         TYPE_WIFI or TYPE_MOBILE), or {@link #TYPE_NONE}
+	 */
+	public static int getNetworkType() {
+		return networkType;
+	}
+
+	/**
+	 * @return true if the active network is metered, like a cellular network; true if unknown, so bulk transfers
+	 *         never run on an unknown network
+	 */
+	public static boolean isMetered() {
+		return metered;
+	}
+
 	public static boolean shouldStart() {
 		return !starting && (me==null || stopping);
 	}
@@ -167,11 +187,32 @@ public class RestService extends BaseService
 						listeners.onEvt(EVT_CONN, conn);
 					}
 				}
+				updateNetwork();
 			}
 			return wakeLockId;
 		}
 	}
 
+	// the notified network may not be the active one, which is the network really used for sending
+	@SuppressWarnings("deprecation")
+	private static void updateNetwork() {
+		NetworkInfo active = connMan==null ? null : connMan.getActiveNetworkInfo();
+		int type = active==null || !active.isConnected() ? TYPE_NONE : active.getType();
+		boolean m;
+		if(type == TYPE_NONE) {
+			m = true;
+		} else if(VERSION.SDK_INT >= 16) {
+			m = connMan.isActiveNetworkMetered();
+		} else {
+			m = type!=ConnectivityManager.TYPE_WIFI && type!=ConnectivityManager.TYPE_ETHERNET;
+		}
+		networkType = type;
+		if(m != metered) {
+			metered = m;
+			listeners.onEvt(EVT_METERED, m);
+		}
+	}
+
 	private static RestService me;
 	private static ConnectivityManager connMan;
 	private static BaseReceiver receiver;
@@ -179,4 +220,6 @@ public class RestService extends BaseService
 	private static boolean starting = false;
 	private static boolean stopping = false;
 	private static boolean connected = false;
+	private static volatile int     networkType = TYPE_NONE;
+	private static volatile boolean metered     = true;
 }
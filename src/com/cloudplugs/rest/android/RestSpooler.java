@@ -22,12 +22,31 @@ under the License.
 </license>*/
 
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.PowerManager;
 import android.os.PowerManager.WakeLock;
+import android.os.SystemClock;
+import com.cloudplugs.rest.RadioScheduler;
+import com.cloudplugs.rest.Request;
+import com.cloudplugs.rest.Response;
+import com.cloudplugs.rest.RestCallback;
+import com.cloudplugs.rest.RestJob;
+import com.cloudplugs.rest.Transport;
 
 /**
  * @brief A {@link com.cloudplugs.rest.RestSpooler} extension to handle Android wake locks for reliable execution
  * when the application is not in foreground.
+ * <br/><br/>
+ * By default the wake lock is held from the first enqueued request until the queue becomes empty.
+ * In duty-cycled mode (see {@link #setDutyCycle(long, long)}) the enqueued requests are held and flushed in bursts
+ * every <tt>interval</tt> milliseconds under a wake lock which is released when the burst is over, or after
+ * <tt>maxHold</tt> milliseconds at most; the requests still enqueued at that time wait for the next burst.
+ * Bursts are timed by wakeup alarms (see {@link WakeupAlarm}), so they also happen while the device sleeps.
+ * In radio-aware mode (see {@link #setRadioScheduler(RadioScheduler)}) deferrable requests are held and aligned
+ * into bursts as decided by a {@link com.cloudplugs.rest.RadioScheduler}, and the wake lock is only held while
+ * sending them; their deadlines are timed by a wakeup alarm as well. The two modes are mutually exclusive.
+ * The time the wake lock has been held is accounted, see {@link #getWakeLockTime()}.
  * This class is for internal usage.
  */
 class RestSpooler extends com.cloudplugs.rest.RestSpooler
@@ -35,10 +54,76 @@ class RestSpooler extends com.cloudplugs.rest.RestSpooler
 	private static final String TAG = RestSpooler.class.getSimpleName();
 
 	public RestSpooler() {
-		PowerManager pm = (PowerManager)RestClient.ctx().getSystemService(Context.POWER_SERVICE);
+		Context ctx = RestClient.ctx();
+		PowerManager pm = (PowerManager)ctx.getSystemService(Context.POWER_SERVICE);
+		flushAlarm = new WakeupAlarm(ctx, flusher);
+		endAlarm   = new WakeupAlarm(ctx, ender);
+		radioAlarm = new WakeupAlarm(ctx, checker);
 		wakeLock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, TAG);
 		wakeLock.setReferenceCounted(false);
-		wakeLock.acquire();
+		acquireWakeLock();
+	}
+
+	/**
+	 * Configure the duty-cycled mode.
+	 * @param interval the milliseconds between two bursts of requests, 0 for disabling the duty-cycled mode
+	 * @param maxHold the maximum milliseconds of each wake lock acquisition, 0 for no limit
+	 */
+	public void setDutyCycle(long interval, long maxHold) {
+		if(interval<0 || maxHold<0) throw new IllegalArgumentException("invalid duty cycle");
+		if(interval > 0) setRadioScheduler(null);
+		if(this.interval==interval && this.maxHold==maxHold) return;
+		this.interval = interval;
+		this.maxHold  = maxHold;
+		handler.post(reconfigurer);
+	}
+
+	/**
+	 * Enable or disable the radio-aware mode; enabling it disables the duty-cycled mode.
+	 * @param scheduler the scheduler deciding when the deferrable requests are sent, null for disabling this mode
+	 */
+	public void setRadioScheduler(RadioScheduler scheduler) {
+		if(scheduler!=null && interval>0) setDutyCycle(0, maxHold);
+		synchronized(lockRadio) {
+			if(radio == scheduler) return;
+			radio = scheduler;
+			radioAlarm.cancel();
+			// the requests held by the previous scheduler are sent at once
+			if(isHeld()) {
+				acquireWakeLock();
+				hold(false);
+			}
+		}
+	}
+
+	public RadioScheduler getRadioScheduler() {
+		return radio;
+	}
+
+	public long getDutyInterval() {
+		return interval;
+	}
+
+	public long getMaxHold() {
+		return maxHold;
+	}
+
+	/**
+	 * @return the total milliseconds the wake lock of this spooler has been held, including the current acquisition
+	 */
+	public long getWakeLockTime() {
+		synchronized(wakeLock) {
+			return heldTime + (lockedSince>0 ? elapsed(lockedSince) : 0);
+		}
+	}
+
+	/**
+	 * @return how many times the wake lock of this spooler has been acquired
+	 */
+	public long getWakeLockCount() {
+		synchronized(wakeLock) {
+			return lockCount;
+		}
 	}
 
 	@Override
@@ -51,36 +136,241 @@ class RestSpooler extends com.cloudplugs.rest.RestSpooler
 	@Override
 	public boolean resume() {
 		if(!super.resume()) return false;
-		acquireWakeLock();
+		if(interval > 0) handler.post(scheduler);
+		else acquireWakeLock();
 		return true;
 	}
 
 	@Override
 	public int exec(Runnable runnable) {
+		RadioScheduler r = radio;
+		if(r != null) {
+			int maxDelay = runnable instanceof RestJob ? ((RestJob)runnable).getRequest().getMaxDelay() : 0;
+			long wait;
+			synchronized(lockRadio) {
+				// requests already released but not yet started are about to wake the radio up: join them
+				wait = r.submit(!isHeld() && !isEmpty() ? 0 : maxDelay);
+				if(wait == 0) {
+					acquireWakeLock();
+					hold(false);
+				} else {
+					hold(true);
+				}
+			}
+			int id = super.exec(runnable);
+			if(wait > 0) radioAlarm.schedule(wait);
+			return id;
+		}
+		if(interval > 0) {
+			int id = super.exec(runnable);
+			if(!scheduled && !flushing) handler.post(scheduler);
+			return id;
+		}
 		acquireWakeLock();
 		return super.exec(runnable);
 	}
 
 	@Override
 	public void onReady() {
-		acquireWakeLock();
+		if(interval<=0 && radio==null) acquireWakeLock();
 		super.onReady();
 	}
 
+	@Override
+	public void onStop() {
+		flushAlarm.close();
+		endAlarm.close();
+		radioAlarm.close();
+		super.onStop();
+	}
+
 	@Override
 	public void onIdle() {
 		super.onIdle();
+		if(interval > 0) handler.post(ender);
+		else releaseWakeLock();
+	}
+
+	/**
+	 * In radio-aware mode the transport is wrapped for notifying the scheduler about the requests in flight.
+	 */
+	@Override
+	public Transport getTransport() {
+		Transport t = super.getTransport();
+		RadioScheduler r = radio;
+		if(r == null) return t;
+		Tracker tracker = this.tracker;
+		if(tracker==null || tracker.transport!=t || tracker.radio!=r) this.tracker = tracker = new Tracker(t, r);
+		return tracker;
+	}
+
+	// send the held requests if their scheduler says so, run by the handler
+	private void check() {
+		synchronized(lockRadio) {
+			RadioScheduler r = radio;
+			if(r == null) return;
+			long wait = r.poll();
+			if(wait==0 || (wait<0 && isHeld())) {
+				acquireWakeLock();
+				hold(false);
+			} else if(wait > 0) {
+				radioAlarm.schedule(wait);
+			}
+		}
+	}
+
+	// NOTE: the following methods of the duty-cycled mode are only run by the handler
+
+	// apply a new duty cycle configuration
+	private void reconfigure() {
+		flushAlarm.cancel();
+		endAlarm.cancel();
+		handler.removeCallbacks(ender);
+		scheduled = false;
+		if(flushing) {
+			flushing = false;
+			releaseWakeLock();
+		}
+		if(interval > 0) {
+			releaseWakeLock();
+			hold(true);
+			if(!isEmpty()) scheduleFlush();
+		} else {
+			hold(false);
+			if(!isEmpty()) acquireWakeLock();
+		}
+	}
+
+	// hold the next requests and schedule a burst, unless a burst is running or already scheduled
+	private void scheduleFlush() {
+		if(interval<=0 || flushing || scheduled) return;
+		scheduled = true;
+		hold(true);
+		flushAlarm.schedule(interval);
+	}
+
+	private void flush() {
+		scheduled = false;
+		if(interval<=0 || isPaused()) return;
+		flushing = true;
+		acquireWakeLock();
+		if(maxHold > 0) endAlarm.schedule(maxHold);
+		hold(false);
+	}
+
+	// the burst is over because the queue is empty or because it lasted too long:
+	// the remaining requests, if any, wait for the next burst
+	private void endBurst() {
+		if(!flushing) return;
+		flushing = false;
+		endAlarm.cancel();
+		handler.removeCallbacks(ender);
+		hold(true);
 		releaseWakeLock();
+		if(!isEmpty()) scheduleFlush();
 	}
 
 	private void acquireWakeLock() {
-		wakeLock.acquire();
+		synchronized(wakeLock) {
+			if(maxHold > 0) wakeLock.acquire(maxHold);
+			else            wakeLock.acquire();
+			if(lockedSince <= 0) {
+				lockedSince = SystemClock.elapsedRealtime();
+				++lockCount;
+			}
+		}
 	}
 
 	private void releaseWakeLock() {
-		if(wakeLock.isHeld())
-			wakeLock.release();
+		synchronized(wakeLock) {
+			if(wakeLock.isHeld())
+				wakeLock.release();
+			if(lockedSince > 0) {
+				heldTime += elapsed(lockedSince);
+				lockedSince = 0;
+			}
+		}
+	}
+
+	// a timed acquisition is released by the system after maxHold milliseconds
+	private long elapsed(long since) {
+		long res = SystemClock.elapsedRealtime() - since;
+		return maxHold>0 && res>maxHold ? maxHold : res;
+	}
+
+	private final Runnable reconfigurer = new Runnable() {
+		@Override
+		public void run() {
+			reconfigure();
+		}
+	};
+
+	private final Runnable scheduler = new Runnable() {
+		@Override
+		public void run() {
+			scheduleFlush();
+		}
+	};
+
+	private final Runnable flusher = new Runnable() {
+		@Override
+		public void run() {
+			flush();
+		}
+	};
+
+	private final Runnable ender = new Runnable() {
+		@Override
+		public void run() {
+			endBurst();
+		}
+	};
+
+	private final Runnable checker = new Runnable() {
+		@Override
+		public void run() {
+			check();
+		}
+	};
+
+	/**
+	 * @brief A transport notifying a {@link RadioScheduler} about the requests in flight.
+	 */
+	private static final class Tracker implements Transport {
+		Tracker(Transport transport, RadioScheduler radio) {
+			this.transport = transport;
+			this.radio     = radio;
+		}
+
+		@Override
+		public void send(Request request, int timeout, final RestCallback done) {
+			radio.onSendStart();
+			transport.send(request, timeout, new RestCallback() {
+				@Override
+				public void on(Request req, Response res) {
+					radio.onSendEnd();
+					done.on(req, res);
+				}
+			});
+		}
+
+		final Transport      transport;
+		final RadioScheduler radio;
 	}
 
-	private WakeLock wakeLock;
+	private final    WakeLock wakeLock;
+	private final    WakeupAlarm flushAlarm;
+	private final    WakeupAlarm endAlarm;
+	private final    WakeupAlarm radioAlarm;
+	private final    Handler  handler     = new Handler(Looper.getMainLooper());
+	private volatile long     interval    = 0;
+	private volatile long     maxHold     = 0;
+	private volatile boolean  scheduled   = false;
+	private volatile boolean  flushing    = false;
+	private volatile RadioScheduler radio = null;
+	private volatile Tracker  tracker     = null;
+	private final    Object   lockRadio   = new Object();
+	private          long     lockedSince = 0;
+	private          long     heldTime    = 0;
+	private          long     lockCount   = 0;
 }
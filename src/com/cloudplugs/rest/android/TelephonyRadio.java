@@ -0,0 +1,75 @@
+package com.cloudplugs.rest.android;
+
+/*<license>
+Copyright 2014 CloudPlugs Inc.
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+</license>*/
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.telephony.TelephonyManager;
+import com.cloudplugs.rest.RadioScheduler;
+
+/**
+ * @brief A {@link com.cloudplugs.rest.RadioScheduler.Radio} for Android: besides the tail after the transfers of
+ * this library, the radio is also considered active while the system reports any data activity, for instance
+ * because of another application.
+ */
+public class TelephonyRadio extends RadioScheduler.TailRadio
+{
+	/** A clock based on android.os.SystemClock.elapsedRealtime(), which keeps counting while the device sleeps. */
+	public static final RadioScheduler.Clock CLOCK = new RadioScheduler.Clock() {
+		@Override
+		public long now() {
+			return SystemClock.elapsedRealtime();
+		}
+	};
+
+	/**
+	 * @param context the Android context
+	 */
+	public TelephonyRadio(Context context) {
+		this(context, RadioScheduler.DEF_TAIL);
+	}
+
+	/**
+	 * @param context the Android context
+	 * @param tail milliseconds the radio stays active after the end of a transfer
+	 */
+	public TelephonyRadio(Context context, long tail) {
+		super(tail);
+		tm = (TelephonyManager)context.getSystemService(Context.TELEPHONY_SERVICE);
+	}
+
+	@Override
+	public boolean isActive(long now) {
+		if(super.isActive(now)) return true;
+		if(tm == null) return false;
+		switch(tm.getDataActivity()) {
+			case TelephonyManager.DATA_ACTIVITY_IN:
+			case TelephonyManager.DATA_ACTIVITY_OUT:
+			case TelephonyManager.DATA_ACTIVITY_INOUT:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	private final TelephonyManager tm;
+}
@@ -0,0 +1,136 @@
+package com.cloudplugs.rest.android;
+
+/*<license>
+Copyright 2014 CloudPlugs Inc.
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+</license>*/
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Build.VERSION;
+import android.os.SystemClock;
+import java.lang.reflect.Method;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @brief A one-shot timer running a task on the main thread even when the device is in deep sleep.
+ * Unlike Handler.postDelayed(), whose uptime clock stops while the device sleeps, it is based on an
+ * {@link AlarmManager#ELAPSED_REALTIME_WAKEUP} alarm, exact and allowed in Doze mode where the platform permits it.
+ * The device is kept awake only while the task runs, so a task needing more time must acquire its own wake lock.
+ * This class is for internal usage.
+ */
+final class WakeupAlarm extends BroadcastReceiver
+{
+	WakeupAlarm(Context ctx, Runnable task) {
+		this.ctx    = ctx.getApplicationContext();
+		this.task   = task;
+		this.action = NAME + '.' + ctx.getPackageName() + '.' + seq.incrementAndGet();
+		this.alarms = (AlarmManager)this.ctx.getSystemService(Context.ALARM_SERVICE);
+	}
+
+	/**
+	 * Run the task once after the given delay, replacing any previous schedule.
+	 * @param delay the milliseconds to wait
+	 */
+	synchronized void schedule(long delay) {
+		if(closed) return;
+		if(intent == null) {
+			register();
+			Intent i = new Intent(action).setPackage(ctx.getPackageName());
+			int flags = PendingIntent.FLAG_UPDATE_CURRENT | (VERSION.SDK_INT>=23 ? FLAG_IMMUTABLE : 0);
+			intent = PendingIntent.getBroadcast(ctx, 0, i, flags);
+		}
+		long at = SystemClock.elapsedRealtime() + Math.max(0, delay);
+		int type = AlarmManager.ELAPSED_REALTIME_WAKEUP;
+		// exact alarms need a permission since Android 12: fall back to an inexact one allowed in Doze mode
+		if(VERSION.SDK_INT>=23 && (setAlarm("setExactAndAllowWhileIdle", type, at) || setAlarm("setAndAllowWhileIdle", type, at)))
+			return;
+		if(VERSION.SDK_INT >= 19) alarms.setExact(type, at, intent);
+		else                      alarms.set(type, at, intent);
+	}
+
+	/**
+	 * Cancel the scheduled run, if any.
+	 */
+	synchronized void cancel() {
+		if(intent != null) alarms.cancel(intent);
+	}
+
+	/**
+	 * Cancel the scheduled run and release the resources of this alarm, which cannot be scheduled anymore.
+	 */
+	synchronized void close() {
+		closed = true;
+		if(intent == null) return;
+		alarms.cancel(intent);
+		intent.cancel();
+		intent = null;
+		ctx.unregisterReceiver(this);
+	}
+
+	@Override
+	public void onReceive(Context context, Intent i) {
+		synchronized(this) {
+			if(closed) return;
+		}
+		task.run();
+	}
+
+	// the receiver must be registered as not exported since Android 13, by a method not available on the target SDK
+	private void register() {
+		IntentFilter filter = new IntentFilter(action);
+		if(VERSION.SDK_INT >= 33) {
+			try {
+				Method m = Context.class.getMethod("registerReceiver", BroadcastReceiver.class, IntentFilter.class, int.class);
+				m.invoke(ctx, this, filter, RECEIVER_NOT_EXPORTED);
+				return;
+			} catch(Exception e) {}
+		}
+		ctx.registerReceiver(this, filter);
+	}
+
+	// set the alarm by an AlarmManager method of Android 6, not available on the target SDK
+	private boolean setAlarm(String name, int type, long at) {
+		try {
+			Method m = AlarmManager.class.getMethod(name, int.class, long.class, PendingIntent.class);
+			m.invoke(alarms, type, at, intent);
+			return true;
+		} catch(Exception e) {
+			return false;   // including the SecurityException of a denied exact alarm
+		}
+	}
+
+	// values of constants not available on the target SDK
+	private static final int RECEIVER_NOT_EXPORTED = 0x00000004;   // Context, Android 13
+	private static final int FLAG_IMMUTABLE        = 0x04000000;   // PendingIntent, Android 6
+
+	private static final String        NAME = WakeupAlarm.class.getName();
+	private static final AtomicInteger seq  = new AtomicInteger();
+
+	private final Context       ctx;
+	private final Runnable      task;
+	private final String        action;
+	private final AlarmManager  alarms;
+	private PendingIntent       intent;
+	private boolean             closed = false;
+}
@@ -0,0 +1,311 @@
+package com.cloudplugs.util;
+
+/*<license>
+Copyright 2014 CloudPlugs Inc.
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+</license>*/
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * @brief A {@link Listener} that queues the received notifications and delivers them to another listener on an
+ * executor or on a dedicated event thread, so the notifying thread never runs the target listener inline.
+ * <br/><br/>
+ * Notifications are delivered one at a time in FIFO order. Bursts of "level" notifications are coalesced:
+ * a call to {@link #onIdle()}, {@link #onReady()} or {@link #onEvt(Object, Object)} with one of the coalesced
+ * events is discarded when the last pending notification is identical, and a call to {@link #onIdle()} or
+ * {@link #onReady()} replaces the pending idle or ready state queued after the last other notification, so
+ * a flapping spooler delivers only its latest state.
+ * When the queue holds <tt>capacity</tt> notifications, the oldest pending level notification is evicted to make room;
+ * if there is none, the new notification is dropped, except for start, stop, pause, resume and errors, which are never
+ * dropped before {@link #close()}. All cases are counted, see {@link #getCoalesced()} and {@link #getDropped()}.
+ * <br/><br/>
+ * If the executor rejects the delivery, the pending notifications are discarded and counted as dropped rather than
+ * delivered on the notifying thread; the next notification tries the executor again.
+ */
+public class AsyncListener implements Listener
+{
+	/** Default maximum number of pending notifications. */
+	public static final int DEF_CAPACITY = 256;
+
+	/**
+	 * Create a new asynchronous listener.
+	 * @param target the listener receiving the notifications
+	 * @param executor the executor delivering the notifications or null for a dedicated daemon thread
+	 * @param capacity maximum number of pending notifications, 0 for no limit
+	 * @param coalesced the events of {@link #onEvt(Object, Object)} to coalesce when identical ones are pending
+	 */
+	public AsyncListener(Listener target, Executor executor, int capacity, Object... coalesced) {
+		if(target == null) throw new NullPointerException("null listener");
+		if(capacity < 0) throw new IllegalArgumentException("invalid capacity");
+		this.target    = target;
+		this.capacity  = capacity;
+		this.coalesced = coalesced==null ? new Object[0] : coalesced.clone();
+		if(executor == null) {
+			ExecutorService own = Spooler.newPool(1);
+			this.executor = own;
+			this.own      = own;
+		} else {
+			this.executor = executor;
+			this.own      = null;
+		}
+	}
+
+	public Listener getTarget() {
+		return target;
+	}
+
+	public Executor getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * @return the number of notifications delivered to the target listener
+	 */
+	public long getDelivered() {
+		synchronized(queue) { return delivered; }
+	}
+
+	/**
+	 * @return the number of notifications discarded because an identical one was pending or replaced by a newer state
+	 */
+	public long getCoalesced() {
+		synchronized(queue) { return nCoalesced; }
+	}
+
+	/**
+	 * @return the number of notifications discarded or evicted because the queue was full, the listener was closed
+	 * or the executor rejected the delivery
+	 */
+	public long getDropped() {
+		synchronized(queue) { return dropped; }
+	}
+
+	/**
+	 * @return the number of notifications waiting to be delivered
+	 */
+	public int getPending() {
+		synchronized(queue) { return queue.size(); }
+	}
+
+	/**
+	 * Stop the dedicated event thread, if any, after the pending notifications have been delivered.
+	 * Notifications received after this call are dropped.
+	 */
+	public void close() {
+		synchronized(queue) {
+			closed = true;
+		}
+		if(own != null) own.shutdown();
+	}
+
+	@Override
+	public void onStart() {
+		post(START, null, null, null);
+	}
+
+	@Override
+	public void onStop() {
+		post(STOP, null, null, null);
+	}
+
+	@Override
+	public void onPause() {
+		post(PAUSE, null, null, null);
+	}
+
+	@Override
+	public void onResume() {
+		post(RESUME, null, null, null);
+	}
+
+	@Override
+	public void onReady() {
+		post(READY, null, null, null);
+	}
+
+	@Override
+	public void onIdle() {
+		post(IDLE, null, null, null);
+	}
+
+	@Override
+	public void onEvt(Object evt, Object value) {
+		post(EVT, evt, value, null);
+	}
+
+	@Override
+	public void onErr(Throwable t) {
+		post(ERR, null, null, t);
+	}
+
+	private void post(int type, Object evt, Object value, Throwable err) {
+		synchronized(queue) {
+			if(closed) {
+				++dropped;
+				return;
+			}
+			boolean level = isCoalesced(type, evt);
+			boolean state = type==IDLE || type==READY;
+			if(state && pendingState!=null) {
+				// idle and ready supersede each other: keep the latest one at the place of the pending one
+				pendingState.type = type;
+				++nCoalesced;
+				return;
+			}
+			if(level && !queue.isEmpty()) {
+				Notification last = queue.getLast();
+				if(last.type==type && last.evt==evt && last.value==value) {
+					++nCoalesced;
+					return;
+				}
+			}
+			if(capacity>0 && queue.size()>=capacity && !evictLevel()) {
+				if(level || type==EVT) {
+					++dropped;
+					return;
+				}
+				// lifecycle notifications and errors exceed the capacity rather than being lost
+			}
+			Notification n = new Notification(type, evt, value, err, level);
+			queue.add(n);
+			if(level) ++levels;
+			pendingState = state ? n : null;
+			if(scheduled) return;
+			scheduled = true;
+		}
+		try {
+			executor.execute(drainer);
+		} catch(RejectedExecutionException e) {
+			// never deliver on the notifying thread: discard what is pending and let the next post retry
+			synchronized(queue) {
+				dropped += queue.size();
+				queue.clear();
+				levels       = 0;
+				pendingState = null;
+				scheduled    = false;
+			}
+		}
+	}
+
+	// must be called while holding the queue lock: evict the oldest pending level notification, if any
+	private boolean evictLevel() {
+		if(levels == 0) return false;
+		for(Iterator<Notification> it = queue.iterator(); it.hasNext(); ) {
+			Notification n = it.next();
+			if(n.level) {
+				it.remove();
+				if(n == pendingState) pendingState = null;
+				--levels;
+				++dropped;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean isCoalesced(int type, Object evt) {
+		if(type==IDLE || type==READY) return true;
+		if(type != EVT) return false;
+		for(Object c : coalesced)
+			if(c==evt || (c!=null && c.equals(evt))) return true;
+		return false;
+	}
+
+	private void deliver(Notification n) {
+		try {
+			switch(n.type) {
+				case START : target.onStart(); break;
+				case STOP  : target.onStop(); break;
+				case PAUSE : target.onPause(); break;
+				case RESUME: target.onResume(); break;
+				case READY : target.onReady(); break;
+				case IDLE  : target.onIdle(); break;
+				case EVT   : target.onEvt(n.evt, n.value); break;
+				default    : target.onErr(n.err); break;
+			}
+		} catch(Throwable t) {
+			ErrHandler handler = ErrHandler.active;
+			if(handler != null) handler.handleErr(t);
+		}
+	}
+
+	private static final class Notification {
+		Notification(int type, Object evt, Object value, Throwable err, boolean level) {
+			this.type  = type;
+			this.evt   = evt;
+			this.value = value;
+			this.err   = err;
+			this.level = level;
+		}
+
+		int             type; // may change from idle to ready and back while pending
+		final Object    evt;
+		final Object    value;
+		final Throwable err;
+		final boolean   level;
+	}
+
+	private static final int START  = 0;
+	private static final int STOP   = 1;
+	private static final int PAUSE  = 2;
+	private static final int RESUME = 3;
+	private static final int READY  = 4;
+	private static final int IDLE   = 5;
+	private static final int EVT    = 6;
+	private static final int ERR    = 7;
+
+	private final Runnable drainer = new Runnable() {
+		@Override
+		public void run() {
+			for(;;) {
+				Notification n;
+				synchronized(queue) {
+					if(queue.isEmpty()) {
+						scheduled = false;
+						return;
+					}
+					n = queue.removeFirst();
+					if(n.level) --levels;
+					if(n == pendingState) pendingState = null;
+					++delivered;
+				}
+				deliver(n);
+			}
+		}
+	};
+
+	private final Listener        target;
+	private final Executor        executor;
+	private final ExecutorService own;
+	private final int             capacity;
+	private final Object[]        coalesced;
+	private final LinkedList<Notification> queue = new LinkedList<Notification>();
+	private Notification pendingState; // pending idle or ready notification queued after the last other one
+	private int     levels     = 0; // pending level notifications
+	private boolean scheduled  = false;
+	private boolean closed     = false;
+	private long    delivered  = 0;
+	private long    nCoalesced = 0;
+	private long    dropped    = 0;
+}
@@ -0,0 +1,137 @@
+package com.cloudplugs.util;
+
+/*<license>
+Copyright 2014 CloudPlugs Inc.
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+</license>*/
+
+/**
+ * @brief A global pool of reusable byte arrays, to avoid allocating new I/O buffers for every HTTP request.
+ * The arrays are grouped by size classes of powers of two from 4 KB to 256 KB; every class retains at most 128 KB of
+ * free arrays (one array for the biggest class), so the pool never keeps more than about 1 MB.
+ * Bigger arrays are not pooled. This class is thread-safe.
+ * This class is for internal usage.
+ */
+public final class BufferPool
+{
+	/**
+	 * Get an array from the pool or allocate a new one.
+	 * @param minSize the minimum length of the array
+	 * @return an array whose length is at least <tt>minSize</tt>
+	 */
+	public static byte[] acquire(int minSize) {
+		int c = classOf(minSize);
+		if(c < 0) {
+			synchronized(lock) { ++misses; }
+			return new byte[minSize];
+		}
+		synchronized(lock) {
+			int n = counts[c];
+			if(n > 0) {
+				byte[] buf = free[c][--n];
+				free[c][n] = null;
+				counts[c] = n;
+				++hits;
+				return buf;
+			}
+			++misses;
+		}
+		return new byte[MIN_SIZE << c];
+	}
+
+	/**
+	 * Give back an array obtained by {@link #acquire(int)}; the array must not be used anymore after this call.
+	 * @param buf the array to release, null is ignored
+	 */
+	public static void release(byte[] buf) {
+		if(buf == null) return;
+		int c = classOf(buf.length);
+		if(c<0 || buf.length!=(MIN_SIZE << c)) return;
+		synchronized(lock) {
+			int n = counts[c];
+			if(n < free[c].length) {
+				free[c][n] = buf;
+				counts[c] = n + 1;
+			}
+		}
+	}
+
+	/**
+	 * Drop all free arrays, for instance when the system is low on memory.
+	 */
+	public static void clear() {
+		synchronized(lock) {
+			for(int c=0; c<CLASSES; ++c) {
+				for(int i=0; i<counts[c]; ++i)
+					free[c][i] = null;
+				counts[c] = 0;
+			}
+		}
+	}
+
+	/**
+	 * @return how many times {@link #acquire(int)} has reused a free array
+	 */
+	public static long getHits() {
+		synchronized(lock) { return hits; }
+	}
+
+	/**
+	 * @return how many times {@link #acquire(int)} has allocated a new array
+	 */
+	public static long getMisses() {
+		synchronized(lock) { return misses; }
+	}
+
+	/**
+	 * @return the total size in bytes of the free arrays currently kept by the pool
+	 */
+	public static long getRetained() {
+		long res = 0;
+		synchronized(lock) {
+			for(int c=0; c<CLASSES; ++c)
+				res += (long)counts[c] * (MIN_SIZE << c);
+		}
+		return res;
+	}
+
+	private BufferPool() {}
+
+	// the size class fitting the given size or -1 if too big
+	private static int classOf(int size) {
+		int c = 0;
+		while(c<CLASSES && (MIN_SIZE << c)<size) ++c;
+		return c<CLASSES ? c : -1;
+	}
+
+	private static final int MIN_SIZE      = 4*1024;
+	private static final int CLASSES       = 7;
+	private static final int CLASS_RETAIN  = 128*1024;
+
+	private static final Object     lock   = new Object();
+	private static final byte[][][] free   = new byte[CLASSES][][];
+	private static final int[]      counts = new int[CLASSES];
+	private static long hits   = 0;
+	private static long misses = 0;
+
+	static {
+		for(int c=0; c<CLASSES; ++c)
+			free[c] = new byte[Math.max(1, CLASS_RETAIN / (MIN_SIZE << c))][];
+	}
+}
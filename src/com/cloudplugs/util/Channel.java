@@ -23,7 +23,6 @@ under the License.
 
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
-import java.util.regex.Pattern;
 
 /**
  * @brief Tool class for easy channel manipulation.
@@ -36,7 +35,7 @@ public final class Channel
 	 * @return true if the given argument is a valid channel mask
 	 */
 	public static boolean isMask(String channel) {
-		return channel!=null && rexMask.matcher(channel).find();
+		return test(channel, true);
 	}
 
 	/**
@@ -44,7 +43,7 @@ public final class Channel
 	 * @return true if the given argument is a valid channel name
 	 */
 	public static boolean isName(String channel) {
-		return channel!=null && rexName.matcher(channel).find();
+		return test(channel, false);
 	}
 
 	/**
@@ -53,8 +52,10 @@ public final class Channel
 	 * @return the escaped channel
 	 */
 	public static String toUrl(String channel) {
+		String res = urls.get(channel);
+		if(res != null) return res;
 		try {
-			return URLEncoder.encode(channel, "UTF-8");
+			return urls.put(channel, URLEncoder.encode(channel, "UTF-8"));
 		} catch(UnsupportedEncodingException e) {
 			throw new RuntimeException(e);
 		}
@@ -62,6 +63,36 @@ public final class Channel
 
 	private Channel() {}
 
-	private static final Pattern rexName = Pattern.compile("^(([^/+#]+)/)*[^/+#]+$");
-	private static final Pattern rexMask = Pattern.compile("^(([^/+#]+|\\+)/)*([^/+#]+|\\+|#)$");
+	// same as matching the whole string against the regular expression of a channel mask or name
+	private static boolean test(String s, boolean mask) {
+		if(s == null) return false;
+		if(scan(s, s.length(), mask)) return true;
+		int end = Str.lengthWithoutEol(s);
+		return end>=0 && scan(s, end, mask);
+	}
+
+	// a channel is a sequence of not empty segments separated by '/', where '+' and '#' are allowed in masks only,
+	// the former as a whole segment and the latter as a whole last segment
+	private static boolean scan(String s, int end, boolean mask) {
+		int i = 0;
+		for(;;) {
+			int j = i;
+			while(j < end) {
+				char c = s.charAt(j);
+				if(c=='/' || c=='+' || c=='#') break;
+				++j;
+			}
+			if(j == i) {
+				if(!mask || j==end) return false;
+				char c = s.charAt(j++);
+				if(c == '#') return j == end;
+				if(c != '+') return false;
+			}
+			if(j == end) return true;
+			if(s.charAt(j) != '/') return false;
+			i = j + 1;
+		}
+	}
+
+	private static final LruCache<String,String> urls = new LruCache<String,String>(128);
 }
@@ -0,0 +1,125 @@
+package com.cloudplugs.util;
+
+/*<license>
+Copyright 2014 CloudPlugs Inc.
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+</license>*/
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * @brief Tracker of objects that must be explicitly closed.
+ * When a tracked object becomes unreachable before being untracked, the leak is reported to {@link ErrHandler#active}
+ * and the associated cleanup is executed by a daemon thread, so that the resources of the leaked object are released.
+ * This class is for internal usage.
+ */
+public final class LeakDetector
+{
+	/**
+	 * Start tracking an object.
+	 * @param referent the object to track
+	 * @param name a description of the tracked object used when reporting the leak
+	 * @param cleanup executed if <tt>referent</tt> is leaked, it must not refer to <tt>referent</tt>
+	 * @return the handle to untrack <tt>referent</tt> when it is properly closed
+	 */
+	public static Ref track(Object referent, String name, Runnable cleanup) {
+		if(referent == null) throw new NullPointerException("null referent");
+		if(cleanup  == null) throw new NullPointerException("null cleanup");
+		Ref ref = new Ref(referent, name, cleanup);
+		tracked.add(ref);
+		startReaper();
+		return ref;
+	}
+
+	/**
+	 * @return the number of objects currently tracked
+	 */
+	public static int size() {
+		return tracked.size();
+	}
+
+	/**
+	 * @brief Handle of a tracked object.
+	 */
+	public static final class Ref extends PhantomReference<Object> {
+		private Ref(Object referent, String name, Runnable cleanup) {
+			super(referent, queue);
+			this.name    = name;
+			this.cleanup = cleanup;
+		}
+
+		/**
+		 * Stop tracking the object, usually because it has been properly closed.
+		 * @return true if the object was still tracked, false if it was already untracked
+		 */
+		public boolean untrack() {
+			boolean res = tracked.remove(this);
+			clear();
+			return res;
+		}
+
+		/**
+		 * @return true if the object is still tracked
+		 */
+		public boolean isTracked() {
+			return tracked.contains(this);
+		}
+
+		private final String   name;
+		private final Runnable cleanup;
+	}
+
+	private static synchronized void startReaper() {
+		if(reaper != null) return;
+		reaper = new Thread(NAME) {
+			@Override
+			public void run() {
+				for(;;) {
+					Ref ref;
+					try {
+						ref = (Ref)queue.remove();
+					} catch(InterruptedException e) {
+						continue;
+					}
+					if(!tracked.remove(ref)) continue;
+					ErrHandler handler = ErrHandler.active;
+					if(handler != null) handler.handleErr(new PlugException(ref.name + " leaked: it was never closed"));
+					try {
+						ref.cleanup.run();
+					} catch(Throwable t) {
+						if(handler != null) handler.handleErr(t);
+					}
+				}
+			}
+		};
+		reaper.setDaemon(true);
+		reaper.start();
+	}
+
+	private LeakDetector() {}
+
+	private static final String NAME = LeakDetector.class.getSimpleName();
+	private static final ReferenceQueue<Object> queue = new ReferenceQueue<Object>();
+	private static final Set<Ref> tracked = Collections.synchronizedSet(new HashSet<Ref>());
+	private static Thread reaper;
+}
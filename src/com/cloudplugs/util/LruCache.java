@@ -0,0 +1,83 @@
+package com.cloudplugs.util;
+
+/*<license>
+Copyright 2014 CloudPlugs Inc.
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+</license>*/
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @brief A small thread-safe cache keeping the most recently used entries.
+ * When the cache is full, adding a new entry evicts the least recently used one.
+ * This class is for internal usage.
+ */
+public final class LruCache<K,V>
+{
+	/**
+	 * Create a new empty cache.
+	 * @param capacity the maximum number of entries to keep
+	 */
+	public LruCache(final int capacity) {
+		if(capacity <= 0) throw new IllegalArgumentException("invalid capacity");
+		map = new LinkedHashMap<K,V>(capacity*4/3+1, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K,V> eldest) {
+				return size() > capacity;
+			}
+			private static final long serialVersionUID = 1L;
+		};
+	}
+
+	/**
+	 * @param key the key to search
+	 * @return the cached value of <tt>key</tt> or null if not cached
+	 */
+	public synchronized V get(K key) {
+		return map.get(key);
+	}
+
+	/**
+	 * Cache a value, possibly evicting the least recently used entry.
+	 * @param key the key of the value
+	 * @param value the value to cache
+	 * @return <tt>value</tt>
+	 */
+	public synchronized V put(K key, V value) {
+		map.put(key, value);
+		return value;
+	}
+
+	/**
+	 * Remove all cached entries.
+	 */
+	public synchronized void clear() {
+		map.clear();
+	}
+
+	/**
+	 * @return the number of cached entries
+	 */
+	public synchronized int size() {
+		return map.size();
+	}
+
+	private final LinkedHashMap<K,V> map;
+}
@@ -23,51 +23,50 @@ under the License.
 
 /**
  * @brief Convenient class combines the behaviors and the advantages of {@link ListListener} and {@link MetaListener}:
- * this is an instance of {@link MetaListener} encapsulates a {@link ListListener}.
+ * this is an instance of {@link MetaListener} encapsulates a copy-on-write list of listeners.
+ * Adding or removing a listener replaces an immutable snapshot array, so events are dispatched without locking and
+ * concurrent dispatches never wait for each other nor for registry changes.
+ * An exception thrown by a listener is passed to {@link #onErr(Throwable)} and does not prevent the next listeners
+ * from receiving the same event.
  */
 public class MultiListener extends MetaListener
 {
-	public MultiListener() {
-		super(new Coll());
-	}
+	public MultiListener() {}
 
 	public boolean hasListener(Listener l) {
 		if(l == null) return false;
-		synchronized(listener) {
-			return ((Coll)listener).contains(l);
-		}
+		return coll.indexOf(l) >= 0;
 	}
 
 	public Listener getListener(int location) {
-		synchronized(listener) {
-			return ((Coll)listener).get(location);
-		}
+		Listener[] items = coll.items;
+		if(location<0 || location>=items.length) throw new IndexOutOfBoundsException("invalid listener location: "+location);
+		return items[location];
+	}
+
+	/**
+	 * @return the number of registered listeners
+	 */
+	public int getListenerCount() {
+		return coll.items.length;
 	}
 
 	public void addListener(Listener l) {
 		if(l == null) throw new NullPointerException("null listener");
-		synchronized(listener) {
-			((Coll)listener).add(l);
-		}
+		coll.add(l);
 	}
 
 	public boolean removeListener(Listener l) {
 		if(l == null) return false;
-		synchronized(listener) {
-			return ((Coll)listener).remove(l);
-		}
+		return coll.remove(l);
 	}
 
 	public Listener removeListener(int location) {
-		synchronized(listener) {
-			return ((Coll)listener).remove(location);
-		}
+		return coll.remove(location);
 	}
 
 	public void clearListeners() {
-		synchronized(listener) {
-			((Coll)listener).clear();
-		}
+		coll.clear();
 	}
 
 	@Override
@@ -82,59 +81,121 @@ public class MultiListener extends MetaListener
 
 	@Override
 	public void onStart() {
-		synchronized(listener) {
-			super.onStart();
+		for(Listener l : coll.items) {
+			try { l.onStart(); }
+			catch(Throwable t) { onErr(t); }
 		}
 	}
 
 	@Override
 	public void onStop() {
-		synchronized(listener) {
-			super.onStop();
+		for(Listener l : coll.items) {
+			try { l.onStop(); }
+			catch(Throwable t) { onErr(t); }
 		}
 	}
 
 	@Override
 	public void onPause() {
-		synchronized(listener) {
-			super.onPause();
+		for(Listener l : coll.items) {
+			try { l.onPause(); }
+			catch(Throwable t) { onErr(t); }
 		}
 	}
 
 	@Override
 	public void onResume() {
-		synchronized(listener) {
-			super.onResume();
+		for(Listener l : coll.items) {
+			try { l.onResume(); }
+			catch(Throwable t) { onErr(t); }
 		}
 	}
 
 	@Override
 	public void onReady() {
-		synchronized(listener) {
-			super.onReady();
+		for(Listener l : coll.items) {
+			try { l.onReady(); }
+			catch(Throwable t) { onErr(t); }
 		}
 	}
 
 	@Override
 	public void onIdle() {
-		synchronized(listener) {
-			super.onIdle();
+		for(Listener l : coll.items) {
+			try { l.onIdle(); }
+			catch(Throwable t) { onErr(t); }
 		}
 	}
 
 	@Override
 	public void onEvt(Object evt, Object value) {
-		synchronized(listener) {
-			super.onEvt(evt, value);
+		for(Listener l : coll.items) {
+			try { l.onEvt(evt, value); }
+			catch(Throwable t) { onErr(t); }
 		}
 	}
 
 	@Override
 	public void onErr(Throwable t) {
-		synchronized(listener) {
-			super.onErr(t);
+		for(Listener l : coll.items) {
+			try {
+				l.onErr(t);
+			} catch(Throwable t2) {
+				ErrHandler handler = ErrHandler.active;
+				if(handler != null) {
+					handler.handleErr(t2);
+					handler.handleErr(t);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @brief The copy-on-write registry of a {@link MultiListener}: mutators are serialized and replace the whole array,
+	 * readers just take the current snapshot.
+	 */
+	private static final class Coll
+	{
+		int indexOf(Listener l) {
+			Listener[] a = items;
+			for(int i=0; i<a.length; ++i)
+				if(l.equals(a[i])) return i;
+			return -1;
+		}
+
+		synchronized void add(Listener l) {
+			Listener[] a = items;
+			Listener[] res = new Listener[a.length + 1];
+			System.arraycopy(a, 0, res, 0, a.length);
+			res[a.length] = l;
+			items = res;
 		}
+
+		synchronized boolean remove(Listener l) {
+			int i = indexOf(l);
+			if(i < 0) return false;
+			remove(i);
+			return true;
+		}
+
+		synchronized Listener remove(int location) {
+			Listener[] a = items;
+			if(location<0 || location>=a.length) throw new IndexOutOfBoundsException("invalid listener location: "+location);
+			Listener[] res = new Listener[a.length - 1];
+			System.arraycopy(a, 0, res, 0, location);
+			System.arraycopy(a, location+1, res, location, res.length-location);
+			items = res;
+			return a[location];
+		}
+
+		synchronized void clear() {
+			items = EMPTY;
+		}
+
+		volatile Listener[] items = EMPTY;
+
+		private static final Listener[] EMPTY = new Listener[0];
 	}
 
-	protected static class Coll extends ListListener {}
+	private final Coll coll = new Coll();
 }
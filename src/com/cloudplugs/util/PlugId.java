@@ -21,8 +21,6 @@ specific language governing permissions and limitations
 under the License.
 </license>*/
 
-import java.util.regex.Pattern;
-
 /**
  * @brief Tool class for easy PlugID validation.
  * This class is for internal usage.
@@ -34,7 +32,7 @@ public final class PlugId
 	 * @return true if the given string is a valid PlugID
 	 */
 	public static boolean is(String idPlug) {
-		return idPlug!=null && rexPlug.matcher(idPlug).find();
+		return test(idPlug, PLUG, false);
 	}
 
 	/**
@@ -42,7 +40,7 @@ public final class PlugId
 	 * @return true if the given string is a valid PlugID for a device
 	 */
 	public static boolean isDev(String idPlug) {
-		return idPlug!=null && rexDev.matcher(idPlug).find();
+		return test(idPlug, DEV, false);
 	}
 
 	/**
@@ -50,7 +48,7 @@ public final class PlugId
 	 * @return true if the given string is a valid PlugID for a model
 	 */
 	public static boolean isModel(String idPlug) {
-		return idPlug!=null && rexModel.matcher(idPlug).find();
+		return test(idPlug, MOD, false);
 	}
 
 	/**
@@ -58,7 +56,7 @@ public final class PlugId
 	 * @return true if the given string is a valid ObjectID
 	 */
 	public static boolean isOid(String id) {
-		return id!=null && rexOid.matcher(id).find();
+		return test(id, OID, false);
 	}
 
 	/**
@@ -66,7 +64,7 @@ public final class PlugId
 	 * @return true if the given string is a valid CSV of one or more PlugID
 	 */
 	public static boolean isCsv(String idPlugCsv) {
-		return idPlugCsv!=null && rexPlugCsv.matcher(idPlugCsv).find();
+		return test(idPlugCsv, PLUG, true);
 	}
 
 	/**
@@ -74,7 +72,7 @@ public final class PlugId
 	 * @return true if the given string is a valid CSV of one or more PlugID of devices
 	 */
 	public static boolean isDevCsv(String idPlugCsv) {
-		return idPlugCsv!=null && rexDevCsv.matcher(idPlugCsv).find();
+		return test(idPlugCsv, DEV, true);
 	}
 
 	/**
@@ -82,7 +80,7 @@ public final class PlugId
 	 * @return true if the given string is a valid CSV of one or more PlugID of models
 	 */
 	public static boolean isModelCsv(String idPlugCsv) {
-		return idPlugCsv!=null && rexModelCsv.matcher(idPlugCsv).find();
+		return test(idPlugCsv, MOD, true);
 	}
 
 	/**
@@ -90,28 +88,65 @@ public final class PlugId
 	 * @return true if the given string is a valid CSV of one or more ObjectID
 	 */
 	public static boolean isOidCsv(String idCsv) {
-		return idCsv!=null && rexOidCsv.matcher(idCsv).find();
+		return test(idCsv, OID, true);
 	}
 
 	private PlugId() {}
 
+	// same as matching the whole string against the regular expression of the given kind, optionally as CSV
+	private static boolean test(String s, int kind, boolean csv) {
+		if(s == null) return false;
+		if(scan(s, s.length(), kind, csv)) return true;
+		int end = Str.lengthWithoutEol(s);
+		return end>=0 && scan(s, end, kind, csv);
+	}
+
+	private static boolean scan(String s, int end, int kind, boolean csv) {
+		int i = 0;
+		for(;;) {
+			i = skipId(s, i, end, kind);
+			if(i < 0) return false;
+			if(i == end) return true;
+			if(!csv || s.charAt(i)!=',') return false;
+			++i;
+		}
+	}
+
+	// return the index following the identifier beginning at i or -1 if there is not such identifier
+	private static int skipId(String s, int i, int end, int kind) {
+		if(kind != OID) {
+			if(end-i < PREFIX_LENGTH) return -1;
+			char a = s.charAt(i), b = s.charAt(i+1), c = s.charAt(i+2);
+			boolean ok;
+			switch(a) {
+				case 'd': ok = kind!=MOD  && b=='e' && c=='v'; break;
+				case 'm': ok = kind!=DEV  && b=='o' && c=='d'; break;
+				case 'c': ok = kind==PLUG && b=='o' && c=='m'; break;
+				default : ok = false;
+			}
+			if(!ok || s.charAt(i+3)!='-') return -1;
+			i += PREFIX_LENGTH;
+		}
+		if(end-i < OID_LENGTH) return -1;
+		for(int e=i+OID_LENGTH; i<e; ++i) {
+			char c = s.charAt(i);
+			if((c<'0' || c>'9') && (c<'a' || c>'f') && (c<'A' || c>'F')) return -1;
+		}
+		return i;
+	}
+
 	public static final String K_DEV = "dev";
 	public static final String K_MOD = "mod";
 	public static final String K_COM = "com";
 	public static final String SEP   = "-";
 
-	private static final String    OID_EXP = "[0-9a-fA-F]{24}";
-	private static final String  DEVID_EXP = K_DEV + SEP + OID_EXP;
-	private static final String  MODID_EXP = K_MOD + SEP + OID_EXP;
-	private static final String PLUGID_EXP = "(?:"+ K_DEV +'|'+ K_MOD +'|'+ K_COM +')'+ SEP + OID_EXP;
-
-	private static final Pattern rexOid   = Str.regexExact(OID_EXP);
-	private static final Pattern rexDev   = Str.regexExact(DEVID_EXP);
-	private static final Pattern rexModel = Str.regexExact(MODID_EXP);
-	private static final Pattern rexPlug  = Str.regexExact(PLUGID_EXP);
+	// length of an ObjectID and of the prefixes K_DEV, K_MOD and K_COM followed by SEP
+	private static final int OID_LENGTH    = 24;
+	private static final int PREFIX_LENGTH = 4;
 
-	private static final Pattern rexOidCsv   = Str.regexCsv(OID_EXP);
-	private static final Pattern rexDevCsv   = Str.regexCsv(DEVID_EXP);
-	private static final Pattern rexModelCsv = Str.regexCsv(MODID_EXP);
-	private static final Pattern rexPlugCsv  = Str.regexCsv(PLUGID_EXP);
+	// kinds of identifiers
+	private static final int OID  = 0;
+	private static final int DEV  = 1;
+	private static final int MOD  = 2;
+	private static final int PLUG = 3;
 }
@@ -21,8 +21,6 @@ specific language governing permissions and limitations
 under the License.
 </license>*/
 
-import java.util.concurrent.atomic.AtomicInteger;
-
 /**
  * @brief A extension of {@link Spooler} with reference-counted start and stop.
  * This class is for internal usage.
@@ -35,15 +33,37 @@ public class RefSpooler extends Spooler
 		super(listener);
 	}
 
+	/**
+	 * Acquire a reference: the first one starts this spooler, or cancels the stop requested by the release of the
+	 * last one.
+	 */
 	public void ref() {
-		if(refs.incrementAndGet() == 1)
-			start();
+		// the count and the stop-on-idle flag must change together, or a concurrent unref() could stop a referenced spooler
+		synchronized(lockRefs) {
+			if(++refs == 1) {
+				// the last reference may have just been released: wait for that stop before restarting
+				if(!keepAlive()) waitForStop();
+				start();
+			}
+		}
 	}
 
+	/**
+	 * Release a reference: when no reference is left, this spooler stops as soon as its pending jobs are executed.
+	 */
 	public void unref() {
-		if(refs.decrementAndGet() <= 0)
-			stop();
+		synchronized(lockRefs) {
+			if(--refs <= 0)
+				stopWhenIdle();
+		}
+	}
+
+	public int refs() {
+		synchronized(lockRefs) {
+			return refs;
+		}
 	}
 
-	private AtomicInteger refs = new AtomicInteger(0);
+	private       int    refs     = 0;
+	private final Object lockRefs = new Object();
 }
@@ -26,6 +26,15 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.security.*;
 import java.security.cert.*;
 import java.security.cert.Certificate;
@@ -33,6 +42,15 @@ import java.security.cert.Certificate;
 /**
  * @brief Tool class for easy manipulation of CA certificates over the SSL network.
  * The developer should avoid a direct usage of this class when connecting to an official CloudPlugs server.
+ * <br/><br/>
+ * The SSL contexts created by this class are tuned for session resumption: their client session cache is sized and
+ * its entries expire after a timeout (see {@link #tune(SSLContext, int, int)}), and the socket factories installed
+ * by {@link #trustCA(Certificate)} and {@link #trustCloudPlugs()} enable session tickets where the platform supports
+ * them and account every handshake (see {@link #getHandshakes()} and {@link #getResumedHandshakes()}).
+ * <br/><br/>
+ * The library never changes the JVM-wide defaults of javax.net.ssl.HttpsURLConnection by itself: each request uses
+ * the SSL context of its options (see {@link com.cloudplugs.rest.Opts#setSSLContext(SSLContext)}) or else
+ * {@link #getDefaultContext()}. Only the explicit invocation of the <tt>trust*</tt> methods changes those defaults.
  */
 public final class SSL
 {
@@ -70,14 +88,16 @@ public final class SSL
 				new SecureRandom()
 			);
 			HttpsURLConnection.setDefaultSSLSocketFactory(ctx.getSocketFactory());
+			setDefaultContext(ctx);
 		} catch(Exception e) { // should never happen
 			throw new RuntimeException(e);
 		}
 	}
 
 	/**
-	 * Allow safe SSL connections to the official CloudPlugs server.
-	 * The developer does not need to invoke this method, it will be automatically invoked by other classes of the library.
+	 * Allow safe SSL connections to the official CloudPlugs server, also for other HTTPS clients of the JVM.
+	 * The developer does not need to invoke this method, because the library trusts the official CloudPlugs server
+	 * by default without changing the JVM-wide defaults.
 	 * @throws KeyManagementException
 	 * @throws KeyStoreException
 	 * @throws CertificateException
@@ -85,11 +105,15 @@ public final class SSL
 	 * @throws IOException
 	 */
 	public static void trustCloudPlugs() throws KeyManagementException, KeyStoreException, CertificateException, NoSuchAlgorithmException, IOException {
-		trustCA(getCA(DEF_CERT));
+		HttpsURLConnection.setDefaultSSLSocketFactory(getCloudPlugsSocketFactory());
+		setDefaultContext(getCloudPlugsContext());
 	}
 
 	/**
-	 * Allow safe SSL connections to any server is using the specified certificate.
+	 * Allow safe SSL connections to any server is using the specified certificate, also for other HTTPS clients of
+	 * the JVM; the context of the certificate becomes the default one of the library too.
+	 * To trust a certificate only for some requests, use {@link #getSharedContextOf(Certificate)} with
+	 * {@link com.cloudplugs.rest.Opts#setSSLContext(SSLContext)} instead.
 	 * @param ca the certificate to trust
 	 * @throws KeyManagementException
 	 * @throws KeyStoreException
@@ -98,7 +122,9 @@ public final class SSL
 	 * @throws IOException
 	 */
 	public static void trustCA(Certificate ca) throws KeyManagementException, KeyStoreException, CertificateException, NoSuchAlgorithmException, IOException {
-		HttpsURLConnection.setDefaultSSLSocketFactory(getSocketFactoryOf(ca));
+		SSLContext ctx = getSharedContextOf(ca);
+		HttpsURLConnection.setDefaultSSLSocketFactory(getSharedSocketFactory(ctx));
+		setDefaultContext(ctx);
 	}
 
 	/**
@@ -213,12 +239,335 @@ public final class SSL
 	 * @throws IOException
 	 */
 	public static SSLSocketFactory getSocketFactoryOf(Certificate ca) throws KeyManagementException, KeyStoreException, CertificateException, NoSuchAlgorithmException, IOException {
+		return getContextOf(ca).getSocketFactory();
+	}
+
+	/**
+	 * Create a new javax.net.ssl.SSLSocketFactory of the given context, enabling session tickets on its sockets when
+	 * supported and accounting their handshakes in the statistics of this class.
+	 * @param ctx the SSL context creating the sockets
+	 * @return the managed socket factory
+	 */
+	public static SSLSocketFactory getManagedSocketFactory(SSLContext ctx) {
+		return new ManagedSocketFactory(ctx.getSocketFactory());
+	}
+
+	/**
+	 * Configure the client session cache of an SSL context, so reconnections resume the cached sessions instead of
+	 * paying a full handshake.
+	 * @param ctx the SSL context to tune
+	 * @param cacheSize the maximum number of cached sessions, 0 for no limit
+	 * @param timeout the seconds a cached session can be resumed, 0 for no limit
+	 * @return <tt>ctx</tt>
+	 */
+	public static SSLContext tune(SSLContext ctx, int cacheSize, int timeout) {
+		if(cacheSize<0 || timeout<0) throw new IllegalArgumentException("invalid session cache configuration");
+		SSLSessionContext sessions = ctx.getClientSessionContext();
+		if(sessions != null) {
+			sessions.setSessionCacheSize(cacheSize);
+			sessions.setSessionTimeout(timeout);
+		}
+		return ctx;
+	}
+
+	/**
+	 * Create a new instance of javax.net.ssl.SSLContext will allow safe connections with servers are using
+	 * the specified certificate authority.
+	 * The context is tuned with {@link #DEF_SESSION_CACHE} and {@link #DEF_SESSION_TIMEOUT}.
+	 * @param ca the certificate to trust
+	 * @return the SSL context allows safe connections using <tt>ca</tt>
+	 * @throws KeyManagementException
+	 * @throws KeyStoreException
+	 * @throws CertificateException
+	 * @throws NoSuchAlgorithmException
+	 * @throws IOException
+	 */
+	public static SSLContext getContextOf(Certificate ca) throws KeyManagementException, KeyStoreException, CertificateException, NoSuchAlgorithmException, IOException {
 		TrustManagerFactory tmf = getTrustManagerFactoryOf(ca);
 		SSLContext ctx = SSLContext.getInstance(DEF_SSL_PROTO);
 		ctx.init(null, tmf.getTrustManagers(), null);
-		return ctx.getSocketFactory();
+		return tune(ctx, DEF_SESSION_CACHE, DEF_SESSION_TIMEOUT);
+	}
+
+	/**
+	 * Obtain the SSL context allowing safe connections to the official CloudPlugs server.
+	 * It is created on the first invocation and then shared.
+	 * @return the SSL context trusting the CloudPlugs server
+	 * @throws KeyManagementException
+	 * @throws KeyStoreException
+	 * @throws CertificateException
+	 * @throws NoSuchAlgorithmException
+	 * @throws IOException
+	 */
+	public static synchronized SSLContext getCloudPlugsContext() throws KeyManagementException, KeyStoreException, CertificateException, NoSuchAlgorithmException, IOException {
+		if(cloudPlugsCtx == null) cloudPlugsCtx = getContextOf(getCA(DEF_CERT));
+		return cloudPlugsCtx;
+	}
+
+	/**
+	 * Obtain the managed socket factory of {@link #getCloudPlugsContext()}, shared by all the HTTPS connections to
+	 * the official CloudPlugs server so they share its session cache too.
+	 * @return the shared socket factory trusting the CloudPlugs server
+	 * @throws KeyManagementException
+	 * @throws KeyStoreException
+	 * @throws CertificateException
+	 * @throws NoSuchAlgorithmException
+	 * @throws IOException
+	 */
+	public static SSLSocketFactory getCloudPlugsSocketFactory() throws KeyManagementException, KeyStoreException, CertificateException, NoSuchAlgorithmException, IOException {
+		return getSharedSocketFactory(getCloudPlugsContext());
+	}
+
+	/**
+	 * Obtain the SSL context used by the library for the requests not specifying their own one.
+	 * It is the one trusting the official CloudPlugs server, unless changed by
+	 * {@link #setDefaultContext(SSLContext)} or by the <tt>trust*</tt> methods.
+	 * @return the default SSL context of the library
+	 * @throws KeyManagementException
+	 * @throws KeyStoreException
+	 * @throws CertificateException
+	 * @throws NoSuchAlgorithmException
+	 * @throws IOException
+	 */
+	public static SSLContext getDefaultContext() throws KeyManagementException, KeyStoreException, CertificateException, NoSuchAlgorithmException, IOException {
+		SSLContext ctx = defaultCtx;
+		return ctx!=null ? ctx : getCloudPlugsContext();
+	}
+
+	/**
+	 * Start building {@link #getDefaultContext()} in a background thread, unless it has already been started.
+	 * Building the context parses the CloudPlugs certificate and initializes the key store, the trust manager and the
+	 * SSL context itself, which takes a noticeable time on a cold start; the first HTTPS request waits for it anyway,
+	 * so starting it early overlaps such time with the rest of the application startup.
+	 * This method is automatically invoked on the creation of any {@link com.cloudplugs.rest.RestClient}.
+	 * @return a future completing with the default SSL context when ready, or with the error preventing its creation
+	 */
+	public static Future<SSLContext> prepare() {
+		synchronized(lock) {
+			if(prepared == null) {
+				FutureTask<SSLContext> task = new FutureTask<SSLContext>(new Callable<SSLContext>() {
+					@Override
+					public SSLContext call() throws Exception {
+						return getDefaultContext();
+					}
+				});
+				Thread thread = new Thread(task, "SSL.prepare");
+				thread.setDaemon(true);
+				thread.start();
+				prepared = task;
+			}
+			return prepared;
+		}
+	}
+
+	/**
+	 * Change the SSL context used by the library for the requests not specifying their own one, without changing
+	 * the JVM-wide defaults.
+	 * @param ctx the new default SSL context, null for the one trusting the official CloudPlugs server
+	 */
+	public static void setDefaultContext(SSLContext ctx) {
+		defaultCtx = ctx;
+	}
+
+	/**
+	 * Obtain a tuned SSL context trusting the specified certificate authority, created on the first invocation
+	 * for such certificate and then shared, together with its sessions cache.
+	 * @param ca the certificate to trust
+	 * @return the shared SSL context trusting <tt>ca</tt>
+	 * @throws KeyManagementException
+	 * @throws KeyStoreException
+	 * @throws CertificateException
+	 * @throws NoSuchAlgorithmException
+	 * @throws IOException
+	 */
+	public static SSLContext getSharedContextOf(Certificate ca) throws KeyManagementException, KeyStoreException, CertificateException, NoSuchAlgorithmException, IOException {
+		synchronized(contexts) {
+			SSLContext ctx = contexts.get(ca);
+			if(ctx == null) contexts.put(ca, ctx = getContextOf(ca));
+			return ctx;
+		}
+	}
+
+	/**
+	 * Obtain the managed socket factory of the specified SSL context, created on the first invocation for such
+	 * context and then shared, see {@link #getManagedSocketFactory(SSLContext)}.
+	 * @param ctx the SSL context creating the sockets
+	 * @return the shared managed socket factory of <tt>ctx</tt>
+	 */
+	public static SSLSocketFactory getSharedSocketFactory(SSLContext ctx) {
+		synchronized(factories) {
+			SSLSocketFactory res = factories.get(ctx);
+			if(res == null) factories.put(ctx, res = getManagedSocketFactory(ctx));
+			return res;
+		}
+	}
+
+	/**
+	 * Account a completed handshake, for transports handling the handshakes by themselves, like the ones based on
+	 * javax.net.ssl.SSLEngine.
+	 * @param startedAt the value of System.currentTimeMillis() when the handshake started
+	 * @param session the negotiated session, it is considered resumed if it was created before <tt>startedAt</tt>
+	 */
+	public static void onHandshake(long startedAt, SSLSession session) {
+		long now = System.currentTimeMillis();
+		long time = now>startedAt ? now-startedAt : 0;
+		boolean resumed = session!=null && session.getCreationTime()<startedAt;
+		synchronized(lock) {
+			++handshakes;
+			if(resumed) ++resumedHandshakes;
+			handshakeTime += time;
+			if(time > maxHandshakeTime) maxHandshakeTime = time;
+		}
+	}
+
+	/**
+	 * @return the number of completed handshakes, including the resumed ones
+	 */
+	public static long getHandshakes() {
+		synchronized(lock) { return handshakes; }
+	}
+
+	/**
+	 * @return the number of completed handshakes which resumed a cached session
+	 */
+	public static long getResumedHandshakes() {
+		synchronized(lock) { return resumedHandshakes; }
+	}
+
+	/**
+	 * @return the total milliseconds spent by the completed handshakes
+	 */
+	public static long getHandshakeTime() {
+		synchronized(lock) { return handshakeTime; }
+	}
+
+	/**
+	 * @return the milliseconds spent by the slowest completed handshake
+	 */
+	public static long getMaxHandshakeTime() {
+		synchronized(lock) { return maxHandshakeTime; }
+	}
+
+	/**
+	 * Reset all the handshake statistics.
+	 */
+	public static void resetStats() {
+		synchronized(lock) {
+			handshakes = resumedHandshakes = handshakeTime = maxHandshakeTime = 0;
+		}
 	}
 
+	/**
+	 * @brief A socket factory enabling session tickets and accounting the handshakes of the created sockets.
+	 * The handshake time is measured from the creation of the SSL socket, which for layered sockets (like the ones
+	 * of HttpsURLConnection) happens right after the TCP connection.
+	 */
+	private static final class ManagedSocketFactory extends SSLSocketFactory {
+		ManagedSocketFactory(SSLSocketFactory factory) {
+			this.factory = factory;
+		}
+
+		@Override
+		public String[] getDefaultCipherSuites() {
+			return factory.getDefaultCipherSuites();
+		}
+
+		@Override
+		public String[] getSupportedCipherSuites() {
+			return factory.getSupportedCipherSuites();
+		}
+
+		@Override
+		public Socket createSocket() throws IOException {
+			return manage(factory.createSocket());
+		}
+
+		@Override
+		public Socket createSocket(Socket s, String host, int port, boolean autoClose) throws IOException {
+			return manage(factory.createSocket(s, host, port, autoClose));
+		}
+
+		@Override
+		public Socket createSocket(String host, int port) throws IOException {
+			return manage(factory.createSocket(host, port));
+		}
+
+		@Override
+		public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+			return manage(factory.createSocket(host, port, localHost, localPort));
+		}
+
+		@Override
+		public Socket createSocket(InetAddress host, int port) throws IOException {
+			return manage(factory.createSocket(host, port));
+		}
+
+		@Override
+		public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+			return manage(factory.createSocket(address, port, localAddress, localPort));
+		}
+
+		private Socket manage(Socket socket) {
+			if(!(socket instanceof SSLSocket)) return socket;
+			SSLSocket ssl = (SSLSocket)socket;
+			enableTickets(ssl);
+			final long startedAt = System.currentTimeMillis();
+			ssl.addHandshakeCompletedListener(new HandshakeCompletedListener() {
+				@Override
+				public void handshakeCompleted(HandshakeCompletedEvent evt) {
+					onHandshake(startedAt, evt.getSession());
+				}
+			});
+			return ssl;
+		}
+
+		// session tickets are enabled by default on recent JREs, while Android exposes them only by a hidden method
+		private static void enableTickets(SSLSocket socket) {
+			Class<?> c = socket.getClass();
+			Method m;
+			synchronized(ManagedSocketFactory.class) {
+				if(c != ticketsClass) {
+					try {
+						ticketsMethod = c.getMethod("setUseSessionTickets", boolean.class);
+					} catch(Exception e) {
+						ticketsMethod = null;
+					}
+					ticketsClass = c;
+				}
+				m = ticketsMethod;
+			}
+			if(m == null) return;
+			try {
+				m.invoke(socket, true);
+			} catch(Exception e) {}
+		}
+
+		private final SSLSocketFactory factory;
+		private static Class<?> ticketsClass;
+		private static Method   ticketsMethod;
+	}
+
+	/** Default maximum number of sessions cached by each SSL context created by this class. */
+	public static final int DEF_SESSION_CACHE   = 64;
+	/** Default seconds a session cached by an SSL context created by this class can be resumed. */
+	public static final int DEF_SESSION_TIMEOUT = 12*3600;
+
+	private static SSLContext       cloudPlugsCtx;
+	private static volatile SSLContext defaultCtx;
+	private static Future<SSLContext>  prepared;
+	// certificates compare by their encoding, contexts by identity
+	private static final Map<Certificate,SSLContext> contexts = new HashMap<Certificate,SSLContext>();
+	// the factory must stay the same as long as its context is alive, since HttpsURLConnection pools the kept-alive
+	// connections by factory; it references the provider implementation only, not the context, so the entry is
+	// still released together with the context
+	private static final Map<SSLContext,SSLSocketFactory> factories = new WeakHashMap<SSLContext,SSLSocketFactory>();
+
+	private static final Object lock = new Object();
+	private static long handshakes        = 0;
+	private static long resumedHandshakes = 0;
+	private static long handshakeTime     = 0;
+	private static long maxHandshakeTime  = 0;
+
 	private static final String DEF_SSL_PROTO = "TLS";
 	private static final String DEF_TYPE = "X.509";
 	private static final String DEF_CERT =
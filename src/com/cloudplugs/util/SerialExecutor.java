@@ -0,0 +1,94 @@
+package com.cloudplugs.util;
+
+/*<license>
+Copyright 2014 CloudPlugs Inc.
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+</license>*/
+
+import java.util.LinkedList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * @brief An executor running its tasks one at a time in submission order on top of another executor,
+ * so ordered tasks can share a pool of threads without running concurrently.
+ * A task throwing an exception is passed to {@link ErrHandler#active} and does not block the next tasks.
+ */
+public class SerialExecutor implements Executor
+{
+	/**
+	 * @param executor the executor actually running the tasks
+	 */
+	public SerialExecutor(Executor executor) {
+		if(executor == null) throw new NullPointerException("null executor");
+		this.executor = executor;
+	}
+
+	/**
+	 * @return the executor actually running the tasks
+	 */
+	public Executor getExecutor() {
+		return executor;
+	}
+
+	@Override
+	public void execute(Runnable task) {
+		if(task == null) throw new NullPointerException("null task");
+		synchronized(tasks) {
+			tasks.add(task);
+			if(active) return;
+			active = true;
+		}
+		try {
+			executor.execute(drainer);
+		} catch(RejectedExecutionException e) {
+			synchronized(tasks) {
+				tasks.removeLast();
+				active = false;
+			}
+			throw e;
+		}
+	}
+
+	private final Runnable drainer = new Runnable() {
+		@Override
+		public void run() {
+			for(;;) {
+				Runnable task;
+				synchronized(tasks) {
+					if(tasks.isEmpty()) {
+						active = false;
+						return;
+					}
+					task = tasks.removeFirst();
+				}
+				try {
+					task.run();
+				} catch(Throwable t) {
+					ErrHandler handler = ErrHandler.active;
+					if(handler != null) handler.handleErr(t);
+				}
+			}
+		}
+	};
+
+	private final Executor executor;
+	private final LinkedList<Runnable> tasks = new LinkedList<Runnable>();
+	private boolean active = false;
+}
@@ -24,9 +24,16 @@ under the License.
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * @brief Generic job spooler implementation in a dedicated thread.
+ * @brief Generic job spooler implementation in a dedicated thread or on a shared executor, optionally running
+ * more jobs concurrently.
  * This class is for internal usage.
  */
 public class Spooler extends MetaListener implements Runnable
@@ -41,6 +48,65 @@ public class Spooler extends MetaListener implements Runnable
 		super(l);
 	}
 
+	/**
+	 * Create a bounded pool of daemon threads that can be shared by many spoolers, see {@link #setExecutor(Executor)}.
+	 * @param nThreads the number of worker threads
+	 * @return the new pool
+	 */
+	public static ExecutorService newPool(int nThreads) {
+		if(nThreads <= 0) throw new IllegalArgumentException("invalid number of threads");
+		return Executors.newFixedThreadPool(nThreads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, POOL_NAME + poolSeq.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Run this spooler on the given executor instead of a dedicated thread.
+	 * Jobs keep their FIFO order and the pause state is still owned by this spooler, but a job is handed to the
+	 * executor only when the previous one is completed, so many spoolers can share a few threads.
+	 * @param executor the executor to use or null for a dedicated thread
+	 * @throws IllegalStateException if this spooler is already started
+	 */
+	public synchronized void setExecutor(Executor executor) {
+		if(started) throw new IllegalStateException("spooler already started");
+		this.executor = executor;
+	}
+
+	public Executor getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * Set how many jobs can be executed at the same time when running on an executor (see {@link #setExecutor(Executor)}).
+	 * The default value 1 keeps the FIFO order of execution; any other value trades the ordering for concurrency, that is
+	 * useful with executors creating cheap threads (for example a virtual thread per task executor on a recent JVM).
+	 * This setting is ignored when running on a dedicated thread.
+	 * @param concurrency the maximum number of concurrent jobs, 0 (or less) for no limit
+	 */
+	public void setConcurrency(int concurrency) {
+		maxInFlight = concurrency<=0 ? Integer.MAX_VALUE : concurrency;
+		if(executor != null) dispatch();
+	}
+
+	/**
+	 * @return the maximum number of concurrent jobs when running on an executor, Integer.MAX_VALUE for no limit
+	 */
+	public int getConcurrency() {
+		return maxInFlight;
+	}
+
+	/**
+	 * @return true if jobs are executed one by one following the FIFO order
+	 */
+	public boolean isOrdered() {
+		return executor==null || maxInFlight==1;
+	}
+
 	public boolean isStarted() {
 		return started;
 	}
@@ -54,6 +120,7 @@ public class Spooler extends MetaListener implements Runnable
 	}
 
 	public synchronized boolean isAlive() {
+		if(executor != null) return started;
 		return thread!=null && thread.isAlive();
 	}
 
@@ -86,31 +153,74 @@ public class Spooler extends MetaListener implements Runnable
 	}
 
 	public boolean isThisThread() {
+		if(executor != null) return current.get() == this;
 		return thread!=null && thread.getId()==Thread.currentThread().getId();
 	}
 
-	public synchronized boolean start() {
-		if(started) return false;
-		started = true;
-		running = true;
-		thread  = new Thread(this);
-		thread.start();
+	public boolean start() {
+		synchronized(this) {
+			if(started) return false;
+			started = true;
+			running = true;
+			if(executor == null) {
+				thread = new Thread(this);
+				thread.start();
+				return true;
+			}
+		}
+		synchronized(jobs) {
+			isIdle = false;
+		}
+		onStart();
+		dispatch();
 		return true;
 	}
 
-	public synchronized boolean stop() {
-		if(!started || !running) return false;
-		running = false;
-		if(clearOnStop) clear();
-		thread.interrupt();
+	public boolean stop() {
+		synchronized(this) {
+			if(!started || !running) return false;
+			running = false;
+			if(clearOnStop) clear();
+			if(executor == null) {
+				thread.interrupt();
+				return true;
+			}
+		}
+		dispatch();
+		return true;
+	}
+
+	/**
+	 * Stop this spooler as soon as its queue becomes empty: already enqueued jobs are still executed.
+	 * @return false if this spooler is not running
+	 */
+	public boolean stopWhenIdle() {
+		synchronized(jobs) {
+			if(!started || !running) return false;
+			stopOnIdle = true;
+			jobs.notify();
+		}
+		if(executor != null) dispatch();
 		return true;
 	}
 
+	/**
+	 * Cancel a previous {@link #stopWhenIdle()}.
+	 * @return false if this spooler has already decided to stop, so it must be restarted after its stop
+	 */
+	public boolean keepAlive() {
+		synchronized(jobs) {
+			stopOnIdle = false;
+			return running || !started;
+		}
+	}
+
 	public boolean pause() {
 		synchronized(lockPause) {
 			if(paused) return false;
 			paused = true;
 		}
+		if(executor != null) onPause();
 		return true;
 	}
 
@@ -120,9 +230,35 @@ public class Spooler extends MetaListener implements Runnable
 			paused = false;
 			lockPause.notify();
 		}
+		if(executor != null) {
+			onResume();
+			dispatch();
+		}
 		return true;
 	}
 
+	/**
+	 * @return true if the execution of the enqueued jobs is held by {@link #hold(boolean)}
+	 */
+	public boolean isHeld() {
+		return held;
+	}
+
+	/**
+	 * Hold or release the execution of the enqueued jobs. Unlike {@link #pause()} and {@link #resume()}, no
+	 * notification is emitted and a held spooler is not considered paused: this is meant for subclasses deferring
+	 * their jobs, for instance to run them in bursts. The job currently running, if any, is not affected.
+	 * @param held true for holding the enqueued jobs, false for executing them again
+	 */
+	protected void hold(boolean held) {
+		synchronized(lockPause) {
+			if(this.held == held) return;
+			this.held = held;
+			if(!held) lockPause.notify();
+		}
+		if(!held && executor!=null) dispatch();
+	}
+
 	public void clear() {
 		synchronized(jobs) {
 			Collection<Runnable> values = jobs.values();
@@ -143,6 +279,7 @@ public class Spooler extends MetaListener implements Runnable
 			jobs.put(id, job);
 			jobs.notify();
 		}
+		if(executor != null) dispatch();
 		return id;
 	}
 
@@ -225,6 +362,17 @@ public class Spooler extends MetaListener implements Runnable
 		return true;
 	}
 
+	/**
+	 * Invoked in executor mode when the executor refuses a job, which is then completed without being run.
+	 * The default implementation notifies the error by {@link #onErr(Throwable)}; subclasses can override it for
+	 * notifying the failure to the owner of the job.
+	 * @param job the refused job
+	 * @param cause the reason of the refusal, usually a java.util.concurrent.RejectedExecutionException
+	 */
+	protected void onRejected(Runnable job, Throwable cause) {
+		onErr(cause);
+	}
+
 	@Override
 	public void onIdle() {
 		super.onIdle();
@@ -246,7 +394,8 @@ public class Spooler extends MetaListener implements Runnable
 						onIdle();
 						if(jobs.isEmpty()) {
 							try {
-								jobs.wait();
+								if(!stopOnIdle) jobs.wait();
+								if(stopOnIdle && jobs.isEmpty()) running = false;
 								if(!running) break;
 								onReady();
 							} catch(InterruptedException e) {
@@ -260,55 +409,217 @@ public class Spooler extends MetaListener implements Runnable
 				}
 			}
 			if(job != null) {
-				try { job.run(); }
-				catch(Throwable t) { onErr(t); }
-				synchronized(job) {
-					synchronized(jobs) {
-						jobs.remove(idFirst);
-					}
-					job.notifyAll();
+				// a pause or a hold may have started while waiting for this job
+				if(!shouldSpool()) break;
+				synchronized(jobs) {
+					job = jobs.get(idFirst);
 				}
+				if(job != null) runJob(idFirst, job);
 				Thread.yield();
 			}
 		}
 		synchronized(this) {
-			thread  = null;
-			started = false;
-			onStop();
-			synchronized(lockIdle) {
-				lockIdle.notifyAll();
+			thread = null;
+			stopped();
+		}
+	}
+
+	private void runJob(int id, Runnable job) {
+		try { job.run(); }
+		catch(Throwable t) { onErr(t); }
+		completed(id, job);
+	}
+
+	private void completed(int id, Runnable job) {
+		synchronized(job) {
+			synchronized(jobs) {
+				jobs.remove(id);
 			}
-			synchronized(lockStop) {
-				lockStop.notifyAll();
+			job.notifyAll();
+		}
+	}
+
+	// must be called while holding the lock of this instance
+	private void stopped() {
+		started    = false;
+		stopOnIdle = false;
+		onStop();
+		synchronized(lockIdle) {
+			lockIdle.notifyAll();
+		}
+		synchronized(lockStop) {
+			lockStop.notifyAll();
+		}
+	}
+
+	// executor mode: hand the next pending job to the executor, or notify idle/stop when there is nothing left to do
+	private void dispatch() {
+		for(;;) {
+			Task    task  = null;
+			boolean ready = false;
+			boolean idle  = false;
+			synchronized(jobs) {
+				if(!running) {
+					if(inFlight > 0) return;
+				} else if(!paused && !held && inFlight < maxInFlight) {
+					while(idFirst < idLast) {
+						Runnable job = jobs.get(++idFirst);
+						if(job != null) {
+							task = new Task(idFirst, job);
+							++inFlight;
+							ready = isIdle;
+							isIdle = false;
+							break;
+						}
+					}
+				}
+				if(task==null && running) {
+					if(inFlight>0 || idFirst<idLast) return;
+					if(stopOnIdle) {
+						running = false;
+					} else {
+						if(isIdle) return;
+						idle = isIdle = true;
+					}
+				}
+			}
+			if(task == null) {
+				if(idle) onIdle();
+				else synchronized(this) {
+					if(started && !running) stopped();
+				}
+				return;
+			}
+			if(ready) onReady();
+			try {
+				executor.execute(task);
+			} catch(RejectedExecutionException e) {
+				// never run the job inline: the caller of exec() may be a thread which must not block
+				task.reject(e);
+			}
+		}
+	}
+
+	private final class Task implements Runnable {
+		Task(int id, Runnable job) {
+			this.id  = id;
+			this.job = job;
+		}
+
+		@Override
+		public void run() {
+			Spooler prev = current.get();
+			current.set(Spooler.this);
+			try {
+				if(job instanceof AsyncJob) {
+					((AsyncJob)job).run(new Runnable() {
+						@Override
+						public void run() {
+							done();
+						}
+					});
+					return;
+				}
+				job.run();
+			} catch(Throwable t) {
+				onErr(t);
+			} finally {
+				current.set(prev);
+			}
+			done();
+		}
+
+		private void done() {
+			if(finish()) dispatch();
+		}
+
+		// the executor refused the job: it is completed without running, the caller of dispatch() goes on
+		void reject(Throwable cause) {
+			try {
+				onRejected(job, cause);
+			} catch(Throwable t) {
+				onErr(t);
+			}
+			finish();
+		}
+
+		private boolean finish() {
+			synchronized(this) {
+				if(finished) return false;
+				finished = true;
 			}
+			completed(id, job);
+			synchronized(jobs) {
+				--inFlight;
+			}
+			return true;
 		}
+
+		private final int      id;
+		private final Runnable job;
+		private       boolean  finished = false;
 	}
 
+	/**
+	 * @brief A job whose execution can be completed after returning, for example by a non-blocking I/O thread.
+	 * When running on an executor (see {@link #setExecutor(Executor)}), the spooler invokes {@link #run(Runnable)} and
+	 * the job keeps its execution slot until <tt>done</tt> is run; on a dedicated thread the blocking {@link #run()} is invoked.
+	 */
+	public interface AsyncJob extends Runnable {
+		/**
+		 * Start the execution of this job.
+		 * @param done to run exactly once when the execution is completed, in any thread
+		 */
+		public void run(Runnable done);
+	}
+
+	// the pause notifications are emitted outside the lock, so listeners can freely call back this spooler
 	private boolean shouldSpool() {
-		synchronized(lockPause) {
-			if(paused) {
-				try {
+		try {
+			for(;;) {
+				boolean p;
+				synchronized(lockPause) {
+					p = paused;
+				}
+				if(p) {
 					onPause();
-					while(paused)
-						lockPause.wait();
+					synchronized(lockPause) {
+						while(paused)
+							lockPause.wait();
+					}
 					onResume();
-				} catch(InterruptedException e) {
-					return false;
+				}
+				synchronized(lockPause) {
+					if(!held && !paused) return true;
+					while(held && !paused)
+						lockPause.wait();
+					if(!held && !paused) return true;
 				}
 			}
+		} catch(InterruptedException e) {
+			return false;
 		}
-		return true;
 	}
 
 	private volatile boolean started     = false;
 	private volatile boolean running     = false;
 	private volatile boolean paused      = false;
+	private volatile boolean held        = false;
 	private volatile boolean clearOnStop = true;
+	private volatile boolean stopOnIdle  = false;
 	private          Thread  thread      = null;
+	private volatile Executor executor   = null;
+	private          int     inFlight    = 0;
+	private volatile int     maxInFlight = 1;
+	private          boolean isIdle      = false;
 	private volatile int     idFirst     = 0;
 	private volatile int     idLast      = 0;
 	private final    Object  lockIdle    = new Object();
 	private final    Object  lockPause   = new Object();
 	private final    Object  lockStop    = new Object();
 	private final Map<Integer,Runnable> jobs = new HashMap<Integer,Runnable>();
+
+	private static final String POOL_NAME = "Spooler-pool-";
+	private static final AtomicInteger poolSeq = new AtomicInteger(0);
+	private static final ThreadLocal<Spooler> current = new ThreadLocal<Spooler>();
 }
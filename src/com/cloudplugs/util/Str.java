@@ -21,8 +21,6 @@ specific language governing permissions and limitations
 under the License.
 </license>*/
 
-import java.util.regex.Pattern;
-
 /**
  * @brief Tool class to simplify some String operations.
  * This class is for internal usage.
@@ -43,12 +41,27 @@ public final class Str
 		return join(arr, ",");
 	}
 
-	public static Pattern regexExact(String exp) {
-		return Pattern.compile('^' + exp + '$');
-	}
-
-	public static Pattern regexCsv(String exp) {
-		return Pattern.compile('^' + exp + "(?:," + exp + ")*$");
+	/**
+	 * Find where a final line terminator begins, with the same rules of <tt>'$'</tt> in java.util.regex patterns, so that
+	 * validators scanning strings by hand can accept exactly what the equivalent regular expressions accept.
+	 * @param s the string to inspect
+	 * @return the length of <tt>s</tt> without its final line terminator or -1 if <tt>s</tt> does not end with one
+	 */
+	public static int lengthWithoutEol(String s) {
+		int n = s.length();
+		if(n == 0) return -1;
+		char c = s.charAt(n-1);
+		switch(c) {
+			case '\n':
+				return n>1 && s.charAt(n-2)=='\r' ? n-2 : n-1;
+			case '\r':
+			case '\u0085':
+			case '\u2028':
+			case '\u2029':
+				return n-1;
+			default:
+				return -1;
+		}
 	}
 
 	private Str() {}
@@ -0,0 +1,131 @@
+package com.cloudplugs.util;
+
+/*<license>
+Copyright 2014 CloudPlugs Inc.
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+</license>*/
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * @brief Tool class for encoding and decoding HTTP bodies without intermediate copies.
+ * Strings are encoded as UTF-8 straight into a given byte array, and byte arrays are decoded in a single pass
+ * according to the charset declared by a Content-Type header, UTF-8 by default as required by JSON.
+ * This class is for internal usage.
+ */
+public final class Utf8
+{
+	/** The name of the UTF-8 charset. */
+	public static final String NAME = "UTF-8";
+
+	/**
+	 * @param s the string to measure
+	 * @return the number of bytes of the given string encoded as UTF-8
+	 */
+	public static int length(String s) {
+		int res = 0;
+		for(int i=0, n=s.length(); i<n; ++i) {
+			char c = s.charAt(i);
+			if(c < 0x80) ++res;
+			else if(c < 0x800) res += 2;
+			else if(c<Character.MIN_SURROGATE || c>Character.MAX_SURROGATE) res += 3;
+			else if(isPair(s, i)) { res += 4; ++i; }
+			else ++res;
+		}
+		return res;
+	}
+
+	/**
+	 * Encode a string as UTF-8; unpaired surrogates are replaced by '?' as done by String.getBytes().
+	 * @param s the string to encode
+	 * @param dst the destination array, it must have room for {@link #length(String)} bytes from <tt>off</tt>
+	 * @param off the offset of the first byte to write in <tt>dst</tt>
+	 * @return the offset following the last written byte
+	 */
+	public static int encode(String s, byte[] dst, int off) {
+		for(int i=0, n=s.length(); i<n; ++i) {
+			char c = s.charAt(i);
+			if(c < 0x80) {
+				dst[off++] = (byte)c;
+			} else if(c < 0x800) {
+				dst[off++] = (byte)(0xC0 | (c >> 6));
+				dst[off++] = (byte)(0x80 | (c & 0x3F));
+			} else if(c<Character.MIN_SURROGATE || c>Character.MAX_SURROGATE) {
+				dst[off++] = (byte)(0xE0 | (c >> 12));
+				dst[off++] = (byte)(0x80 | ((c >> 6) & 0x3F));
+				dst[off++] = (byte)(0x80 | (c & 0x3F));
+			} else if(isPair(s, i)) {
+				int cp = Character.toCodePoint(c, s.charAt(++i));
+				dst[off++] = (byte)(0xF0 | (cp >> 18));
+				dst[off++] = (byte)(0x80 | ((cp >> 12) & 0x3F));
+				dst[off++] = (byte)(0x80 | ((cp >> 6) & 0x3F));
+				dst[off++] = (byte)(0x80 | (cp & 0x3F));
+			} else {
+				dst[off++] = '?';
+			}
+		}
+		return off;
+	}
+
+	/**
+	 * Extract the charset parameter of a Content-Type header value.
+	 * @param contentType the Content-Type header value, can be null
+	 * @return the declared charset or {@link #NAME} if missing
+	 */
+	public static String charsetOf(String contentType) {
+		if(contentType == null) return NAME;
+		int i = contentType.toLowerCase().indexOf("charset=");
+		if(i < 0) return NAME;
+		i += 8;
+		int end = contentType.indexOf(';', i);
+		String res = (end<0 ? contentType.substring(i) : contentType.substring(i, end)).trim();
+		int n = res.length();
+		if(n>=2 && res.charAt(0)=='"' && res.charAt(n-1)=='"') res = res.substring(1, n-1);
+		return res.length()==0 ? NAME : res;
+	}
+
+	/**
+	 * Decode bytes into a string; an unsupported charset falls back to UTF-8.
+	 * @param buf the array containing the bytes to decode
+	 * @param off the offset of the first byte to decode
+	 * @param len the number of bytes to decode
+	 * @param charset the name of the charset of the bytes, see {@link #charsetOf(String)}
+	 * @return the decoded string
+	 */
+	public static String decode(byte[] buf, int off, int len, String charset) {
+		if(len == 0) return "";
+		if(!NAME.equalsIgnoreCase(charset)) {
+			try {
+				return new String(buf, off, len, charset);
+			} catch(UnsupportedEncodingException e) {
+			} catch(IllegalArgumentException e) {}   // illegal charset name
+		}
+		try {
+			return new String(buf, off, len, NAME);
+		} catch(UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private Utf8() {}
+
+	private static boolean isPair(String s, int i) {
+		return Character.isHighSurrogate(s.charAt(i)) && i+1<s.length() && Character.isLowSurrogate(s.charAt(i+1));
+	}
+}
@@ -83,6 +83,7 @@ public class BasicExample extends Activity implements RestCallback
 	public void onDestroy() {
 		// application is quitting: stop the RestClient and release all associated resources
 		if(restClient != null) {
+			restManager.close();
 			restClient.destroy();
 			restClient  = null;
 			restManager = null;
@@ -0,0 +1,148 @@
+package com.cloudplugs.rest;
+
+/*<license>
+Copyright 2014 CloudPlugs Inc.
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+</license>*/
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+/**
+ * Checks how {@link FanOut} enqueues chunks and merges their responses.
+ */
+public class FanOutTest
+{
+	@Test(timeout=10000)
+	public void throwingTaskDoesNotRecurse() {
+		final int[] calls = { 0 };
+		// a chunk failing inside exec() completes synchronously: 100000 of them must not nest their calls
+		FanOut fan = new FanOut(ids(100000), 1, 1, new FanOut.Task() {
+			@Override
+			public int exec(String[] ids, RestCallback cb) {
+				++calls[0];
+				throw new IllegalStateException("spooler closed");
+			}
+		}, null);
+		assertTrue(fan.isDone());
+		assertEquals(100000, calls[0]);
+		assertEquals(Const.ERR_CONN, fan.getResponse().getStatus());
+		assertEquals(Const.ERR_CONN, fan.getResponseOf(99999).getStatus());
+	}
+
+	@Test(timeout=10000)
+	public void synchronousCallbacksDoNotRecurse() {
+		FanOut fan = new FanOut(ids(100000), 1, 4, new FanOut.Task() {
+			@Override
+			public int exec(String[] ids, RestCallback cb) {
+				cb.on(null, new Response(200, "OK", '"'+ids[0]+'"'));
+				return 0;
+			}
+		}, null);
+		assertTrue(fan.isDone());
+		assertEquals(200, fan.getResponse().getStatus());
+		assertEquals(100000, fan.getResponses().length);
+		assertEquals("\"id99999\"", fan.getResponseOf(99999).getBody());
+	}
+
+	@Test
+	public void keepsAtMostConcurrencyPending() {
+		final List<RestCallback> pending = new ArrayList<RestCallback>();
+		final List<String[]> chunks = new ArrayList<String[]>();
+		FanOut fan = new FanOut(ids(10), 3, 2, new FanOut.Task() {
+			@Override
+			public int exec(String[] ids, RestCallback cb) {
+				pending.add(cb);
+				chunks.add(ids);
+				return chunks.size();
+			}
+		}, null);
+		// 10 identifiers in chunks of at most 3 are balanced as 3+3+2+2
+		assertEquals(4, fan.getChunks());
+		assertEquals(3, fan.getChunkSize());
+		assertEquals(2, pending.size());
+		int completed = 0;
+		while(!pending.isEmpty()) {
+			assertTrue(pending.size() <= 2);
+			RestCallback cb = pending.remove(0);
+			cb.on(null, new Response(completed==1 ? 404 : 200, "", "[1,2,3]"));
+			++completed;
+		}
+		assertEquals(4, completed);
+		assertTrue(fan.isDone());
+		assertEquals(Response.STATUS_MULTI, fan.getResponse().getStatus());
+		assertEquals(3, chunks.get(1).length);
+		assertEquals(2, chunks.get(2).length);
+		assertArrayEquals(new String[]{ "id8", "id9" }, chunks.get(3));
+	}
+
+	@Test
+	public void aggregatesFailedChunksAsJson() throws Exception {
+		final int[] calls = { 0 };
+		FanOut fan = new FanOut(ids(5), 2, 1, new FanOut.Task() {
+			@Override
+			public int exec(String[] ids, RestCallback cb) {
+				switch(calls[0]++) {
+					case 0:  cb.on(null, new Response(207, "Multi-Status", "[{\"ok\":1},\"gone\"]")); break;
+					case 1:  throw new IllegalStateException("connection refused: \"x\"\n\tat Foo.bar(Foo.java:1)");
+					default: cb.on(null, new Response(200, "OK", null));
+				}
+				return calls[0];
+			}
+		}, null);
+		assertTrue(fan.isDone());
+		Response res = fan.getResponse();
+		assertEquals(Response.STATUS_MULTI, res.getStatus());
+		// a failing chunk has a stack trace as body, which must not break the aggregate JSON
+		JSONArray arr = (JSONArray)res.getBodyAsJson();
+		assertEquals(3, arr.length());
+
+		JSONObject first = arr.getJSONObject(0);
+		assertEquals("id0", first.getJSONArray("ids").getString(0));
+		assertEquals("id1", first.getJSONArray("ids").getString(1));
+		assertEquals(207, first.getInt("status"));
+		assertEquals(1, first.getJSONArray("body").getJSONObject(0).getInt("ok"));
+
+		JSONObject failed = arr.getJSONObject(1);
+		assertEquals(2, failed.getJSONArray("ids").length());
+		assertEquals(Const.ERR_CONN, failed.getInt("status"));
+		assertTrue(failed.getString("body").contains("connection refused: \"x\""));
+
+		JSONObject empty = arr.getJSONObject(2);
+		assertEquals("id4", empty.getJSONArray("ids").getString(0));
+		assertEquals(200, empty.getInt("status"));
+		assertTrue(empty.isNull("body"));
+
+		// the per-id outcomes split the multi-status body of the first chunk
+		assertEquals("{\"ok\":1}", fan.getResponseOf(0).getBody().replace(" ", ""));
+		assertEquals(Const.ERR_CONN, fan.getResponseOf(3).getStatus());
+	}
+
+	private static String[] ids(int n) {
+		String[] ids = new String[n];
+		for(int i=0; i<n; i++)
+			ids[i] = "id"+i;
+		return ids;
+	}
+}
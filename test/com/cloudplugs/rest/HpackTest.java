@@ -0,0 +1,188 @@
+package com.cloudplugs.rest;
+
+/*<license>
+Copyright 2014 CloudPlugs Inc.
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+</license>*/
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Checks {@link Hpack} against the examples of RFC 7541, Appendix C, and by round trips.
+ */
+public class HpackTest
+{
+	// C.4: requests with Huffman coding
+	private static final String[] C4 = {
+		"828684418cf1e3c2e5f23a6ba0ab90f4ff",
+		"828684be5886a8eb10649cbf",
+		"828785bf408825a849e95ba97d7f8925a849e95bb8e8b4bf"
+	};
+	private static final String[][] C4_HEADERS = {
+		{ ":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com" },
+		{ ":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com", "cache-control", "no-cache" },
+		{ ":method", "GET", ":scheme", "https", ":path", "/index.html", ":authority", "www.example.com", "custom-key", "custom-value" }
+	};
+
+	// C.6: responses with Huffman coding and evictions from a 256 bytes table
+	private static final String[] C6 = {
+		"488264025885aec3771a4b6196d07abe941054d444a8200595040b8166e082a62d1bff6e919d29ad171863c78f0b97c8e9ae82ae43d3",
+		"4883640effc1c0bf",
+		"88c16196d07abe941054d444a8200595040b8166e084a62d1bffc05a839bd9ab77ad94e7821dd7f2e6c7b335dfdfcd5b3960d5af27087f3672c1ab270fb5291f9587316065c003ed4ee5b1063d5007"
+	};
+	private static final String[][] C6_HEADERS = {
+		{ ":status", "302", "cache-control", "private", "date", "Mon, 21 Oct 2013 20:13:21 GMT", "location", "https://www.example.com" },
+		{ ":status", "307", "cache-control", "private", "date", "Mon, 21 Oct 2013 20:13:21 GMT", "location", "https://www.example.com" },
+		{ ":status", "200", "cache-control", "private", "date", "Mon, 21 Oct 2013 20:13:22 GMT", "location", "https://www.example.com",
+		  "content-encoding", "gzip", "set-cookie", "foo=ASDJKHQKBZXOQWEOPIUAXQWEOIU; max-age=3600; version=1" }
+	};
+
+	@Test
+	public void decodesRequests() throws IOException {
+		Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEF_TABLE_SIZE);
+		int[] sizes = { 57, 110, 164 };
+		for(int i=0; i<C4.length; ++i) {
+			assertEquals(list(C4_HEADERS[i]), decode(decoder, C4[i]));
+			assertEquals(sizes[i], decoder.getTable().getSize());
+		}
+	}
+
+	@Test
+	public void encodesRequests() {
+		Hpack.Encoder encoder = new Hpack.Encoder();
+		for(int i=0; i<C4.length; ++i)
+			assertEquals(C4[i], encode(encoder, C4_HEADERS[i]));
+	}
+
+	@Test
+	public void decodesResponsesWithEvictions() throws IOException {
+		Hpack.Decoder decoder = new Hpack.Decoder(256);
+		int[] sizes = { 222, 222, 215 };
+		for(int i=0; i<C6.length; ++i) {
+			assertEquals(list(C6_HEADERS[i]), decode(decoder, C6[i]));
+			assertEquals(sizes[i], decoder.getTable().getSize());
+		}
+	}
+
+	@Test
+	public void encodesResponsesWithEvictions() {
+		Hpack.Encoder encoder = new Hpack.Encoder();
+		encoder.setMaxTableSize(256);
+		// the first block starts with the table size update
+		assertEquals("3fe101"+C6[0], encode(encoder, C6_HEADERS[0]));
+		for(int i=1; i<C6.length; ++i)
+			assertEquals(C6[i], encode(encoder, C6_HEADERS[i]));
+	}
+
+	@Test
+	public void repeatedHeadersTakeOneByte() {
+		Hpack.Encoder encoder = new Hpack.Encoder();
+		String[] headers = { "x-plug-id", "dev-0123456789abcdef01234567", "x-plug-auth", "s3cr3t-passw0rd" };
+		int first  = encode(encoder, headers).length() / 2;
+		int second = encode(encoder, headers).length() / 2;
+		assertTrue(first > 40);
+		assertEquals(2, second);
+	}
+
+	@Test
+	public void roundTripsRandomHeaders() throws IOException {
+		Random rnd = new Random(7541);
+		Hpack.Encoder encoder = new Hpack.Encoder();
+		Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEF_TABLE_SIZE);
+		for(int block=0; block<2000; ++block) {
+			int n = 1 + rnd.nextInt(8);
+			String[] headers = new String[n*2];
+			for(int i=0; i<headers.length; ++i)
+				headers[i] = i%2==0 && rnd.nextBoolean() ? "h"+rnd.nextInt(20) : random(rnd);
+			assertEquals(list(headers), decode(decoder, encode(encoder, headers)));
+			assertEquals(encoder.getTable().getSize(), decoder.getTable().getSize());
+		}
+	}
+
+	@Test
+	public void huffmanRoundTripsEveryOctet() throws IOException {
+		StringBuilder sb = new StringBuilder();
+		for(int c=0; c<256; ++c)
+			sb.append((char)c);
+		String s = sb.toString();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Hpack.Huffman.encode(out, s);
+		byte[] buf = out.toByteArray();
+		assertEquals(Hpack.Huffman.length(s), buf.length);
+		assertEquals(s, Hpack.Huffman.decode(buf, 0, buf.length));
+	}
+
+	@Test(expected=IOException.class)
+	public void rejectsInvalidPadding() throws IOException {
+		// "a" is 00011, padded with zeros instead of ones
+		Hpack.Huffman.decode(new byte[]{ 0x18 }, 0, 1);
+	}
+
+	@Test(expected=IOException.class)
+	public void rejectsInvalidIndex() throws IOException {
+		decode(new Hpack.Decoder(Hpack.DEF_TABLE_SIZE), "be");
+	}
+
+	@Test(expected=IOException.class)
+	public void rejectsOversizedTableUpdate() throws IOException {
+		decode(new Hpack.Decoder(256), "3fe201");
+	}
+
+	private static String random(Random rnd) {
+		int n = rnd.nextInt(40);
+		char[] chars = new char[n];
+		for(int i=0; i<n; ++i)
+			chars[i] = (char)(rnd.nextInt(4)==0 ? rnd.nextInt(256) : 'a'+rnd.nextInt(26));
+		return new String(chars);
+	}
+
+	private static String encode(Hpack.Encoder encoder, String[] headers) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		encoder.begin(out);
+		for(int i=0; i<headers.length; i+=2)
+			encoder.encode(out, headers[i], headers[i+1]);
+		StringBuilder sb = new StringBuilder();
+		for(byte b : out.toByteArray())
+			sb.append(String.format("%02x", b & 0xff));
+		return sb.toString();
+	}
+
+	private static List<String> decode(Hpack.Decoder decoder, String hex) throws IOException {
+		byte[] buf = new byte[hex.length()/2];
+		for(int i=0; i<buf.length; ++i)
+			buf[i] = (byte)Integer.parseInt(hex.substring(i*2, i*2+2), 16);
+		List<String> res = new ArrayList<String>();
+		decoder.decode(buf, 0, buf.length, res);
+		return res;
+	}
+
+	private static List<String> list(String[] a) {
+		List<String> res = new ArrayList<String>();
+		for(String s : a)
+			res.add(s);
+		return res;
+	}
+}
@@ -0,0 +1,273 @@
+package com.cloudplugs.rest;
+
+/*<license>
+Copyright 2014 CloudPlugs Inc.
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+</license>*/
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks {@link Http2Transport} over cleartext HTTP/2 against a minimal in-process server.
+ */
+public class Http2TransportTest
+{
+	@Before
+	public void setUp() throws IOException {
+		server = new Server();
+		transport = new Http2Transport();
+		transport.setCleartext(true);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		transport.close();
+		server.close();
+	}
+
+	@Test(timeout=10000)
+	public void multiplexesOverOneConnection() throws Exception {
+		List<Response> responses = sendAll(20, null);
+		for(int i=0; i<20; i++) {
+			assertEquals(200, responses.get(i).getStatus());
+			assertEquals("GET /r"+i+" 0", responses.get(i).getBody());
+		}
+		assertEquals(1, server.connections.get());
+		assertEquals(20, transport.getStreamCount());
+	}
+
+	@Test(timeout=10000)
+	public void honorsConcurrencyLimit() throws Exception {
+		server.maxStreams = 2;
+		server.delay = 20;
+		List<Response> responses = sendAll(10, null);
+		for(Response r : responses)
+			assertEquals(200, r.getStatus());
+		assertTrue("max open streams "+server.maxOpen, server.maxOpen <= 2);
+		assertEquals(1, server.connections.get());
+	}
+
+	@Test(timeout=10000)
+	public void sendsBodies() throws Exception {
+		StringBuilder sb = new StringBuilder();
+		for(int i=0; i<100000; i++)
+			sb.append((char)('a' + i%26));
+		// larger than the initial windows of 65535 bytes: the server must grant more
+		List<Response> responses = sendAll(3, sb.toString());
+		for(int i=0; i<3; i++)
+			assertEquals("POST /r"+i+" 100000", responses.get(i).getBody());
+	}
+
+	@Test(timeout=10000)
+	public void retriesRefusedStreams() throws Exception {
+		server.refuse = 1;
+		List<Response> responses = sendAll(1, null);
+		assertEquals("GET /r0 0", responses.get(0).getBody());
+		assertEquals(2, server.streams.get());
+	}
+
+	@Test(timeout=10000)
+	public void timesOut() throws Exception {
+		server.delay = 3000;
+		long start = System.currentTimeMillis();
+		Response r = sendAll(1, null).get(0);
+		assertEquals(Const.ERR_CONN, r.getStatus());
+		assertTrue(System.currentTimeMillis()-start < 2500);
+	}
+
+	private List<Response> sendAll(int n, String body) throws InterruptedException {
+		final Response[] res = new Response[n];
+		final CountDownLatch latch = new CountDownLatch(n);
+		for(int i=0; i<n; i++) {
+			final int index = i;
+			String method = body==null ? "GET" : "POST";
+			Request req = new Request(method, "http://localhost:"+server.port, "/r"+i, new String[]{ "X-Plug-Auth", "secret" }, body);
+			transport.send(req, 1, new RestCallback() {
+				@Override
+				public void on(Request request, Response response) {
+					res[index] = response;
+					latch.countDown();
+				}
+			});
+		}
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		List<Response> list = new ArrayList<Response>();
+		for(Response r : res)
+			list.add(r);
+		return list;
+	}
+
+	/**
+	 * Answers each request with its method, path and body length; no flow control is enforced on its own sends.
+	 */
+	private static final class Server implements Runnable {
+		Server() throws IOException {
+			socket = new ServerSocket(0);
+			port = socket.getLocalPort();
+			Thread t = new Thread(this);
+			t.setDaemon(true);
+			t.start();
+		}
+
+		void close() throws IOException {
+			socket.close();
+		}
+
+		@Override
+		public void run() {
+			try {
+				for(;;) {
+					final Socket s = socket.accept();
+					connections.incrementAndGet();
+					Thread t = new Thread() {
+						@Override
+						public void run() {
+							try {
+								serve(s);
+							} catch(IOException e) {
+								// the client closed the connection
+							}
+						}
+					};
+					t.setDaemon(true);
+					t.start();
+				}
+			} catch(IOException e) {
+				// closed
+			}
+		}
+
+		private void serve(Socket s) throws IOException {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+			final OutputStream out = s.getOutputStream();
+			byte[] preface = new byte[24];
+			in.readFully(preface);
+			assertEquals("PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n", new String(preface, "US-ASCII"));
+			frame(out, 0x4, 0, 0, new byte[]{ 0, 3, 0, 0, 0, (byte)maxStreams });
+			Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEF_TABLE_SIZE);
+			Map<Integer,String> requests = new HashMap<Integer,String>();
+			Map<Integer,Integer> lengths = new HashMap<Integer,Integer>();
+			for(;;) {
+				int len = in.readUnsignedShort() << 8 | in.readUnsignedByte();
+				int type = in.readUnsignedByte();
+				int flags = in.readUnsignedByte();
+				int id = in.readInt();
+				byte[] payload = new byte[len];
+				in.readFully(payload);
+				if(type == 0x4 && (flags & 0x1) == 0) {
+					frame(out, 0x4, 0x1, 0, new byte[0]);
+				} else if(type == 0x1) {
+					assertTrue((flags & 0x4) != 0);
+					List<String> headers = new ArrayList<String>();
+					decoder.decode(payload, 0, len, headers);
+					Map<String,String> map = new HashMap<String,String>();
+					for(int i=0; i<headers.size(); i+=2)
+						map.put(headers.get(i), headers.get(i+1));
+					assertEquals("secret", map.get("x-plug-auth"));
+					streams.incrementAndGet();
+					if(refuse > 0) {
+						refuse--;
+						frame(out, 0x3, 0, id, new byte[]{ 0, 0, 0, 7 });
+						continue;
+					}
+					synchronized(this) {
+						if(++open > maxOpen) maxOpen = open;
+					}
+					requests.put(id, map.get(":method")+' '+map.get(":path"));
+					lengths.put(id, 0);
+					if((flags & 0x1) != 0) respond(out, id, requests.get(id)+" 0");
+				} else if(type == 0x0) {
+					int n = lengths.get(id) + len;
+					lengths.put(id, n);
+					// give the consumed window back
+					byte[] inc = { (byte)(len >>> 24), (byte)(len >>> 16), (byte)(len >>> 8), (byte)len };
+					frame(out, 0x8, 0, 0, inc);
+					frame(out, 0x8, 0, id, inc);
+					if((flags & 0x1) != 0) respond(out, id, requests.get(id)+' '+n);
+				}
+			}
+		}
+
+		private void respond(final OutputStream out, final int id, final String body) {
+			Thread t = new Thread() {
+				@Override
+				public void run() {
+					try {
+						Thread.sleep(delay);
+						synchronized(Server.this) {
+							open--;
+							ByteArrayOutputStream block = new ByteArrayOutputStream();
+							encoder.begin(block);
+							encoder.encode(block, ":status", "200");
+							encoder.encode(block, "content-type", "text/plain; charset=utf-8");
+							frame(out, 0x1, 0x4, id, block.toByteArray());
+							frame(out, 0x0, 0x1, id, body.getBytes("UTF-8"));
+						}
+					} catch(Exception e) {
+						// the client closed the connection
+					}
+				}
+			};
+			t.setDaemon(true);
+			t.start();
+		}
+
+		private void frame(OutputStream out, int type, int flags, int id, byte[] payload) throws IOException {
+			synchronized(this) {
+				int len = payload.length;
+				out.write(new byte[]{ (byte)(len >>> 16), (byte)(len >>> 8), (byte)len, (byte)type, (byte)flags,
+				                      (byte)(id >>> 24), (byte)(id >>> 16), (byte)(id >>> 8), (byte)id });
+				out.write(payload);
+				out.flush();
+			}
+		}
+
+		final int port;
+		final AtomicInteger connections = new AtomicInteger();
+		final AtomicInteger streams     = new AtomicInteger();
+		volatile int maxStreams = 100;
+		volatile int delay      = 0;
+		volatile int refuse     = 0;
+		int open    = 0;
+		int maxOpen = 0;
+		private final ServerSocket  socket;
+		private final Hpack.Encoder encoder = new Hpack.Encoder();
+	}
+
+	private Server         server;
+	private Http2Transport transport;
+}
@@ -0,0 +1,118 @@
+package com.cloudplugs.rest;
+
+/*<license>
+Copyright 2014 CloudPlugs Inc.
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+</license>*/
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import com.cloudplugs.util.BufferPool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks {@link HttpUrlTransport} against a {@link LocalServer}, including how its pooled buffers reduce the garbage.
+ */
+public class HttpUrlTransportTest
+{
+	@Before
+	public void setUp() throws Exception {
+		server = new LocalServer(false);
+	}
+
+	@After
+	public void tearDown() {
+		server.close();
+	}
+
+	@Test(timeout=10000)
+	public void sendsAndReceivesBodies() {
+		Response r = transport.execute(new Request("POST", server.getUrl(), "data/a", null, "{\"v\":1}"), 5);
+		assertEquals(200, r.getStatus());
+		assertEquals("POST /data/a {\"v\":1}", r.getBody());
+		Response big = transport.execute(new Request("GET", server.getUrl(), "big?chunked=1&size=300000", null, null), 5);
+		assertEquals(300000, big.getBody().length());
+	}
+
+	@Test(timeout=10000)
+	public void limitsBodies() {
+		Request req = new Request("GET", server.getUrl(), "big?size=100000", null, null);
+		req.setMaxBodySize(1000);
+		assertEquals(Const.ERR_TOO_LARGE, transport.execute(req, 5).getStatus());
+	}
+
+	@Test(timeout=60000)
+	public void reusesPooledBuffers() {
+		Request req = new Request("POST", server.getUrl(), "data?size="+BODY, null, body(BODY));
+		for(int i=0; i<50; ++i)
+			transport.execute(req, 5);
+		long hits   = BufferPool.getHits();
+		long misses = BufferPool.getMisses();
+		for(int i=0; i<200; ++i)
+			assertEquals(200, transport.execute(req, 5).getStatus());
+		// the upload and the download buffers of every request come from the pool
+		assertTrue("misses "+(BufferPool.getMisses()-misses), BufferPool.getMisses()-misses <= 2);
+		assertTrue("hits "+(BufferPool.getHits()-hits), BufferPool.getHits()-hits >= 2*200-2);
+	}
+
+	@Test(timeout=60000)
+	public void poolingCutsAllocations() {
+		java.lang.management.ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+		if(!(mx instanceof com.sun.management.ThreadMXBean)) return;
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)mx;
+		if(!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) return;
+		Request req = new Request("POST", server.getUrl(), "data?size="+BODY, null, body(BODY));
+		long pooled   = Long.MAX_VALUE;
+		long unpooled = Long.MAX_VALUE;
+		// the best of some rounds, so the warm-up and the noise of the connection handling are excluded
+		for(int round=0; round<5; ++round) {
+			pooled   = Math.min(pooled,   allocatedPerRequest(threads, req, false));
+			unpooled = Math.min(unpooled, allocatedPerRequest(threads, req, true));
+		}
+		// without the pool both a 64 KB upload array and a 64 KB download array are allocated every time
+		assertTrue("pooled "+pooled+" unpooled "+unpooled, unpooled-pooled >= BODY*3/2);
+	}
+
+	private long allocatedPerRequest(com.sun.management.ThreadMXBean threads, Request req, boolean clear) {
+		long id = Thread.currentThread().getId();
+		int n = 50;
+		long before = threads.getThreadAllocatedBytes(id);
+		for(int i=0; i<n; ++i) {
+			if(clear) BufferPool.clear();
+			transport.execute(req, 5);
+		}
+		return (threads.getThreadAllocatedBytes(id) - before) / n;
+	}
+
+	private static String body(int size) {
+		StringBuilder sb = new StringBuilder(size);
+		sb.append("{\"data\":\"");
+		while(sb.length() < size-2)
+			sb.append('x');
+		return sb.append("\"}").toString();
+	}
+
+	private static final int BODY = 64*1024;
+
+	private final HttpUrlTransport transport = new HttpUrlTransport();
+	private       LocalServer      server;
+}
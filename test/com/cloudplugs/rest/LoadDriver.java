@@ -0,0 +1,124 @@
+package com.cloudplugs.rest;
+
+/*<license>
+Copyright 2014 CloudPlugs Inc.
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+</license>*/
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import com.cloudplugs.util.*;
+
+/**
+ * @brief A load driver measuring the client throughput and tail latency against a {@link MockTransport}.
+ * Run it by <tt>java com.cloudplugs.rest.LoadDriver [requests] [inFlight] [concurrency] [minLatencyMs] [maxLatencyMs] [errorRate]</tt>:
+ * it keeps <tt>inFlight</tt> requests outstanding, mixing publish (80%) and retrieve (20%) operations, through a
+ * {@link RestClient} whose spooler sends up to <tt>concurrency</tt> requests at the same time, and prints the throughput,
+ * the latency percentiles from enqueueing to callback and the count of every response status.
+ * A <tt>concurrency</tt> of 0 means no limit. Outside Android, an org.json implementation must be in the class path.
+ */
+public class LoadDriver
+{
+	public static void main(String[] args) throws Exception {
+		int    requests    = arg(args, 0, 20000);
+		int    inFlight    = arg(args, 1, 64);
+		int    concurrency = arg(args, 2, 16);
+		int    minLatency  = arg(args, 3, 5);
+		int    maxLatency  = arg(args, 4, 20);
+		double errorRate   = args.length>5 ? Double.parseDouble(args[5]) : 0;
+
+		MockTransport server = new MockTransport(37).setLatency(minLatency, maxLatency).setErrorRate(errorRate);
+		ExecutorService pool = Spooler.newPool(concurrency>0 ? concurrency : inFlight);
+		RestClient client = new RestClient(pool, concurrency);
+		client.setTransport(server);
+		RestManager manager = client.getManager(new Opts().setAuth("dev-0123456789abcdef01234567", "secret"));
+
+		System.out.println("requests="+requests+" inFlight="+inFlight+" concurrency="+concurrency+
+		                   " latency="+minLatency+"-"+maxLatency+"ms errorRate="+errorRate);
+		// warm up the JIT and the pools, then measure
+		run(manager, requests/10, inFlight, null);
+		Result res = new Result(requests);
+		long start = System.nanoTime();
+		run(manager, requests, inFlight, res);
+		long elapsed = System.nanoTime() - start;
+
+		long[] lat = Arrays.copyOf(res.latencies, res.count.get());
+		Arrays.sort(lat);
+		System.out.printf("throughput %.1f req/s over %.2f s%n", requests*1e9/elapsed, elapsed/1e9);
+		System.out.printf("latency ms: p50 %.2f  p90 %.2f  p99 %.2f  p99.9 %.2f  max %.2f%n",
+		                  pct(lat, 50), pct(lat, 90), pct(lat, 99), pct(lat, 99.9), lat[lat.length-1]/1e6);
+		System.out.println("statuses "+res.statuses);
+		client.destroy();
+		server.close();
+		pool.shutdown();
+	}
+
+	private static void run(RestManager manager, int requests, int inFlight, final Result res) throws InterruptedException {
+		final Semaphore slots = new Semaphore(inFlight);
+		final CountDownLatch done = new CountDownLatch(requests);
+		for(int i=0; i<requests; ++i) {
+			slots.acquire();
+			final long sent = System.nanoTime();
+			RestCallback cb = new RestCallback() {
+				@Override
+				public void on(Request request, Response response) {
+					if(res != null) res.add(System.nanoTime()-sent, response.getStatus());
+					slots.release();
+					done.countDown();
+				}
+			};
+			if(i%5 == 4) manager.execRetrieveData("load/"+(i%16), null, cb);
+			else manager.execPublishData("load/"+(i%16), "{\"data\":"+i+'}', cb);
+		}
+		done.await();
+	}
+
+	private static double pct(long[] sorted, double p) {
+		int i = (int)Math.ceil(p/100 * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(sorted.length-1, i))] / 1e6;
+	}
+
+	private static int arg(String[] args, int i, int def) {
+		return args.length>i ? Integer.parseInt(args[i]) : def;
+	}
+
+	/**
+	 * @brief The latencies and statuses of the measured requests.
+	 */
+	private static final class Result {
+		Result(int n) {
+			latencies = new long[n];
+		}
+
+		synchronized void add(long latency, int status) {
+			latencies[count.getAndIncrement()] = latency;
+			Integer n = statuses.get(status);
+			statuses.put(status, n==null ? 1 : n+1);
+		}
+
+		final long[]                latencies;
+		final AtomicInteger         count    = new AtomicInteger();
+		final Map<Integer,Integer>  statuses = new TreeMap<Integer,Integer>();
+	}
+}
@@ -0,0 +1,187 @@
+package com.cloudplugs.rest;
+
+/*<license>
+Copyright 2014 CloudPlugs Inc.
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+</license>*/
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.net.ssl.SSLContext;
+import com.cloudplugs.util.SSL;
+import com.cloudplugs.util.SelfSigned;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+
+/**
+ * @brief An embedded HTTP or HTTPS server on the loopback, for the tests and benchmarks of the transports.
+ * It is based on the com.sun.net.httpserver package of the JDK, so it is not available on Android.
+ * Every request is answered after the configured latency, without holding a server thread meanwhile, with the body
+ * <tt>METHOD PATH</tt>, followed by a space and the request body if any. The query string can alter the response:
+ * <ul>
+ * <li><tt>status=N</tt> answers with the status N;</li>
+ * <li><tt>size=N</tt> answers with N bytes instead of the echo;</li>
+ * <li><tt>chunked=1</tt> sends the body with the chunked transfer encoding instead of a Content-Length;</li>
+ * <li><tt>close=1</tt> closes the connection after the response.</li>
+ * </ul>
+ * HTTPS servers present a {@link SelfSigned} certificate: use {@link #getClientContext()} on the client side.
+ */
+public class LocalServer implements Closeable
+{
+	/**
+	 * Start a new server on an ephemeral port of the loopback.
+	 * @param https true for HTTPS, false for plain HTTP
+	 * @throws Exception if the server cannot be started
+	 */
+	public LocalServer(boolean https) throws Exception {
+		InetSocketAddress addr = new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0);
+		if(https) {
+			HttpsServer s = HttpsServer.create(addr, BACKLOG);
+			s.setHttpsConfigurator(new HttpsConfigurator(SelfSigned.newServerContext()));
+			server = s;
+		} else {
+			server = HttpServer.create(addr, BACKLOG);
+		}
+		this.https = https;
+		server.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				LocalServer.this.handle(exchange);
+			}
+		});
+		server.setExecutor(workers);
+		server.start();
+	}
+
+	/**
+	 * Delay every response.
+	 * @param latency the milliseconds between the reception of a request and its response
+	 * @return this instance
+	 */
+	public LocalServer setLatency(long latency) {
+		this.latency = latency;
+		return this;
+	}
+
+	/**
+	 * @return the base URL of this server, to be used by {@link Opts#setUrl(String)} or {@link Request}
+	 */
+	public String getUrl() {
+		return (https ? "https://" : "http://")+SelfSigned.HOST+':'+server.getAddress().getPort()+'/';
+	}
+
+	/**
+	 * @return a new client SSL context trusting the certificate of this server
+	 * @throws Exception if the context cannot be created
+	 */
+	public SSLContext getClientContext() throws Exception {
+		return SSL.getContextOf(SelfSigned.getCertificate());
+	}
+
+	/**
+	 * @return the number of requests received so far
+	 */
+	public long getRequests() {
+		return requests.get();
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+		delayer.shutdownNow();
+		workers.shutdownNow();
+	}
+
+	private void handle(final HttpExchange exchange) throws IOException {
+		requests.incrementAndGet();
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		InputStream in = exchange.getRequestBody();
+		byte[] buf = new byte[8192];
+		for(int n; (n = in.read(buf)) > 0;)
+			body.write(buf, 0, n);
+		final byte[] req = body.toByteArray();
+		if(latency <= 0) {
+			respond(exchange, req);
+			return;
+		}
+		delayer.schedule(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					respond(exchange, req);
+				} catch(IOException e) {
+					exchange.close();
+				}
+			}
+		}, latency, TimeUnit.MILLISECONDS);
+	}
+
+	private static void respond(HttpExchange exchange, byte[] req) throws IOException {
+		URI uri = exchange.getRequestURI();
+		String query = uri.getRawQuery();
+		int status = param(query, "status", 200);
+		int size   = param(query, "size", -1);
+		byte[] res;
+		if(size >= 0) {
+			res = new byte[size];
+			for(int i=0; i<size; ++i)
+				res[i] = (byte)('a' + i%26);
+		} else {
+			String echo = exchange.getRequestMethod()+' '+uri.getRawPath();
+			if(req.length > 0) echo += ' '+new String(req, "UTF-8");
+			res = echo.getBytes("UTF-8");
+		}
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		if(param(query, "close", 0) == 1) exchange.getResponseHeaders().set("Connection", "close");
+		exchange.sendResponseHeaders(status, param(query, "chunked", 0)==1 ? 0 : res.length>0 ? res.length : -1);
+		OutputStream out = exchange.getResponseBody();
+		out.write(res);
+		out.close();
+	}
+
+	private static int param(String query, String name, int def) {
+		if(query == null) return def;
+		for(String p : query.split("&"))
+			if(p.startsWith(name+'=')) return Integer.parseInt(p.substring(name.length()+1));
+		return def;
+	}
+
+	private static final int BACKLOG = 16384;
+
+	private final    HttpServer               server;
+	private final    boolean                  https;
+	private final    ExecutorService          workers  = Executors.newFixedThreadPool(4);
+	private final    ScheduledExecutorService delayer  = Executors.newScheduledThreadPool(2);
+	private final    AtomicLong               requests = new AtomicLong();
+	private volatile long                     latency  = 0;
+}
@@ -0,0 +1,542 @@
+package com.cloudplugs.rest;
+
+/*<license>
+Copyright 2014 CloudPlugs Inc.
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+</license>*/
+
+import java.io.Closeable;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.json.*;
+import com.cloudplugs.util.*;
+
+/**
+ * @brief An in-process fake CloudPlugs server, to run the library without network and without the real server.
+ * It implements in memory a simplified version of the <tt>device</tt>, <tt>data</tt> and <tt>channel</tt> endpoints
+ * used by {@link RestManager}: devices can be enrolled, read, modified and unenrolled, and data can be published,
+ * retrieved by channel mask, timestamps, data IDs and publishers, and removed. Credentials are not verified.
+ * <br/><br/>
+ * To simulate a real network, it can add a random latency to every response, inject errors, fail single items of
+ * multiple operations (resulting in {@link Response#STATUS_MULTI} responses) and throttle the requests, answering
+ * {@link Response#ERR_TOO_MANY_REQUESTS} beyond a given rate.
+ * <br/><br/>
+ * Install it by {@link RestClient#setTransport(Transport)} or {@link RestSpooler#setTransport(Transport)}; the URL of
+ * the options is ignored. Delayed responses are delivered by a daemon thread of this transport.
+ */
+public class MockTransport implements Transport, Closeable
+{
+	/**
+	 * Create a new fake server with no latency and no fault injection.
+	 */
+	public MockTransport() {
+		this(System.nanoTime());
+	}
+
+	/**
+	 * Create a new fake server using the given seed for the random latency and fault injection, so that the same
+	 * sequence of requests produces the same sequence of responses.
+	 * @param seed the seed of the random generator
+	 */
+	public MockTransport(long seed) {
+		random = new Random(seed);
+	}
+
+	@Override
+	public void send(final Request request, int timeout, final RestCallback done) {
+		Response res;
+		long delay;
+		synchronized(this) {
+			if(closed) {
+				res   = new Response(Const.ERR_CONN, "transport closed", null);
+				delay = 0;
+			} else {
+				++requests;
+				res   = serve(request);
+				res   = limit(res, request.getMaxBodySize());
+				delay = minLatency + (maxLatency>minLatency ? (long)(random.nextDouble()*(maxLatency-minLatency)) : 0);
+				if(timeout>0 && delay>timeout*1000L) {
+					res   = new Response(Const.ERR_CONN, "timeout", null);
+					delay = timeout*1000L;
+				}
+			}
+		}
+		final Response response = res;
+		if(delay > 0) {
+			try {
+				scheduler().schedule(new Runnable() {
+					@Override
+					public void run() {
+						done.on(request, response);
+					}
+				}, delay, TimeUnit.MILLISECONDS);
+				return;
+			} catch(RejectedExecutionException e) {
+				// closed meanwhile: respond immediately
+			}
+		}
+		done.on(request, response);
+	}
+
+	/**
+	 * Stop the thread delivering the delayed responses; further requests fail with a connection error.
+	 */
+	@Override
+	public synchronized void close() {
+		closed = true;
+		if(scheduler != null) scheduler.shutdown();
+	}
+
+	/**
+	 * Set the latency of every response, chosen at random between the given bounds.
+	 * Requests whose timeout is shorter than the latency fail with a connection error.
+	 * @param min the minimum latency in milliseconds
+	 * @param max the maximum latency in milliseconds
+	 * @return this instance
+	 */
+	public synchronized MockTransport setLatency(long min, long max) {
+		if(min<0 || max<min) throw new IllegalArgumentException("invalid latency");
+		minLatency = min;
+		maxLatency = max;
+		return this;
+	}
+
+	/**
+	 * Set the probability of failing a request with {@link Response#ERR_INTERNAL}.
+	 * @param rate the probability between 0 and 1
+	 * @return this instance
+	 */
+	public synchronized MockTransport setErrorRate(double rate) {
+		errorRate = rate(rate);
+		return this;
+	}
+
+	/**
+	 * Set the probability of failing a request like a network error, with status {@link Const#ERR_CONN}.
+	 * @param rate the probability between 0 and 1
+	 * @return this instance
+	 */
+	public synchronized MockTransport setConnErrorRate(double rate) {
+		connErrorRate = rate(rate);
+		return this;
+	}
+
+	/**
+	 * Set the probability of failing a single item of an operation on multiple items, like unenrolling or removing
+	 * more devices or data at once; such operations then respond with {@link Response#STATUS_MULTI}.
+	 * @param rate the probability between 0 and 1
+	 * @return this instance
+	 */
+	public synchronized MockTransport setItemErrorRate(double rate) {
+		itemErrorRate = rate(rate);
+		return this;
+	}
+
+	/**
+	 * Limit the rate of accepted requests; the exceeding requests respond with {@link Response#ERR_TOO_MANY_REQUESTS}.
+	 * @param perSecond the maximum number of requests per second, 0 for unlimited
+	 * @return this instance
+	 */
+	public synchronized MockTransport setThrottle(int perSecond) {
+		if(perSecond < 0) throw new IllegalArgumentException("invalid throttle");
+		throttle = perSecond;
+		tokens   = perSecond;
+		refilled = System.nanoTime();
+		return this;
+	}
+
+	/**
+	 * @return the number of requests received so far
+	 */
+	public synchronized long getRequests() {
+		return requests;
+	}
+
+	/**
+	 * @return the number of enrolled devices
+	 */
+	public synchronized int getDevices() {
+		return devices.size();
+	}
+
+	/**
+	 * @return the number of stored data
+	 */
+	public synchronized int getData() {
+		return data.size();
+	}
+
+	/**
+	 * Remove all devices and data.
+	 */
+	public synchronized void reset() {
+		devices.clear();
+		data.clear();
+	}
+
+	//---- fake server, executed while holding the lock of this instance
+
+	private Response serve(Request request) {
+		if(connErrorRate>0 && random.nextDouble()<connErrorRate) return new Response(Const.ERR_CONN, "injected connection error", null);
+		if(!acquire()) return new Response(Response.ERR_TOO_MANY_REQUESTS, "Too Many Requests", null);
+		if(errorRate>0 && random.nextDouble()<errorRate) return new Response(Response.ERR_INTERNAL, "Internal Server Error", null);
+		try {
+			String path  = request.getPath();
+			String query = null;
+			int q = path.indexOf('?');
+			if(q >= 0) {
+				query = path.substring(q+1);
+				path  = path.substring(0, q);
+			}
+			int s = path.indexOf('/');
+			String action = s<0 ? path : path.substring(0, s);
+			String rest   = s<0 ? "" : URLDecoder.decode(path.substring(s+1), UTF8);
+			String method = request.getMethod();
+			Object body   = parse(request.getBody());
+			Map<String,String> params = params(query);
+			if("device" .equals(action)) return device (method, rest, body, request.getBody());
+			if("data"   .equals(action)) return data   (method, rest, body, params);
+			if("channel".equals(action)) return channel(method, rest, params);
+			return error(Response.ERR_NOT_FOUND, "Not Found");
+		} catch(Exception e) {
+			return error(Response.ERR_BAD_REQUEST, e.toString());
+		}
+	}
+
+	private Response device(String method, String path, Object body, String raw) throws JSONException {
+		int s = path.indexOf('/');
+		String id   = s<0 ? path : path.substring(0, s);
+		String prop = s<0 ? null : path.substring(s+1);
+		if(id.length() == 0) {
+			if(Request.PUT.equals(method) || Request.POST.equals(method)) {
+				JSONObject req = body instanceof JSONObject ? (JSONObject)body : new JSONObject();
+				String newId = PlugId.K_DEV + PlugId.SEP + newOid();
+				JSONObject dev = new JSONObject();
+				dev.put("id"   , newId);
+				dev.put("model", req.opt("model"));
+				dev.put("hwid" , req.has("hwid") ? req.opt("hwid") : req.opt("ctrl"));
+				dev.put("name" , req.opt("name"));
+				dev.put("props", req.has("props") ? req.get("props") : new JSONObject());
+				dev.put("status", "ok");
+				devices.put(newId, dev);
+				JSONObject res = new JSONObject();
+				res.put("id"  , newId);
+				res.put("auth", newOid());
+				return ok(Response.STATUS_CREATED, res);
+			}
+			if(Request.DELETE.equals(method)) {
+				// unenroll
+				String[] ids = ids(body, raw);
+				boolean[] results = new boolean[ids.length];
+				for(int i=0; i<ids.length; ++i)
+					results[i] = itemOk() && devices.remove(ids[i])!=null;
+				return multi(results);
+			}
+			return error(Response.ERR_NOT_ALLOWED, "Method Not Allowed");
+		}
+		JSONObject dev = devices.get(id);
+		if(dev == null) return error(Response.ERR_NOT_FOUND, "Not Found");
+		JSONObject props = dev.getJSONObject("props");
+		if(Request.GET.equals(method)) {
+			if(prop == null) return ok(Response.STATUS_OK, dev);
+			if(prop.length() == 0) return ok(Response.STATUS_OK, props);
+			return props.has(prop) ? ok(Response.STATUS_OK, props.get(prop)) : error(Response.ERR_NOT_FOUND, "Not Found");
+		}
+		if(Request.PATCH.equals(method)) {
+			if(prop != null) {
+				props.put(prop, body);
+			} else if(body instanceof JSONObject) {
+				JSONObject req = (JSONObject)body;
+				for(String k : new String[]{ "name", "status", "perm" })
+					if(req.has(k)) dev.put(k, req.get(k));
+				JSONObject p = req.optJSONObject("props");
+				if(p != null)
+					for(Iterator<?> it = p.keys(); it.hasNext(); ) {
+						String k = (String)it.next();
+						props.put(k, p.get(k));
+					}
+			}
+			return ok(Response.STATUS_OK, Boolean.TRUE);
+		}
+		if(Request.DELETE.equals(method)) {
+			if(prop != null) {
+				props.remove(prop);
+			} else if(body == null) {
+				devices.remove(id);
+			} else if(body == JSONObject.NULL) {
+				// uncontrol all devices
+				return ok(Response.STATUS_OK, Boolean.TRUE);
+			} else {
+				// uncontrol the given devices
+				String[] ids = ids(body, raw);
+				boolean[] results = new boolean[ids.length];
+				for(int i=0; i<ids.length; ++i)
+					results[i] = itemOk() && devices.containsKey(ids[i]);
+				return multi(results);
+			}
+			return ok(Response.STATUS_OK, Boolean.TRUE);
+		}
+		return error(Response.ERR_NOT_ALLOWED, "Method Not Allowed");
+	}
+
+	private Response data(String method, String channel, Object body, Map<String,String> params) throws JSONException {
+		if(Request.PUT.equals(method)) {
+			if(channel.length()==0 || !Channel.isName(channel)) return error(Response.ERR_BAD_REQUEST, "invalid channel");
+			if(body instanceof JSONArray) {
+				JSONArray arr = (JSONArray)body;
+				JSONArray res = new JSONArray();
+				for(int i=0, n=arr.length(); i<n; ++i)
+					res.put(publish(channel, arr.getJSONObject(i)));
+				return ok(Response.STATUS_OK, res);
+			}
+			if(!(body instanceof JSONObject)) return error(Response.ERR_BAD_REQUEST, "invalid body");
+			return ok(Response.STATUS_OK, publish(channel, (JSONObject)body));
+		}
+		if(Request.GET.equals(method)) {
+			List<JSONObject> found = find(channel, params);
+			JSONArray res = new JSONArray();
+			int offset = params.containsKey("offset") ? Integer.parseInt(params.get("offset")) : 0;
+			int limit  = params.containsKey("limit" ) ? Integer.parseInt(params.get("limit" )) : 0;
+			for(int i=offset, n=found.size(); i<n && (limit<=0 || i<offset+limit); ++i)
+				res.put(found.get(i));
+			return ok(Response.STATUS_OK, res);
+		}
+		if(Request.DELETE.equals(method)) {
+			JSONObject req = body instanceof JSONObject ? (JSONObject)body : new JSONObject();
+			Object ids = req.opt("id");
+			if(ids != null) {
+				String[] list = ids instanceof JSONArray ? strings((JSONArray)ids) : new String[]{ ids.toString() };
+				boolean[] results = new boolean[list.length];
+				for(int i=0; i<list.length; ++i)
+					results[i] = itemOk() && data.remove(list[i])!=null;
+				return multi(results);
+			}
+			Map<String,String> filter = new HashMap<String,String>();
+			for(String k : new String[]{ "at", "before", "after", "of" })
+				if(req.has(k)) filter.put(k, req.get(k).toString());
+			int n = 0;
+			for(JSONObject entry : find(channel, filter))
+				if(data.remove(entry.getString("id")) != null) ++n;
+			return ok(Response.STATUS_OK, n);
+		}
+		return error(Response.ERR_NOT_ALLOWED, "Method Not Allowed");
+	}
+
+	private Response channel(String method, String mask, Map<String,String> params) throws JSONException {
+		if(!Request.GET.equals(method)) return error(Response.ERR_NOT_ALLOWED, "Method Not Allowed");
+		TreeSet<String> names = new TreeSet<String>();
+		for(JSONObject entry : find(mask, params))
+			names.add(entry.getString("channel"));
+		JSONArray res = new JSONArray();
+		int offset = params.containsKey("offset") ? Integer.parseInt(params.get("offset")) : 0;
+		int limit  = params.containsKey("limit" ) ? Integer.parseInt(params.get("limit" )) : 0;
+		int i = 0;
+		for(String name : names) {
+			if(i++ < offset) continue;
+			if(limit>0 && res.length()>=limit) break;
+			res.put(name);
+		}
+		return ok(Response.STATUS_OK, res);
+	}
+
+	private String publish(String channel, JSONObject req) throws JSONException {
+		String id = req.has("id") ? req.getString("id") : newOid();
+		JSONObject entry = new JSONObject();
+		entry.put("id"     , id);
+		entry.put("channel", channel);
+		entry.put("data"   , req.opt("data"));
+		entry.put("at"     , req.has("at") ? req.getLong("at") : System.currentTimeMillis());
+		if(req.has("of")) entry.put("of", req.get("of"));
+		data.put(id, entry);
+		return id;
+	}
+
+	// the stored data matching the mask and the filters, the most recent first
+	private List<JSONObject> find(String mask, Map<String,String> filter) throws JSONException {
+		String   at     = filter.get("at");
+		String   before = filter.get("before");
+		String   after  = filter.get("after");
+		String   of     = filter.get("of");
+		String[] masks  = mask==null || mask.length()==0 ? null : mask.split("/", -1);
+		List<JSONObject> res = new ArrayList<JSONObject>();
+		for(JSONObject entry : data.values()) {
+			if(masks!=null && !matches(masks, entry.getString("channel"))) continue;
+			long ts = entry.getLong("at");
+			if(at     != null && ts != Long.parseLong(at)) continue;
+			if(before != null && !(PlugId.isOid(before) ? entry.getString("id").compareTo(before)<0 : ts<Long.parseLong(before))) continue;
+			if(after  != null && !(PlugId.isOid(after ) ? entry.getString("id").compareTo(after )>0 : ts>Long.parseLong(after ))) continue;
+			if(of     != null && !(","+of+",").contains(","+entry.optString("of")+",")) continue;
+			res.add(entry);
+		}
+		Collections.sort(res, RECENT_FIRST);
+		return res;
+	}
+
+	private static boolean matches(String[] mask, String channel) {
+		String[] segs = channel.split("/", -1);
+		for(int i=0; i<mask.length; ++i) {
+			if("#".equals(mask[i])) return true;
+			if(i >= segs.length) return false;
+			if(!"+".equals(mask[i]) && !mask[i].equals(segs[i])) return false;
+		}
+		return mask.length == segs.length;
+	}
+
+	private Response multi(boolean[] results) {
+		JSONArray arr = new JSONArray();
+		boolean all = true;
+		for(boolean r : results) {
+			arr.put(r);
+			all &= r;
+		}
+		if(all) return ok(Response.STATUS_OK, results.length==1 ? Boolean.TRUE : arr);
+		if(results.length == 1) return error(Response.ERR_NOT_FOUND, "Not Found");
+		return ok(Response.STATUS_MULTI, arr);
+	}
+
+	private static Response limit(Response res, int max) {
+		String body = res.getBody();
+		if(max<=0 || body==null || body.length()*3<=max) return res;
+		int size;
+		try {
+			size = body.getBytes(UTF8).length;
+		} catch(UnsupportedEncodingException e) {
+			size = body.length();
+		}
+		if(size <= max) return res;
+		return new Response(Const.ERR_TOO_LARGE, "response body too large: "+size+" bytes exceed the limit of "+max, null);
+	}
+
+	private boolean acquire() {
+		if(throttle <= 0) return true;
+		long now = System.nanoTime();
+		tokens = Math.min(throttle, tokens + (now-refilled)*throttle/1e9);
+		refilled = now;
+		if(tokens < 1) return false;
+		--tokens;
+		return true;
+	}
+
+	private boolean itemOk() {
+		return itemErrorRate<=0 || random.nextDouble()>=itemErrorRate;
+	}
+
+	private String newOid() {
+		return String.format("%08x%016x", (int)(System.currentTimeMillis()/1000), ++oids);
+	}
+
+	private synchronized ScheduledThreadPoolExecutor scheduler() {
+		if(scheduler == null) {
+			scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, NAME);
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return scheduler;
+	}
+
+	private static Response ok(int status, Object body) {
+		return new Response(status, status==Response.STATUS_CREATED ? "Created" : status==Response.STATUS_MULTI ? "Multi-Status" : "OK",
+			body instanceof String ? JSONObject.quote((String)body) : String.valueOf(body));
+	}
+
+	private static Response error(int status, String msg) {
+		return new Response(status, msg, JSONObject.quote(msg));
+	}
+
+	private static Object parse(String body) throws JSONException {
+		if(body==null || body.length()==0) return null;
+		return new JSONTokener(body).nextValue();
+	}
+
+	private static Map<String,String> params(String query) throws Exception {
+		Map<String,String> res = new HashMap<String,String>();
+		if(query == null) return res;
+		for(String kv : query.split("&")) {
+			int e = kv.indexOf('=');
+			if(e > 0) res.put(URLDecoder.decode(kv.substring(0, e), UTF8), URLDecoder.decode(kv.substring(e+1), UTF8));
+		}
+		return res;
+	}
+
+	// the identifiers in a body that is a JSON array, a JSON string or a raw CSV
+	private static String[] ids(Object body, String raw) throws JSONException {
+		if(body instanceof JSONArray) return strings((JSONArray)body);
+		String csv = raw.trim().startsWith("\"") ? String.valueOf(body) : raw.trim();
+		return csv.split(",");
+	}
+
+	private static String[] strings(JSONArray arr) throws JSONException {
+		String[] res = new String[arr.length()];
+		for(int i=0; i<res.length; ++i)
+			res[i] = arr.getString(i);
+		return res;
+	}
+
+	private static double rate(double rate) {
+		if(rate<0 || rate>1) throw new IllegalArgumentException("invalid rate");
+		return rate;
+	}
+
+	private static final Comparator<JSONObject> RECENT_FIRST = new Comparator<JSONObject>() {
+		@Override
+		public int compare(JSONObject a, JSONObject b) {
+			long ta = a.optLong("at"), tb = b.optLong("at");
+			if(ta != tb) return ta>tb ? -1 : 1;
+			return b.optString("id").compareTo(a.optString("id"));
+		}
+	};
+
+	private static final String NAME = MockTransport.class.getSimpleName();
+	private static final String UTF8 = "UTF-8";
+
+	private final Random random;
+	private final Map<String,JSONObject> devices = new HashMap<String,JSONObject>();
+	private final Map<String,JSONObject> data    = new LinkedHashMap<String,JSONObject>();
+	private ScheduledThreadPoolExecutor scheduler;
+	private boolean closed        = false;
+	private long    requests      = 0;
+	private long    oids          = 0;
+	private long    minLatency    = 0;
+	private long    maxLatency    = 0;
+	private double  errorRate     = 0;
+	private double  connErrorRate = 0;
+	private double  itemErrorRate = 0;
+	private int     throttle      = 0;
+	private double  tokens        = 0;
+	private long    refilled      = 0;
+}
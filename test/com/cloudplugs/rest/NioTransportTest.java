@@ -0,0 +1,177 @@
+package com.cloudplugs.rest;
+
+/*<license>
+Copyright 2014 CloudPlugs Inc.
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+</license>*/
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Checks {@link NioTransport} against a {@link LocalServer} over HTTP and HTTPS.
+ */
+public class NioTransportTest
+{
+	@After
+	public void tearDown() {
+		if(transport != null) transport.close();
+		if(server    != null) server.close();
+	}
+
+	@Test(timeout=10000)
+	public void getsOverHttp() throws Exception {
+		start(false);
+		Response r = send(new Request("GET", server.getUrl(), "r0", null, null), 5);
+		assertEquals(200, r.getStatus());
+		assertEquals("GET /r0", r.getBody());
+	}
+
+	@Test(timeout=10000)
+	public void postsUtf8Body() throws Exception {
+		start(false);
+		String body = "{\"data\":\"caf\u00e9 \u20ac\"}";
+		Response r = send(new Request("POST", server.getUrl(), "data/a", null, body), 5);
+		assertEquals(200, r.getStatus());
+		assertEquals("POST /data/a "+body, r.getBody());
+	}
+
+	@Test(timeout=10000)
+	public void readsChunkedAndLargeBodies() throws Exception {
+		start(false);
+		Response chunked = send(new Request("GET", server.getUrl(), "c?chunked=1&size=100000", null, null), 5);
+		assertEquals(200, chunked.getStatus());
+		assertEquals(100000, chunked.getBody().length());
+		Response fixed = send(new Request("GET", server.getUrl(), "f?size=300000", null, null), 5);
+		assertEquals(300000, fixed.getBody().length());
+		assertEquals('a'+299999%26, fixed.getBody().charAt(299999));
+	}
+
+	@Test(timeout=10000)
+	public void passesErrorStatuses() throws Exception {
+		start(false);
+		Response r = send(new Request("GET", server.getUrl(), "missing?status=404", null, null), 5);
+		assertEquals(404, r.getStatus());
+		assertEquals("GET /missing", r.getBody());
+	}
+
+	@Test(timeout=10000)
+	public void reusesKeptAliveConnections() throws Exception {
+		start(false);
+		for(int i=0; i<10; ++i)
+			assertEquals(200, send(new Request("GET", server.getUrl(), "r"+i, null, null), 5).getStatus());
+		assertEquals(1, transport.getConnections());
+		// a connection closed by the server is not reused
+		assertEquals(200, send(new Request("GET", server.getUrl(), "last?close=1", null, null), 5).getStatus());
+		assertEquals(200, send(new Request("GET", server.getUrl(), "after", null, null), 5).getStatus());
+	}
+
+	@Test(timeout=20000)
+	public void getsOverHttps() throws Exception {
+		start(true);
+		Response r = send(new Request("POST", server.getUrl(), "secure", null, "{}"), 5);
+		assertEquals(200, r.getStatus());
+		assertEquals("POST /secure {}", r.getBody());
+		// the context of the request takes precedence over the one of the transport
+		transport.close();
+		transport = new NioTransport();
+		Request req = new Request("GET", server.getUrl(), "scoped", null, null).setSSLContext(server.getClientContext());
+		assertEquals(200, send(req, 5).getStatus());
+	}
+
+	@Test(timeout=20000)
+	public void multiplexesManyRequestsOverFewConnections() throws Exception {
+		start(false);
+		server.setLatency(20);
+		transport.setMaxConnectionsPerServer(4);
+		int n = 200;
+		final AtomicReferenceArray<Response> res = new AtomicReferenceArray<Response>(n);
+		final CountDownLatch done = new CountDownLatch(n);
+		for(int i=0; i<n; ++i) {
+			final int index = i;
+			transport.send(new Request("GET", server.getUrl(), "m"+i, null, null), 10, new RestCallback() {
+				@Override
+				public void on(Request request, Response response) {
+					res.set(index, response);
+					done.countDown();
+				}
+			});
+		}
+		assertTrue(done.await(15, TimeUnit.SECONDS));
+		for(int i=0; i<n; ++i)
+			assertEquals("GET /m"+i, res.get(i).getBody());
+		assertTrue("connections "+transport.getConnections(), transport.getConnections() <= 4);
+	}
+
+	@Test(timeout=10000)
+	public void timesOut() throws Exception {
+		start(false);
+		server.setLatency(3000);
+		long start = System.currentTimeMillis();
+		Response r = send(new Request("GET", server.getUrl(), "slow", null, null), 1);
+		assertEquals(Const.ERR_CONN, r.getStatus());
+		assertTrue(System.currentTimeMillis()-start < 2500);
+	}
+
+	@Test(timeout=10000)
+	public void closeFailsRequestsInFlight() throws Exception {
+		start(false);
+		server.setLatency(3000);
+		final Response[] res = new Response[1];
+		final CountDownLatch done = new CountDownLatch(1);
+		transport.send(new Request("GET", server.getUrl(), "slow", null, null), 10, new RestCallback() {
+			@Override
+			public void on(Request request, Response response) {
+				res[0] = response;
+				done.countDown();
+			}
+		});
+		Thread.sleep(200);
+		transport.close();
+		assertTrue(done.await(2, TimeUnit.SECONDS));
+		assertEquals(Const.ERR_CONN, res[0].getStatus());
+	}
+
+	private void start(boolean https) throws Exception {
+		server = new LocalServer(https);
+		transport = new NioTransport(https ? server.getClientContext() : null);
+	}
+
+	private Response send(Request request, int timeout) throws InterruptedException {
+		final Response[] res = new Response[1];
+		final CountDownLatch done = new CountDownLatch(1);
+		transport.send(request, timeout, new RestCallback() {
+			@Override
+			public void on(Request request, Response response) {
+				res[0] = response;
+				done.countDown();
+			}
+		});
+		assertTrue("no response", done.await(timeout+2, TimeUnit.SECONDS));
+		return res[0];
+	}
+
+	private LocalServer  server;
+	private NioTransport transport;
+}
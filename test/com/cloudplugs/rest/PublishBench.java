@@ -0,0 +1,139 @@
+package com.cloudplugs.rest;
+
+/*<license>
+Copyright 2014 CloudPlugs Inc.
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+</license>*/
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import com.cloudplugs.util.Spooler;
+
+/**
+ * @brief A benchmark of concurrent publishes through the blocking {@link HttpUrlTransport} on platform and virtual threads.
+ * Run it by <tt>java com.cloudplugs.rest.PublishBench [requests] [latencyMs] [poolSize]</tt>: it starts a
+ * {@link LocalServer} answering after <tt>latencyMs</tt> milliseconds and enqueues <tt>requests</tt> publishes at once
+ * through a {@link RestClient} with no concurrency limit, running them in turn on:
+ * <ul>
+ * <li><tt>platform-pool</tt>: a pool of <tt>poolSize</tt> platform threads;</li>
+ * <li><tt>platform-task</tt>: a new platform thread per request;</li>
+ * <li><tt>virtual-task</tt>: a new virtual thread per request, only on a JVM supporting them (Java 21 or later).</li>
+ * </ul>
+ * For each executor it prints the throughput, the latency percentiles from enqueueing to callback, the peak number
+ * of live threads and the count of every response status. Outside Android, an org.json implementation must be in the
+ * class path.
+ */
+public class PublishBench
+{
+	public static void main(String[] args) throws Exception {
+		int requests = args.length>0 ? Integer.parseInt(args[0]) : 10000;
+		int latency  = args.length>1 ? Integer.parseInt(args[1]) : 50;
+		int poolSize = args.length>2 ? Integer.parseInt(args[2]) : 200;
+
+		LocalServer server = new LocalServer(false).setLatency(latency);
+		System.out.println("requests="+requests+" latency="+latency+"ms poolSize="+poolSize+" java="+System.getProperty("java.version"));
+		try {
+			run("platform-pool", Spooler.newPool(poolSize), server, requests);
+			run("platform-task", Executors.newCachedThreadPool(), server, requests);
+			ExecutorService virtual = newVirtualThreadPerTaskExecutor();
+			if(virtual != null) run("virtual-task", virtual, server, requests);
+			else System.out.println("virtual-task  skipped: virtual threads are not supported by this JVM");
+		} finally {
+			server.close();
+		}
+	}
+
+	private static void run(String name, ExecutorService executor, LocalServer server, int requests) throws Exception {
+		RestClient client = new RestClient(executor, 0);
+		RestManager manager = client.getManager(new Opts().setUrl(server.getUrl()).setTimeout(60)
+		                                                  .setAuth("dev-0123456789abcdef01234567", "secret"));
+		// warm up the JIT and the connection pool, then measure
+		publish(manager, Math.min(requests, 500), null);
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		threads.resetPeakThreadCount();
+		Result res = new Result(requests);
+		long start = System.nanoTime();
+		publish(manager, requests, res);
+		long elapsed = System.nanoTime() - start;
+
+		long[] lat = Arrays.copyOf(res.latencies, res.count.get());
+		Arrays.sort(lat);
+		System.out.printf("%-13s %.1f req/s over %.2f s  p50 %.1f ms  p99 %.1f ms  max %.1f ms  peak threads %d  statuses %s%n",
+		                  name, requests*1e9/elapsed, elapsed/1e9, pct(lat, 50), pct(lat, 99), lat[lat.length-1]/1e6,
+		                  threads.getPeakThreadCount(), res.statuses);
+		manager.close();
+		client.destroy();
+		executor.shutdown();
+	}
+
+	private static void publish(RestManager manager, int requests, final Result res) throws InterruptedException {
+		final CountDownLatch done = new CountDownLatch(requests);
+		for(int i=0; i<requests; ++i) {
+			final long sent = System.nanoTime();
+			manager.execPublishData("bench/"+(i%16), "{\"data\":"+i+'}', new RestCallback() {
+				@Override
+				public void on(Request request, Response response) {
+					if(res != null) res.add(System.nanoTime()-sent, response.getStatus());
+					done.countDown();
+				}
+			});
+		}
+		done.await();
+	}
+
+	// Executors.newVirtualThreadPerTaskExecutor() is looked up at runtime, so this class also compiles for older JVMs
+	private static ExecutorService newVirtualThreadPerTaskExecutor() {
+		try {
+			return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch(Exception e) {
+			return null;
+		}
+	}
+
+	private static double pct(long[] sorted, double p) {
+		int i = (int)Math.ceil(p/100 * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(sorted.length-1, i))] / 1e6;
+	}
+
+	/**
+	 * @brief The latencies and statuses of the measured requests.
+	 */
+	private static final class Result {
+		Result(int n) {
+			latencies = new long[n];
+		}
+
+		synchronized void add(long latency, int status) {
+			latencies[count.getAndIncrement()] = latency;
+			Integer n = statuses.get(status);
+			statuses.put(status, n==null ? 1 : n+1);
+		}
+
+		final long[]               latencies;
+		final AtomicInteger        count    = new AtomicInteger();
+		final Map<Integer,Integer> statuses = new TreeMap<Integer,Integer>();
+	}
+}
@@ -0,0 +1,111 @@
+package com.cloudplugs.rest;
+
+/*<license>
+Copyright 2014 CloudPlugs Inc.
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+</license>*/
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.net.URLEncoder;
+import java.util.Date;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Checks the encoding of {@link Query} against java.net.URLEncoder, its reuse per thread and its allocations.
+ */
+public class QueryTest
+{
+	@Test
+	public void encodesLikeUrlEncoder() throws Exception {
+		Random rnd = new Random(33);
+		for(int i=0; i<20000; ++i) {
+			char[] cs = new char[rnd.nextInt(12)];
+			for(int j=0; j<cs.length; ++j) {
+				switch(rnd.nextInt(4)) {
+					case 0:  cs[j] = (char)rnd.nextInt(0x80); break;
+					case 1:  cs[j] = (char)rnd.nextInt(0x800); break;
+					case 2:  cs[j] = (char)(0xD800 + rnd.nextInt(0x800)); break;
+					default: cs[j] = (char)rnd.nextInt(0x10000);
+				}
+			}
+			String s = new String(cs);
+			assertEquals(URLEncoder.encode(s, "UTF-8"), Query.esc(new StringBuilder(), s).toString());
+		}
+	}
+
+	@Test
+	public void appendsTypedValues() {
+		assertNull(new Query().add("a", (String)null).add("b", 0).ts("c", null).build());
+		assertEquals("?of=dev-1%2Cdev-2&offset=5&at=1400000000000&t=1",
+		             new Query().add("of", "dev-1,dev-2").add("offset", 5).ts("at", new Date(1400000000000L)).add("t", 1L).build());
+		assertEquals("?ids=a,2,b+c", new Query().add("ids", new Object[]{ "a", 2, null, 0, "b c" }).build());
+	}
+
+	@Test
+	public void parsesTimestampsLikeLong() {
+		assertEquals("?at=5", new Query().ts("at", "+5").build());
+		assertEquals("?at=-5", new Query().ts("at", "-5").build());
+		assertEquals("?at=7", new Query().ts("at", "007").build());
+		assertEquals("?at=%2B", new Query().ts("at", "+").build());
+		assertEquals("?at=99999999999999999999", new Query().ts("at", "99999999999999999999").build());
+		assertEquals("?at=2014-01-01T00%3A00%3A00Z", new Query().ts("at", "2014-01-01T00:00:00Z").build());
+	}
+
+	@Test
+	public void nestedUseKeepsBothQueries() {
+		Object nested = new Object() {
+			@Override
+			public String toString() {
+				return Query.get().add("inner", 1).build();
+			}
+		};
+		assertEquals("?outer=%3Finner%3D1&last=2", Query.get().add("outer", nested).add("last", 2).build());
+		// the builder of the thread is released by build() and then reused
+		Query q = Query.get();
+		q.build();
+		Query again = Query.get();
+		again.build();
+		assertSame(q, again);
+	}
+
+	@Test
+	public void allocatesOnlyTheResult() {
+		java.lang.management.ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+		if(!(mx instanceof com.sun.management.ThreadMXBean)) return;
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)mx;
+		if(!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) return;
+		long id = Thread.currentThread().getId();
+		Date at = new Date(1400000000000L);
+		int n = 100000;
+		int length = 0;
+		for(int round=0; round<2; ++round) {
+			// the first round warms up the JIT and grows the builder of this thread
+			long before = threads.getThreadAllocatedBytes(id);
+			for(int i=0; i<n; ++i)
+				length = Query.get().ts("before", at).ts("after", "1399990000000").add("of", "dev-0123456789abcdef01234567")
+				                    .add("offset", i).add("limit", 100).build().length();
+			long perCall = (threads.getThreadAllocatedBytes(id) - before) / n;
+			// one String and its array of characters, in either the compact or the UTF-16 layout
+			if(round == 1) assertTrue("allocated "+perCall+" bytes per call", perCall <= 64 + 2*length);
+		}
+	}
+}
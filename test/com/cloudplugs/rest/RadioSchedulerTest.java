@@ -0,0 +1,144 @@
+package com.cloudplugs.rest;
+
+/*<license>
+Copyright 2014 CloudPlugs Inc.
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+</license>*/
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the decisions of {@link RadioScheduler} driven by a {@link RadioScheduler.TailRadio} and a fake clock.
+ */
+public class RadioSchedulerTest
+{
+	@Before
+	public void setUp() {
+		clock = new FakeClock();
+		radio = new RadioScheduler.TailRadio(10000);
+		sched = new RadioScheduler(clock, radio);
+	}
+
+	@Test
+	public void sendsUndeferrableRequestsAtOnce() {
+		assertEquals(0, sched.submit(0));
+		assertEquals(0, sched.getHeld());
+		assertEquals(0, sched.getDeferred());
+		assertEquals(0, sched.getBursts());
+		assertEquals(-1, sched.poll());
+	}
+
+	@Test
+	public void holdsUntilTheEarliestDeadline() {
+		assertEquals(5000, sched.submit(5000));
+		clock.now = 1000;
+		assertEquals(4000, sched.submit(10000));
+		clock.now = 2000;
+		// a shorter deadline moves the burst earlier
+		assertEquals(1000, sched.submit(1000));
+		assertEquals(3, sched.getHeld());
+		clock.now = 2999;
+		assertEquals(1, sched.poll());
+		clock.now = 3000;
+		assertEquals(0, sched.poll());
+		assertEquals(0, sched.getHeld());
+		assertEquals(3, sched.getDeferred());
+		assertEquals(1, sched.getBursts());
+		assertEquals(-1, sched.poll());
+	}
+
+	@Test
+	public void joinsAnActiveRadio() {
+		sched.onSendStart();
+		// a request in flight: the next ones join it
+		assertEquals(0, sched.submit(60000));
+		clock.now = 500;
+		sched.onSendEnd();
+		assertEquals(1, radio.getWakeups());
+		clock.now = 10499;
+		assertEquals(0, sched.submit(60000));
+		clock.now = 10500;
+		assertEquals(60000, sched.submit(60000));
+		assertEquals(1, sched.getHeld());
+	}
+
+	@Test
+	public void releasesHeldRequestsWhenTheRadioWakesUp() {
+		assertEquals(60000, sched.submit(60000));
+		clock.now = 5000;
+		// an undeferrable request wakes the radio up: the held ones are sent along with it
+		assertEquals(0, sched.submit(0));
+		assertEquals(0, sched.getHeld());
+		assertEquals(1, sched.getBursts());
+	}
+
+	@Test
+	public void releasesHeldRequestsWhenTheirDeadlineIsReachedBySubmit() {
+		assertEquals(60000, sched.submit(60000));
+		clock.now = 60000;
+		assertEquals(0, sched.submit(60000));
+		assertEquals(0, sched.getHeld());
+		assertEquals(1, sched.getBursts());
+		assertEquals(-1, sched.poll());
+	}
+
+	@Test
+	public void alignsPeriodicRequestsIntoFewerWakeups() {
+		// a request every 20 s, each deferrable by 60 s, and a transfer lasting 1 s: 4 requests per burst
+		int n = 120;
+		for(int i=0; i<n; i++) {
+			clock.now = i * 20000L;
+			long wait = sched.submit(60000);
+			while(wait > 0 && clock.now + wait < (i+1) * 20000L) {
+				clock.now += wait;
+				wait = sched.poll();
+			}
+			if(wait == 0) transfer();
+		}
+		assertEquals(n, sched.getDeferred());
+		// without the scheduler every request would wake the radio up, with it every burst does
+		assertEquals(sched.getBursts(), radio.getWakeups());
+		assertEquals(n/4, radio.getWakeups());
+	}
+
+	private void transfer() {
+		sched.onSendStart();
+		clock.now += 1000;
+		sched.onSendEnd();
+	}
+
+	/**
+	 * @brief A clock moved by hand.
+	 */
+	private static final class FakeClock implements RadioScheduler.Clock {
+		@Override
+		public long now() {
+			return now;
+		}
+
+		long now = 0;
+	}
+
+	private FakeClock                 clock;
+	private RadioScheduler.TailRadio radio;
+	private RadioScheduler           sched;
+}
@@ -0,0 +1,199 @@
+package com.cloudplugs.rest;
+
+/*<license>
+Copyright 2014 CloudPlugs Inc.
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+</license>*/
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import com.cloudplugs.util.Listener;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the callback executors of {@link RestBaseManager}, their error routing and their statistics,
+ * sending the requests to a {@link MockTransport}.
+ */
+public class RestBaseManagerTest
+{
+	@Before
+	public void setUp() {
+		errs = Collections.synchronizedList(new ArrayList<Throwable>());
+		server = new MockTransport(11);
+		spooler = new RestSpooler(new Listener.Stub() {
+			@Override
+			public void onErr(Throwable t) {
+				errs.add(t);
+			}
+		});
+		spooler.setTransport(server);
+		manager = new RestManager(spooler, new Opts().setAuth("dev-0123456789abcdef01234567", "secret"));
+		pool = Executors.newFixedThreadPool(4, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "callbacks");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	@After
+	public void tearDown() {
+		manager.close();
+		server.close();
+		pool.shutdownNow();
+	}
+
+	@Test(timeout=10000)
+	public void runsOrderedCallbacksOnTheExecutor() throws Exception {
+		manager.setCallbackExecutor(pool, true);
+		Recorder rec = new Recorder(50);
+		for(int i=0; i<50; ++i)
+			manager.execGetDevice(rec);
+		rec.await();
+		for(int i=0; i<50; ++i)
+			assertEquals("callbacks", rec.threads.get(i));
+		for(int i=1; i<50; ++i)
+			assertTrue(rec.ids.get(i-1) < rec.ids.get(i));
+	}
+
+	@Test(timeout=10000)
+	public void runsPerRequestExecutors() throws Exception {
+		Recorder rec = new Recorder(2);
+		manager.execGetDevice(new RestCallback.OnExecutor(rec, pool));
+		manager.setCallbackExecutor(pool, false);
+		manager.execGetDevice(new RestCallback.OnExecutor(rec, null));
+		rec.await();
+		assertEquals("callbacks", rec.threads.get(0));
+		assertFalse("callbacks".equals(rec.threads.get(1)));
+	}
+
+	@Test(timeout=10000)
+	public void routesCallbackErrorsToTheSpoolerListener() throws Exception {
+		manager.setCallbackExecutor(pool, false);
+		final CountDownLatch ran = new CountDownLatch(1);
+		manager.execGetDevice(new RestCallback() {
+			@Override
+			public void on(Request request, Response response) {
+				ran.countDown();
+				throw new IllegalStateException("boom");
+			}
+		});
+		ran.await();
+		waitForErrs(1);
+		assertEquals("boom", errs.get(0).getMessage());
+
+		manager.setCallbackExecutor(new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				throw new RejectedExecutionException("saturated");
+			}
+		}, false);
+		manager.waitFor(manager.execGetDevice(new Recorder(1)));
+		waitForErrs(2);
+		assertTrue(errs.get(1) instanceof RejectedExecutionException);
+	}
+
+	@Test(timeout=10000)
+	public void keepsTheUserCallback() throws Exception {
+		server.setLatency(300, 300);
+		manager.setCallbackExecutor(pool, true);
+		manager.setCallbackTiming(true);
+		Recorder rec = new Recorder(2);
+		manager.execGetDevice(rec);
+		RestCallback.OnExecutor onPool = new RestCallback.OnExecutor(rec, pool);
+		int id = manager.execGetDevice(onPool);
+		assertSame(onPool, manager.getJobOf(id).getCallback());
+		rec.await();
+	}
+
+	@Test(timeout=10000)
+	public void measuresOnlyWithTiming() throws Exception {
+		Recorder rec = new Recorder(3);
+		rec.sleep = 20;
+		manager.waitFor(manager.execGetDevice(rec));
+		assertEquals(0, manager.getCallbackStats().getCount());
+		manager.setCallbackTiming(true);
+		manager.waitFor(manager.execGetDevice(rec));
+		manager.setCallbackExecutor(pool, false);
+		manager.execGetDevice(rec);
+		rec.await();
+		CallbackStats stats = manager.getCallbackStats();
+		for(int i=0; i<100 && stats.getCount()<2; ++i)
+			Thread.sleep(10);   // the stats are added after the callback returns
+		assertEquals(2, stats.getCount());
+		assertTrue(stats.getCallbackTime() >= TimeUnit.MILLISECONDS.toNanos(2*rec.sleep));
+		assertTrue(stats.getMaxCallbackTime() >= TimeUnit.MILLISECONDS.toNanos(rec.sleep));
+	}
+
+	private void waitForErrs(int n) throws InterruptedException {
+		for(int i=0; i<500 && errs.size()<n; ++i)
+			Thread.sleep(10);
+		assertEquals(n, errs.size());
+	}
+
+	private static final class Recorder implements RestCallback
+	{
+		Recorder(int expected) {
+			latch = new CountDownLatch(expected);
+		}
+
+		@Override
+		public void on(Request request, Response response) {
+			if(sleep > 0) {
+				try {
+					Thread.sleep(sleep);
+				} catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			threads.add(Thread.currentThread().getName());
+			ids.add(request.getId());
+			latch.countDown();
+		}
+
+		void await() throws InterruptedException {
+			assertTrue(latch.await(5, TimeUnit.SECONDS));
+		}
+
+		final List<String>  threads = Collections.synchronizedList(new ArrayList<String>());
+		final List<Integer> ids     = Collections.synchronizedList(new ArrayList<Integer>());
+		final CountDownLatch latch;
+		volatile long sleep = 0;
+	}
+
+	private List<Throwable> errs;
+	private MockTransport   server;
+	private RestSpooler     spooler;
+	private RestManager     manager;
+	private ExecutorService pool;
+}
@@ -0,0 +1,98 @@
+package com.cloudplugs.rest;
+
+/*<license>
+Copyright 2014 CloudPlugs Inc.
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+</license>*/
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the network-constrained lanes of {@link RestClient}, sending the requests to a {@link MockTransport}.
+ */
+public class RestClientTest
+{
+	@Before
+	public void setUp() {
+		server = new MockTransport(5);
+		client = new RestClient();
+		client.setTransport(server);
+		any = client.getManager(new Opts().setAuth(DEV, "secret"));
+		unmetered = client.getManager(new Opts().setAuth(DEV, "secret").setNetwork(Opts.NET_UNMETERED));
+	}
+
+	@After
+	public void tearDown() {
+		any.close();
+		unmetered.close();
+		client.destroy();
+		server.close();
+	}
+
+	@Test
+	public void keysLanesByConstraint() {
+		Opts opts = new Opts();
+		assertEquals(opts.getUrl(), RestClient.laneOf(opts));
+		assertEquals(opts.getUrl()+" 1", RestClient.laneOf(opts.setNetwork(Opts.NET_UNMETERED)));
+		assertNotSame(any.getSpooler(), unmetered.getSpooler());
+		assertEquals(Opts.NET_ANY, any.getSpooler().getNetwork());
+		assertEquals(Opts.NET_UNMETERED, unmetered.getSpooler().getNetwork());
+		RestManager other = client.getManager(new Opts().setNetwork(Opts.NET_UNMETERED));
+		assertSame(unmetered.getSpooler(), other.getSpooler());
+		other.close();
+	}
+
+	@Test(timeout=10000)
+	public void meteredNetworkHoldsOnlyTheUnmeteredLane() throws Exception {
+		assertFalse(client.applyNetwork(true, false));
+		assertTrue(unmetered.getSpooler().isPaused());
+		assertFalse(any.getSpooler().isPaused());
+		int held = unmetered.execGetDevice(null);
+		assertNotNull(any.sync(any.execGetDevice(null), 5000));
+		Thread.sleep(200);
+		assertFalse(unmetered.getJobOf(held).isDone());
+		assertTrue(client.applyNetwork(false, false));
+		assertNotNull(unmetered.sync(held, 5000));
+	}
+
+	@Test
+	public void reconnectionResumesTheSatisfiedLanes() {
+		client.pause();
+		assertFalse(client.applyNetwork(true, false));
+		assertTrue(any.getSpooler().isPaused());
+		assertTrue(client.applyNetwork(true, true));
+		assertFalse(any.getSpooler().isPaused());
+		assertTrue(unmetered.getSpooler().isPaused());
+		client.pause();
+		assertTrue(client.applyNetwork(false, true));
+		assertFalse(any.getSpooler().isPaused());
+		assertFalse(unmetered.getSpooler().isPaused());
+	}
+
+	private static final String DEV = "dev-0123456789abcdef01234567";
+
+	private MockTransport server;
+	private RestClient    client;
+	private RestManager   any;
+	private RestManager   unmetered;
+}
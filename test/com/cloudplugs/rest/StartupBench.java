@@ -0,0 +1,138 @@
+package com.cloudplugs.rest;
+
+/*<license>
+Copyright 2014 CloudPlugs Inc.
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+</license>*/
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import com.cloudplugs.util.SSL;
+
+/**
+ * @brief A benchmark of the cold start of the library, from the start of the JVM until the first response.
+ * Run it by <tt>java com.cloudplugs.rest.StartupBench [runs] [appWorkMs]</tt>: it starts a {@link LocalServer} and
+ * launches <tt>runs</tt> fresh JVMs with the same class path, each one measuring once:
+ * <ul>
+ * <li><tt>jvm</tt>: from the start of the JVM until <tt>main</tt>;</li>
+ * <li><tt>client</tt>: creating the first {@link RestClient}, including the loading of its classes;</li>
+ * <li><tt>manager</tt>: obtaining the first {@link RestManager};</li>
+ * <li><tt>first</tt>: sending the first HTTP request to the local server and receiving its response;</li>
+ * <li><tt>total</tt>: from <tt>main</tt> until the first response;</li>
+ * <li><tt>tls</tt>: waiting for the default SSL context, as the first HTTPS request does, after
+ *     <tt>appWorkMs</tt> milliseconds of simulated application startup.</li>
+ * </ul>
+ * It prints the median and the maximum of each phase in milliseconds. Outside Android, an org.json implementation
+ * must be in the class path.
+ */
+public class StartupBench
+{
+	public static void main(String[] args) throws Exception {
+		if(args.length>0 && CHILD.equals(args[0])) {
+			child(args[1], Long.parseLong(args[2]));
+			return;
+		}
+		int  runs    = args.length>0 ? Integer.parseInt(args[0]) : 10;
+		long appWork = args.length>1 ? Long.parseLong(args[1]) : 300;
+
+		LocalServer server = new LocalServer(false);
+		System.out.println("runs="+runs+" appWork="+appWork+"ms java="+System.getProperty("java.version"));
+		Map<String,List<Long>> phases = new LinkedHashMap<String,List<Long>>();
+		try {
+			for(int i=0; i<runs; ++i) {
+				for(Map.Entry<String,Long> e : launch(server.getUrl(), appWork).entrySet()) {
+					List<Long> values = phases.get(e.getKey());
+					if(values == null) phases.put(e.getKey(), values = new ArrayList<Long>());
+					values.add(e.getValue());
+				}
+			}
+		} finally {
+			server.close();
+		}
+		for(Map.Entry<String,List<Long>> e : phases.entrySet()) {
+			List<Long> values = e.getValue();
+			Collections.sort(values);
+			System.out.printf("%-8s p50 %7.1f ms  max %7.1f ms%n", e.getKey(), values.get(values.size()/2)/1e6,
+			                  values.get(values.size()-1)/1e6);
+		}
+	}
+
+	// run a measurement in a fresh JVM and parse its "phase=nanoseconds" output
+	private static Map<String,Long> launch(String url, long appWork) throws Exception {
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		ProcessBuilder pb = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+		                                       StartupBench.class.getName(), CHILD, url, String.valueOf(appWork));
+		pb.redirectErrorStream(true);
+		Process p = pb.start();
+		Map<String,Long> res = new LinkedHashMap<String,Long>();
+		BufferedReader in = new BufferedReader(new InputStreamReader(p.getInputStream(), "UTF-8"));
+		try {
+			String line;
+			while((line = in.readLine()) != null) {
+				int eq = line.indexOf('=');
+				if(line.startsWith(PREFIX) && eq>0) res.put(line.substring(PREFIX.length(), eq), Long.parseLong(line.substring(eq+1)));
+				else System.out.println(line);
+			}
+		} finally {
+			in.close();
+		}
+		if(p.waitFor() != 0) throw new IllegalStateException("measuring JVM failed with exit code "+p.exitValue());
+		return res;
+	}
+
+	private static void child(String url, long appWork) throws Exception {
+		long main = System.nanoTime();
+		long jvm  = System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+		RestClient client = new RestClient();
+		long created = System.nanoTime();
+		RestManager manager = client.getManager(new Opts().setUrl(url).setAuth("dev-0123456789abcdef01234567", "secret"));
+		long managed = System.nanoTime();
+		Response res = manager.sync(manager.execGetDevice(null));
+		long received = System.nanoTime();
+		if(res == null) throw new IllegalStateException("no response");
+
+		Thread.sleep(appWork);
+		long waiting = System.nanoTime();
+		SSL.getDefaultContext();
+		long ready = System.nanoTime();
+
+		print("jvm", jvm*1000000);
+		print("client", created-main);
+		print("manager", managed-created);
+		print("first", received-managed);
+		print("total", received-main);
+		print("tls", ready-waiting);
+		manager.close();
+		client.destroy();
+	}
+
+	private static void print(String phase, long nanos) {
+		System.out.println(PREFIX+phase+'='+nanos);
+	}
+
+	private static final String CHILD  = "--child";
+	private static final String PREFIX = "startup.";
+}
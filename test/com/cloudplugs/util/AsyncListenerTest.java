@@ -0,0 +1,166 @@
+package com.cloudplugs.util;
+
+/*<license>
+Copyright 2014 CloudPlugs Inc.
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+</license>*/
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the coalescing and the capacity of {@link AsyncListener}, delivering on demand.
+ */
+public class AsyncListenerTest
+{
+	@Before
+	public void setUp() {
+		log = new ArrayList<String>();
+		tasks = new ArrayList<Runnable>();
+		reject = false;
+	}
+
+	@Test
+	public void coalescesAgainstTheLastPending() {
+		AsyncListener al = listener(0, "net");
+		al.onIdle();
+		al.onIdle();
+		al.onEvt("net", "wifi");
+		al.onEvt("net", "wifi");
+		al.onIdle();
+		al.onEvt("other", "x");
+		al.onEvt("other", "x");
+		deliver();
+		assertEquals("[idle, net=wifi, idle, other=x, other=x]", log.toString());
+		assertEquals(2, al.getCoalesced());
+	}
+
+	@Test
+	public void coalescesFlappingStates() {
+		AsyncListener al = listener(0);
+		al.onIdle();
+		al.onReady();
+		al.onIdle();
+		al.onReady();
+		al.onStop();
+		al.onReady();
+		al.onIdle();
+		assertEquals(3, al.getPending());
+		deliver();
+		assertEquals("[ready, stop, idle]", log.toString());
+		assertEquals(4, al.getCoalesced());
+		al.onIdle();   // the pending idle has been delivered: queued again
+		deliver();
+		assertEquals("[ready, stop, idle, idle]", log.toString());
+	}
+
+	@Test
+	public void dropsWhenTheExecutorRejects() {
+		AsyncListener al = listener(0);
+		reject = true;
+		al.onStart();
+		assertTrue(log.isEmpty());
+		assertEquals(0, al.getPending());
+		assertEquals(1, al.getDropped());
+		reject = false;
+		al.onIdle();
+		al.onStop();
+		deliver();
+		assertEquals("[idle, stop]", log.toString());
+		assertEquals(1, al.getDropped());
+	}
+
+	@Test
+	public void evictsLevelNotificationsFirst() {
+		AsyncListener al = listener(3, "net");
+		al.onStart();
+		al.onIdle();
+		al.onEvt("net", "wifi");
+		al.onEvt("a", null);   // full: evicts idle
+		al.onEvt("b", null);   // full: evicts net
+		al.onEvt("c", null);   // full, nothing to evict: dropped
+		deliver();
+		assertEquals("[start, a=null, b=null]", log.toString());
+		assertEquals(3, al.getDropped());
+	}
+
+	@Test
+	public void neverDropsLifecycleOrErrors() {
+		AsyncListener al = listener(2);
+		al.onEvt("a", null);
+		al.onEvt("b", null);
+		al.onStop();
+		al.onErr(new RuntimeException("boom"));
+		al.onStart();
+		al.onPause();
+		al.onResume();
+		al.onIdle();
+		deliver();
+		assertEquals("[a=null, b=null, stop, err=boom, start, pause, resume]", log.toString());
+		assertEquals(1, al.getDropped());
+	}
+
+	@Test
+	public void deliversInOrderOnce() {
+		AsyncListener al = listener(0);
+		al.onStart();
+		al.onReady();
+		al.onStop();
+		assertEquals(1, tasks.size());
+		deliver();
+		assertEquals("[start, ready, stop]", log.toString());
+		assertEquals(3, al.getDelivered());
+		assertEquals(0, al.getPending());
+	}
+
+	private AsyncListener listener(int capacity, Object... coalesced) {
+		Listener target = new Listener() {
+			@Override public void onStart()  { log.add("start"); }
+			@Override public void onStop()   { log.add("stop"); }
+			@Override public void onPause()  { log.add("pause"); }
+			@Override public void onResume() { log.add("resume"); }
+			@Override public void onReady()  { log.add("ready"); }
+			@Override public void onIdle()   { log.add("idle"); }
+			@Override public void onEvt(Object evt, Object value) { log.add(evt+"="+value); }
+			@Override public void onErr(Throwable t) { log.add("err="+t.getMessage()); }
+		};
+		return new AsyncListener(target, new Executor() {
+			@Override
+			public void execute(Runnable task) {
+				if(reject) throw new RejectedExecutionException("saturated");
+				tasks.add(task);
+			}
+		}, capacity, coalesced);
+	}
+
+	private void deliver() {
+		while(!tasks.isEmpty())
+			tasks.remove(0).run();
+	}
+
+	private List<String>   log;
+	private List<Runnable> tasks;
+	private boolean        reject;
+}
@@ -0,0 +1,127 @@
+package com.cloudplugs.util;
+
+/*<license>
+Copyright 2014 CloudPlugs Inc.
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+</license>*/
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the size classes, the hit and miss counters and the retention bounds of {@link BufferPool}.
+ */
+public class BufferPoolTest
+{
+	@Before
+	public void setUp() {
+		BufferPool.clear();
+	}
+
+	@Test
+	public void roundsUpToSizeClasses() {
+		assertEquals(4096, BufferPool.acquire(1).length);
+		assertEquals(4096, BufferPool.acquire(4096).length);
+		assertEquals(8192, BufferPool.acquire(4097).length);
+		assertEquals(256*1024, BufferPool.acquire(200*1024).length);
+		// too big to be pooled: allocated with the exact size
+		assertEquals(256*1024+1, BufferPool.acquire(256*1024+1).length);
+	}
+
+	@Test
+	public void countsHitsAndMisses() {
+		long hits   = BufferPool.getHits();
+		long misses = BufferPool.getMisses();
+		byte[] buf = BufferPool.acquire(10000);
+		assertEquals(misses+1, BufferPool.getMisses());
+		BufferPool.release(buf);
+		assertEquals(buf.length, BufferPool.getRetained());
+		assertSame(buf, BufferPool.acquire(9000));
+		assertEquals(hits+1, BufferPool.getHits());
+		assertEquals(0, BufferPool.getRetained());
+		// a smaller class does not reuse a bigger array
+		BufferPool.release(buf);
+		assertNotSame(buf, BufferPool.acquire(100));
+		assertEquals(misses+2, BufferPool.getMisses());
+		// unpooled sizes are misses too
+		BufferPool.acquire(1024*1024);
+		assertEquals(misses+3, BufferPool.getMisses());
+	}
+
+	@Test
+	public void ignoresForeignArrays() {
+		BufferPool.release(null);
+		BufferPool.release(new byte[5000]);
+		BufferPool.release(new byte[1024*1024]);
+		assertEquals(0, BufferPool.getRetained());
+	}
+
+	@Test
+	public void boundsRetention() {
+		for(int i=0; i<100; ++i)
+			BufferPool.release(new byte[4096]);
+		assertEquals(128*1024, BufferPool.getRetained());
+		for(int i=0; i<10; ++i)
+			BufferPool.release(new byte[256*1024]);
+		assertEquals(128*1024 + 256*1024, BufferPool.getRetained());
+		BufferPool.clear();
+		assertEquals(0, BufferPool.getRetained());
+	}
+
+	@Test(timeout=30000)
+	public void staysConsistentUnderContention() throws Exception {
+		final long before = BufferPool.getHits() + BufferPool.getMisses();
+		final int threads = 8;
+		final int rounds  = 20000;
+		final AtomicLong corrupted = new AtomicLong();
+		List<Thread> list = new ArrayList<Thread>();
+		for(int t=0; t<threads; ++t) {
+			final int seed = t;
+			Thread thread = new Thread() {
+				@Override
+				public void run() {
+					for(int i=0; i<rounds; ++i) {
+						int size = 1 << (12 + (seed+i) % 7);
+						byte[] buf = BufferPool.acquire(size);
+						// the array is owned by this thread until released
+						buf[0] = (byte)seed;
+						buf[buf.length-1] = (byte)seed;
+						Thread.yield();
+						if(buf[0]!=(byte)seed || buf[buf.length-1]!=(byte)seed) corrupted.incrementAndGet();
+						BufferPool.release(buf);
+					}
+				}
+			};
+			list.add(thread);
+			thread.start();
+		}
+		for(Thread thread : list)
+			thread.join();
+		assertEquals(0, corrupted.get());
+		assertEquals(before + threads*rounds, BufferPool.getHits() + BufferPool.getMisses());
+		// six classes retain 128 KB each, the biggest one a single array of 256 KB
+		assertTrue(BufferPool.getRetained() <= 6*128*1024 + 256*1024);
+		assertTrue("hits "+BufferPool.getHits(), BufferPool.getHits() > threads*rounds/2);
+	}
+}
@@ -0,0 +1,57 @@
+package com.cloudplugs.util;
+
+/*<license>
+Copyright 2014 CloudPlugs Inc.
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+</license>*/
+
+import java.util.regex.Pattern;
+
+/**
+ * @brief The regular expressions which validated PlugIDs and channels before the {@link PlugId} and {@link Channel}
+ * scanners, as in the original sources, used as the reference of their tests and benchmarks.
+ */
+final class LegacyPatterns
+{
+	private LegacyPatterns() {}
+
+	static Pattern exact(String exp) {
+		return Pattern.compile('^' + exp + '$');
+	}
+
+	static Pattern csv(String exp) {
+		return Pattern.compile('^' + exp + "(?:," + exp + ")*$");
+	}
+
+	static final String    OID_EXP = "[0-9a-fA-F]{24}";
+	static final String  DEVID_EXP = "dev-" + OID_EXP;
+	static final String  MODID_EXP = "mod-" + OID_EXP;
+	static final String PLUGID_EXP = "(?:dev|mod|com)-" + OID_EXP;
+
+	static final Pattern OID       = exact(OID_EXP);
+	static final Pattern DEV       = exact(DEVID_EXP);
+	static final Pattern MODEL     = exact(MODID_EXP);
+	static final Pattern PLUG      = exact(PLUGID_EXP);
+	static final Pattern OID_CSV   = csv(OID_EXP);
+	static final Pattern DEV_CSV   = csv(DEVID_EXP);
+	static final Pattern MODEL_CSV = csv(MODID_EXP);
+	static final Pattern PLUG_CSV  = csv(PLUGID_EXP);
+	static final Pattern NAME      = Pattern.compile("^(([^/+#]+)/)*[^/+#]+$");
+	static final Pattern MASK      = Pattern.compile("^(([^/+#]+|\\+)/)*([^/+#]+|\\+|#)$");
+}
@@ -0,0 +1,101 @@
+package com.cloudplugs.util;
+
+/*<license>
+Copyright 2014 CloudPlugs Inc.
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+</license>*/
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+/**
+ * Checks that concurrent {@link RefSpooler#ref()} and {@link RefSpooler#unref()} never leave a referenced spooler stopped.
+ */
+public class RefSpoolerTest
+{
+	@Test(timeout=60000)
+	public void handOverOnThread() throws Exception {
+		handOver(new RefSpooler(), 500);
+	}
+
+	@Test(timeout=60000)
+	public void handOverOnExecutor() throws Exception {
+		ExecutorService pool = Spooler.newPool(2);
+		try {
+			RefSpooler spooler = new RefSpooler();
+			spooler.setExecutor(pool);
+			handOver(spooler, 2000);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void lastUnrefStopsWhenIdle() throws Exception {
+		RefSpooler spooler = new RefSpooler();
+		spooler.ref();
+		spooler.ref();
+		spooler.unref();
+		assertTrue(spooler.isStarted());
+		spooler.unref();
+		assertTrue(spooler.waitForStop(5000));
+		assertTrue(spooler.isStopped());
+		assertEquals(0, spooler.refs());
+	}
+
+	// one thread releases the only reference while another one acquires a new one: the spooler must keep running jobs
+	private static void handOver(final RefSpooler spooler, int rounds) throws Exception {
+		spooler.ref();
+		final CyclicBarrier barrier = new CyclicBarrier(2);
+		for(int i=0; i<rounds; ++i) {
+			Thread releaser = new Thread() {
+				@Override
+				public void run() {
+					try {
+						barrier.await();
+						spooler.unref();
+					} catch(Exception e) {
+						throw new RuntimeException(e);
+					}
+				}
+			};
+			releaser.start();
+			barrier.await();
+			spooler.ref();
+			releaser.join();
+
+			assertEquals(1, spooler.refs());
+			final CountDownLatch ran = new CountDownLatch(1);
+			spooler.exec(new Runnable() {
+				@Override
+				public void run() {
+					ran.countDown();
+				}
+			});
+			assertTrue("job not run at round "+i, ran.await(5, TimeUnit.SECONDS));
+		}
+		spooler.unref();
+		assertTrue(spooler.waitForStop(5000));
+	}
+}
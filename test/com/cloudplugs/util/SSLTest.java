@@ -0,0 +1,65 @@
+package com.cloudplugs.util;
+
+/*<license>
+Copyright 2014 CloudPlugs Inc.
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+</license>*/
+
+import static org.junit.Assert.*;
+
+import java.lang.ref.WeakReference;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+import org.junit.Test;
+
+/**
+ * Checks the lifetime of the socket factories shared by {@link SSL}.
+ */
+public class SSLTest
+{
+	@Test
+	public void sharedFactoryIsStable() throws Exception {
+		SSLContext ctx = newContext();
+		SSLSocketFactory factory = SSL.getSharedSocketFactory(ctx);
+		int hash = System.identityHashCode(factory);
+		factory = null;
+		for(int i=0; i<5; i++)
+			System.gc();
+		// the same instance keeps the connections kept alive by HttpsURLConnection reusable
+		assertEquals(hash, System.identityHashCode(SSL.getSharedSocketFactory(ctx)));
+	}
+
+	@Test(timeout=30000)
+	public void sharedFactoryDoesNotRetainItsContext() throws Exception {
+		SSLContext ctx = newContext();
+		SSL.getSharedSocketFactory(ctx);
+		WeakReference<SSLContext> ref = new WeakReference<SSLContext>(ctx);
+		ctx = null;
+		while(ref.get() != null) {
+			System.gc();
+			Thread.sleep(10);
+		}
+	}
+
+	private static SSLContext newContext() throws Exception {
+		SSLContext ctx = SSLContext.getInstance("TLS");
+		ctx.init(null, null, null);
+		return ctx;
+	}
+}
@@ -0,0 +1,203 @@
+package com.cloudplugs.util;
+
+/*<license>
+Copyright 2014 CloudPlugs Inc.
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+</license>*/
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+import org.junit.Test;
+
+/**
+ * Differential test of the {@link PlugId} and {@link Channel} scanners against the {@link LegacyPatterns} they replaced:
+ * both must accept exactly the same strings, with random, mutated and boundary inputs.
+ */
+public class ScannerFuzzTest
+{
+	// every line terminator recognized by '$', and some characters close to the valid ones
+	private static final String[] EOLS = { "\n", "\r", "\r\n", "\u0085", "\u2028", "\u2029", "\n\n", "\r\r", "\n\r" };
+	private static final String   ID_CHARS      = "0123456789abcdefABCDEFgG/:@`-,dmvocx \n\r\u0085\u2028";
+	private static final String   CHANNEL_CHARS = "ab/+#/+#\n\r\u0085\u2028\u2029 \u00e9";
+
+	@Test
+	public void plugIdsMatchRegex() {
+		Random rnd = new Random(34);
+		for(String s : boundaryIds())
+			checkPlugId(s);
+		for(int i=0; i<100000; i++) {
+			checkPlugId(randomString(rnd, ID_CHARS, 60));
+			checkPlugId(mutate(rnd, randomIds(rnd), ID_CHARS));
+		}
+	}
+
+	@Test
+	public void channelsMatchRegex() {
+		Random rnd = new Random(34);
+		for(String s : boundaryChannels())
+			checkChannel(s);
+		for(int i=0; i<100000; i++) {
+			checkChannel(randomString(rnd, CHANNEL_CHARS, 12));
+			checkChannel(mutate(rnd, randomChannel(rnd), CHANNEL_CHARS));
+		}
+	}
+
+	@Test
+	public void nullIsRejected() {
+		assertFalse(PlugId.is(null));
+		assertFalse(PlugId.isOidCsv(null));
+		assertFalse(Channel.isName(null));
+		assertFalse(Channel.isMask(null));
+	}
+
+	private static void checkPlugId(String s) {
+		check(s, LegacyPatterns.OID,       PlugId.isOid(s));
+		check(s, LegacyPatterns.DEV,       PlugId.isDev(s));
+		check(s, LegacyPatterns.MODEL,     PlugId.isModel(s));
+		check(s, LegacyPatterns.PLUG,      PlugId.is(s));
+		check(s, LegacyPatterns.OID_CSV,   PlugId.isOidCsv(s));
+		check(s, LegacyPatterns.DEV_CSV,   PlugId.isDevCsv(s));
+		check(s, LegacyPatterns.MODEL_CSV, PlugId.isModelCsv(s));
+		check(s, LegacyPatterns.PLUG_CSV,  PlugId.isCsv(s));
+	}
+
+	private static void checkChannel(String s) {
+		check(s, LegacyPatterns.NAME,      Channel.isName(s));
+		check(s, LegacyPatterns.MASK,      Channel.isMask(s));
+	}
+
+	private static void check(String s, Pattern p, boolean actual) {
+		boolean expected = p.matcher(s).find();
+		if(expected != actual) fail(p.pattern()+" on \""+escape(s)+"\": expected "+expected+" but was "+actual);
+	}
+
+	private static List<String> boundaryIds() {
+		String oid = "0123456789abcdefABCDEF01";
+		List<String> list = new ArrayList<String>();
+		String[] ids = { oid, "dev-"+oid, "mod-"+oid, "com-"+oid, "dev-"+oid+",mod-"+oid, oid+','+oid };
+		String[] around = { "", ",", " ", "-", "0", "g" };
+		for(String id : ids) {
+			for(String a : around) {
+				list.add(a+id);
+				list.add(id+a);
+			}
+			for(String eol : EOLS) {
+				list.add(id+eol);
+				list.add(eol+id);
+				list.add(id+eol+id);
+				list.add(id+','+eol);
+			}
+			list.add(id.substring(0, id.length()-1));
+			list.add(id.substring(1));
+			list.add(id.toUpperCase());
+		}
+		String[] misc = { "", ",", ",,", "dev", "dev-", "de-"+oid, "devv-"+oid, "DEV-"+oid, "dev_"+oid, "\n", "\r\n" };
+		for(String s : misc)
+			list.add(s);
+		return list;
+	}
+
+	private static List<String> boundaryChannels() {
+		List<String> list = new ArrayList<String>();
+		String[] channels = { "a", "a/b", "a/+/c", "+", "#", "a/#", "+/#", "a/b/c/d", "\u00e9/\u00e9" };
+		String[] around = { "", "/", "//", "+", "#", "a", " " };
+		for(String c : channels) {
+			for(String a : around) {
+				list.add(a+c);
+				list.add(c+a);
+			}
+			for(String eol : EOLS) {
+				list.add(c+eol);
+				list.add(eol+c);
+				list.add(c+'/'+eol);
+				list.add(c+eol+'/'+c);
+			}
+		}
+		String[] misc = { "", "/", "a//b", "a+", "+a", "#/a", "a/#/b", "##", "++", "a/b+", "\n", "\r\n", "\u2028" };
+		for(String s : misc)
+			list.add(s);
+		return list;
+	}
+
+	private static String randomIds(Random rnd) {
+		StringBuilder sb = new StringBuilder();
+		for(int n=1+rnd.nextInt(3); n>0; n--) {
+			if(sb.length() > 0) sb.append(',');
+			switch(rnd.nextInt(4)) {
+				case 0 : sb.append("dev-"); break;
+				case 1 : sb.append("mod-"); break;
+				case 2 : sb.append("com-"); break;
+				default: break;
+			}
+			for(int i=0; i<24; i++)
+				sb.append("0123456789abcdefABCDEF".charAt(rnd.nextInt(22)));
+		}
+		return sb.toString();
+	}
+
+	private static String randomChannel(Random rnd) {
+		StringBuilder sb = new StringBuilder();
+		for(int n=1+rnd.nextInt(4); n>0; n--) {
+			if(sb.length() > 0) sb.append('/');
+			int k = rnd.nextInt(6);
+			if(k == 0) sb.append('+');
+			else if(k == 1 && n == 1) sb.append('#');
+			else sb.append(randomString(rnd, "abc\u00e9 ", 4)).append('x');
+		}
+		return sb.toString();
+	}
+
+	// a valid string with a few random edits: insertions, deletions, replacements and a final line terminator
+	private static String mutate(Random rnd, String s, String chars) {
+		StringBuilder sb = new StringBuilder(s);
+		for(int n=rnd.nextInt(3); n>0 && sb.length()>0; n--) {
+			int i = rnd.nextInt(sb.length());
+			char c = chars.charAt(rnd.nextInt(chars.length()));
+			switch(rnd.nextInt(3)) {
+				case 0 : sb.insert(i, c); break;
+				case 1 : sb.deleteCharAt(i); break;
+				default: sb.setCharAt(i, c); break;
+			}
+		}
+		if(rnd.nextInt(4) == 0) sb.append(EOLS[rnd.nextInt(EOLS.length)]);
+		return sb.toString();
+	}
+
+	private static String randomString(Random rnd, String chars, int max) {
+		int n = rnd.nextInt(max+1);
+		StringBuilder sb = new StringBuilder(n);
+		for(int i=0; i<n; i++)
+			sb.append(chars.charAt(rnd.nextInt(chars.length())));
+		return sb.toString();
+	}
+
+	private static String escape(String s) {
+		StringBuilder sb = new StringBuilder();
+		for(int i=0, n=s.length(); i<n; i++) {
+			char c = s.charAt(i);
+			if(c>=' ' && c<0x7f) sb.append(c);
+			else sb.append(String.format("\\u%04x", (int)c));
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,105 @@
+package com.cloudplugs.util;
+
+/*<license>
+Copyright 2014 CloudPlugs Inc.
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+</license>*/
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+
+/**
+ * @brief A throwaway self-signed certificate for <tt>localhost</tt>, for the TLS servers of tests and benchmarks.
+ * The key pair is generated once per JVM by the <tt>keytool</tt> of the running JDK, so no key material is committed.
+ */
+public final class SelfSigned
+{
+	private SelfSigned() {}
+
+	/**
+	 * @return the key store holding the key pair and the certificate under the alias {@link #ALIAS}
+	 * @throws Exception if <tt>keytool</tt> is not available or fails
+	 */
+	public static synchronized KeyStore getKeyStore() throws Exception {
+		if(keyStore == null) keyStore = generate();
+		return keyStore;
+	}
+
+	/**
+	 * @return the self-signed certificate, to be trusted by the clients
+	 * @throws Exception if the key store cannot be generated
+	 */
+	public static Certificate getCertificate() throws Exception {
+		return getKeyStore().getCertificate(ALIAS);
+	}
+
+	/**
+	 * @return a new server-side SSL context presenting the self-signed certificate
+	 * @throws Exception if the key store cannot be generated
+	 */
+	public static SSLContext newServerContext() throws Exception {
+		KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+		kmf.init(getKeyStore(), PASSWORD.toCharArray());
+		SSLContext ctx = SSLContext.getInstance("TLS");
+		ctx.init(kmf.getKeyManagers(), null, null);
+		return ctx;
+	}
+
+	private static KeyStore generate() throws Exception {
+		File file = File.createTempFile("selfsigned", ".p12");
+		try {
+			// keytool refuses to write into an existing empty file
+			file.delete();
+			String keytool = System.getProperty("java.home")+File.separator+"bin"+File.separator+"keytool";
+			Process p = new ProcessBuilder(keytool, "-genkeypair", "-alias", ALIAS, "-keyalg", "RSA", "-keysize", "2048",
+			                               "-dname", "CN="+HOST, "-ext", "SAN=dns:"+HOST+",ip:127.0.0.1", "-validity", "2",
+			                               "-storetype", "PKCS12", "-keystore", file.getPath(),
+			                               "-storepass", PASSWORD, "-keypass", PASSWORD)
+				.redirectErrorStream(true).start();
+			InputStream in = p.getInputStream();
+			while(in.read() >= 0);
+			if(p.waitFor() != 0) throw new IOException("keytool failed");
+			KeyStore ks = KeyStore.getInstance("PKCS12");
+			FileInputStream fin = new FileInputStream(file);
+			try {
+				ks.load(fin, PASSWORD.toCharArray());
+			} finally {
+				fin.close();
+			}
+			return ks;
+		} finally {
+			file.delete();
+		}
+	}
+
+	/** The host name of the certificate. */
+	public static final String HOST     = "localhost";
+	/** The alias of the key pair in the key store. */
+	public static final String ALIAS    = "selfsigned";
+	/** The password of the key store and of its key. */
+	public static final String PASSWORD = "selfsigned";
+
+	private static KeyStore keyStore;
+}
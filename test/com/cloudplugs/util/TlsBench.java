@@ -0,0 +1,139 @@
+package com.cloudplugs.util;
+
+/*<license>
+Copyright 2014 CloudPlugs Inc.
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+</license>*/
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.security.cert.Certificate;
+import java.util.Arrays;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * @brief A benchmark of the TLS handshakes of the sockets created by {@link SSL} against a local TLS server.
+ * Run it by <tt>java com.cloudplugs.util.TlsBench [connections] [cacheSize] [timeoutSec]</tt>: it starts an echo server
+ * presenting a {@link SelfSigned} certificate on the loopback and opens <tt>connections</tt> sequential connections,
+ * each one exchanging one byte, in two phases:
+ * <ul>
+ * <li><tt>full</tt>: every connection uses a new client context, so no session can be resumed;</li>
+ * <li><tt>resumed</tt>: all the connections share one client context tuned by {@link SSL#tune}.</li>
+ * </ul>
+ * For each phase it prints the handshake statistics of {@link SSL} and the percentiles of the connection latency,
+ * from the creation of the socket to the echoed byte.
+ */
+public class TlsBench
+{
+	public static void main(String[] args) throws Exception {
+		int connections = args.length>0 ? Integer.parseInt(args[0]) : 500;
+		int cacheSize   = args.length>1 ? Integer.parseInt(args[1]) : SSL.DEF_SESSION_CACHE;
+		int timeout     = args.length>2 ? Integer.parseInt(args[2]) : SSL.DEF_SESSION_TIMEOUT;
+
+		SSLServerSocket server = (SSLServerSocket)SelfSigned.newServerContext().getServerSocketFactory().createServerSocket(0, 50, InetAddress.getByName(HOST));
+		startEcho(server);
+		Certificate cert = SelfSigned.getCertificate();
+
+		SSLContext shared = SSL.tune(SSL.getContextOf(cert), cacheSize, timeout);
+		System.out.println("connections="+connections+" cacheSize="+cacheSize+" timeout="+timeout+"s protocol="+shared.getProtocol());
+		// warm up the JIT on both paths, then measure
+		run(cert, server.getLocalPort(), connections/10, null, null);
+		run(cert, server.getLocalPort(), connections/10, SSL.getManagedSocketFactory(shared), null);
+		run(cert, server.getLocalPort(), connections, null, "full");
+		run(cert, server.getLocalPort(), connections, SSL.getManagedSocketFactory(SSL.tune(SSL.getContextOf(cert), cacheSize, timeout)), "resumed");
+		server.close();
+	}
+
+	/**
+	 * Open <tt>connections</tt> sequential connections, through <tt>factory</tt> or through a new context for every
+	 * connection when <tt>factory</tt> is null, and print the results when <tt>phase</tt> is not null.
+	 */
+	private static void run(Certificate cert, int port, int connections, SSLSocketFactory factory, String phase) throws Exception {
+		long[] lat = new long[connections];
+		SSL.resetStats();
+		long start = System.nanoTime();
+		for(int i=0; i<connections; ++i) {
+			SSLSocketFactory f = factory!=null ? factory : SSL.getManagedSocketFactory(SSL.getContextOf(cert));
+			long t = System.nanoTime();
+			SSLSocket s = (SSLSocket)f.createSocket(HOST, port);
+			try {
+				s.setTcpNoDelay(true);
+				OutputStream out = s.getOutputStream();
+				out.write(1);
+				out.flush();
+				if(s.getInputStream().read() != 1) throw new IOException("unexpected echo");
+				lat[i] = System.nanoTime() - t;
+			} finally {
+				s.close();
+			}
+		}
+		long elapsed = System.nanoTime() - start;
+		if(phase == null) return;
+
+		Arrays.sort(lat);
+		long handshakes = SSL.getHandshakes();
+		System.out.printf("%-8s %.1f conn/s  handshakes %d  resumed %d  avg handshake %.2f ms  max %d ms%n",
+		                  phase, connections*1e9/elapsed, handshakes, SSL.getResumedHandshakes(),
+		                  handshakes>0 ? (double)SSL.getHandshakeTime()/handshakes : 0, SSL.getMaxHandshakeTime());
+		System.out.printf("%-8s latency ms: p50 %.2f  p90 %.2f  p99 %.2f  max %.2f%n",
+		                  phase, pct(lat, 50), pct(lat, 90), pct(lat, 99), lat[lat.length-1]/1e6);
+	}
+
+	private static double pct(long[] sorted, double p) {
+		int i = (int)Math.ceil(p/100*sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(i, sorted.length-1))]/1e6;
+	}
+
+	/**
+	 * Echo the first byte of every accepted connection, then wait for the client to close it.
+	 */
+	private static void startEcho(final SSLServerSocket server) {
+		Thread t = new Thread("tls-echo") {
+			@Override
+			public void run() {
+				while(!server.isClosed()) {
+					try {
+						SSLSocket s = (SSLSocket)server.accept();
+						try {
+							s.setTcpNoDelay(true);
+							InputStream in = s.getInputStream();
+							OutputStream out = s.getOutputStream();
+							out.write(in.read());
+							out.flush();
+							in.read();
+						} finally {
+							s.close();
+						}
+					} catch(IOException e) {
+						// closed server or client gone away
+					}
+				}
+			}
+		};
+		t.setDaemon(true);
+		t.start();
+	}
+
+	private static final String HOST = SelfSigned.HOST;
+}
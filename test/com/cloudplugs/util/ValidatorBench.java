@@ -0,0 +1,105 @@
+package com.cloudplugs.util;
+
+/*<license>
+Copyright 2014 CloudPlugs Inc.
+
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+</license>*/
+
+/**
+ * @brief A benchmark of the {@link PlugId} and {@link Channel} scanners against the {@link LegacyPatterns} they replaced.
+ * Run it by <tt>java com.cloudplugs.util.ValidatorBench [iterations]</tt>: for every case it validates the same input
+ * <tt>iterations</tt> times with both implementations and prints the best time per call of 5 rounds and the speedup.
+ */
+public class ValidatorBench
+{
+	public static void main(String[] args) {
+		int iterations = args.length>0 ? Integer.parseInt(args[0]) : 1000000;
+		String oid = "0123456789abcdefABCDEF01";
+		StringBuilder csv = new StringBuilder("dev-"+oid);
+		for(int i=1; i<10; ++i)
+			csv.append(",dev-").append(oid);
+
+		System.out.println("iterations="+iterations);
+		System.out.printf("%-22s %10s %10s %8s%n", "case", "regex ns", "scan ns", "speedup");
+		bench("isOid", iterations, new Case(oid) {
+			boolean rex()  { return LegacyPatterns.OID.matcher(s).find(); }
+			boolean scan() { return PlugId.isOid(s); }
+		});
+		bench("isDev", iterations, new Case("dev-"+oid) {
+			boolean rex()  { return LegacyPatterns.DEV.matcher(s).find(); }
+			boolean scan() { return PlugId.isDev(s); }
+		});
+		bench("is", iterations, new Case("com-"+oid) {
+			boolean rex()  { return LegacyPatterns.PLUG.matcher(s).find(); }
+			boolean scan() { return PlugId.is(s); }
+		});
+		bench("is (invalid)", iterations, new Case("dev-"+oid+'g') {
+			boolean rex()  { return LegacyPatterns.PLUG.matcher(s).find(); }
+			boolean scan() { return PlugId.is(s); }
+		});
+		bench("isDevCsv (10 ids)", iterations, new Case(csv.toString()) {
+			boolean rex()  { return LegacyPatterns.DEV_CSV.matcher(s).find(); }
+			boolean scan() { return PlugId.isDevCsv(s); }
+		});
+		bench("isName", iterations, new Case("home/kitchen/temp") {
+			boolean rex()  { return LegacyPatterns.NAME.matcher(s).find(); }
+			boolean scan() { return Channel.isName(s); }
+		});
+		bench("isMask", iterations, new Case("home/+/temp/#") {
+			boolean rex()  { return LegacyPatterns.MASK.matcher(s).find(); }
+			boolean scan() { return Channel.isMask(s); }
+		});
+		bench("isMask (invalid)", iterations, new Case("home/+x/temp") {
+			boolean rex()  { return LegacyPatterns.MASK.matcher(s).find(); }
+			boolean scan() { return Channel.isMask(s); }
+		});
+	}
+
+	private static void bench(String name, int iterations, Case c) {
+		if(c.rex() != c.scan()) throw new IllegalStateException(name+": the implementations disagree");
+		long rex  = Long.MAX_VALUE;
+		long scan = Long.MAX_VALUE;
+		for(int round=0; round<5; ++round) {
+			long t = System.nanoTime();
+			for(int i=0; i<iterations; ++i)
+				if(c.rex()) ++c.hits;
+			rex = Math.min(rex, System.nanoTime()-t);
+			t = System.nanoTime();
+			for(int i=0; i<iterations; ++i)
+				if(c.scan()) ++c.hits;
+			scan = Math.min(scan, System.nanoTime()-t);
+		}
+		System.out.printf("%-22s %10.1f %10.1f %7.1fx%n", name, (double)rex/iterations, (double)scan/iterations, (double)rex/scan);
+	}
+
+	/**
+	 * @brief The same input validated by the regular expression and by the scanner.
+	 */
+	private static abstract class Case {
+		Case(String s) {
+			this.s = s;
+		}
+
+		abstract boolean rex();
+		abstract boolean scan();
+
+		final String s;
+		long         hits; // consumed results, so the validations cannot be optimized away
+	}
+}